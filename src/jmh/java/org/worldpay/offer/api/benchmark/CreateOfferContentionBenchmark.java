@@ -0,0 +1,93 @@
+package org.worldpay.offer.api.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.InMemoryPersistOffer;
+import org.worldpay.offer.api.service.OfferOutcome;
+import org.worldpay.offer.api.service.PersistOffer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.util.Currency;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many threads POSTing offers on a few hot products, while another thread keeps deleting them
+ * so creates don't end up only in conflicts.
+ * The atomic create is compared with the former check then put flow (which is not correct under contention).
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CreateOfferContentionBenchmark {
+
+    @Param({"1", "16", "1024"})
+    private int hotProducts;
+
+    private PersistOffer persist;
+    private Offer[] offers;
+
+    @Setup
+    public void setUp() {
+        persist = new InMemoryPersistOffer();
+        offers = new Offer[hotProducts];
+        for (int i = 0; i < hotProducts; i++) {
+            String product = "hot product " + i;
+            offers[i] = Offer.builder()
+                    .product(product)
+                    .description(product)
+                    .currencyCode(CurrencyCodes.code(Currency.getInstance("GBP")))
+                    .startMillis(System.currentTimeMillis())
+                    .endMillis(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1))
+                    .status(OfferStatus.ACTIVE)
+                    .minorPrice(999)
+                    .build();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Offer offer : offers)
+            persist.removeByName(offer.getProduct());
+    }
+
+    private Offer next() {
+        return offers[ThreadLocalRandom.current().nextInt(hotProducts)];
+    }
+
+    @Benchmark
+    @Group("atomic")
+    @GroupThreads(7)
+    public OfferOutcome atomicCreate() {
+        return persist.addIfNoActiveOffer(next()).getOutcome();
+    }
+
+    @Benchmark
+    @Group("atomic")
+    @GroupThreads(1)
+    public void atomicDelete() {
+        persist.removeByName(next().getProduct());
+    }
+
+    @Benchmark
+    @Group("checkThenPut")
+    @GroupThreads(7)
+    public boolean checkThenPutCreate() {
+        Offer offer = next();
+        Offer old = persist.getOffer(offer.getProduct());
+        if (old != null && old.getStatus().equals(OfferStatus.ACTIVE))
+            return false;
+        persist.addOrReplaceOffer(offer);
+        return true;
+    }
+
+    @Benchmark
+    @Group("checkThenPut")
+    @GroupThreads(1)
+    public void checkThenPutDelete() {
+        persist.removeByName(next().getProduct());
+    }
+}
@@ -0,0 +1,81 @@
+package org.worldpay.offer.api.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.InMemoryPersistOffer;
+import org.worldpay.offer.api.service.OfferJournal;
+import org.worldpay.offer.api.service.OfferStatusScheduler;
+import org.worldpay.offer.api.service.PersistOffer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Store writes with and without the journal. With many writing threads, group commit should
+ * keep the durable throughput close to the in memory one (run with -t to change the thread count)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+public class JournalWriteBenchmark {
+
+    @Param({"false", "true"})
+    private boolean durable;
+
+    private PersistOffer persist;
+    private OfferJournal journal;
+    private Path directory;
+    private Offer[] offers;
+
+    @Setup
+    public void setUp() throws IOException {
+        persist = new InMemoryPersistOffer();
+        if (durable) {
+            directory = Files.createTempDirectory("offer-journal");
+            journal = new OfferJournal();
+            journal.setPersist(persist);
+            journal.setScheduler(new OfferStatusScheduler());
+            journal.setDirectory(directory.toString());
+            journal.setSnapshotIntervalSeconds(0);
+            journal.start();
+        }
+        offers = new Offer[10_000];
+        for (int i = 0; i < offers.length; i++) {
+            offers[i] = Offer.builder()
+                    .product("journal product " + i)
+                    .description("journal product " + i)
+                    .currencyCode(CurrencyCodes.code(Currency.getInstance("GBP")))
+                    .startMillis(System.currentTimeMillis())
+                    .endMillis(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1))
+                    .status(OfferStatus.ACTIVE)
+                    .minorPrice(999)
+                    .build();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (durable) {
+            journal.stop();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public Offer write() {
+        return persist.addOrReplaceOffer(offers[ThreadLocalRandom.current().nextInt(offers.length)]);
+    }
+}
@@ -0,0 +1,139 @@
+package org.worldpay.offer.api.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.InMemoryPersistOffer;
+import org.worldpay.offer.api.service.MerchantOffers;
+import org.worldpay.offer.api.service.OfferService;
+import org.worldpay.offer.api.service.OfferStatusScheduler;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.lang.management.ManagementFactory;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offers of many merchants, kept either in a store per merchant (partitioned, see MerchantOffers) or in one store
+ * keyed by "merchant/product" (flat): get, count and first page of a merchant's offers, and updates from 4 threads.
+ * In the flat store a merchant's count walks its offers through the product index; in the partitioned one it is read
+ * from the merchant's status index. The heap kept by the offers is printed once filled.
+ * The default 10k merchants of 1k offers need a large heap, smaller runs can override the parameters, for instance
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="-f 1 MerchantStore -p merchants=1000 -p offers=100 -jvmArgsAppend -Xmx2g"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g"})
+public class MerchantStoreBenchmark {
+
+    @Param({"partitioned", "flat"})
+    private String layout;
+
+    @Param({"10000"})
+    private int merchants;
+
+    @Param({"1000"})
+    private int offers;
+
+    private MerchantOffers partitioned;
+    private OfferService flat;
+
+    @Setup
+    public void setUp() {
+        long before = usedHeap();
+        // offers are canceled or expired, so none is scheduled: the scheduler is not started
+        OfferStatusScheduler scheduler = new OfferStatusScheduler();
+        if ("flat".equals(layout)) {
+            flat = new OfferService();
+            flat.setPersist(new InMemoryPersistOffer());
+            flat.setScheduler(scheduler);
+        } else {
+            partitioned = new MerchantOffers();
+            partitioned.setScheduler(scheduler);
+            partitioned.setMaxMerchants(merchants);
+        }
+        for (int m = 0; m < merchants; m++) {
+            OfferService service = "flat".equals(layout) ? flat : partitioned.merchantOrCreate(merchant(m));
+            String prefix = "flat".equals(layout) ? merchant(m) + "/" : "";
+            for (int i = 0; i < offers; i++)
+                service.createOffer(offer(prefix + product(i), i));
+        }
+        System.out.printf("%n%s store of %d merchants with %d offers keeps %d MB of heap%n",
+                layout, merchants, offers, (usedHeap() - before) >> 20);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static String merchant(int m) {
+        return String.format("merchant %05d", m);
+    }
+
+    private static String product(int i) {
+        return String.format("product %05d", i);
+    }
+
+    private static Offer offer(String product, int i) {
+        long now = System.currentTimeMillis();
+        boolean canceled = i % 2 == 0;
+        return Offer.builder()
+                .product(product)
+                .description("description of " + product)
+                .currencyCode(CurrencyCodes.code(Currency.getInstance("GBP")))
+                .startMillis(now - TimeUnit.DAYS.toMillis(2))
+                .endMillis(canceled ? now + TimeUnit.DAYS.toMillis(1) : now - TimeUnit.DAYS.toMillis(1))
+                .status(canceled ? OfferStatus.CANCELED : OfferStatus.EXPIRED)
+                .minorPrice(100 + i)
+                .build();
+    }
+
+    private String anyMerchant() {
+        return merchant(ThreadLocalRandom.current().nextInt(merchants));
+    }
+
+    private String anyProduct() {
+        return product(ThreadLocalRandom.current().nextInt(offers));
+    }
+
+    @Benchmark
+    public Offer get() {
+        if (flat != null)
+            return flat.getOffer(anyMerchant() + "/" + anyProduct());
+        return partitioned.merchant(anyMerchant()).getOffer(anyProduct());
+    }
+
+    @Benchmark
+    public int countMerchant() {
+        if (flat == null)
+            return partitioned.merchant(anyMerchant()).countOffers(OfferStatus.CANCELED);
+        int count = 0;
+        for (Offer offer : flat.searchOffers(anyMerchant() + "/", Integer.MAX_VALUE))
+            if (offer.getStatus().equals(OfferStatus.CANCELED))
+                count++;
+        return count;
+    }
+
+    @Benchmark
+    public List<Offer> merchantPage() {
+        if (flat != null)
+            return flat.searchOffers(anyMerchant() + "/", 100);
+        return partitioned.merchant(anyMerchant()).getOfferPage(null, 100);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Offer update() {
+        String product = anyProduct();
+        String description = "changed " + product;
+        if (flat != null)
+            return flat.updateOffer(anyMerchant() + "/" + product, old -> old.toBuilder().description(description).build());
+        return partitioned.merchant(anyMerchant()).updateOffer(product, old -> old.toBuilder().description(description).build());
+    }
+}
@@ -0,0 +1,96 @@
+package org.worldpay.offer.api.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.service.InMemoryPersistOffer;
+import org.worldpay.offer.api.service.PersistOffer;
+import org.worldpay.offer.api.utils.DtoMapper;
+import org.worldpay.offer.api.utils.OfferJsonCache;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Currency;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson round trips of OfferDTO, with an ObjectMapper set up the way Spring Boot does,
+ * next to what GET responses write now: the offer JSON kept by OfferJsonCache (cached), or serialized without DTO (uncached)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OfferJsonBenchmark {
+
+    private ObjectWriter writer;
+    private ObjectReader reader;
+    private OfferDTO dto;
+    private byte[] json;
+    private OfferJsonCache cache;
+    private OfferJsonCache uncached;
+    private Offer offer;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        writer = objectMapper.writerFor(OfferDTO.class);
+        reader = objectMapper.readerFor(OfferDTO.class);
+        dto = new OfferDTO();
+        dto.setProduct("json product");
+        dto.setDescription("json product description");
+        dto.setStart(LocalDateTime.now().withNano(0));
+        dto.setEnd(LocalDateTime.now().withNano(0).plusDays(1));
+        dto.setStatus(OfferStatus.ACTIVE);
+        dto.setCurrency(Currency.getInstance("GBP"));
+        dto.setPrice(new BigDecimal("19.99"));
+        json = writer.writeValueAsBytes(dto);
+
+        PersistOffer persist = new InMemoryPersistOffer();
+        offer = persist.addOrReplaceOffer(new DtoMapper().dtoCreateOffer(dto));
+        cache = cache(objectMapper, persist, true);
+        uncached = cache(objectMapper, persist, false);
+    }
+
+    private static OfferJsonCache cache(ObjectMapper objectMapper, PersistOffer persist, boolean enabled) {
+        OfferJsonCache cache = new OfferJsonCache();
+        cache.setObjectMapper(objectMapper);
+        cache.setMapper(new DtoMapper());
+        cache.setPersist(persist);
+        cache.setEnabled(enabled);
+        cache.start();
+        return cache;
+    }
+
+    @Benchmark
+    public byte[] cached() {
+        return cache.json(offer);
+    }
+
+    @Benchmark
+    public byte[] uncached() {
+        return uncached.json(offer);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(dto);
+    }
+
+    @Benchmark
+    public OfferDTO deserialize() throws IOException {
+        return reader.readValue(json);
+    }
+
+    @Benchmark
+    public OfferDTO roundTrip() throws IOException {
+        return reader.readValue(writer.writeValueAsBytes(dto));
+    }
+}
@@ -0,0 +1,80 @@
+package org.worldpay.offer.api.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.dto.UpdateOfferDTO;
+import org.worldpay.offer.api.utils.DtoMapper;
+import org.worldpay.offer.api.utils.OfferStatus;
+import org.worldpay.offer.api.utils.OfferTimesAndStatusValidator;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Currency;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The request boundary: DtoMapper conversions between DTOs and offers, and the OfferTimesAndStatusValidator
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OfferMappingBenchmark {
+
+    private DtoMapper mapper;
+    private OfferTimesAndStatusValidator validator;
+    private OfferDTO dto;
+    private UpdateOfferDTO update;
+    private Offer offer;
+
+    @Setup
+    public void setUp() {
+        mapper = new DtoMapper();
+        validator = new OfferTimesAndStatusValidator();
+        dto = new OfferDTO();
+        dto.setProduct("mapped product");
+        dto.setDescription("mapped product description");
+        dto.setStart(LocalDateTime.now().minusHours(1));
+        dto.setEnd(LocalDateTime.now().plusDays(1));
+        dto.setStatus(OfferStatus.ACTIVE);
+        dto.setCurrency(Currency.getInstance("GBP"));
+        dto.setPrice(new BigDecimal("19.99"));
+        update = new UpdateOfferDTO();
+        update.setProduct("mapped product");
+        update.setStatus(OfferStatus.CANCELED);
+        offer = mapper.dtoCreateOffer(dto);
+    }
+
+    @Benchmark
+    public OfferDTO offer2Dto() {
+        return mapper.offer2Dto(offer);
+    }
+
+    @Benchmark
+    public Offer dtoCreateOffer() {
+        return mapper.dtoCreateOffer(dto);
+    }
+
+    @Benchmark
+    public Offer dtoUpdateOffer() {
+        return mapper.dtoUpdateOffer(update, offer);
+    }
+
+    @Benchmark
+    public Errors validateCreate() {
+        Errors errors = new BeanPropertyBindingResult(dto, "offerDTO");
+        validator.validate(dto, errors);
+        return errors;
+    }
+
+    @Benchmark
+    public Errors validateUpdate() {
+        Errors errors = new BeanPropertyBindingResult(update, "updateOfferDTO");
+        validator.validate(update, errors);
+        return errors;
+    }
+}
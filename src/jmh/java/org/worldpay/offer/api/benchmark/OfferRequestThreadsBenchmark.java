@@ -0,0 +1,120 @@
+package org.worldpay.offer.api.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.InMemoryPersistOffer;
+import org.worldpay.offer.api.service.OfferService;
+import org.worldpay.offer.api.service.OfferStatusScheduler;
+import org.worldpay.offer.api.utils.OfferStatus;
+import org.worldpay.offer.api.utils.VirtualThreads;
+
+import java.util.Currency;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests served by OfferService.getOffer on a store that takes a while to answer, the way a remote or durable
+ * store would, with requests on Tomcat's pool of platform threads (200, server.tomcat.max-threads)
+ * or on virtual threads (offer.threads=virtual, JDK 21 or later).
+ * One operation is a burst of concurrent requests, all sent at once and waited for; throughput in requests
+ * per second is the score. With the pool, a burst takes 1000 / 200 rounds of store latency;
+ * with virtual threads, about one.
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="-f 1 OfferRequestThreads"
+ * The virtual runs fail on a JDK without virtual threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OfferRequestThreadsBenchmark {
+
+    private static final int SIZE = 10_000;
+    private static final int TOMCAT_MAX_THREADS = 200;
+    private static final int BURST = 1000;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"0", "1000"})
+    public long storeLatencyMicros;
+
+    private ExecutorService executor;
+    private OfferService service;
+    private String[] products;
+
+    @Setup
+    public void setUp() {
+        executor = "virtual".equals(threads)
+                ? VirtualThreads.newPerTaskExecutor("benchmark-")
+                : Executors.newFixedThreadPool(TOMCAT_MAX_THREADS);
+
+        SlowPersistOffer persist = new SlowPersistOffer(TimeUnit.MICROSECONDS.toNanos(storeLatencyMicros));
+        OfferStatusScheduler scheduler = new OfferStatusScheduler();
+        scheduler.setPersist(persist);
+        service = new OfferService();
+        service.setPersist(persist);
+        service.setScheduler(scheduler);
+
+        long now = System.currentTimeMillis();
+        products = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            products[i] = "threads product " + i;
+            persist.addOrReplaceOffer(Offer.builder()
+                    .product(products[i])
+                    .description(products[i])
+                    .currencyCode(CurrencyCodes.code(Currency.getInstance("GBP")))
+                    .startMillis(now - TimeUnit.DAYS.toMillis(1))
+                    .endMillis(now + TimeUnit.DAYS.toMillis(1))
+                    .status(OfferStatus.ACTIVE)
+                    .minorPrice(999)
+                    .build());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void getOffers() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(BURST);
+        for (int i = 0; i < BURST; i++) {
+            executor.execute(() -> {
+                service.getOffer(products[ThreadLocalRandom.current().nextInt(SIZE)]);
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+
+    /**
+     * In memory store whose reads block for a fixed time first
+     */
+    private static class SlowPersistOffer extends InMemoryPersistOffer {
+        private final long latencyNanos;
+
+        SlowPersistOffer(long latencyNanos) {
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        public Offer getOffer(String product) {
+            if (latencyNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(latencyNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getOffer(product);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.worldpay.offer.api.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.InMemoryPersistOffer;
+import org.worldpay.offer.api.service.OfferService;
+import org.worldpay.offer.api.service.OfferStatusScheduler;
+import org.worldpay.offer.api.service.PersistOffer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.util.Currency;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OfferService.getOffer on a store of active and expired offers. Status is kept up to date by the
+ * OfferStatusScheduler (not started here), so this measures the lookup path as served to the controller
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OfferServiceBenchmark {
+
+    private static final int SIZE = 10_000;
+
+    private OfferService service;
+    private String[] products;
+
+    @Setup
+    public void setUp() {
+        PersistOffer persist = new InMemoryPersistOffer();
+        OfferStatusScheduler scheduler = new OfferStatusScheduler();
+        scheduler.setPersist(persist);
+        service = new OfferService();
+        service.setPersist(persist);
+        service.setScheduler(scheduler);
+
+        long now = System.currentTimeMillis();
+        products = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            products[i] = "service product " + i;
+            boolean expired = i % 2 == 0;
+            persist.addOrReplaceOffer(Offer.builder()
+                    .product(products[i])
+                    .description(products[i])
+                    .currencyCode(CurrencyCodes.code(Currency.getInstance("GBP")))
+                    .startMillis(now - TimeUnit.DAYS.toMillis(2))
+                    .endMillis(expired ? now - TimeUnit.DAYS.toMillis(1) : now + TimeUnit.DAYS.toMillis(1))
+                    .status(expired ? OfferStatus.EXPIRED : OfferStatus.ACTIVE)
+                    .minorPrice(999)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public Offer getOffer() {
+        return service.getOffer(products[ThreadLocalRandom.current().nextInt(SIZE)]);
+    }
+
+    @Benchmark
+    public Offer getMissingOffer() {
+        return service.getOffer("no such product");
+    }
+}
@@ -0,0 +1,89 @@
+package org.worldpay.offer.api.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.InMemoryPersistOffer;
+import org.worldpay.offer.api.service.OffHeapPersistOffer;
+import org.worldpay.offer.api.service.PersistOffer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baseline of the store operations: get, put, a page of the ordered list and a walk of the whole store,
+ * for both stores and a few store sizes. Run with -t to change the thread count, for instance
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="OfferStoreBenchmark -t 4"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OfferStoreBenchmark {
+
+    @Param({"memory", "offheap"})
+    private String store;
+
+    @Param({"1000", "100000"})
+    private int size;
+
+    private PersistOffer persist;
+    private Offer[] offers;
+
+    @Setup
+    public void setUp() {
+        if ("offheap".equals(store)) {
+            OffHeapPersistOffer offHeap = new OffHeapPersistOffer();
+            offHeap.setCapacity(size);
+            offHeap.allocate();
+            persist = offHeap;
+        } else {
+            persist = new InMemoryPersistOffer();
+        }
+        offers = new Offer[size];
+        for (int i = 0; i < size; i++) {
+            offers[i] = Offer.builder()
+                    .product(String.format("product %08d", i))
+                    .description("description of product " + i)
+                    .currencyCode(CurrencyCodes.code(Currency.getInstance("GBP")))
+                    .startMillis(System.currentTimeMillis())
+                    .endMillis(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1))
+                    .status(OfferStatus.ACTIVE)
+                    .minorPrice(100 + i)
+                    .build();
+            persist.addOrReplaceOffer(offers[i]);
+        }
+    }
+
+    private Offer any() {
+        return offers[ThreadLocalRandom.current().nextInt(size)];
+    }
+
+    @Benchmark
+    public Offer get() {
+        return persist.getOffer(any().getProduct());
+    }
+
+    @Benchmark
+    public Offer put() {
+        return persist.addOrReplaceOffer(any());
+    }
+
+    @Benchmark
+    public List<Offer> listPage() {
+        return persist.getOffersAfter(any().getProduct(), 100);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void listAll(Blackhole blackhole) {
+        for (Iterator<Offer> all = persist.getOffers(); all.hasNext(); )
+            blackhole.consume(all.next());
+    }
+}
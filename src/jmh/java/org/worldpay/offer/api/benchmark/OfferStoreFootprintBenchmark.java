@@ -0,0 +1,79 @@
+package org.worldpay.offer.api.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.InMemoryPersistOffer;
+import org.worldpay.offer.api.service.OffHeapPersistOffer;
+import org.worldpay.offer.api.service.PersistOffer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.lang.management.ManagementFactory;
+import java.util.Currency;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap kept by a large store and GC cost of a read mostly load on it (one write in ten), for the in memory
+ * and the off heap stores. The heap kept by the store is printed once filled;
+ * run with -prof gc to see allocation and collection counts and times, for instance
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="OfferStoreFootprint -prof gc -jvmArgs -Xmx2g"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-XX:MaxDirectMemorySize=2g"})
+public class OfferStoreFootprintBenchmark {
+
+    @Param({"memory", "offheap"})
+    private String store;
+
+    @Param({"1000000"})
+    private int size;
+
+    private PersistOffer persist;
+
+    @Setup
+    public void setUp() {
+        long before = usedHeap();
+        if ("offheap".equals(store)) {
+            OffHeapPersistOffer offHeap = new OffHeapPersistOffer();
+            offHeap.setCapacity(size);
+            offHeap.allocate();
+            persist = offHeap;
+        } else {
+            persist = new InMemoryPersistOffer();
+        }
+        for (int i = 0; i < size; i++)
+            persist.addOrReplaceOffer(offer(i));
+        System.out.printf("%n%s store of %d offers keeps %d MB of heap%n", store, size, (usedHeap() - before) >> 20);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static Offer offer(int i) {
+        return Offer.builder()
+                .product("product " + i)
+                .description("description of product " + i)
+                .currencyCode(CurrencyCodes.code(Currency.getInstance("GBP")))
+                .startMillis(System.currentTimeMillis())
+                .endMillis(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1))
+                .status(OfferStatus.ACTIVE)
+                .minorPrice(999)
+                .build();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Offer readMostly() {
+        int i = ThreadLocalRandom.current().nextInt(size);
+        if (i % 10 == 0)
+            return persist.addOrReplaceOffer(offer(i));
+        return persist.getOffer("product " + i);
+    }
+}
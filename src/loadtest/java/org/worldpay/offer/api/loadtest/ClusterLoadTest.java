@@ -0,0 +1,305 @@
+package org.worldpay.offer.api.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.worldpay.offer.api.ApiApplication;
+import org.worldpay.offer.api.cluster.OfferCluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test of cluster mode: for 1, 2, ... nodes, a cluster of separate JVMs on localhost is started (static
+ * membership, offer.cluster.nodes), loaded and stopped. Requests are sent to any node, which serves or forwards them:
+ * - capacity: offers are created through random nodes, then each node tells how many it keeps. The cluster is full
+ *   when its fullest node is, so capacity is given as the number of offers the cluster holds for each offer of
+ *   its fullest node (the number of nodes for a perfectly even ring, times the heap of a node)
+ * - write and read throughput: creates, then gets of random products, on random nodes, as fast as they answer
+ * - scatter-gather: latency of paged GET /offer, sent to every node
+ * Results are written as JSON. Nodes share the cores of the machine with the load generator, so throughput only
+ * scales with nodes as long as there are idle cores; capacity scales with the heap of each node.
+ * Options are system properties, for instance mvn -Ploadtest test -Dtest=ClusterLoadTest -Dloadtest.nodes=4
+ * - loadtest.nodes          most nodes (3)
+ * - loadtest.products       offers created in each cluster (20000)
+ * - loadtest.duration       seconds of reads for each cluster (10)
+ * - loadtest.connections    connections, and threads, of the load generator (16)
+ * - loadtest.node-heap      heap of each node JVM (256m)
+ * - loadtest.result         result file (target/loadtest/cluster.json)
+ * Node logs are in target/loadtest/node-N.log.
+ */
+public class ClusterLoadTest {
+
+    private static final int NODES = Integer.getInteger("loadtest.nodes", 3);
+    private static final int PRODUCTS = Integer.getInteger("loadtest.products", 20000);
+    private static final int DURATION = Integer.getInteger("loadtest.duration", 10);
+    private static final int CONNECTIONS = Integer.getInteger("loadtest.connections", 16);
+    private static final String NODE_HEAP = System.getProperty("loadtest.node-heap", "256m");
+    private static final String RESULT = System.getProperty("loadtest.result", "target/loadtest/cluster.json");
+    private static final long STARTUP_SECONDS = 180;
+    private static final int SCATTER_PROBES = 50;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<Process> nodes = new ArrayList<>();
+    private CloseableHttpClient client;
+
+    @Before
+    public void setUp() {
+        client = HttpClients.custom()
+                .setMaxConnTotal(CONNECTIONS * NODES)
+                .setMaxConnPerRoute(CONNECTIONS)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        stopCluster();
+        client.close();
+    }
+
+    @Test
+    public void clusterUnderLoad() throws Exception {
+        List<Map<String, Object>> runs = new ArrayList<>();
+        for (int n = 1; n <= NODES; n++) {
+            List<String> urls = startCluster(n);
+            Map<String, Object> run = new LinkedHashMap<>();
+            run.put("nodes", n);
+            run.put("writes", writes(urls));
+            run.put("capacity", capacity(urls));
+            run.put("reads", reads(urls));
+            run.put("scatterGather", scatterGather(urls));
+            runs.add(run);
+            stopCluster();
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("timestamp", OffsetDateTime.now().toString());
+        result.put("cores", Runtime.getRuntime().availableProcessors());
+        result.put("products", PRODUCTS);
+        result.put("duration", DURATION);
+        result.put("connections", CONNECTIONS);
+        result.put("nodeHeap", NODE_HEAP);
+        result.put("runs", runs);
+        File file = new File(RESULT);
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file, result);
+        System.out.println(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(result));
+
+        for (Map<String, Object> run : runs) {
+            for (String kind : Arrays.asList("writes", "reads")) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> stats = (Map<String, Object>) run.get(kind);
+                assertEquals("Failed " + kind + " with " + run.get("nodes") + " nodes", 0L, stats.get("errors"));
+            }
+        }
+    }
+
+    /**
+     * Starts the JVMs of a cluster of n nodes and waits until all of them serve requests
+     *
+     * @return base URLs of the nodes
+     */
+    private List<String> startCluster(int n) throws Exception {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            try (ServerSocket free = new ServerSocket(0)) {
+                urls.add("http://localhost:" + free.getLocalPort());
+            }
+        }
+        String classpath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        for (int i = 0; i < n; i++) {
+            ProcessBuilder builder = new ProcessBuilder(Arrays.asList(
+                    new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-Xmx" + NODE_HEAP,
+                    "-cp", classpath,
+                    ApiApplication.class.getName(),
+                    "--server.port=" + urls.get(i).substring(urls.get(i).lastIndexOf(':') + 1),
+                    "--offer.cluster.nodes=" + String.join(",", urls),
+                    "--offer.cluster.self=" + urls.get(i),
+                    "--logging.level.root=WARN"));
+            File log = new File("target/loadtest/node-" + (i + 1) + ".log");
+            log.getAbsoluteFile().getParentFile().mkdirs();
+            builder.redirectErrorStream(true).redirectOutput(log);
+            nodes.add(builder.start());
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(STARTUP_SECONDS);
+        for (String url : urls) {
+            while (status(new HttpGet(url + "/actuator/health")) != 200) {
+                assertTrue("Node " + url + " not serving after " + STARTUP_SECONDS + "s", System.currentTimeMillis() < deadline);
+                Thread.sleep(200);
+            }
+        }
+        return urls;
+    }
+
+    private void stopCluster() throws InterruptedException {
+        for (Process node : nodes)
+            node.destroy();
+        for (Process node : nodes)
+            node.waitFor(30, TimeUnit.SECONDS);
+        nodes.clear();
+    }
+
+    /**
+     * Creates every product once, through random nodes
+     */
+    private Map<String, Object> writes(List<String> urls) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        return closedLoop(() -> {
+            int i = next.getAndIncrement();
+            if (i >= PRODUCTS) return null;
+            HttpPost post = new HttpPost(anyNode(urls) + "/offer");
+            post.setEntity(new StringEntity(offer(product(i)), ContentType.APPLICATION_JSON));
+            return post;
+        }, Long.MAX_VALUE);
+    }
+
+    /**
+     * Offers kept by each node, from its local store
+     */
+    private Map<String, Object> capacity(List<String> urls) throws IOException {
+        List<Integer> held = new ArrayList<>();
+        for (String url : urls) {
+            HttpGet local = new HttpGet(url + "/offer");
+            local.setHeader(OfferCluster.FORWARDED, "loadtest");
+            held.add(mapper.readTree(body(local)).size());
+        }
+        int total = held.stream().mapToInt(Integer::intValue).sum();
+        int fullest = held.stream().mapToInt(Integer::intValue).max().orElse(0);
+        assertEquals("Offers lost or duplicated", PRODUCTS, total);
+        Map<String, Object> capacity = new LinkedHashMap<>();
+        capacity.put("offersByNode", held);
+        capacity.put("fullestShare", fullest / (double) total);
+        capacity.put("capacityFactor", total / (double) fullest);
+        return capacity;
+    }
+
+    private Map<String, Object> reads(List<String> urls) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(DURATION);
+        return closedLoop(() -> System.nanoTime() < end
+                ? new HttpGet(anyNode(urls) + "/offer/" + product(ThreadLocalRandom.current().nextInt(PRODUCTS)))
+                : null, end);
+    }
+
+    private Map<String, Object> scatterGather(List<String> urls) throws IOException {
+        Histogram latency = new Histogram(3);
+        for (int i = 0; i < SCATTER_PROBES; i++) {
+            long start = System.nanoTime();
+            assertEquals(200, status(new HttpGet(anyNode(urls) + "/offer?limit=100&after=" + product(ThreadLocalRandom.current().nextInt(PRODUCTS)))));
+            latency.recordValue(System.nanoTime() - start);
+        }
+        Map<String, Object> pages = new LinkedHashMap<>();
+        pages.put("count", latency.getTotalCount());
+        pages.put("response", percentiles(latency));
+        return pages;
+    }
+
+    private interface Requests {
+        /**
+         * @return next request to send, null when done
+         */
+        HttpUriRequest next();
+    }
+
+    /**
+     * Sends requests from CONNECTIONS threads, each sending its next request as soon as the last one is answered
+     */
+    private Map<String, Object> closedLoop(Requests requests, long endNanos) throws InterruptedException {
+        Histogram latency = new ConcurrentHistogram(3);
+        AtomicLong errors = new AtomicLong();
+        ExecutorService workers = Executors.newFixedThreadPool(CONNECTIONS);
+        long start = System.nanoTime();
+        for (int c = 0; c < CONNECTIONS; c++) {
+            workers.execute(() -> {
+                for (HttpUriRequest request = requests.next(); request != null; request = requests.next()) {
+                    long begin = System.nanoTime();
+                    try {
+                        if (status(request) != 200)
+                            errors.incrementAndGet();
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    latency.recordValue(System.nanoTime() - begin);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        double elapsed = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("count", latency.getTotalCount());
+        stats.put("errors", errors.get());
+        stats.put("throughput", latency.getTotalCount() / elapsed);
+        stats.put("response", percentiles(latency));
+        return stats;
+    }
+
+    private int status(HttpUriRequest request) throws IOException {
+        try (CloseableHttpResponse response = client.execute(request)) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        } catch (IOException e) {
+            if (request.getURI().getPath().startsWith("/actuator")) return 0; // node still starting
+            throw e;
+        }
+    }
+
+    private String body(HttpUriRequest request) throws IOException {
+        try (CloseableHttpResponse response = client.execute(request)) {
+            return EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<String, Object> percentiles(Histogram histogram) {
+        Map<String, Object> millis = new LinkedHashMap<>();
+        millis.put("p50", histogram.getValueAtPercentile(50) / 1e6);
+        millis.put("p90", histogram.getValueAtPercentile(90) / 1e6);
+        millis.put("p99", histogram.getValueAtPercentile(99) / 1e6);
+        millis.put("max", histogram.getMaxValue() / 1e6);
+        return millis;
+    }
+
+    private static String anyNode(List<String> urls) {
+        return urls.get(ThreadLocalRandom.current().nextInt(urls.size()));
+    }
+
+    private static String product(int i) {
+        return "product-" + i;
+    }
+
+    private static String offer(String product) {
+        return "{\"product\":\"" + product + "\",\"description\":\"offer on " + product + "\","
+                + "\"start\":\"2020-01-01 00:00:00\",\"end\":\"2099-01-01 00:00:00\","
+                + "\"status\":\"CANCELED\",\"currency\":\"GBP\",\"price\":9.99}";
+    }
+}
@@ -0,0 +1,124 @@
+package org.worldpay.offer.api.loadtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keep-alive clients that send one request and then stay connected without sending anything, the way idle
+ * browsers or mobile apps hold connections. They are all watched by one selector thread, so tens of thousands
+ * of them cost the load generator a socket each, not a thread each.
+ * What matters is what the server does with them: how many got their answer, and how many are still open
+ * (not closed by the server) once the load is over.
+ */
+class IdleConnections implements Closeable {
+
+    private final Selector selector;
+    private final ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+    private int opened;
+    private int refused;
+    private int answered;
+    private int closed;
+
+    IdleConnections() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Opens connections and sends one keep-alive GET on each
+     *
+     * @param count connections to open
+     * @param host  server host
+     * @param port  server port
+     * @param path  path requested on each connection
+     */
+    void open(int count, String host, int port, String path) throws IOException {
+        byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\nConnection: keep-alive\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        for (int i = 0; i < count; i++) {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open(address);
+                channel.write(ByteBuffer.wrap(request));
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, Boolean.FALSE);
+                opened++;
+            } catch (IOException e) {
+                // out of sockets or refused by the server: counted, the others are kept
+                refused++;
+                if (channel != null)
+                    channel.close();
+            }
+            if (i % 1000 == 999)
+                poll(0);
+        }
+    }
+
+    /**
+     * Reads what the server sent until all open connections got an answer or the time is up
+     */
+    void awaitAnswers(long timeout, TimeUnit unit) throws IOException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (long left = unit.toNanos(timeout); answered + closed < opened && left > 0; left = deadline - System.nanoTime())
+            poll(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+    }
+
+    /**
+     * Reads what is pending, to see connections closed by the server
+     */
+    void poll(long millis) throws IOException {
+        if ((millis == 0 ? selector.selectNow() : selector.select(millis)) == 0)
+            return;
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            SocketChannel channel = (SocketChannel) key.channel();
+            buffer.clear();
+            int read;
+            try {
+                read = channel.read(buffer);
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read < 0) {
+                closed++;
+                key.cancel();
+                channel.close();
+            } else if (read > 0 && key.attachment() == Boolean.FALSE) {
+                answered++;
+                key.attach(Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * @return connections opened, refused, answered, closed by the server and still open
+     */
+    Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("opened", opened);
+        summary.put("refused", refused);
+        summary.put("answered", answered);
+        summary.put("closed", closed);
+        summary.put("open", opened - closed);
+        return summary;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (SelectionKey key : selector.keys())
+            key.channel().close();
+        selector.close();
+    }
+}
@@ -0,0 +1,213 @@
+package org.worldpay.offer.api.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.env.Environment;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.dto.UpdateOfferDTO;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.Currency;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test of the whole stack: embedded server on a local port, binding and validation, the controller
+ * and the store. The stack is Tomcat and Spring MVC, or Netty and the functional handlers with
+ * -Dspring.main.web-application-type=reactive, to compare both modes on the same load. A mix of requests is sent at a fixed rate (see OpenLoopLoad) and the results are written as JSON,
+ * to compare between builds.
+ * Everything is set with system properties, for instance
+ * mvn -Ploadtest test -Dloadtest.rate=2000 -Dloadtest.mix=get:90,patch:10 -Doffer.store=offheap
+ * - loadtest.rate        requests per second (500)
+ * - loadtest.duration    seconds of measured load (20)
+ * - loadtest.warmup      seconds of load before measuring, not reported (5)
+ * - loadtest.mix         weights of get, post, patch and delete requests (get:80,post:10,patch:5,delete:5)
+ * - loadtest.connections connections, and threads, of the load generator (32)
+ * - loadtest.products    offers created before the load, read and updated by get and patch (1000)
+ * - loadtest.idle-connections keep-alive connections opened before the load, sending one get each and then
+ *                        nothing; reported as answered, closed by the server and still open after the load (0)
+ * - loadtest.result      result file (target/loadtest/result.json)
+ * A get reads one of those offers, a patch changes its description, a post creates a new canceled offer
+ * and a delete removes one of the posted offers (or a missing one, if none is left).
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class OfferApiLoadTest {
+
+    private static final double RATE = Double.parseDouble(System.getProperty("loadtest.rate", "500"));
+    private static final int DURATION = Integer.getInteger("loadtest.duration", 20);
+    private static final int WARMUP = Integer.getInteger("loadtest.warmup", 5);
+    private static final String MIX = System.getProperty("loadtest.mix", "get:80,post:10,patch:5,delete:5");
+    private static final int CONNECTIONS = Integer.getInteger("loadtest.connections", 32);
+    private static final int PRODUCTS = Integer.getInteger("loadtest.products", 1000);
+    private static final int IDLE_CONNECTIONS = Integer.getInteger("loadtest.idle-connections", 0);
+    private static final String RESULT = System.getProperty("loadtest.result", "target/loadtest/result.json");
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Autowired
+    private Environment environment;
+
+    private CloseableHttpClient client;
+    private IdleConnections idle;
+    private String baseUrl;
+    private final AtomicLong posted = new AtomicLong();
+    private final Queue<String> deletable = new ConcurrentLinkedQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        client = HttpClients.custom()
+                .setMaxConnTotal(CONNECTIONS)
+                .setMaxConnPerRoute(CONNECTIONS)
+                .build();
+        baseUrl = "http://localhost:" + port + "/offer";
+        for (int i = 0; i < PRODUCTS; i++)
+            assertTrue("Offer not created before load", send(json(new HttpPost(baseUrl), offer(product(i), OfferStatus.ACTIVE))));
+        idle = new IdleConnections();
+        idle.open(IDLE_CONNECTIONS, "localhost", port, "/offer/" + product(0));
+        idle.awaitAnswers(60, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        idle.close();
+    }
+
+    @Test
+    public void offerApiUnderLoad() throws Exception {
+        mix().run(RATE, WARMUP, CONNECTIONS);
+        Map<String, Object> summary = mix().run(RATE, DURATION, CONNECTIONS);
+        idle.poll(0);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("timestamp", OffsetDateTime.now());
+        result.put("web", environment.getProperty("spring.main.web-application-type", "servlet"));
+        result.put("store", environment.getProperty("offer.store", "memory"));
+        result.put("duration", DURATION);
+        result.put("warmup", WARMUP);
+        result.put("mix", MIX);
+        result.put("connections", CONNECTIONS);
+        result.put("products", PRODUCTS);
+        result.put("idle", idle.summary());
+        result.putAll(summary);
+        File file = new File(RESULT);
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file, result);
+        System.out.println(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(result));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> requests = (Map<String, Map<String, Object>>) summary.get("requests");
+        for (Map.Entry<String, Map<String, Object>> request : requests.entrySet())
+            assertEquals("Failed " + request.getKey() + " requests", 0L, request.getValue().get("errors"));
+    }
+
+    private OpenLoopLoad mix() {
+        OpenLoopLoad load = new OpenLoopLoad();
+        for (String entry : MIX.split(",")) {
+            String[] weight = entry.trim().split(":");
+            String kind = weight[0].trim();
+            load.add(kind, Integer.parseInt(weight[1].trim()), request(kind));
+        }
+        return load;
+    }
+
+    private OpenLoopLoad.Request request(String kind) {
+        switch (kind) {
+            case "get":
+                return () -> send(new HttpGet(baseUrl + "/" + anyProduct()));
+            case "post":
+                return () -> {
+                    String product = "posted-" + posted.incrementAndGet();
+                    boolean created = send(json(new HttpPost(baseUrl), offer(product, OfferStatus.CANCELED)));
+                    if (created)
+                        deletable.add(product);
+                    return created;
+                };
+            case "patch":
+                return () -> send(json(new HttpPatch(baseUrl), update(anyProduct())));
+            case "delete":
+                return () -> {
+                    String product = deletable.poll();
+                    return send(new HttpDelete(baseUrl + "/" + (product == null ? "missing" : product)));
+                };
+            default:
+                throw new IllegalArgumentException("Unknown request " + kind + " in loadtest.mix");
+        }
+    }
+
+    private boolean send(HttpUriRequest request) throws IOException {
+        try (CloseableHttpResponse response = client.execute(request)) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode() / 100 == 2;
+        }
+    }
+
+    private HttpUriRequest json(HttpEntityEnclosingRequestBase request, Object body) throws IOException {
+        request.setEntity(new ByteArrayEntity(mapper.writeValueAsBytes(body), ContentType.APPLICATION_JSON));
+        return request;
+    }
+
+    private static String product(int i) {
+        return "product-" + i;
+    }
+
+    private static String anyProduct() {
+        return product(ThreadLocalRandom.current().nextInt(PRODUCTS));
+    }
+
+    private static OfferDTO offer(String product, OfferStatus status) {
+        OfferDTO dto = new OfferDTO();
+        dto.setProduct(product);
+        dto.setDescription("offer on " + product);
+        dto.setStart(LocalDateTime.now().minusHours(1));
+        dto.setEnd(LocalDateTime.now().plusDays(1));
+        dto.setStatus(status);
+        dto.setCurrency(Currency.getInstance("GBP"));
+        dto.setPrice(new BigDecimal("9.99"));
+        return dto;
+    }
+
+    private static UpdateOfferDTO update(String product) {
+        UpdateOfferDTO dto = new UpdateOfferDTO();
+        dto.setProduct(product);
+        dto.setDescription("updated offer on " + product + " at " + System.nanoTime());
+        return dto;
+    }
+}
@@ -0,0 +1,150 @@
+package org.worldpay.offer.api.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load generator: requests are started at a fixed rate, whatever the response times are, the way
+ * independent clients would. The latency of a request is taken from the moment it was due to start, not from
+ * the moment a worker got to it, so a stalled server is charged for every request queued behind the stall
+ * (no coordinated omission).
+ * Each kind of request has its own histograms:
+ * - response time, from due start to completion (what a client sees)
+ * - service time, from actual start to completion (what the server and the connection took)
+ */
+class OpenLoopLoad {
+
+    /**
+     * One request, sent on a worker thread
+     */
+    interface Request {
+        /**
+         * @return true if the request got the expected answer
+         */
+        boolean send() throws Exception;
+    }
+
+    private static class Kind {
+        final String name;
+        final int weight;
+        final Request request;
+        final Histogram response = new ConcurrentHistogram(3);
+        final Histogram service = new ConcurrentHistogram(3);
+        final AtomicLong errors = new AtomicLong();
+
+        Kind(String name, int weight, Request request) {
+            this.name = name;
+            this.weight = weight;
+            this.request = request;
+        }
+
+        void send(long due) {
+            long begin = System.nanoTime();
+            boolean ok;
+            try {
+                ok = request.send();
+            } catch (Exception e) {
+                ok = false;
+            }
+            long end = System.nanoTime();
+            response.recordValue(end - due);
+            service.recordValue(end - begin);
+            if (!ok)
+                errors.incrementAndGet();
+        }
+    }
+
+    private final List<Kind> kinds = new ArrayList<>();
+    private int totalWeight;
+
+    /**
+     * @param name    name of the request kind, as reported
+     * @param weight  share of this kind in the mix, relative to the other kinds
+     * @param request sends one request of this kind
+     * @return this load
+     */
+    OpenLoopLoad add(String name, int weight, Request request) {
+        if (weight > 0) {
+            kinds.add(new Kind(name, weight, request));
+            totalWeight += weight;
+        }
+        return this;
+    }
+
+    /**
+     * Sends requests at a fixed rate for a while and waits for all of them to complete.
+     *
+     * @param rate     requests started per second, all kinds together
+     * @param seconds  how long requests are started for
+     * @param workers  threads sending requests (and so most requests in flight at once)
+     * @return summary of the run: throughput, then count, errors and latency percentiles (ms) for each kind
+     */
+    Map<String, Object> run(double rate, int seconds, int workers) throws InterruptedException {
+        if (kinds.isEmpty())
+            throw new IllegalStateException("No requests in the mix");
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        long count = (long) (rate * seconds);
+        double period = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            long due = start + (long) (i * period);
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+                LockSupport.parkNanos(wait);
+            Kind kind = pick();
+            executor.execute(() -> kind.send(due));
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        double elapsed = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requested", rate);
+        summary.put("throughput", count / elapsed);
+        Map<String, Object> byKind = new LinkedHashMap<>();
+        for (Kind kind : kinds) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("count", kind.response.getTotalCount());
+            stats.put("errors", kind.errors.get());
+            stats.put("response", percentiles(kind.response));
+            stats.put("service", percentiles(kind.service));
+            byKind.put(kind.name, stats);
+        }
+        summary.put("requests", byKind);
+        return summary;
+    }
+
+    private Kind pick() {
+        int ticket = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Kind kind : kinds) {
+            ticket -= kind.weight;
+            if (ticket < 0)
+                return kind;
+        }
+        throw new IllegalStateException("Weights changed while running");
+    }
+
+    private static Map<String, Double> percentiles(Histogram histogram) {
+        Map<String, Double> millis = new LinkedHashMap<>();
+        millis.put("p50", toMillis(histogram.getValueAtPercentile(50)));
+        millis.put("p90", toMillis(histogram.getValueAtPercentile(90)));
+        millis.put("p99", toMillis(histogram.getValueAtPercentile(99)));
+        millis.put("p99.9", toMillis(histogram.getValueAtPercentile(99.9)));
+        millis.put("max", toMillis(histogram.getMaxValue()));
+        return millis;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
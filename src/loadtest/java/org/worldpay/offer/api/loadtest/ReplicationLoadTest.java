@@ -0,0 +1,318 @@
+package org.worldpay.offer.api.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.worldpay.offer.api.ApiApplication;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.dto.UpdateOfferDTO;
+import org.worldpay.offer.api.service.OfferReplicationPrimary;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test of replication: the primary runs here, on a local port, and replicas are started one by one as separate
+ * JVMs on localhost (same classpath, offer.replication.role=replica). With 1, 2, ... replicas following the primary:
+ * - replication lag: an offer is patched on the primary, then read on a replica until the change shows, the time
+ *   from the write to its visibility is recorded (write to visible)
+ * - read throughput: gets spread over the replicas as fast as they answer, while the primary takes writes at a
+ *   fixed rate, to tell how reads scale with replicas
+ * Results are written as JSON. Replicas share the cores of the machine with the primary and the load generator,
+ * so reads only scale with replicas as long as there are idle cores: spread them over machines for more.
+ * Options are system properties, for instance mvn -Ploadtest test -Dtest=ReplicationLoadTest -Dloadtest.replicas=3
+ * - loadtest.replicas        most replicas started (2)
+ * - loadtest.duration        seconds of reads for each number of replicas (10)
+ * - loadtest.connections     connections, and threads, sending reads (16)
+ * - loadtest.write-rate      writes per second on the primary during reads (100)
+ * - loadtest.lag-probes      writes followed to a replica for each number of replicas (200)
+ * - loadtest.products        offers created before the load (1000)
+ * - loadtest.replica-heap    heap of each replica JVM (256m)
+ * - loadtest.result          result file (target/loadtest/replication.json)
+ * Replica logs are in target/loadtest/replica-N.log.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"offer.replication.role=primary", "offer.replication.port=0"})
+public class ReplicationLoadTest {
+
+    private static final int REPLICAS = Integer.getInteger("loadtest.replicas", 2);
+    private static final int DURATION = Integer.getInteger("loadtest.duration", 10);
+    private static final int CONNECTIONS = Integer.getInteger("loadtest.connections", 16);
+    private static final double WRITE_RATE = Double.parseDouble(System.getProperty("loadtest.write-rate", "100"));
+    private static final int LAG_PROBES = Integer.getInteger("loadtest.lag-probes", 200);
+    private static final int PRODUCTS = Integer.getInteger("loadtest.products", 1000);
+    private static final String REPLICA_HEAP = System.getProperty("loadtest.replica-heap", "256m");
+    private static final String RESULT = System.getProperty("loadtest.result", "target/loadtest/replication.json");
+    private static final long STARTUP_SECONDS = 180;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Autowired
+    private OfferReplicationPrimary primary;
+
+    private CloseableHttpClient client;
+    private String primaryUrl;
+    private final List<Process> replicas = new ArrayList<>();
+    private final List<String> replicaUrls = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        client = HttpClients.custom()
+                .setMaxConnTotal(CONNECTIONS * (REPLICAS + 1))
+                .setMaxConnPerRoute(CONNECTIONS)
+                .build();
+        primaryUrl = "http://localhost:" + port + "/offer";
+        for (int i = 0; i < PRODUCTS; i++)
+            assertEquals("Offer not created before load", 200, status(json(new HttpPost(primaryUrl), offer(product(i)))));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Process replica : replicas)
+            replica.destroy();
+        for (Process replica : replicas)
+            replica.waitFor(30, TimeUnit.SECONDS);
+        client.close();
+    }
+
+    @Test
+    public void replicationUnderLoad() throws Exception {
+        List<Map<String, Object>> runs = new ArrayList<>();
+        for (int n = 1; n <= REPLICAS; n++) {
+            startReplica(n);
+            Map<String, Object> run = new LinkedHashMap<>();
+            run.put("replicas", n);
+            run.put("lag", lag());
+            run.put("reads", reads());
+            runs.add(run);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("timestamp", OffsetDateTime.now());
+        result.put("cores", Runtime.getRuntime().availableProcessors());
+        result.put("duration", DURATION);
+        result.put("connections", CONNECTIONS);
+        result.put("writeRate", WRITE_RATE);
+        result.put("products", PRODUCTS);
+        result.put("runs", runs);
+        File file = new File(RESULT);
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file, result);
+        System.out.println(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(result));
+
+        for (Map<String, Object> run : runs) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> reads = (Map<String, Object>) run.get("reads");
+            assertEquals("Failed reads with " + run.get("replicas") + " replicas", 0L, reads.get("errors"));
+        }
+    }
+
+    /**
+     * Starts one more replica JVM and waits until it serves the offers of the primary
+     */
+    private void startReplica(int n) throws Exception {
+        int replicaPort;
+        try (ServerSocket free = new ServerSocket(0)) {
+            replicaPort = free.getLocalPort();
+        }
+        String classpath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        ProcessBuilder builder = new ProcessBuilder(Arrays.asList(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Xmx" + REPLICA_HEAP,
+                "-cp", classpath,
+                ApiApplication.class.getName(),
+                "--server.port=" + replicaPort,
+                "--offer.replication.role=replica",
+                "--offer.replication.primary=localhost:" + primary.getPort(),
+                "--logging.level.root=WARN"));
+        File log = new File("target/loadtest/replica-" + n + ".log");
+        log.getAbsoluteFile().getParentFile().mkdirs();
+        builder.redirectErrorStream(true).redirectOutput(log);
+        replicas.add(builder.start());
+
+        String url = "http://localhost:" + replicaPort + "/offer";
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(STARTUP_SECONDS);
+        while (status(new HttpGet(url + "/" + product(PRODUCTS - 1))) != 200) {
+            assertTrue("Replica " + n + " not serving after " + STARTUP_SECONDS + "s, see " + log, System.currentTimeMillis() < deadline);
+            Thread.sleep(200);
+        }
+        replicaUrls.add(url);
+    }
+
+    /**
+     * Writes on the primary one at a time, each followed on a replica (in turn) until it is visible there
+     */
+    private Map<String, Object> lag() throws Exception {
+        Histogram visible = new Histogram(3);
+        for (int i = 0; i < LAG_PROBES; i++) {
+            String product = anyProduct();
+            String replica = replicaUrls.get(i % replicaUrls.size());
+            UpdateOfferDTO update = update(product);
+            long start = System.nanoTime();
+            assertEquals(200, status(json(new HttpPatch(primaryUrl), update)));
+            long deadline = start + TimeUnit.SECONDS.toNanos(10);
+            while (!body(new HttpGet(replica + "/" + product)).contains(update.getDescription()))
+                assertTrue("Write not visible on " + replica, System.nanoTime() < deadline);
+            visible.recordValue(System.nanoTime() - start);
+        }
+        Map<String, Object> lag = new LinkedHashMap<>();
+        lag.put("probes", visible.getTotalCount());
+        lag.put("writeToVisible", percentiles(visible));
+        return lag;
+    }
+
+    /**
+     * Reads spread over the replicas, closed loop, while the primary takes writes at WRITE_RATE
+     */
+    private Map<String, Object> reads() throws Exception {
+        ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+        AtomicLong writes = new AtomicLong();
+        writer.scheduleAtFixedRate(() -> {
+            try {
+                if (status(json(new HttpPatch(primaryUrl), update(anyProduct()))) == 200)
+                    writes.incrementAndGet();
+            } catch (IOException e) {
+                // counted as not written
+            }
+        }, 0, (long) (TimeUnit.SECONDS.toMicros(1) / WRITE_RATE), TimeUnit.MICROSECONDS);
+
+        Histogram latency = new ConcurrentHistogram(3);
+        AtomicLong errors = new AtomicLong();
+        ExecutorService readers = Executors.newFixedThreadPool(CONNECTIONS);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(DURATION);
+        for (int c = 0; c < CONNECTIONS; c++) {
+            String replica = replicaUrls.get(c % replicaUrls.size());
+            readers.execute(() -> {
+                for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+                    try {
+                        if (status(new HttpGet(replica + "/" + anyProduct())) != 200)
+                            errors.incrementAndGet();
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    latency.recordValue(System.nanoTime() - now);
+                }
+            });
+        }
+        readers.shutdown();
+        readers.awaitTermination(DURATION + 60, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        writer.shutdown();
+        writer.awaitTermination(10, TimeUnit.SECONDS);
+
+        Map<String, Object> reads = new LinkedHashMap<>();
+        reads.put("count", latency.getTotalCount());
+        reads.put("errors", errors.get());
+        reads.put("throughput", latency.getTotalCount() / elapsed);
+        reads.put("response", percentiles(latency));
+        reads.put("writes", writes.get());
+        return reads;
+    }
+
+    private int status(HttpUriRequest request) throws IOException {
+        try (CloseableHttpResponse response = client.execute(request)) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        } catch (IOException e) {
+            if (request.getURI().getPort() != port) return 0; // replica still starting
+            throw e;
+        }
+    }
+
+    private String body(HttpUriRequest request) throws IOException {
+        try (CloseableHttpResponse response = client.execute(request)) {
+            return EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private HttpUriRequest json(HttpEntityEnclosingRequestBase request, Object body) throws IOException {
+        request.setEntity(new ByteArrayEntity(mapper.writeValueAsBytes(body), ContentType.APPLICATION_JSON));
+        return request;
+    }
+
+    private static Map<String, Object> percentiles(Histogram histogram) {
+        Map<String, Object> millis = new LinkedHashMap<>();
+        millis.put("p50", toMillis(histogram.getValueAtPercentile(50)));
+        millis.put("p90", toMillis(histogram.getValueAtPercentile(90)));
+        millis.put("p99", toMillis(histogram.getValueAtPercentile(99)));
+        millis.put("max", toMillis(histogram.getMaxValue()));
+        return millis;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String product(int i) {
+        return "product-" + i;
+    }
+
+    private static String anyProduct() {
+        return product(ThreadLocalRandom.current().nextInt(PRODUCTS));
+    }
+
+    private static OfferDTO offer(String product) {
+        OfferDTO dto = new OfferDTO();
+        dto.setProduct(product);
+        dto.setDescription("offer on " + product);
+        dto.setStart(LocalDateTime.now().minusHours(1));
+        dto.setEnd(LocalDateTime.now().plusDays(1));
+        dto.setStatus(OfferStatus.ACTIVE);
+        dto.setCurrency(Currency.getInstance("GBP"));
+        dto.setPrice(new BigDecimal("9.99"));
+        return dto;
+    }
+
+    private static UpdateOfferDTO update(String product) {
+        UpdateOfferDTO dto = new UpdateOfferDTO();
+        dto.setProduct(product);
+        dto.setDescription("replicated offer on " + product + " at " + System.nanoTime());
+        return dto;
+    }
+}
@@ -0,0 +1,248 @@
+package org.worldpay.offer.api.cluster;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster mode (offer.cluster.nodes set): the products of /offer are partitioned over the nodes of the cluster,
+ * each node keeps the offers of the products it owns (see OfferRing) in its own store
+ * - membership is static: offer.cluster.nodes lists the base URL of every node (http://host:port), the same list on
+ *   every node, and offer.cluster.self is the one of this node; startup fails if it isn't in the list
+ * - offer.cluster.virtual-nodes (128) points per node on the ring
+ * - requests between nodes are made with a non blocking client, marked with the FORWARDED header so they are
+ *   served locally; a node not answering within offer.cluster.timeout-millis (5000) is unavailable
+ * - the FORWARDED header is trusted only from another node: with offer.cluster.secret set, it must carry that secret
+ *   (the same on every node); without, the request must come from the address of a node (hosts of
+ *   offer.cluster.nodes, resolved at startup). Else the header is ignored and the request routed as any other
+ * Routing of the requests themselves is done by OfferClusterFilter.
+ */
+@Component
+@ConditionalOnProperty(name = "offer.cluster.nodes")
+public class OfferCluster {
+
+    /**
+     * Header of requests sent by another node, to be served from the local store
+     */
+    public static final String FORWARDED = "X-Offer-Forwarded";
+
+    private final Logger logger = LoggerFactory.getLogger(OfferCluster.class);
+    private List<String> nodes;
+    private String self;
+    private int virtualNodes = 128;
+    private long timeoutMillis = 5000;
+    private String secret = "";
+    private final Set<InetAddress> addresses = new HashSet<>();
+    private OfferRing ring;
+    private WebClient client;
+    private MeterRegistry registry;
+
+    @Value("${offer.cluster.nodes}")
+    public void setNodes(String list) {
+        nodes = new ArrayList<>();
+        for (String node : list.split(","))
+            if (!node.trim().isEmpty())
+                nodes.add(normalize(node));
+    }
+
+    @Value("${offer.cluster.self:}")
+    public void setSelf(String s) {
+        self = normalize(s);
+    }
+
+    @Value("${offer.cluster.virtual-nodes:128}")
+    public void setVirtualNodes(int v) {
+        virtualNodes = v;
+    }
+
+    @Value("${offer.cluster.timeout-millis:5000}")
+    public void setTimeoutMillis(long t) {
+        timeoutMillis = t;
+    }
+
+    @Value("${offer.cluster.secret:}")
+    public void setSecret(String s) {
+        secret = s;
+    }
+
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry r) {
+        registry = r;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!nodes.contains(self))
+            throw new IllegalStateException("offer.cluster.self (" + self + ") is not one of offer.cluster.nodes " + nodes);
+        ring = new OfferRing(nodes, virtualNodes);
+        if (secret.isEmpty()) {
+            for (String node : nodes) {
+                try {
+                    addresses.addAll(Arrays.asList(InetAddress.getAllByName(URI.create(node).getHost())));
+                } catch (UnknownHostException e) {
+                    throw new IllegalStateException("Cluster node " + node + " can't be resolved", e);
+                }
+            }
+        }
+        client = WebClient.create();
+        logger.info("Cluster node " + self + " of " + ring.nodes());
+    }
+
+    private static String normalize(String node) {
+        String trimmed = node.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    public String self() {
+        return self;
+    }
+
+    /**
+     * @return all nodes, this one included
+     */
+    public List<String> nodes() {
+        return ring.nodes();
+    }
+
+    /**
+     * @param product product name
+     * @return base URL of the node owning the product
+     */
+    public String owner(String product) {
+        return ring.owner(product);
+    }
+
+    /**
+     * @param product product name
+     * @return true if this node owns the product
+     */
+    public boolean isLocal(String product) {
+        return self.equals(ring.owner(product));
+    }
+
+    /**
+     * @param forwarded     FORWARDED header of a request, null if none
+     * @param remoteAddress address the request came from (IP literal)
+     * @return true if the request was sent by another node, to be served locally
+     */
+    public boolean isForwarded(String forwarded, String remoteAddress) {
+        if (Objects.isNull(forwarded))
+            return false;
+        if (!secret.isEmpty())
+            return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), forwarded.getBytes(StandardCharsets.UTF_8));
+        try {
+            return addresses.contains(InetAddress.getByName(remoteAddress));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sends a request to one node and waits for its answer
+     *
+     * @param node    base URL of the node
+     * @param method  request method
+     * @param uri     path and query of the request, encoded
+     * @param headers request headers to pass on
+     * @param body    request body, null if none
+     * @return the answer of the node, any status
+     * @throws NodeUnavailableException if the node doesn't answer in time
+     */
+    public ResponseEntity<byte[]> send(String node, HttpMethod method, String uri, HttpHeaders headers, byte[] body) {
+        return exchange(node, method, uri, headers, body).block();
+    }
+
+    /**
+     * Sends requests to several nodes at once and waits for all answers
+     *
+     * @param bodies  body of the request to each node (null if none), by node
+     * @param method  request method
+     * @param uri     path and query of the requests
+     * @param headers request headers to pass on
+     * @return the answers of the nodes, in the order of bodies
+     * @throws NodeUnavailableException if a node doesn't answer in time
+     */
+    public List<ResponseEntity<byte[]>> sendAll(Map<String, byte[]> bodies, HttpMethod method, String uri, HttpHeaders headers) {
+        return Flux.fromIterable(bodies.entrySet())
+                .flatMapSequential(node -> exchange(node.getKey(), method, uri, headers, node.getValue()))
+                .collectList()
+                .block();
+    }
+
+    /**
+     * @param route kind of cluster request (forward, gather, batch)
+     * @return timer of requests of that kind, null without metrics
+     */
+    Timer timer(String route) {
+        return Objects.isNull(registry) ? null : Timer.builder("offer.cluster.requests")
+                .description("Offer requests served by other nodes of the cluster, from the moment they are routed")
+                .tag("route", route)
+                .register(registry);
+    }
+
+    static void record(Timer timer, long started) {
+        if (!Objects.isNull(timer))
+            timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+
+    private Mono<ResponseEntity<byte[]>> exchange(String node, HttpMethod method, String uri, HttpHeaders headers, byte[] body) {
+        WebClient.RequestBodySpec request = client.method(method)
+                .uri(URI.create(node + uri))
+                .headers(h -> {
+                    for (String name : Arrays.asList(HttpHeaders.CONTENT_TYPE, HttpHeaders.ACCEPT, HttpHeaders.IF_MATCH,
+                            HttpHeaders.IF_NONE_MATCH, HttpHeaders.IF_MODIFIED_SINCE))
+                        if (headers.containsKey(name))
+                            h.put(name, headers.get(name));
+                    h.set(FORWARDED, secret.isEmpty() ? self : secret);
+                });
+        WebClient.RequestHeadersSpec<?> sent = Objects.isNull(body) ? request : request.syncBody(body);
+        return sent.exchange()
+                .flatMap(response -> response.toEntity(byte[].class))
+                .timeout(Duration.ofMillis(timeoutMillis))
+                .onErrorMap(e -> new NodeUnavailableException(node, e));
+    }
+
+    /**
+     * A node of the cluster could not be reached, or didn't answer in time
+     */
+    public static class NodeUnavailableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final String node;
+
+        NodeUnavailableException(String node, Throwable cause) {
+            super("Cluster node " + node + " unavailable: " + cause.getMessage(), cause);
+            this.node = node;
+        }
+
+        public String getNode() {
+            return node;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package org.worldpay.offer.api.cluster;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+import org.worldpay.offer.api.utils.OfferBatchProcessor;
+import org.worldpay.offer.api.utils.OfferJsonWriter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Routes /offer requests in cluster mode (see OfferCluster), so any node can be asked anything:
+ * - requests on one product (GET and DELETE /offer/{product}, POST and PATCH /offer by the product of the body)
+ *   are served here when this node owns the product, else forwarded to its owner and answered as it answered
+ * - GET /offer and /offers/search are scatter-gather: sent to every node at once, the answers merged as one node
+ *   would have answered: pages and searches ordered by product, price queries by price then product (as a node
+ *   orders them), other lists concatenated.
+ *   A list is tagged with an ETag made of the tags of all nodes. Any node failing the request fails it
+ * - POST /offer/batch is split by owner, the parts sent at once and the results put back in the order of the batch;
+ *   operations on one product go to one node, in order
+ * A node that can't be reached makes the request fail with 503. Requests from other nodes (OfferCluster.FORWARDED,
+ * trusted as OfferCluster.isForwarded tells) and the change feed are served locally: each node has the feed of
+ * its own products.
+ * Merchant stores (/merchant/{merchant}/offer) are not partitioned, they are kept on the node asked.
+ */
+@Component
+@ConditionalOnProperty(name = "offer.cluster.nodes")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class OfferClusterFilter extends OncePerRequestFilter {
+
+    private static final String BASE_URL = "/offer";
+    private static final String SEARCH_URL = "/offers/search";
+    // page and search sizes when not given, as served by OfferController
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int DEFAULT_SEARCH_SIZE = 10;
+
+    private final Logger log = LoggerFactory.getLogger(OfferClusterFilter.class);
+    private final UrlPathHelper paths = new UrlPathHelper();
+    private OfferCluster cluster;
+    private ObjectMapper mapper;
+    private OfferJsonWriter jsonWriter;
+    private Timer forwards;
+    private Timer gathers;
+    private Timer batches;
+
+    @Autowired
+    public void setCluster(OfferCluster c) {
+        cluster = c;
+        forwards = c.timer("forward");
+        gathers = c.timer("gather");
+        batches = c.timer("batch");
+    }
+
+    @Autowired
+    public void setObjectMapper(ObjectMapper om) {
+        mapper = om;
+    }
+
+    @Autowired
+    public void setJsonWriter(OfferJsonWriter w) {
+        jsonWriter = w;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = paths.getPathWithinApplication(request);
+        return !(path.equals(BASE_URL) || path.startsWith(BASE_URL + "/") || path.equals(SEARCH_URL))
+                || cluster.isForwarded(request.getHeader(OfferCluster.FORWARDED), request.getRemoteAddr());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        String path = paths.getPathWithinApplication(request);
+        HttpMethod method = HttpMethod.resolve(request.getMethod());
+        try {
+            if (path.equals(BASE_URL)) {
+                if (HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method)) {
+                    gatherList(request, response);
+                } else if (HttpMethod.POST.equals(method) || HttpMethod.PATCH.equals(method)) {
+                    byte[] body = StreamUtils.copyToByteArray(request.getInputStream());
+                    route(productOf(body), body, request, response, chain);
+                } else {
+                    chain.doFilter(request, response);
+                }
+            } else if (path.equals(SEARCH_URL)) {
+                if (HttpMethod.GET.equals(method)) {
+                    gatherSearch(request, response);
+                } else {
+                    chain.doFilter(request, response);
+                }
+            } else if (path.equals(BASE_URL + "/batch") && HttpMethod.POST.equals(method)) {
+                batch(request, response, chain);
+            } else {
+                String product = path.substring(BASE_URL.length() + 1);
+                route(product.contains("/") ? null : product, null, request, response, chain);
+            }
+        } catch (OfferCluster.NodeUnavailableException e) {
+            log.error(e.getMessage());
+            writeError(response, HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    /**
+     * Serves the request here, or forwards it to the owner of the product
+     *
+     * @param product product of the request, null to serve it here (this node validates it)
+     * @param body    body already read from the request, null if none
+     */
+    private void route(String product, byte[] body, HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        if (Objects.isNull(product) || cluster.isLocal(product)) {
+            chain.doFilter(Objects.isNull(body) ? request : new ReadRequest(request, body), response);
+            return;
+        }
+        long started = System.nanoTime();
+        ResponseEntity<byte[]> answer = cluster.send(cluster.owner(product), HttpMethod.resolve(request.getMethod()),
+                uri(request), headers(request, true), body);
+        copy(answer, response);
+        OfferCluster.record(forwards, started);
+    }
+
+    private void gatherList(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long started = System.nanoTime();
+        List<ResponseEntity<byte[]>> answers = gather(request, response);
+        if (answers.isEmpty()) return;
+        // checked by every node, the answers are valid
+        String limit = request.getParameter("limit");
+        String after = request.getParameter("after");
+        byte[] body;
+        if (!Objects.isNull(limit) || !Objects.isNull(after)) {
+            int size = Objects.isNull(limit) ? DEFAULT_PAGE_SIZE : Integer.parseInt(limit);
+            List<JsonNode> offers = new ArrayList<>();
+            for (ResponseEntity<byte[]> answer : answers)
+                mapper.readTree(answer.getBody()).path("offers").forEach(offers::add);
+            offers.sort(Comparator.comparing(offer -> offer.path("product").asText()));
+            List<JsonNode> page = offers.subList(0, Math.min(size, offers.size()));
+            ObjectNode merged = mapper.createObjectNode();
+            merged.putArray("offers").addAll(page);
+            if (!page.isEmpty() && page.size() >= size)
+                merged.put("next", page.get(page.size() - 1).path("product").asText());
+            else
+                merged.putNull("next");
+            body = mapper.writeValueAsBytes(merged);
+        } else if (!Objects.isNull(request.getParameter("minPrice")) || !Objects.isNull(request.getParameter("maxPrice"))
+                || !Objects.isNull(request.getParameter("sort"))) {
+            Comparator<JsonNode> byPrice = Comparator.comparing(offer -> new BigDecimal(offer.path("price").asText()));
+            body = merge(answers, byPrice.thenComparing(offer -> offer.path("product").asText()), Integer.MAX_VALUE);
+        } else {
+            body = concatenate(answers);
+        }
+        writeList(request, response, answers, body);
+        OfferCluster.record(gathers, started);
+    }
+
+    private void gatherSearch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long started = System.nanoTime();
+        List<ResponseEntity<byte[]>> answers = gather(request, response);
+        if (answers.isEmpty()) return;
+        String limit = request.getParameter("limit");
+        int size = Objects.isNull(limit) ? DEFAULT_SEARCH_SIZE : Integer.parseInt(limit);
+        writeList(request, response, answers, merge(answers, Comparator.comparing(offer -> offer.path("product").asText()), size));
+        OfferCluster.record(gathers, started);
+    }
+
+    /**
+     * Sends the request to every node, unconditionally (tags of nodes are combined here)
+     *
+     * @return the answers of the nodes, or none if one failed: its answer was sent
+     */
+    private List<ResponseEntity<byte[]>> gather(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Map<String, byte[]> everyNode = new LinkedHashMap<>();
+        for (String node : cluster.nodes())
+            everyNode.put(node, null);
+        List<ResponseEntity<byte[]>> answers = cluster.sendAll(everyNode, HttpMethod.GET, uri(request), headers(request, false));
+        for (ResponseEntity<byte[]> answer : answers) {
+            if (!answer.getStatusCode().is2xxSuccessful()) {
+                copy(answer, response);
+                return Collections.emptyList();
+            }
+        }
+        return answers;
+    }
+
+    private void batch(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        byte[] body = StreamUtils.copyToByteArray(request.getInputStream());
+        JsonNode operations;
+        try {
+            operations = mapper.readTree(body);
+        } catch (IOException e) {
+            operations = null;
+        }
+        // malformed or too large batches are answered here
+        if (Objects.isNull(operations) || !operations.isArray() || operations.size() > OfferBatchProcessor.MAX_BATCH_SIZE) {
+            chain.doFilter(new ReadRequest(request, body), response);
+            return;
+        }
+        Map<String, List<Integer>> indexes = new LinkedHashMap<>();
+        Map<String, ArrayNode> parts = new LinkedHashMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            JsonNode operation = operations.get(i);
+            String product = productOf(operation);
+            String node = Objects.isNull(product) ? cluster.self() : cluster.owner(product);
+            indexes.computeIfAbsent(node, n -> new ArrayList<>()).add(i);
+            parts.computeIfAbsent(node, n -> mapper.createArrayNode()).add(operation);
+        }
+        if (parts.isEmpty() || (parts.size() == 1 && parts.containsKey(cluster.self()))) {
+            chain.doFilter(new ReadRequest(request, body), response);
+            return;
+        }
+
+        long started = System.nanoTime();
+        Map<String, byte[]> bodies = new LinkedHashMap<>();
+        for (Map.Entry<String, ArrayNode> part : parts.entrySet())
+            bodies.put(part.getKey(), mapper.writeValueAsBytes(part.getValue()));
+        List<ResponseEntity<byte[]>> answers = cluster.sendAll(bodies, HttpMethod.POST, uri(request), headers(request, true));
+        JsonNode[] results = new JsonNode[operations.size()];
+        List<List<Integer>> nodeIndexes = new ArrayList<>(indexes.values());
+        for (int n = 0; n < answers.size(); n++) {
+            ResponseEntity<byte[]> answer = answers.get(n);
+            if (!answer.getStatusCode().is2xxSuccessful()) {
+                copy(answer, response);
+                return;
+            }
+            for (JsonNode result : mapper.readTree(answer.getBody())) {
+                int index = nodeIndexes.get(n).get(result.path("index").asInt());
+                ((ObjectNode) result).put("index", index);
+                results[index] = result;
+            }
+        }
+        ArrayNode merged = mapper.createArrayNode();
+        merged.addAll(Arrays.asList(results));
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.getOutputStream().write(mapper.writeValueAsBytes(merged));
+        OfferCluster.record(batches, started);
+    }
+
+    /**
+     * @return product of a batch operation or of a POST or PATCH body, null if none
+     */
+    private String productOf(JsonNode operation) {
+        for (JsonNode product : Arrays.asList(operation.path("offer").path("product"), operation.path("update").path("product"), operation.path("product")))
+            if (product.isTextual())
+                return product.asText();
+        return null;
+    }
+
+    private String productOf(byte[] body) {
+        try {
+            JsonNode product = mapper.readTree(body).path("product");
+            return product.isTextual() ? product.asText() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private byte[] merge(List<ResponseEntity<byte[]>> answers, Comparator<JsonNode> order, int limit) throws IOException {
+        List<JsonNode> offers = new ArrayList<>();
+        for (ResponseEntity<byte[]> answer : answers)
+            mapper.readTree(answer.getBody()).forEach(offers::add);
+        offers.sort(order);
+        ArrayNode merged = mapper.createArrayNode();
+        merged.addAll(offers.subList(0, Math.min(limit, offers.size())));
+        return mapper.writeValueAsBytes(merged);
+    }
+
+    /**
+     * Joins JSON arrays as they are, without parsing them
+     */
+    private static byte[] concatenate(List<ResponseEntity<byte[]>> answers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('[');
+        boolean first = true;
+        for (ResponseEntity<byte[]> answer : answers) {
+            String array = new String(answer.getBody(), StandardCharsets.UTF_8).trim();
+            String elements = array.substring(1, array.length() - 1).trim();
+            if (elements.isEmpty()) continue;
+            if (!first) out.write(',');
+            byte[] bytes = elements.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+            first = false;
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    private void writeList(HttpServletRequest request, HttpServletResponse response, List<ResponseEntity<byte[]>> answers, byte[] body) throws IOException {
+        StringBuilder tags = new StringBuilder();
+        for (ResponseEntity<byte[]> answer : answers)
+            tags.append(answer.getHeaders().getETag());
+        String tag = "\"cluster-" + Long.toString(OfferRing.hash(tags.toString()) >>> 1, 36) + "\"";
+        response.setHeader(HttpHeaders.ETAG, tag);
+        if (tag.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.setContentLength(body.length);
+        if (!HttpMethod.HEAD.matches(request.getMethod()))
+            response.getOutputStream().write(body);
+    }
+
+    private static String uri(HttpServletRequest request) {
+        String query = request.getQueryString();
+        return request.getRequestURI() + (Objects.isNull(query) ? "" : "?" + query);
+    }
+
+    /**
+     * @param conditional true to pass on the conditional headers
+     */
+    private static HttpHeaders headers(HttpServletRequest request, boolean conditional) {
+        HttpHeaders headers = new HttpHeaders();
+        List<String> names = conditional
+                ? Arrays.asList(HttpHeaders.CONTENT_TYPE, HttpHeaders.ACCEPT, HttpHeaders.IF_MATCH, HttpHeaders.IF_NONE_MATCH,
+                        HttpHeaders.IF_MODIFIED_SINCE)
+                : Arrays.asList(HttpHeaders.CONTENT_TYPE, HttpHeaders.ACCEPT);
+        for (String name : names)
+            if (!Objects.isNull(request.getHeader(name)))
+                headers.add(name, request.getHeader(name));
+        return headers;
+    }
+
+    private static void copy(ResponseEntity<byte[]> answer, HttpServletResponse response) throws IOException {
+        response.setStatus(answer.getStatusCodeValue());
+        for (String name : Arrays.asList(HttpHeaders.CONTENT_TYPE, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED, HttpHeaders.ALLOW, HttpHeaders.LOCATION))
+            if (answer.getHeaders().containsKey(name))
+                response.setHeader(name, answer.getHeaders().getFirst(name));
+        if (!Objects.isNull(answer.getBody()))
+            response.getOutputStream().write(answer.getBody());
+    }
+
+    private void writeError(HttpServletResponse response, HttpStatus status, String reason) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        jsonWriter.write(new HashMap<String, Object>() {{
+            put("timestamp", OffsetDateTime.now());
+            put("error", reason);
+        }}, response.getOutputStream());
+    }
+
+    /**
+     * The request with its body, read once already
+     */
+    private static final class ReadRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        ReadRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                /**
+                 * The body is all there: the listener is told so at once
+                 */
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    try {
+                        if (!isFinished())
+                            listener.onDataAvailable();
+                        listener.onAllDataRead();
+                    } catch (IOException e) {
+                        listener.onError(e);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return body.length;
+        }
+    }
+}
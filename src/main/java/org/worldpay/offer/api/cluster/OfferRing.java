@@ -0,0 +1,89 @@
+package org.worldpay.offer.api.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consistent hash ring of the nodes of a cluster: tells which node owns a product
+ * - each node is put on the ring at virtualNodes points, hashed from its name; a product belongs to the node of the
+ *   first point at or after its own hash (wrapping around), so products spread evenly over the nodes and adding or
+ *   removing a node only moves the products of its points, about 1/n of them
+ * - points are kept in a sorted array, a lookup is a binary search
+ * The ring is immutable: every node computes the same ring from the same list of nodes, in any order.
+ */
+public final class OfferRing {
+
+    private final List<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param nodes        names of the nodes, at least one
+     * @param virtualNodes points of each node on the ring
+     */
+    public OfferRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1)
+            throw new IllegalArgumentException("A ring needs nodes and virtual nodes");
+        List<String> sorted = new ArrayList<>(nodes);
+        Collections.sort(sorted);
+        this.nodes = Collections.unmodifiableList(sorted);
+
+        int size = sorted.size() * virtualNodes;
+        long[] hashes = new long[size];
+        int[] nodeOf = new int[size];
+        Integer[] order = new Integer[size];
+        for (int n = 0, i = 0; n < sorted.size(); n++) {
+            for (int v = 0; v < virtualNodes; v++, i++) {
+                hashes[i] = hash(sorted.get(n) + "#" + v);
+                nodeOf[i] = n;
+                order[i] = i;
+            }
+        }
+        // ties (unlikely) are broken by node name, so all nodes agree
+        Arrays.sort(order, (a, b) -> hashes[a] != hashes[b] ? Long.compare(hashes[a], hashes[b]) : Integer.compare(nodeOf[a], nodeOf[b]));
+        points = new long[size];
+        owners = new String[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = sorted.get(nodeOf[order[i]]);
+        }
+    }
+
+    /**
+     * @return nodes of the ring, by name
+     */
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    /**
+     * @param product product name
+     * @return node owning the product
+     */
+    public String owner(String product) {
+        int i = Arrays.binarySearch(points, hash(product));
+        if (i < 0)
+            i = -i - 1;
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * 64 bit FNV-1a of the UTF-8 bytes, with the final mix of MurmurHash3 so close names land far apart
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
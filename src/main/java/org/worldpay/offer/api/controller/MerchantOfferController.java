@@ -0,0 +1,227 @@
+package org.worldpay.offer.api.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.validation.Errors;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.dto.UpdateOfferDTO;
+import org.worldpay.offer.api.service.MerchantOffers;
+import org.worldpay.offer.api.service.OfferService;
+import org.worldpay.offer.api.service.PersistOffer;
+import org.worldpay.offer.api.utils.DtoMapper;
+import org.worldpay.offer.api.utils.OfferJsonWriter;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Size;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Offers of a merchant, under /merchant/{merchant}/offer, with the same contract as /offer (see OfferRequests).
+ * Each merchant has its own store (see MerchantOffers), so the same product can be offered by several merchants
+ * and a merchant's list or count only goes through its own offers
+ */
+@Validated
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class MerchantOfferController {
+
+    private MerchantOffers merchants;
+    private OfferRequests requests;
+    private DtoMapper mapper;
+    private OfferJsonWriter jsonWriter;
+    private final Logger logger =  LoggerFactory.getLogger(MerchantOfferController.class);
+    private static final String BASE_URL = "/merchant/{merchant}/offer";
+
+    @Autowired
+    public void setMerchants(MerchantOffers m){merchants = m;}
+
+    @Autowired
+    public void setRequests(OfferRequests r){requests = r;}
+
+    @Autowired
+    public void setMapper(DtoMapper m){mapper = m;}
+
+    @Autowired
+    public void setJsonWriter(OfferJsonWriter w){jsonWriter = w;}
+
+    /**
+     * Serves the offers of a merchant, streamed as its store is iterated. With limit or after, a page ordered by product
+     * is returned with the cursor of the next page; with status, the offers of that status from the store index.
+     * The list is tagged with the modification counter of the merchant's store (ETag) and its last change (Last-Modified)
+     * @param merchant id of merchant
+     * @param limit page size
+     * @param after cursor (product) the page starts after
+     * @param status only offers with this status
+     * @param request conditional request headers
+     * @return Response entity
+     */
+    @RequestMapping(value = BASE_URL,
+            produces = { "application/json" },
+            method = RequestMethod.GET)
+    ResponseEntity<StreamingResponseBody> getOfferList(@PathVariable(value = "merchant") String merchant,
+                                                       @RequestParam(value = "limit", required = false) Integer limit,
+                                                       @RequestParam(value = "after", required = false) String after,
+                                                       @RequestParam(value = "status", required = false) OfferStatus status,
+                                                       WebRequest request)
+    {
+        if (!merchants.isValid(merchant))
+            return invalidMerchantResponse(merchant);
+        boolean paged = !Objects.isNull(limit) || !Objects.isNull(after);
+        ResponseEntity<StreamingResponseBody> invalid = requests.checkList(limit, paged, !Objects.isNull(status));
+        if (!Objects.isNull(invalid))
+            return invalid;
+
+        OfferService service = merchants.merchant(merchant);
+        if (Objects.isNull(service)) {
+            logger.info("No offers for merchant " + merchant);
+            if (paged)
+                return ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_JSON_UTF8)
+                        .body(out -> jsonWriter.writeMerchantPage(Collections.emptyList(), null, out));
+            return streamOffers(Collections.emptyList());
+        }
+
+        if (requests.listNotModified(service, request))
+            return OfferRequests.notModifiedResponse();
+
+        if (!Objects.isNull(status)){
+            logger.info("Processing an offer query of merchant " + merchant + " for status " + status);
+            return streamOffers(service.findOffers(status, PersistOffer.ANY_CURRENCY, PersistOffer.ANY_END));
+        }
+
+        if (paged){
+            logger.info("Processing an offer page request of merchant " + merchant + " after " + after);
+            int pageSize = OfferRequests.pageSize(limit);
+            List<Offer> page = service.getOfferPage(after, pageSize);
+            String next = mapper.nextCursor(page, pageSize);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON_UTF8)
+                    .body(out -> jsonWriter.writeMerchantPage(page, next, out));
+        }
+
+        logger.info("Processing an offer list request of merchant " + merchant);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(out -> jsonWriter.writeMerchantOffers(service.getOffers(), out));
+    }
+
+    /**
+     * Counts the offers of a merchant by status, from the store indexes
+     * @param merchant id of merchant
+     * @return Response entity, count of each status and total
+     */
+    @RequestMapping(value = BASE_URL+"/count",
+            produces = { "application/json" },
+            method = RequestMethod.GET)
+    ResponseEntity<StreamingResponseBody> countOffers(@PathVariable(value = "merchant") String merchant)
+    {
+        logger.info("Request to count offers of merchant " + merchant);
+        if (!merchants.isValid(merchant))
+            return invalidMerchantResponse(merchant);
+        OfferService service = merchants.merchant(merchant);
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        int total = 0;
+        for (OfferStatus status : OfferStatus.values()) {
+            int count = Objects.isNull(service) ? 0 : service.countOffers(status);
+            counts.put(status.name(), count);
+            total += count;
+        }
+        counts.put("total", total);
+        return requests.jsonResponse(counts, HttpStatus.OK);
+    }
+
+    /**
+     * Serves an offer of a merchant, tagged with its version (ETag) and modification time (Last-Modified)
+     * @param merchant id of merchant
+     * @param product id of product
+     * @param request conditional request headers
+     * @return Response entity
+     */
+    @RequestMapping(value = BASE_URL+"/{product}",
+            produces = { "application/json" },
+            method = RequestMethod.GET)
+    ResponseEntity getOffer(@PathVariable(value = "merchant") String merchant,
+                            @Validated @PathVariable(value="product") @Size(max=50) String product, WebRequest request)
+    {
+        logger.info("Request to get offer " + product + " of merchant " + merchant);
+        if (!merchants.isValid(merchant))
+            return invalidMerchantResponse(merchant);
+        return requests.getOffer(merchants.merchant(merchant), product, request, jsonWriter::merchantJson);
+    }
+
+    @RequestMapping(value = BASE_URL,
+            produces = { "application/json" },
+            consumes = { "application/json" },
+            method = RequestMethod.POST)
+    ResponseEntity createOffer(@PathVariable(value = "merchant") String merchant, @Valid @RequestBody OfferDTO offerDto)
+    {
+        logger.info("Request to create offer " + offerDto.getProduct() + " of merchant " + merchant);
+        if (!merchants.isValid(merchant))
+            return invalidMerchantResponse(merchant);
+        OfferService service = merchants.merchantOrCreate(merchant);
+        if (Objects.isNull(service)) {
+            logger.error("No store left for merchant " + merchant);
+            return requests.jsonResponse(requests.errorBody("Too many merchants"), HttpStatus.INSUFFICIENT_STORAGE);
+        }
+        return requests.createOffer(service, offerDto);
+    }
+
+    @RequestMapping(value = BASE_URL,
+            produces = { "application/json" },
+            consumes = { "application/json" },
+            method = RequestMethod.PATCH)
+    ResponseEntity updateOffer(@PathVariable(value = "merchant") String merchant,
+                               @Valid @RequestBody UpdateOfferDTO offerDto, final Errors errors,
+                               @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+
+        logger.info("Request to update offer " + offerDto.getProduct() + " of merchant " + merchant);
+        if (!merchants.isValid(merchant))
+            return invalidMerchantResponse(merchant);
+        return requests.updateOffer(merchants.merchant(merchant), offerDto, errors, ifMatch);
+    }
+
+    @RequestMapping(value = BASE_URL+"/{product}",
+            produces = { "application/json" },
+            method = RequestMethod.DELETE)
+    ResponseEntity deleteOffer(@PathVariable(value = "merchant") String merchant,
+                               @Valid @PathVariable(value="product", required = true) @Size(max=50) String product,
+                               @RequestHeader(value = "If-Match", required = false) String ifMatch)  {
+        logger.info("Request to remove offer " + product + " of merchant " + merchant);
+        if (!merchants.isValid(merchant))
+            return invalidMerchantResponse(merchant);
+        return requests.deleteOffer(merchants.merchant(merchant), product, ifMatch);
+    }
+
+
+    private ResponseEntity<StreamingResponseBody> invalidMerchantResponse(String merchant){
+        logger.error("Invalid merchant id " + merchant);
+        return requests.jsonResponse(requests.errorBody("Invalid merchant id"), HttpStatus.BAD_REQUEST);
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamOffers(List<Offer> offers){
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(out -> jsonWriter.writeMerchantOffers(offers.iterator(), out));
+    }
+}
@@ -0,0 +1,54 @@
+package org.worldpay.offer.api.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.worldpay.offer.api.dto.BatchOperationDTO;
+import org.worldpay.offer.api.utils.OfferBatchProcessor;
+
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Serves bulk changes of offers: a mixed list of create, update and delete operations, applied by OfferBatchProcessor.
+ * Each operation gets its own result, with the HTTP status it would have got as a single request.
+ */
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class OfferBatchController {
+
+    private static final String BATCH_URL = "/offer/batch";
+    private final Logger logger = LoggerFactory.getLogger(OfferBatchController.class);
+
+    private OfferBatchProcessor processor;
+
+    @Autowired
+    public void setProcessor(OfferBatchProcessor p) {
+        processor = p;
+    }
+
+    @RequestMapping(value = BATCH_URL,
+            produces = { "application/json" },
+            consumes = { "application/json" },
+            method = RequestMethod.POST)
+    ResponseEntity applyBatch(@RequestBody List<BatchOperationDTO> batch) {
+        logger.info("Request to apply a batch of " + batch.size() + " operations");
+        if (batch.size() > OfferBatchProcessor.MAX_BATCH_SIZE) {
+            return new ResponseEntity<>(
+                    new HashMap<String, Object>() {{
+                        put("timestamp", OffsetDateTime.now());
+                        put("error", "A batch can have at most " + OfferBatchProcessor.MAX_BATCH_SIZE + " operations");
+                    }},
+                    HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(processor.apply(batch), HttpStatus.OK);
+    }
+}
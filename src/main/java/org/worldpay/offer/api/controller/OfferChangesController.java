@@ -0,0 +1,169 @@
+package org.worldpay.offer.api.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.worldpay.offer.api.service.OfferChangeFeed;
+import org.worldpay.offer.api.utils.OfferJsonWriter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the changes of offers as Server-Sent Events (see OfferChangeFeed), for caches to follow instead of polling:
+ * - event created, updated, status or deleted, with the id of the change (see OfferChangeFeed.eventId) and
+ *   {"product":...,"version":...,"offer":...} as data (offer as served by GET, null once deleted)
+ * - a client resumes after the last id it got, with the Last-Event-ID header (browsers send it when reconnecting)
+ *   or the after parameter; with neither, only changes from now on are sent
+ * - event reset when the feed can't resume from there: the client should read the offer list again
+ * - a client too slow to take the changes is disconnected, and resumes when reconnecting
+ * Events are written by offer.changes.senders sender threads, never by the thread changing the store. A stream
+ * waits for at most one send of its changes at a time, so the queue of the senders is bounded by the streams.
+ * Streams end after offer.changes.timeout-millis, so clients reconnect and the feed forgets those that left.
+ */
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class OfferChangesController {
+
+    // off /offer/{product}, so any product name can be served
+    private static final String CHANGES_URL = "/offers/changes";
+    private final Logger logger = LoggerFactory.getLogger(OfferChangesController.class);
+    private final AtomicInteger senderCount = new AtomicInteger();
+    private ExecutorService senders;
+
+    private OfferChangeFeed feed;
+    private OfferJsonWriter jsonWriter;
+    private long timeoutMillis = 1800000;
+    private int senderThreads = 4;
+
+    @Autowired
+    public void setFeed(OfferChangeFeed f) {
+        feed = f;
+    }
+
+    @Autowired
+    public void setJsonWriter(OfferJsonWriter w) {
+        jsonWriter = w;
+    }
+
+    @Value("${offer.changes.timeout-millis:1800000}")
+    public void setTimeoutMillis(long timeout) {
+        timeoutMillis = timeout;
+    }
+
+    @Value("${offer.changes.senders:4}")
+    public void setSenderThreads(int threads) {
+        senderThreads = threads;
+    }
+
+    @PostConstruct
+    public void start() {
+        senders = Executors.newFixedThreadPool(Math.max(1, senderThreads), r -> {
+            Thread t = new Thread(r, "offer-changes-" + senderCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @param lastEventId id of the last event the client got, when reconnecting
+     * @param after       id of the last change the client knows of
+     * @return event stream
+     */
+    @RequestMapping(value = CHANGES_URL,
+            produces = { "text/event-stream" },
+            method = RequestMethod.GET)
+    SseEmitter getChanges(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                          @RequestParam(value = "after", required = false) String after) {
+        String from = !Objects.isNull(lastEventId) ? lastEventId : after;
+        logger.info("Request to follow offer changes after " + from);
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Sender sender = new Sender(emitter);
+        sender.start(feed.resume(from, sender::ready));
+        return emitter;
+    }
+
+    @PreDestroy
+    public void stop() {
+        senders.shutdownNow();
+    }
+
+    /**
+     * Writes the changes of one subscription to its stream
+     */
+    private class Sender {
+        private final SseEmitter emitter;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile OfferChangeFeed.Subscription subscription;
+        private volatile boolean closed;
+
+        Sender(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /**
+         * The reset, if any, is sent before the subscription is seen by senders, so it comes first
+         */
+        void start(OfferChangeFeed.Subscription s) {
+            emitter.onCompletion(s::cancel);
+            emitter.onTimeout(s::cancel);
+            emitter.onError(e -> s.cancel());
+            if (s.isReset())
+                send(s, SseEmitter.event()
+                        .id(feed.eventId(s.getStartSequence()))
+                        .name("reset")
+                        .data("{\"sequence\":" + s.getStartSequence() + "}", MediaType.APPLICATION_JSON));
+            subscription = s;
+            ready();
+        }
+
+        /**
+         * Schedules a send unless one is waiting already: that one sends the new changes too
+         */
+        void ready() {
+            if (!Objects.isNull(subscription) && scheduled.compareAndSet(false, true))
+                senders.execute(this::drain);
+        }
+
+        private void drain() {
+            scheduled.set(false);
+            OfferChangeFeed.Subscription s = subscription;
+            s.drain(() -> !closed, change -> send(s, SseEmitter.event()
+                    .id(feed.eventId(change.getSequence()))
+                    .name(change.getType().name().toLowerCase(Locale.ROOT))
+                    .data(jsonWriter.change(change), MediaType.APPLICATION_JSON)));
+            if (s.isOverflowed() && !closed) {
+                closed = true;
+                logger.warn("Offer changes subscriber too slow, disconnected");
+                emitter.complete();
+            }
+        }
+
+        private void send(OfferChangeFeed.Subscription s, SseEmitter.SseEventBuilder event) {
+            try {
+                emitter.send(event);
+            } catch (IOException | IllegalStateException e) {
+                // client gone or stream already ended
+                closed = true;
+                s.cancel();
+                emitter.completeWithError(e);
+            }
+        }
+    }
+}
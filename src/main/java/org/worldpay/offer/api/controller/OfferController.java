@@ -3,71 +3,202 @@ package org.worldpay.offer.api.controller;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.validation.Errors;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.worldpay.offer.api.data.Offer;
 import org.worldpay.offer.api.dto.OfferDTO;
 import org.worldpay.offer.api.dto.UpdateOfferDTO;
 import org.worldpay.offer.api.service.OfferService;
+import org.worldpay.offer.api.service.PersistOffer;
 import org.worldpay.offer.api.utils.DtoMapper;
+import org.worldpay.offer.api.utils.OfferJsonWriter;
 import org.worldpay.offer.api.utils.OfferStatus;
 
 import javax.validation.Valid;
 import javax.validation.constraints.Size;
-import java.time.OffsetDateTime;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Optional;
 
 @Validated
 @Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class OfferController {
 
     private OfferService service;
+    private OfferRequests requests;
     private DtoMapper mapper;
+    private OfferJsonWriter jsonWriter;
     private final Logger logger =  LoggerFactory.getLogger(OfferController.class);
     private static final String BASE_URL = "/offer";
+    // off /offer/{product}, so any product name can be served
+    private static final String SEARCH_URL = "/offers/search";
+    private static final String SORT_BY_PRICE = "price";
+    private static final int MAX_SEARCH_SIZE = 100;
+    private static final int DEFAULT_SEARCH_SIZE = 10;
     @Autowired
     public void setService(OfferService s)
     {
         service = s;
     }
 
+    @Autowired
+    public void setRequests(OfferRequests r){requests = r;}
+
     @Autowired
     public void setMapper(DtoMapper m){mapper = m;}
 
+    @Autowired
+    public void setJsonWriter(OfferJsonWriter w){jsonWriter = w;}
+
 
     /**
-     * The intent is to map a generic endpoint to serve the list and a specific offer
-     * @param product id of product
+     * Serves the list of offers. The list is streamed, one offer at a time as the store is iterated.
+     * The list can be paged: when limit or after is given, a page of offers ordered by product is returned,
+     * together with the cursor for the next page
+     * The list can be filtered on status, currency and end time; filters are answered from store indexes
+     * and can't be combined with paging
+     * A price range (or sort=price) needs a currency and returns the offers of that currency ordered by price
+     * Any list is tagged with the modification counter of the store (ETag) and its last change (Last-Modified):
+     * a request with a matching If-None-Match or If-Modified-Since gets a 304 without body
+     * @param limit page size
+     * @param after cursor (product) the page starts after
+     * @param status only offers with this status
+     * @param currency only offers in this currency
+     * @param endsBefore only offers ending before this time
+     * @param minPrice only offers with price at least this
+     * @param maxPrice only offers with price at most this
+     * @param sort only "price" is supported
+     * @param request conditional request headers
      * @return Response entity
      */
-    @RequestMapping(value = {BASE_URL,BASE_URL+"/{product}" },
+    @RequestMapping(value = BASE_URL,
             produces = { "application/json" },
             method = RequestMethod.GET)
-    ResponseEntity getOffer(@Validated @PathVariable(value="product", required = false) @Size(max=50) String product)
+    ResponseEntity<StreamingResponseBody> getOfferList(@RequestParam(value = "limit", required = false) Integer limit,
+                                                       @RequestParam(value = "after", required = false) String after,
+                                                       @RequestParam(value = "status", required = false) OfferStatus status,
+                                                       @RequestParam(value = "currency", required = false) Currency currency,
+                                                       @RequestParam(value = "endsBefore", required = false)
+                                                       @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime endsBefore,
+                                                       @RequestParam(value = "minPrice", required = false) BigDecimal minPrice,
+                                                       @RequestParam(value = "maxPrice", required = false) BigDecimal maxPrice,
+                                                       @RequestParam(value = "sort", required = false) String sort,
+                                                       WebRequest request)
     {
-        Object response;
-        if (Objects.isNull(product)){
-            logger.info("Processing an offer list request");
-            response = service.getOfferList().stream().map(v -> mapper.offer2Dto(v)).collect(Collectors.toList());
-        }else {
-            logger.info("Request to get offer " + product);
-            Offer offer = service.getOffer(product);
-            if (Objects.isNull(offer))
-                return notFoundResponse();
-            response = mapper.offer2Dto(service.getOffer(product));
+        boolean paged = !Objects.isNull(limit) || !Objects.isNull(after);
+        boolean priced = !Objects.isNull(minPrice) || !Objects.isNull(maxPrice) || !Objects.isNull(sort);
+        boolean filtered = !Objects.isNull(status) || !Objects.isNull(currency) || !Objects.isNull(endsBefore);
+        if (!Objects.isNull(sort) && !SORT_BY_PRICE.equals(sort))
+            return requests.jsonResponse(requests.errorBody("Offers can only be sorted by " + SORT_BY_PRICE), HttpStatus.BAD_REQUEST);
+        if (priced && Objects.isNull(currency))
+            return requests.jsonResponse(requests.errorBody("Price queries need a currency"), HttpStatus.BAD_REQUEST);
+        ResponseEntity<StreamingResponseBody> invalid = requests.checkList(limit, paged, priced || filtered);
+        if (!Objects.isNull(invalid))
+            return invalid;
+
+        if (requests.listNotModified(service, request))
+            return OfferRequests.notModifiedResponse();
+
+        if (priced){
+            logger.info("Processing an offer price query for " + currency + " between " + minPrice + " and " + maxPrice);
+            int code = mapper.toCurrencyCode(currency);
+            return streamOffers(service.findOffersByPrice(code,
+                    Objects.isNull(minPrice) ? Long.MIN_VALUE : mapper.toMinorUnits(minPrice, code, RoundingMode.CEILING),
+                    Objects.isNull(maxPrice) ? Long.MAX_VALUE : mapper.toMinorUnits(maxPrice, code, RoundingMode.FLOOR),
+                    status, endsBeforeMillis(endsBefore)).iterator());
         }
 
-        return new ResponseEntity<>(response ,HttpStatus.OK);
+        if (filtered){
+            logger.info("Processing an offer query for status " + status + ", currency " + currency + ", ending before " + endsBefore);
+            return streamOffers(service.findOffers(status,
+                    Objects.isNull(currency) ? PersistOffer.ANY_CURRENCY : mapper.toCurrencyCode(currency),
+                    endsBeforeMillis(endsBefore)).iterator());
+        }
+
+        if (paged){
+            logger.info("Processing an offer page request after " + after);
+            int pageSize = OfferRequests.pageSize(limit);
+            List<Offer> page = service.getOfferPage(after, pageSize);
+            String next = mapper.nextCursor(page, pageSize);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON_UTF8)
+                    .body(out -> jsonWriter.writePage(page, next, out));
+        }
+
+        logger.info("Processing an offer list request");
+        return streamOffers(service.getOffers());
+    }
+
+    /**
+     * Type-ahead search: offers whose product starts with prefix (case sensitive), ordered by product
+     * @param prefix start of product name
+     * @param limit maximum number of offers
+     * @return Response entity
+     */
+    @RequestMapping(value = SEARCH_URL,
+            produces = { "application/json" },
+            method = RequestMethod.GET)
+    ResponseEntity<StreamingResponseBody> searchOffers(@RequestParam(value = "prefix") String prefix,
+                                                       @RequestParam(value = "limit", required = false) Integer limit)
+    {
+        logger.info("Request to search offers starting with " + prefix);
+        int size = Optional.ofNullable(limit).orElse(DEFAULT_SEARCH_SIZE);
+        if (prefix.isEmpty() || prefix.length() > 50)
+            return requests.jsonResponse(requests.errorBody("prefix must have between 1 and 50 characters"), HttpStatus.BAD_REQUEST);
+        if (size < 1 || size > MAX_SEARCH_SIZE)
+            return requests.jsonResponse(requests.errorBody("limit must be between 1 and " + MAX_SEARCH_SIZE), HttpStatus.BAD_REQUEST);
+
+        return streamOffers(service.searchOffers(prefix, size).iterator());
+    }
+
+    /**
+     * Serves a specific offer, as the JSON kept for its version (see OfferJsonCache), tagged with its version (ETag) and modification time (Last-Modified):
+     * a request with a matching If-None-Match or If-Modified-Since gets a 304 without body
+     * With at, the offer in force at that moment is served instead, from the history of the product (see OfferHistory), untagged
+     * @param product id of product
+     * @param at moment the offer is in force, past or future
+     * @param request conditional request headers
+     * @return Response entity
+     */
+    @RequestMapping(value = BASE_URL+"/{product}",
+            produces = { "application/json" },
+            method = RequestMethod.GET)
+    ResponseEntity getOffer(@Validated @PathVariable(value="product") @Size(max=50) String product,
+                            @RequestParam(value = "at", required = false)
+                            @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime at,
+                            WebRequest request)
+    {
+        if (!Objects.isNull(at)) {
+            logger.info("Request to get offer " + product + " in force at " + at);
+            Offer inForce = service.getOfferAt(product, mapper.toMillis(at));
+            if (Objects.isNull(inForce))
+                return requests.notFoundResponse();
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON_UTF8)
+                    .body(jsonWriter.json(inForce));
+        }
+        logger.info("Request to get offer " + product);
+        return requests.getOffer(service, product, request, jsonWriter::json);
     }
 
     @RequestMapping(value = BASE_URL,
@@ -77,108 +208,38 @@ public class OfferController {
     ResponseEntity createOffer(@Valid @RequestBody OfferDTO offerDto)
     {
         logger.info("Request to create offer " + offerDto.getProduct());
-
-        Offer newOffer = mapper.dtoCreateOffer(offerDto);
-        if(!service.canCreateOffer(newOffer)) {
-            logger.error("Already existing offer for " + newOffer.getProduct());
-            return conflictResponse();
-        }
-        service.createOffer(newOffer);
-        return new ResponseEntity<>(HttpStatus.OK);
+        return requests.createOffer(service, offerDto);
     }
 
     @RequestMapping(value = BASE_URL,
             produces = { "application/json" },
             consumes = { "application/json" },
             method = RequestMethod.PATCH)
-    ResponseEntity updateOffer(@Valid @RequestBody UpdateOfferDTO offerDto, final Errors errors) {
+    ResponseEntity updateOffer(@Valid @RequestBody UpdateOfferDTO offerDto, final Errors errors,
+                               @RequestHeader(value = "If-Match", required = false) String ifMatch) {
 
         logger.info("Request to update offer " + offerDto.getProduct());
-
-        Offer oldOffer = service.getOffer(offerDto.getProduct());
-
-        if(Objects.isNull(oldOffer) ){
-            logger.error("Offer not found");
-            return notFoundResponse();
-        }
-        if(errors.hasErrors()){
-            logger.error("Validation errors" + errors.toString());
-            return new ResponseEntity<>(parseError(errors), HttpStatus.BAD_REQUEST);
-        }
-
-        Offer modifiedOffer = mapper.dtoUpdateOffer(offerDto, oldOffer);
-        service.replaceOffer(modifiedOffer);
-        return new ResponseEntity<>(HttpStatus.OK);
+        return requests.updateOffer(service, offerDto, errors, ifMatch);
     }
 
     @RequestMapping(value = BASE_URL+"/{product}",
             produces = { "application/json" },
             method = RequestMethod.DELETE)
 
-    ResponseEntity deleteOffer(@Valid @PathVariable(value="product", required = true) @Size(max=50) String product)  {
+    ResponseEntity deleteOffer(@Valid @PathVariable(value="product", required = true) @Size(max=50) String product,
+                               @RequestHeader(value = "If-Match", required = false) String ifMatch)  {
         logger.info("Request to remove offer " + product);
-        Offer offer = service.getOffer(product);
-        if(!Objects.isNull(offer) && offer.getStatus().equals(OfferStatus.ACTIVE))
-            return deleteForbiddenResponse();
-
-        service.deleteOfferByName(product);
-        return new ResponseEntity<>(HttpStatus.OK);
-    }
-
-
-    private HashMap<String, Object> parseError(Errors errors){
-        HashMap<String, Object> response = new HashMap<String, Object>(){{
-            put("timestamp", OffsetDateTime.now());
-            put("error", "Validation errors");
-
-            ArrayList<HashMap<String, Object>> details = new ArrayList<HashMap<String, Object>>();
-            details.addAll(
-                    errors.getFieldErrors().stream().map(e -> new HashMap<String,Object>(){{
-                        put("reason", e.getDefaultMessage());
-                        put("field", e.getField());
-                        put("rejected", e.getRejectedValue());
-                    }}).collect(Collectors.toList())
-            );
-
-            details.addAll(
-                    errors.getGlobalErrors().stream().map(e -> new HashMap<String,Object>(){{
-                        put("reason", e.getDefaultMessage());
-                    }}).collect(Collectors.toList())
-            );
-
-            put("details",details);
-
-        }};
-        return response;
-    }
-
-    private ResponseEntity notFoundResponse(){
-        return  new ResponseEntity<>(
-                new HashMap<String, Object>(){{
-                    put("timestamp", OffsetDateTime.now());
-                    put("error", "Product not found");
-
-                }},
-                HttpStatus.NOT_FOUND);
+        return requests.deleteOffer(service, product, ifMatch);
     }
 
-    private ResponseEntity conflictResponse(){
-        return  new ResponseEntity<>(
-                new HashMap<String, Object>(){{
-                    put("timestamp", OffsetDateTime.now());
-                    put("error", "There is an already active offer on product");
 
-                }},
-                HttpStatus.CONFLICT);
+    private long endsBeforeMillis(LocalDateTime endsBefore){
+        return Objects.isNull(endsBefore) ? PersistOffer.ANY_END : mapper.toMillis(endsBefore);
     }
 
-    private ResponseEntity deleteForbiddenResponse(){
-        return  new ResponseEntity<>(
-                new HashMap<String, Object>(){{
-                    put("timestamp", OffsetDateTime.now());
-                    put("error", "Cannot delete an active offer");
-
-                }},
-                HttpStatus.FORBIDDEN);
+    private ResponseEntity<StreamingResponseBody> streamOffers(Iterator<Offer> offers){
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(out -> jsonWriter.writeOffers(offers, out));
     }
 }
@@ -0,0 +1,246 @@
+package org.worldpay.offer.api.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.Errors;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.dto.UpdateOfferDTO;
+import org.worldpay.offer.api.metrics.OfferMetrics;
+import org.worldpay.offer.api.service.OfferOutcome;
+import org.worldpay.offer.api.service.OfferService;
+import org.worldpay.offer.api.service.PersistOffer;
+import org.worldpay.offer.api.utils.DtoMapper;
+import org.worldpay.offer.api.utils.ETags;
+import org.worldpay.offer.api.utils.OfferJsonWriter;
+import org.worldpay.offer.api.utils.ValidationErrors;
+
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Request handling shared by /offer (OfferController) and /merchant/{merchant}/offer (MerchantOfferController),
+ * done on the OfferService of the store asked, so both serve the same contract:
+ * paging checks, conditional requests, If-Match versions, outcomes of writes and error bodies
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class OfferRequests {
+
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int DEFAULT_PAGE_SIZE = 100;
+
+    private DtoMapper mapper;
+    private OfferJsonWriter jsonWriter;
+    private OfferMetrics metrics;
+    private final Logger logger =  LoggerFactory.getLogger(OfferRequests.class);
+
+    @Autowired
+    public void setMapper(DtoMapper m){mapper = m;}
+
+    @Autowired
+    public void setJsonWriter(OfferJsonWriter w){jsonWriter = w;}
+
+    @Autowired
+    public void setMetrics(OfferMetrics m){metrics = m;}
+
+    /**
+     * @param limit page size, null if not given
+     * @return page size to serve
+     */
+    static int pageSize(Integer limit){
+        return Optional.ofNullable(limit).orElse(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param paged true if limit or after is given
+     * @param filtered true if the list is filtered
+     * @return the 400 response of an invalid list request, null if valid
+     */
+    ResponseEntity<StreamingResponseBody> checkList(Integer limit, boolean paged, boolean filtered){
+        if (filtered && paged)
+            return jsonResponse(errorBody("Filters can't be combined with paging"), HttpStatus.BAD_REQUEST);
+        int pageSize = pageSize(limit);
+        if (paged && (pageSize < 1 || pageSize > MAX_PAGE_SIZE))
+            return jsonResponse(errorBody("limit must be between 1 and " + MAX_PAGE_SIZE), HttpStatus.BAD_REQUEST);
+        return null;
+    }
+
+    /**
+     * Checks a list request against the modification counter (ETag) and last change (Last-Modified) of the store.
+     * Read before the offers, so the tags can only be older than the list
+     * @return true if the client has the list already, answered with 304
+     */
+    boolean listNotModified(OfferService service, WebRequest request){
+        return request.checkNotModified(ETags.list(service.modifications()), service.lastModifiedMillis());
+    }
+
+    /**
+     * Serves an offer tagged with its version (ETag) and modification time (Last-Modified):
+     * a request with a matching If-None-Match or If-Modified-Since gets a 304 without body
+     * @param service store of the offer, null if none
+     * @param json JSON of the offer as the store serves it
+     */
+    ResponseEntity getOffer(OfferService service, String product, WebRequest request, Function<Offer, byte[]> json){
+        long started = System.nanoTime();
+        Offer offer = Objects.isNull(service) ? null : service.getOffer(product);
+        long stored = metrics.stored(started);
+        if (Objects.isNull(offer))
+            return notFoundResponse();
+        if (request.checkNotModified(ETags.offer(service.epoch(), offer.getVersion()), offer.getModifiedMillis()))
+            return notModifiedResponse();
+
+        byte[] response = json.apply(offer);
+        metrics.mapped(stored);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(response);
+    }
+
+    ResponseEntity createOffer(OfferService service, OfferDTO offerDto){
+        long started = System.nanoTime();
+        Offer newOffer = mapper.dtoCreateOffer(offerDto);
+        long mapped = metrics.mapped(started);
+        OfferOutcome outcome = service.createOffer(newOffer);
+        metrics.stored(mapped);
+        if(outcome.equals(OfferOutcome.CONFLICT)) {
+            logger.error("Already existing offer for " + newOffer.getProduct());
+            return conflictResponse();
+        }
+        if(outcome.equals(OfferOutcome.QUEUED)) {
+            logger.info("Offer for " + newOffer.getProduct() + " queued after the active one");
+            return new ResponseEntity<>(HttpStatus.ACCEPTED);
+        }
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
+    /**
+     * @param service store of the offer, null if none
+     */
+    ResponseEntity updateOffer(OfferService service, UpdateOfferDTO offerDto, Errors errors, String ifMatch){
+        long started = System.nanoTime();
+        Offer oldOffer = Objects.isNull(service) ? null : service.getOffer(offerDto.getProduct());
+        metrics.stored(started);
+
+        if(Objects.isNull(oldOffer) ){
+            logger.error("Offer not found");
+            return notFoundResponse();
+        }
+        if(errors.hasErrors()){
+            logger.error("Validation errors" + errors.toString());
+            return new ResponseEntity<>(parseError(errors), HttpStatus.BAD_REQUEST);
+        }
+
+        // mapping runs inside the store update, so it is timed as storage
+        started = System.nanoTime();
+        OfferOutcome outcome = service.updateOffer(offerDto.getProduct(), ETags.version(ifMatch, service.epoch(), oldOffer),
+                old -> mapper.dtoUpdateOffer(offerDto, old));
+        metrics.stored(started);
+        if(outcome.equals(OfferOutcome.NOT_FOUND)){
+            logger.error("Offer removed while updating");
+            return notFoundResponse();
+        }
+        if(outcome.equals(OfferOutcome.PRECONDITION_FAILED)){
+            logger.error("Offer " + offerDto.getProduct() + " changed since version " + ifMatch);
+            return preconditionFailedResponse();
+        }
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
+    /**
+     * @param service store of the offer, null if none: there is nothing to delete
+     */
+    ResponseEntity deleteOffer(OfferService service, String product, String ifMatch){
+        long started = System.nanoTime();
+        if (Objects.isNull(service)) {
+            metrics.stored(started);
+            return Objects.isNull(ifMatch) ? new ResponseEntity<>(HttpStatus.OK) : preconditionFailedResponse();
+        }
+        // a missing offer matches no If-Match, not even *
+        long version = Objects.isNull(ifMatch) ? PersistOffer.ANY_VERSION : ETags.version(ifMatch, service.epoch(), service.getOffer(product));
+        OfferOutcome outcome = service.deleteOffer(product, version);
+        metrics.stored(started);
+        if(outcome.equals(OfferOutcome.FORBIDDEN))
+            return deleteForbiddenResponse();
+        if(outcome.equals(OfferOutcome.PRECONDITION_FAILED))
+            return preconditionFailedResponse();
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
+    private HashMap<String, Object> parseError(Errors errors){
+        HashMap<String, Object> response = new HashMap<String, Object>(){{
+            put("timestamp", OffsetDateTime.now());
+            put("error", "Validation errors");
+            put("details", ValidationErrors.details(errors));
+        }};
+        return response;
+    }
+
+    ResponseEntity<StreamingResponseBody> jsonResponse(Object body, HttpStatus status){
+        return ResponseEntity.status(status)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(out -> jsonWriter.write(body, out));
+    }
+
+    HashMap<String, Object> errorBody(String reason){
+        return new HashMap<String, Object>(){{
+            put("timestamp", OffsetDateTime.now());
+            put("error", reason);
+        }};
+    }
+
+    static <T> ResponseEntity<T> notModifiedResponse(){
+        return new ResponseEntity<>(HttpStatus.NOT_MODIFIED);
+    }
+
+    ResponseEntity notFoundResponse(){
+        return  new ResponseEntity<>(
+                new HashMap<String, Object>(){{
+                    put("timestamp", OffsetDateTime.now());
+                    put("error", "Product not found");
+
+                }},
+                HttpStatus.NOT_FOUND);
+    }
+
+    private ResponseEntity conflictResponse(){
+        return  new ResponseEntity<>(
+                new HashMap<String, Object>(){{
+                    put("timestamp", OffsetDateTime.now());
+                    put("error", "There is an already active offer on product");
+
+                }},
+                HttpStatus.CONFLICT);
+    }
+
+    private ResponseEntity deleteForbiddenResponse(){
+        return  new ResponseEntity<>(
+                new HashMap<String, Object>(){{
+                    put("timestamp", OffsetDateTime.now());
+                    put("error", "Cannot delete an active offer");
+
+                }},
+                HttpStatus.FORBIDDEN);
+    }
+
+    private ResponseEntity preconditionFailedResponse(){
+        return  new ResponseEntity<>(
+                new HashMap<String, Object>(){{
+                    put("timestamp", OffsetDateTime.now());
+                    put("error", "Offer changed since the version in If-Match");
+
+                }},
+                HttpStatus.PRECONDITION_FAILED);
+    }
+}
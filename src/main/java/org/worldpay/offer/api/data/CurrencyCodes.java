@@ -0,0 +1,67 @@
+package org.worldpay.offer.api.data;
+
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Small integer codes for the currencies known to the JVM, as offers keep the code instead of the Currency.
+ * Codes are given in order of ISO code when the class loads, so they are only meaningful inside the running JVM:
+ * anything written out (journal, replication) keeps the ISO code.
+ * Prices are kept in minor units of their currency (pence for GBP, yen for JPY), see fractionDigits.
+ */
+public final class CurrencyCodes {
+
+    private static final Currency[] CURRENCIES = Currency.getAvailableCurrencies().stream()
+            .sorted(Comparator.comparing(Currency::getCurrencyCode))
+            .toArray(Currency[]::new);
+    private static final Map<Currency, Integer> CODES = new HashMap<>();
+    private static final int[] FRACTION_DIGITS = new int[CURRENCIES.length];
+
+    static {
+        for (int code = 0; code < CURRENCIES.length; code++) {
+            CODES.put(CURRENCIES[code], code);
+            // pseudo currencies (gold, SDR...) have no minor unit
+            FRACTION_DIGITS[code] = Math.max(0, CURRENCIES[code].getDefaultFractionDigits());
+        }
+    }
+
+    private CurrencyCodes() {
+    }
+
+    /**
+     * @param currency a currency
+     * @return its code
+     */
+    public static int code(Currency currency) {
+        Integer code = CODES.get(Objects.requireNonNull(currency));
+        if (Objects.isNull(code))
+            throw new IllegalArgumentException("Unknown currency " + currency);
+        return code;
+    }
+
+    /**
+     * @param code a currency code
+     * @return the currency
+     */
+    public static Currency currency(int code) {
+        return CURRENCIES[code];
+    }
+
+    /**
+     * @param code a currency code
+     * @return number of digits of the minor unit, prices in this currency are scaled by 10 to this power
+     */
+    public static int fractionDigits(int code) {
+        return FRACTION_DIGITS[code];
+    }
+
+    /**
+     * @return number of codes, codes go from 0 to count - 1
+     */
+    public static int count() {
+        return CURRENCIES.length;
+    }
+}
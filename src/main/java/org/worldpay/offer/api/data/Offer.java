@@ -2,90 +2,183 @@ package org.worldpay.offer.api.data;
 
 import org.worldpay.offer.api.utils.OfferStatus;
 
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
-import java.util.Currency;
-
 /**
  * Serves as the application representation of an offer
+ * An offer is immutable, so it can be shared between threads without copies or locks.
+ * Changes are made on a copy (see toBuilder and withStatus) which is then swapped in store.
+ * The version is given by the store on every write and only increases, the modification time is taken at same moment
+ * (it serves Last-Modified, while the version serves ETags).
  *
+ * Values are kept in primitive forms, converted from and to the DTOs by DtoMapper:
+ * - start and end as epoch milliseconds
+ * - currency as a code (see CurrencyCodes)
+ * - price in minor units of the currency (1999 for 19.99 GBP)
+ * so checks against the current time are comparisons of longs.
  */
-public class Offer {
+public final class Offer {
+
+    private final String product;
+    private final long startMillis;
+    private final long endMillis;
+    private final OfferStatus status;
+    private final String description;
+    private final int currencyCode;
+    private final long minorPrice;
+    private final long version;
+    private final long modifiedMillis;
+
+    private Offer(Builder builder) {
+        this.product = builder.product;
+        this.startMillis = builder.startMillis;
+        this.endMillis = builder.endMillis;
+        this.status = builder.status;
+        this.description = builder.description;
+        this.currencyCode = builder.currencyCode;
+        this.minorPrice = builder.minorPrice;
+        this.version = builder.version;
+        this.modifiedMillis = builder.modifiedMillis;
+    }
 
-    private String product;
-    private LocalDateTime start;
-    private LocalDateTime end;
-    private OfferStatus status;
-    private String description;
-    private Currency currency;
-    private BigDecimal price;
+    public static Builder builder() {
+        return new Builder();
+    }
 
-    public String getProduct() {
-        return product;
+    /**
+     * @return a builder initialised with this offer fields
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .product(product)
+                .startMillis(startMillis)
+                .endMillis(endMillis)
+                .status(status)
+                .description(description)
+                .currencyCode(currencyCode)
+                .minorPrice(minorPrice)
+                .version(version)
+                .modifiedMillis(modifiedMillis);
     }
 
-    public void setProduct(String product) {
-        this.product = product;
+    public Offer withStatus(OfferStatus status) {
+        return toBuilder().status(status).build();
     }
 
-    public LocalDateTime getStart() {
-        return start;
+    public Offer withVersion(long version, long modifiedMillis) {
+        return toBuilder().version(version).modifiedMillis(modifiedMillis).build();
     }
 
-    public void setStart(LocalDateTime start) {
-        this.start = start;
+    public String getProduct() {
+        return product;
     }
 
-    public LocalDateTime getEnd() {
-        return end;
+    public long getStartMillis() {
+        return startMillis;
     }
 
-    public void setEnd(LocalDateTime end) {
-        this.end = end;
+    public long getEndMillis() {
+        return endMillis;
     }
 
     public OfferStatus getStatus() {
         return status;
     }
 
-    public void setStatus(OfferStatus status) {
-        this.status = status;
-    }
-
     public String getDescription() {
         return description;
     }
 
-    public void setDescription(String description) {
-        this.description = description;
-    }
-
-    public Currency getCurrency() {
-        return currency;
+    public int getCurrencyCode() {
+        return currencyCode;
     }
 
-    public void setCurrency(Currency currency) {
-        this.currency = currency;
+    public long getMinorPrice() {
+        return minorPrice;
     }
 
-    public BigDecimal getPrice() {
-        return price;
+    public long getVersion() {
+        return version;
     }
 
-    public void setPrice(BigDecimal price) {
-        this.price = price;
+    public long getModifiedMillis() {
+        return modifiedMillis;
     }
 
     @Override
     public String toString() {
         return "Offer{" +
                 "product='" + product + '\'' +
-                ", start=" + start +
-                ", end=" + end +
+                ", startMillis=" + startMillis +
+                ", endMillis=" + endMillis +
                 ", status=" + status +
                 ", description='" + description + '\'' +
-                ", currency=" + currency +
-                ", price=" + price +
+                ", currency=" + CurrencyCodes.currency(currencyCode) +
+                ", minorPrice=" + minorPrice +
+                ", version=" + version +
+                ", modifiedMillis=" + modifiedMillis +
                 '}';
     }
+
+    public static class Builder {
+        private String product;
+        private long startMillis;
+        private long endMillis;
+        private OfferStatus status;
+        private String description;
+        private int currencyCode;
+        private long minorPrice;
+        private long version;
+        private long modifiedMillis;
+
+        private Builder() {
+        }
+
+        public Builder product(String product) {
+            this.product = product;
+            return this;
+        }
+
+        public Builder startMillis(long startMillis) {
+            this.startMillis = startMillis;
+            return this;
+        }
+
+        public Builder endMillis(long endMillis) {
+            this.endMillis = endMillis;
+            return this;
+        }
+
+        public Builder status(OfferStatus status) {
+            this.status = status;
+            return this;
+        }
+
+        public Builder description(String description) {
+            this.description = description;
+            return this;
+        }
+
+        public Builder currencyCode(int currencyCode) {
+            this.currencyCode = currencyCode;
+            return this;
+        }
+
+        public Builder minorPrice(long minorPrice) {
+            this.minorPrice = minorPrice;
+            return this;
+        }
+
+        public Builder version(long version) {
+            this.version = version;
+            return this;
+        }
+
+        public Builder modifiedMillis(long modifiedMillis) {
+            this.modifiedMillis = modifiedMillis;
+            return this;
+        }
+
+        public Offer build() {
+            return new Offer(this);
+        }
+    }
 }
@@ -0,0 +1,58 @@
+package org.worldpay.offer.api.dto;
+
+import org.worldpay.offer.api.utils.BatchOperationType;
+
+/**
+ * One operation of a batch request
+ * - CREATE needs offer
+ * - UPDATE needs update
+ * - DELETE needs product
+ */
+public class BatchOperationDTO {
+    private BatchOperationType operation;
+    private OfferDTO offer;
+    private UpdateOfferDTO update;
+    private String product;
+
+    public BatchOperationType getOperation() {
+        return operation;
+    }
+
+    public void setOperation(BatchOperationType operation) {
+        this.operation = operation;
+    }
+
+    public OfferDTO getOffer() {
+        return offer;
+    }
+
+    public void setOffer(OfferDTO offer) {
+        this.offer = offer;
+    }
+
+    public UpdateOfferDTO getUpdate() {
+        return update;
+    }
+
+    public void setUpdate(UpdateOfferDTO update) {
+        this.update = update;
+    }
+
+    public String getProduct() {
+        return product;
+    }
+
+    public void setProduct(String product) {
+        this.product = product;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchOperationDTO{" +
+                "operation=" + operation +
+                ", offer=" + offer +
+                ", update=" + update +
+                ", product='" + product + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,79 @@
+package org.worldpay.offer.api.dto;
+
+import org.worldpay.offer.api.utils.BatchOperationType;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of one operation of a batch request
+ * status is the HTTP status the operation would get as a single request
+ */
+public class BatchResultDTO {
+    private int index;
+    private BatchOperationType operation;
+    private String product;
+    private int status;
+    private String error;
+    private List<Map<String, Object>> details;
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public BatchOperationType getOperation() {
+        return operation;
+    }
+
+    public void setOperation(BatchOperationType operation) {
+        this.operation = operation;
+    }
+
+    public String getProduct() {
+        return product;
+    }
+
+    public void setProduct(String product) {
+        this.product = product;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public List<Map<String, Object>> getDetails() {
+        return details;
+    }
+
+    public void setDetails(List<Map<String, Object>> details) {
+        this.details = details;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResultDTO{" +
+                "index=" + index +
+                ", operation=" + operation +
+                ", product='" + product + '\'' +
+                ", status=" + status +
+                ", error='" + error + '\'' +
+                ", details=" + details +
+                '}';
+    }
+}
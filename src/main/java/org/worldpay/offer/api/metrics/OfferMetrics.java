@@ -0,0 +1,150 @@
+package org.worldpay.offer.api.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.Errors;
+import org.springframework.validation.SmartValidator;
+import org.springframework.validation.Validator;
+import org.worldpay.offer.api.service.PersistOffer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offer API meters, next to the ones Spring Boot keeps (http.server.requests gives latency per endpoint):
+ * - offer.request.stage, time spent per request in validation, mapping (DtoMapper) and storage (OfferService)
+ * - offer.rejected, requests answered with 400, 403, 404 or 409, by status and method
+ * - offer.store.size, offers in store by status, read from the store indexes when scraped
+ * The lag of expiries is kept by the OfferStatusScheduler.
+ *
+ * Stage timers only keep count, total and max, so recording is a couple of adders on the request thread.
+ * Stages are timed with plain System.nanoTime() values handed from one stage to the next:
+ * long started = System.nanoTime(); ...map...; long mapped = metrics.mapped(started); ...store...; metrics.stored(mapped);
+ */
+@Component
+public class OfferMetrics {
+
+    private MeterRegistry registry;
+    private PersistOffer persist;
+    private Timer validation;
+    private Timer mapping;
+    private Timer storage;
+
+    @Autowired
+    public void setRegistry(MeterRegistry r) {
+        registry = r;
+    }
+
+    @Autowired
+    public void setPersist(PersistOffer p) {
+        persist = p;
+    }
+
+    @PostConstruct
+    public void register() {
+        validation = stage("validation");
+        mapping = stage("mapping");
+        storage = stage("storage");
+        for (OfferStatus status : OfferStatus.values())
+            Gauge.builder("offer.store.size", persist, p -> p.countOffers(status))
+                    .description("Offers in store")
+                    .tag("status", status.name())
+                    .register(registry);
+    }
+
+    private Timer stage(String name) {
+        return Timer.builder("offer.request.stage")
+                .description("Time spent in a stage of offer requests")
+                .tag("stage", name)
+                .register(registry);
+    }
+
+    /**
+     * Records the time since started as mapping
+     *
+     * @param started System.nanoTime() when mapping started
+     * @return System.nanoTime() now, for the next stage
+     */
+    public long mapped(long started) {
+        return record(mapping, started);
+    }
+
+    /**
+     * Records the time since started as storage
+     *
+     * @param started System.nanoTime() when storage started
+     * @return System.nanoTime() now, for the next stage
+     */
+    public long stored(long started) {
+        return record(storage, started);
+    }
+
+    private static long record(Timer timer, long started) {
+        long now = System.nanoTime();
+        timer.record(now - started, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    /**
+     * Counts a rejected request. Only called off the success path, so the counter is looked up each time
+     *
+     * @param method HTTP method
+     * @param status HTTP status answered
+     */
+    public void rejected(String method, int status) {
+        Counter.builder("offer.rejected")
+                .description("Offer requests rejected")
+                .tag("method", method)
+                .tag("status", String.valueOf(status))
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * @param validators validators of a data binder
+     * @return one validator running all of them, timed as validation
+     */
+    public Validator timed(List<Validator> validators) {
+        return new TimedValidator(validators.toArray(new Validator[0]));
+    }
+
+    private class TimedValidator implements SmartValidator {
+        private final Validator[] validators;
+
+        TimedValidator(Validator[] validators) {
+            this.validators = validators;
+        }
+
+        @Override
+        public boolean supports(Class<?> aClass) {
+            for (Validator validator : validators)
+                if (validator.supports(aClass)) return true;
+            return false;
+        }
+
+        @Override
+        public void validate(Object o, Errors errors) {
+            validate(o, errors, new Object[0]);
+        }
+
+        @Override
+        public void validate(Object o, Errors errors, Object... hints) {
+            long started = System.nanoTime();
+            for (Validator validator : validators) {
+                if (!validator.supports(o.getClass()))
+                    continue;
+                if (validator instanceof SmartValidator)
+                    ((SmartValidator) validator).validate(o, errors, hints);
+                else
+                    validator.validate(o, errors);
+            }
+            validation.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.worldpay.offer.api.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Counts rejected offer requests (400, 403, 404, 409) once they are answered, whichever way the status was set:
+ * by the controllers or by Spring when binding or validation fails
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class OfferMetricsWebConfig implements WebMvcConfigurer {
+
+    private OfferMetrics metrics;
+
+    @Autowired
+    public void setMetrics(OfferMetrics m) {
+        metrics = m;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptorAdapter() {
+            @Override
+            public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+                switch (response.getStatus()) {
+                    case 400:
+                    case 403:
+                    case 404:
+                    case 409:
+                        metrics.rejected(request.getMethod(), response.getStatus());
+                }
+            }
+        }).addPathPatterns("/offer", "/offer/**", "/offers/**");
+    }
+}
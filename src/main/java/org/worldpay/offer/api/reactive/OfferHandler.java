@@ -0,0 +1,483 @@
+package org.worldpay.offer.api.reactive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+import org.springframework.validation.beanvalidation.SpringValidatorAdapter;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.dto.BatchOperationDTO;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.dto.UpdateOfferDTO;
+import org.worldpay.offer.api.metrics.OfferMetrics;
+import org.worldpay.offer.api.service.OfferChange;
+import org.worldpay.offer.api.service.OfferChangeFeed;
+import org.worldpay.offer.api.service.OfferOutcome;
+import org.worldpay.offer.api.service.OfferService;
+import org.worldpay.offer.api.service.PersistOffer;
+import org.worldpay.offer.api.utils.DtoMapper;
+import org.worldpay.offer.api.utils.ETags;
+import org.worldpay.offer.api.utils.OfferBatchProcessor;
+import org.worldpay.offer.api.utils.OfferJsonWriter;
+import org.worldpay.offer.api.utils.OfferStatus;
+import org.worldpay.offer.api.utils.OfferTimesAndStatusValidator;
+import org.worldpay.offer.api.utils.ValidationErrors;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Functional handlers of the offer API in reactive mode (spring.main.web-application-type=reactive, see OfferRoutes).
+ * Same contract as OfferController and OfferBatchController, on the same OfferService, DtoMapper and validators:
+ * - reads are answered on the event loop, the store is in memory and never blocks
+ * - writes run on the elastic scheduler, as they may wait for the journal (fsync)
+ * - offers are written as the bytes kept by OfferJsonCache, lists as a flux of those bytes joined into an array
+ * - responses are tagged with ETag and Last-Modified, and conditional requests get a 304 when the response is written
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class OfferHandler {
+
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final String SORT_BY_PRICE = "price";
+    private static final int MAX_SEARCH_SIZE = 100;
+    private static final int DEFAULT_SEARCH_SIZE = 10;
+    private static final int MAX_PRODUCT_LENGTH = 50;
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_END = {']'};
+    private static final byte[] SEPARATOR = {','};
+
+    private OfferService service;
+    private DtoMapper mapper;
+    private OfferJsonWriter jsonWriter;
+    private OfferMetrics metrics;
+    private OfferBatchProcessor batchProcessor;
+    private Validator beanValidator;
+    private OfferTimesAndStatusValidator offerTSV;
+    private OfferChangeFeed changeFeed;
+    private final Logger logger = LoggerFactory.getLogger(OfferHandler.class);
+
+    @Autowired
+    public void setService(OfferService s) {
+        service = s;
+    }
+
+    @Autowired
+    public void setMapper(DtoMapper m) {
+        mapper = m;
+    }
+
+    @Autowired
+    public void setJsonWriter(OfferJsonWriter w) {
+        jsonWriter = w;
+    }
+
+    @Autowired
+    public void setMetrics(OfferMetrics m) {
+        metrics = m;
+    }
+
+    @Autowired
+    public void setBatchProcessor(OfferBatchProcessor p) {
+        batchProcessor = p;
+    }
+
+    @Autowired
+    public void setValidator(javax.validation.Validator v) {
+        beanValidator = new SpringValidatorAdapter(v);
+    }
+
+    @Autowired
+    public void setOfferTSV(OfferTimesAndStatusValidator oTSV) {
+        offerTSV = oTSV;
+    }
+
+    @Autowired
+    public void setChangeFeed(OfferChangeFeed f) {
+        changeFeed = f;
+    }
+
+    /**
+     * Serves the list of offers, paged, filtered or by price, with the same query parameters as OfferController
+     */
+    public Mono<ServerResponse> getOfferList(ServerRequest request) {
+        Integer limit;
+        String after = request.queryParam("after").orElse(null);
+        OfferStatus status;
+        Currency currency;
+        LocalDateTime endsBefore;
+        BigDecimal minPrice;
+        BigDecimal maxPrice;
+        String sort = request.queryParam("sort").orElse(null);
+        try {
+            limit = request.queryParam("limit").map(Integer::valueOf).orElse(null);
+            status = request.queryParam("status").map(OfferStatus::valueOf).orElse(null);
+            currency = request.queryParam("currency").map(Currency::getInstance).orElse(null);
+            endsBefore = request.queryParam("endsBefore").map(s -> LocalDateTime.parse(s, DATE_TIME)).orElse(null);
+            minPrice = request.queryParam("minPrice").map(BigDecimal::new).orElse(null);
+            maxPrice = request.queryParam("maxPrice").map(BigDecimal::new).orElse(null);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return errorResponse("Invalid query parameter: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+
+        boolean paged = !Objects.isNull(limit) || !Objects.isNull(after);
+        boolean priced = !Objects.isNull(minPrice) || !Objects.isNull(maxPrice) || !Objects.isNull(sort);
+        boolean filtered = !Objects.isNull(status) || !Objects.isNull(currency) || !Objects.isNull(endsBefore);
+        int pageSize = Optional.ofNullable(limit).orElse(DEFAULT_PAGE_SIZE);
+        if (!Objects.isNull(sort) && !SORT_BY_PRICE.equals(sort))
+            return errorResponse("Offers can only be sorted by " + SORT_BY_PRICE, HttpStatus.BAD_REQUEST);
+        if (priced && Objects.isNull(currency))
+            return errorResponse("Price queries need a currency", HttpStatus.BAD_REQUEST);
+        if ((priced || filtered) && paged)
+            return errorResponse("Filters can't be combined with paging", HttpStatus.BAD_REQUEST);
+        if (paged && (pageSize < 1 || pageSize > MAX_PAGE_SIZE))
+            return errorResponse("limit must be between 1 and " + MAX_PAGE_SIZE, HttpStatus.BAD_REQUEST);
+
+        // read before the offers, so the tags can only be older than the list
+        ServerResponse.BodyBuilder ok = ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .eTag(ETags.list(service.modifications()))
+                .lastModified(Instant.ofEpochMilli(service.lastModifiedMillis()));
+
+        if (priced) {
+            logger.info("Processing an offer price query for " + currency + " between " + minPrice + " and " + maxPrice);
+            int code = mapper.toCurrencyCode(currency);
+            long min = Objects.isNull(minPrice) ? Long.MIN_VALUE : mapper.toMinorUnits(minPrice, code, RoundingMode.CEILING);
+            long max = Objects.isNull(maxPrice) ? Long.MAX_VALUE : mapper.toMinorUnits(maxPrice, code, RoundingMode.FLOOR);
+            return offersResponse(ok, () -> service.findOffersByPrice(code, min, max, status, endsBeforeMillis(endsBefore)).iterator());
+        }
+
+        if (filtered) {
+            logger.info("Processing an offer query for status " + status + ", currency " + currency + ", ending before " + endsBefore);
+            return offersResponse(ok, () -> service.findOffers(status,
+                    Objects.isNull(currency) ? PersistOffer.ANY_CURRENCY : mapper.toCurrencyCode(currency),
+                    endsBeforeMillis(endsBefore)).iterator());
+        }
+
+        if (paged) {
+            logger.info("Processing an offer page request after " + after);
+            return ok.body(Mono.fromCallable(() -> {
+                List<Offer> page = service.getOfferPage(after, pageSize);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                jsonWriter.writePage(page, mapper.nextCursor(page, pageSize), out);
+                return out.toByteArray();
+            }), byte[].class);
+        }
+
+        logger.info("Processing an offer list request");
+        return offersResponse(ok, service::getOffers);
+    }
+
+    /**
+     * Type-ahead search: offers whose product starts with prefix (case sensitive), ordered by product
+     */
+    public Mono<ServerResponse> searchOffers(ServerRequest request) {
+        Optional<String> prefix = request.queryParam("prefix");
+        logger.info("Request to search offers starting with " + prefix.orElse(null));
+        int size;
+        try {
+            size = request.queryParam("limit").map(Integer::valueOf).orElse(DEFAULT_SEARCH_SIZE);
+        } catch (NumberFormatException e) {
+            return errorResponse("Invalid query parameter: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        if (!prefix.isPresent() || prefix.get().isEmpty() || prefix.get().length() > 50)
+            return errorResponse("prefix must have between 1 and 50 characters", HttpStatus.BAD_REQUEST);
+        if (size < 1 || size > MAX_SEARCH_SIZE)
+            return errorResponse("limit must be between 1 and " + MAX_SEARCH_SIZE, HttpStatus.BAD_REQUEST);
+
+        return offersResponse(ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8),
+                () -> service.searchOffers(prefix.get(), size).iterator());
+    }
+
+    /**
+     * Serves a specific offer, tagged with its version (ETag) and modification time (Last-Modified)
+     */
+    public Mono<ServerResponse> getOffer(ServerRequest request) {
+        String product = request.pathVariable("product");
+        logger.info("Request to get offer " + product);
+        if (product.length() > MAX_PRODUCT_LENGTH)
+            return errorResponse("product must have at most " + MAX_PRODUCT_LENGTH + " characters", HttpStatus.BAD_REQUEST);
+        LocalDateTime at;
+        try {
+            at = request.queryParam("at").map(s -> LocalDateTime.parse(s, DATE_TIME)).orElse(null);
+        } catch (DateTimeParseException e) {
+            return errorResponse("Invalid query parameter: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        if (!Objects.isNull(at)) {
+            Offer inForce = service.getOfferAt(product, mapper.toMillis(at));
+            if (Objects.isNull(inForce))
+                return notFoundResponse();
+            return ServerResponse.ok()
+                    .contentType(MediaType.APPLICATION_JSON_UTF8)
+                    .syncBody(jsonWriter.json(inForce));
+        }
+
+        long started = System.nanoTime();
+        Offer offer = service.getOffer(product);
+        long stored = metrics.stored(started);
+        if (Objects.isNull(offer))
+            return notFoundResponse();
+
+        byte[] response = jsonWriter.json(offer);
+        metrics.mapped(stored);
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .eTag(ETags.offer(service.epoch(), offer.getVersion()))
+                .lastModified(Instant.ofEpochMilli(offer.getModifiedMillis()))
+                .syncBody(response);
+    }
+
+    public Mono<ServerResponse> createOffer(ServerRequest request) {
+        return request.bodyToMono(OfferDTO.class)
+                .flatMap(offerDto -> {
+                    logger.info("Request to create offer " + offerDto.getProduct());
+                    Errors errors = validate(offerDto, "offerDTO");
+                    if (errors.hasErrors())
+                        return validationErrorResponse(errors);
+
+                    return Mono.fromCallable(() -> {
+                        long started = System.nanoTime();
+                        Offer newOffer = mapper.dtoCreateOffer(offerDto);
+                        long mapped = metrics.mapped(started);
+                        OfferOutcome outcome = service.createOffer(newOffer);
+                        metrics.stored(mapped);
+                        return outcome;
+                    }).subscribeOn(Schedulers.elastic()).flatMap(outcome -> {
+                        if (outcome.equals(OfferOutcome.CONFLICT)) {
+                            logger.error("Already existing offer for " + offerDto.getProduct());
+                            return errorResponse("There is an already active offer on product", HttpStatus.CONFLICT);
+                        }
+                        if (outcome.equals(OfferOutcome.QUEUED))
+                            return ServerResponse.status(HttpStatus.ACCEPTED).build();
+                        return ServerResponse.ok().build();
+                    });
+                })
+                .switchIfEmpty(Mono.defer(() -> errorResponse("Missing offer", HttpStatus.BAD_REQUEST)));
+    }
+
+    public Mono<ServerResponse> updateOffer(ServerRequest request) {
+        return request.bodyToMono(UpdateOfferDTO.class)
+                .flatMap(offerDto -> {
+                    logger.info("Request to update offer " + offerDto.getProduct());
+                    Errors errors = validate(offerDto, "updateOfferDTO");
+
+                    long started = System.nanoTime();
+                    Offer oldOffer = Objects.isNull(offerDto.getProduct()) ? null : service.getOffer(offerDto.getProduct());
+                    metrics.stored(started);
+                    if (Objects.isNull(oldOffer)) {
+                        logger.error("Offer not found");
+                        return notFoundResponse();
+                    }
+                    if (errors.hasErrors()) {
+                        logger.error("Validation errors" + errors.toString());
+                        return validationErrorResponse(errors);
+                    }
+
+                    // mapping runs inside the store update, so it is timed as storage
+                    long version = ETags.version(ifMatch(request), service.epoch(), oldOffer);
+                    return Mono.fromCallable(() -> {
+                        long updating = System.nanoTime();
+                        OfferOutcome outcome = service.updateOffer(offerDto.getProduct(), version,
+                                old -> mapper.dtoUpdateOffer(offerDto, old));
+                        metrics.stored(updating);
+                        return outcome;
+                    }).subscribeOn(Schedulers.elastic()).flatMap(outcome -> {
+                        if (outcome.equals(OfferOutcome.NOT_FOUND)) {
+                            logger.error("Offer removed while updating");
+                            return notFoundResponse();
+                        }
+                        if (outcome.equals(OfferOutcome.PRECONDITION_FAILED)) {
+                            logger.error("Offer " + offerDto.getProduct() + " changed since version in If-Match");
+                            return preconditionFailedResponse();
+                        }
+                        return ServerResponse.ok().build();
+                    });
+                })
+                .switchIfEmpty(Mono.defer(() -> errorResponse("Missing offer update", HttpStatus.BAD_REQUEST)));
+    }
+
+    public Mono<ServerResponse> deleteOffer(ServerRequest request) {
+        String product = request.pathVariable("product");
+        logger.info("Request to remove offer " + product);
+        if (product.length() > MAX_PRODUCT_LENGTH)
+            return errorResponse("product must have at most " + MAX_PRODUCT_LENGTH + " characters", HttpStatus.BAD_REQUEST);
+        String ifMatch = ifMatch(request);
+        return Mono.fromCallable(() -> {
+            long started = System.nanoTime();
+            // a missing offer matches no If-Match, not even *
+            long version = Objects.isNull(ifMatch) ? PersistOffer.ANY_VERSION : ETags.version(ifMatch, service.epoch(), service.getOffer(product));
+            OfferOutcome outcome = service.deleteOffer(product, version);
+            metrics.stored(started);
+            return outcome;
+        }).subscribeOn(Schedulers.elastic()).flatMap(outcome -> {
+            if (outcome.equals(OfferOutcome.FORBIDDEN))
+                return errorResponse("Cannot delete an active offer", HttpStatus.FORBIDDEN);
+            if (outcome.equals(OfferOutcome.PRECONDITION_FAILED))
+                return preconditionFailedResponse();
+            return ServerResponse.ok().build();
+        });
+    }
+
+    /**
+     * Serves the changes of offers as Server-Sent Events, as OfferChangesController does.
+     * Changes are handed over as the client takes them (flux demand), so the queue of the subscription
+     * is the only buffer and a slow client overflows it and is disconnected
+     */
+    public Mono<ServerResponse> getChanges(ServerRequest request) {
+        String from = Optional.ofNullable(request.headers().asHttpHeaders().getFirst("Last-Event-ID"))
+                .orElse(request.queryParam("after").orElse(null));
+        logger.info("Request to follow offer changes after " + from);
+
+        Flux<ServerSentEvent<String>> events = Flux.create(sink -> {
+            AtomicReference<OfferChangeFeed.Subscription> subscribed = new AtomicReference<>();
+            Runnable drain = () -> {
+                OfferChangeFeed.Subscription s = subscribed.get();
+                if (Objects.isNull(s))
+                    return;
+                s.drain(() -> sink.requestedFromDownstream() > 0, change -> sink.next(changeEvent(change)));
+                if (s.isOverflowed()) {
+                    logger.warn("Offer changes subscriber too slow, disconnected");
+                    sink.complete();
+                }
+            };
+            OfferChangeFeed.Subscription subscription = changeFeed.resume(from, () -> Schedulers.parallel().schedule(drain));
+            sink.onDispose(subscription::cancel);
+            if (subscription.isReset())
+                sink.next(ServerSentEvent.builder("{\"sequence\":" + subscription.getStartSequence() + "}")
+                        .id(changeFeed.eventId(subscription.getStartSequence()))
+                        .event("reset")
+                        .build());
+            subscribed.set(subscription);
+            sink.onRequest(n -> drain.run());
+        });
+        return ServerResponse.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(BodyInserters.fromServerSentEvents(events));
+    }
+
+    private ServerSentEvent<String> changeEvent(OfferChange change) {
+        return ServerSentEvent.builder(jsonWriter.change(change))
+                .id(changeFeed.eventId(change.getSequence()))
+                .event(change.getType().name().toLowerCase(Locale.ROOT))
+                .build();
+    }
+
+    public Mono<ServerResponse> applyBatch(ServerRequest request) {
+        return request.bodyToFlux(BatchOperationDTO.class)
+                .collectList()
+                .flatMap(batch -> {
+                    logger.info("Request to apply a batch of " + batch.size() + " operations");
+                    if (batch.size() > OfferBatchProcessor.MAX_BATCH_SIZE)
+                        return errorResponse("A batch can have at most " + OfferBatchProcessor.MAX_BATCH_SIZE + " operations",
+                                HttpStatus.BAD_REQUEST);
+                    return Mono.fromCallable(() -> batchProcessor.apply(batch))
+                            .subscribeOn(Schedulers.elastic())
+                            .flatMap(results -> ServerResponse.ok()
+                                    .contentType(MediaType.APPLICATION_JSON_UTF8)
+                                    .syncBody(results));
+                });
+    }
+
+    /**
+     * Runs bean validation and OfferTimesAndStatusValidator, as the servlet binder does, timed as validation
+     */
+    private Errors validate(Object dto, String name) {
+        Errors errors = new BeanPropertyBindingResult(dto, name);
+        metrics.timed(Arrays.asList(beanValidator, offerTSV)).validate(dto, errors);
+        return errors;
+    }
+
+    private long endsBeforeMillis(LocalDateTime endsBefore) {
+        return Objects.isNull(endsBefore) ? PersistOffer.ANY_END : mapper.toMillis(endsBefore);
+    }
+
+    /**
+     * Writes offers as a JSON array; the store is only iterated once the response is written,
+     * so nothing is read for a 304
+     */
+    private Mono<ServerResponse> offersResponse(ServerResponse.BodyBuilder ok, Iterable<Offer> offers) {
+        Flux<byte[]> elements = Flux.fromIterable(offers)
+                .index()
+                .concatMapIterable(indexed -> indexed.getT1() == 0
+                        ? Collections.singletonList(jsonWriter.json(indexed.getT2()))
+                        : Arrays.asList(SEPARATOR, jsonWriter.json(indexed.getT2())));
+        return ok.body(BodyInserters.fromPublisher(
+                Flux.just(ARRAY_START).concatWith(elements).concatWith(Flux.just(ARRAY_END)), byte[].class));
+    }
+
+    private Mono<ServerResponse> errorResponse(String reason, HttpStatus status) {
+        return jsonResponse(new HashMap<String, Object>() {{
+            put("timestamp", OffsetDateTime.now());
+            put("error", reason);
+        }}, status);
+    }
+
+    private Mono<ServerResponse> validationErrorResponse(Errors errors) {
+        return jsonResponse(new HashMap<String, Object>() {{
+            put("timestamp", OffsetDateTime.now());
+            put("error", "Validation errors");
+            put("details", ValidationErrors.details(errors));
+        }}, HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * @return If-Match headers of the request, joined as one list, null if none
+     */
+    private static String ifMatch(ServerRequest request) {
+        List<String> values = request.headers().header(HttpHeaders.IF_MATCH);
+        return values.isEmpty() ? null : String.join(",", values);
+    }
+
+    private Mono<ServerResponse> preconditionFailedResponse() {
+        return errorResponse("Offer changed since the version in If-Match", HttpStatus.PRECONDITION_FAILED);
+    }
+
+    private Mono<ServerResponse> notFoundResponse() {
+        return errorResponse("Product not found", HttpStatus.NOT_FOUND);
+    }
+
+    private Mono<ServerResponse> jsonResponse(Object body, HttpStatus status) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            jsonWriter.write(body, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ServerResponse.status(status)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .syncBody(out.toByteArray());
+    }
+}
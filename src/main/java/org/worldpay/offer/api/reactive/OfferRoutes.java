@@ -0,0 +1,78 @@
+package org.worldpay.offer.api.reactive;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.WebFilter;
+import org.worldpay.offer.api.metrics.OfferMetrics;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.contentType;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+ * Reactive mode of the offer API, with spring.main.web-application-type=reactive:
+ * the /offer endpoints are served by OfferHandler on Netty instead of the controllers on Tomcat.
+ * Tomcat is on the class path for the servlet mode and would be picked first, so the Netty server is declared here.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class OfferRoutes {
+
+    private static final String BASE_URL = "/offer";
+    // off /offer/{product}, so any product name can be served
+    private static final String SEARCH_URL = "/offers/search";
+    private static final String CHANGES_URL = "/offers/changes";
+
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Bean
+    public RouterFunction<ServerResponse> offerRouter(OfferHandler handler) {
+        return route()
+                .GET(BASE_URL, handler::getOfferList)
+                .GET(SEARCH_URL, handler::searchOffers)
+                .GET(CHANGES_URL, handler::getChanges)
+                .GET(BASE_URL + "/{product}", handler::getOffer)
+                .POST(BASE_URL + "/batch", contentType(MediaType.APPLICATION_JSON), handler::applyBatch)
+                .POST(BASE_URL, contentType(MediaType.APPLICATION_JSON), handler::createOffer)
+                .PATCH(BASE_URL, contentType(MediaType.APPLICATION_JSON), handler::updateOffer)
+                .DELETE(BASE_URL + "/{product}", handler::deleteOffer)
+                .build();
+    }
+
+    /**
+     * Counts rejected offer requests (400, 403, 404, 409), as OfferMetricsWebConfig does in servlet mode.
+     * Requests failing in Spring (unreadable body) end with an error, answered after the filter chain
+     */
+    @Bean
+    public WebFilter offerRejectionsFilter(OfferMetrics metrics) {
+        return (exchange, chain) -> {
+            if (!exchange.getRequest().getPath().pathWithinApplication().value().startsWith(BASE_URL))
+                return chain.filter(exchange);
+            String method = exchange.getRequest().getMethodValue();
+            return chain.filter(exchange)
+                    .doOnSuccess(done -> count(metrics, method, exchange.getResponse().getStatusCode()))
+                    .doOnError(ResponseStatusException.class, e -> count(metrics, method, e.getStatus()));
+        };
+    }
+
+    private static void count(OfferMetrics metrics, String method, HttpStatus status) {
+        if (status == null)
+            return;
+        switch (status) {
+            case BAD_REQUEST:
+            case FORBIDDEN:
+            case NOT_FOUND:
+            case CONFLICT:
+                metrics.rejected(method, status.value());
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package org.worldpay.offer.api.service;
+
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Store logic shared by the implementations of PersistOffer, which only say where offers are kept:
+ * how to read one, how to change one atomically and how to walk them all.
+ * Next to the offers, product names are kept in secondary indexes (see OfferIndexes): ordered by name,
+ * so that the offers can be walked page by page, and by status, currency and end time, so that queries don't scan the store.
+ * Indexes are changed inside the compute for the product, so they stay in sync with it.
+ * Offers are immutable: every write swaps in a new instance, stamped with the next version of the store and the time.
+ * Once a change is applied, the modification counter moves on (see PersistOffer.modifications).
+ *
+ */
+abstract class AbstractPersistOffer implements PersistOffer {
+
+    private final OfferIndexes indexes = new OfferIndexes();
+    private final AtomicLong versions = new AtomicLong();
+    private final AtomicLong modifications = new AtomicLong();
+    private final AtomicLong lastModified = new AtomicLong();
+    private final List<OfferStoreListener> listeners = new CopyOnWriteArrayList<>();
+    // version of the last removal replicated, by product (see replicate)
+    private final Map<String, Long> removals = new ConcurrentHashMap<>();
+    private volatile long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
+    /**
+     * @param product product of the offer
+     * @return offer stored for product, null if none
+     */
+    protected abstract Offer get(String product);
+
+    /**
+     * Same contract as ConcurrentHashMap.compute: the function gets the stored offer (null if none)
+     * and returns the one to store (null to remove), as one atomic operation on the product key.
+     * Returning the given offer itself leaves the store untouched
+     *
+     * @param product  product of the offer
+     * @param function computes the new offer
+     * @return offer stored once done, null if none
+     */
+    protected abstract Offer compute(String product, BiFunction<String, Offer, Offer> function);
+
+    /**
+     * Checks the store can take an offer, before anything is changed for it.
+     * Called inside the compute for the product; throws if the offer can't be stored
+     *
+     * @param old   offer replaced, null if none
+     * @param offer offer to store
+     */
+    protected void accept(Offer old, Offer offer) {
+    }
+
+    private Offer computeIfPresent(String product, BiFunction<String, Offer, Offer> function) {
+        return compute(product, (k, old) -> Objects.isNull(old) ? null : function.apply(k, old));
+    }
+
+    @Override
+    public List<Offer> getOffersAfter(String after, int limit) {
+        NavigableSet<String> keys = after == null ? indexes.products() : indexes.products().tailSet(after, false);
+        List<Offer> page = new ArrayList<>(limit);
+        for (String product : keys) {
+            if (page.size() >= limit) break;
+            Offer offer = get(product);
+            if (offer != null)
+                page.add(offer);
+        }
+        return page;
+    }
+
+    /**
+     * The ordered product index is walked from the prefix and stops at the first name not matching it
+     */
+    @Override
+    public List<Offer> findByProductPrefix(String prefix, int limit) {
+        List<Offer> found = new ArrayList<>(Math.min(limit, 64));
+        for (String product : indexes.products().tailSet(prefix, true)) {
+            if (found.size() >= limit || !product.startsWith(prefix)) break;
+            Offer offer = get(product);
+            if (offer != null)
+                found.add(offer);
+        }
+        return found;
+    }
+
+    @Override
+    public Offer addOrReplaceOffer(Offer offer) {
+        Change change = new Change();
+        Offer stored = compute(offer.getProduct(), (k, old) -> store(change, old, offer));
+        publish(change);
+        return stored;
+    }
+
+    @Override
+    public OfferWrite addIfNoActiveOffer(Offer offer) {
+        Change change = new Change();
+        OfferWrite write = addIfNoActiveOffer(change, offer);
+        publish(change);
+        return write;
+    }
+
+    private OfferWrite addIfNoActiveOffer(Change change, Offer offer) {
+        OfferOutcome[] outcome = {OfferOutcome.CONFLICT};
+        compute(offer.getProduct(), (k, old) -> {
+            if (old != null && old.getStatus().equals(OfferStatus.ACTIVE))
+                return old;
+            outcome[0] = OfferOutcome.CREATED;
+            return store(change, old, offer);
+        });
+        return new OfferWrite(outcome[0], change.offer);
+    }
+
+    @Override
+    public Offer updateOffer(String product, UnaryOperator<Offer> change) {
+        Change stored = new Change();
+        Offer updated = computeIfPresent(product, (k, old) -> {
+            Offer changed = change.apply(old);
+            return changed == old ? old : store(stored, old, changed);
+        });
+        publish(stored);
+        return updated;
+    }
+
+    @Override
+    public OfferOutcome removeIfNotActive(String product) {
+        Change change = new Change();
+        OfferOutcome outcome = removeIfNotActive(change, product);
+        publish(change);
+        return outcome;
+    }
+
+    private OfferOutcome removeIfNotActive(Change change, String product) {
+        OfferOutcome[] outcome = {OfferOutcome.DELETED};
+        computeIfPresent(product, (k, old) -> {
+            if (old.getStatus().equals(OfferStatus.ACTIVE)) {
+                outcome[0] = OfferOutcome.FORBIDDEN;
+                return old;
+            }
+            return drop(change, old);
+        });
+        return outcome[0];
+    }
+
+    @Override
+    public OfferWrite updateIfVersion(String product, long version, UnaryOperator<Offer> change) {
+        Change stored = new Change();
+        OfferWrite write = updateIfVersion(stored, product, version, change);
+        publish(stored);
+        return write;
+    }
+
+    private OfferWrite updateIfVersion(Change stored, String product, long version, UnaryOperator<Offer> change) {
+        OfferOutcome[] outcome = {OfferOutcome.NOT_FOUND};
+        Offer[] current = {null};
+        computeIfPresent(product, (k, old) -> {
+            if (version != ANY_VERSION && old.getVersion() != version) {
+                outcome[0] = OfferOutcome.PRECONDITION_FAILED;
+                return old;
+            }
+            outcome[0] = OfferOutcome.UPDATED;
+            Offer changed = change.apply(old);
+            current[0] = changed == old ? old : store(stored, old, changed);
+            return current[0];
+        });
+        return new OfferWrite(outcome[0], current[0]);
+    }
+
+    @Override
+    public List<OfferWrite> applyBatch(List<OfferOperation> operations) {
+        List<OfferWrite> writes = new ArrayList<>(operations.size());
+        List<Change> changes = new ArrayList<>(operations.size());
+        for (OfferOperation operation : operations) {
+            Change change = new Change();
+            switch (operation.getType()) {
+                case CREATE:
+                    writes.add(addIfNoActiveOffer(change, operation.getOffer()));
+                    break;
+                case UPDATE:
+                    writes.add(updateIfVersion(change, operation.getProduct(), ANY_VERSION, operation.getChange()));
+                    break;
+                default:
+                    writes.add(new OfferWrite(removeIfNotActive(change, operation.getProduct()), null));
+                    break;
+            }
+            if (!Objects.isNull(change.product))
+                changes.add(change);
+        }
+        publish(changes);
+        return writes;
+    }
+
+    @Override
+    public OfferOutcome removeIfVersion(String product, long version) {
+        OfferOutcome[] outcome = {OfferOutcome.PRECONDITION_FAILED};
+        Change change = new Change();
+        computeIfPresent(product, (k, old) -> {
+            if (old.getVersion() != version) {
+                outcome[0] = OfferOutcome.PRECONDITION_FAILED;
+                return old;
+            }
+            if (old.getStatus().equals(OfferStatus.ACTIVE)) {
+                outcome[0] = OfferOutcome.FORBIDDEN;
+                return old;
+            }
+            outcome[0] = OfferOutcome.DELETED;
+            return drop(change, old);
+        });
+        publish(change);
+        return outcome[0];
+    }
+
+    @Override
+    public Offer getOffer(String product) {
+        return get(product);
+    }
+
+    @Override
+    public void removeByName(String product) {
+        Change change = new Change();
+        computeIfPresent(product, (k, old) -> drop(change, old));
+        publish(change);
+    }
+
+    @Override
+    public Offer transitionStatus(Offer offer, OfferStatus status) {
+        Change change = new Change();
+        computeIfPresent(offer.getProduct(), (k, v) -> {
+            if (v.getVersion() != offer.getVersion())
+                return v;
+            return store(change, v, v.withStatus(status));
+        });
+        publish(change);
+        return change.offer;
+    }
+
+    /**
+     * The smallest of the status and currency index entries is walked, or else the end time index up to endsBefore,
+     * so the cost follows the size of the index entry and not of the whole store
+     */
+    @Override
+    public List<Offer> findOffers(OfferStatus status, int currency, long endsBefore) {
+        Predicate<Offer> matches = o -> (Objects.isNull(status) || status.equals(o.getStatus()))
+                && (currency == ANY_CURRENCY || currency == o.getCurrencyCode())
+                && o.getEndMillis() < endsBefore;
+
+        Collection<String> candidates = null;
+        if (!Objects.isNull(status))
+            candidates = indexes.withStatus(status);
+        if (currency != ANY_CURRENCY) {
+            Set<String> withCurrency = indexes.withCurrency(currency);
+            if (Objects.isNull(candidates) || withCurrency.size() < candidates.size())
+                candidates = withCurrency;
+        }
+
+        List<Offer> found = new ArrayList<>();
+        if (Objects.isNull(candidates)) {
+            if (endsBefore == ANY_END)
+                return found;
+            for (OfferIndexes.EndKey key : indexes.endingBefore(endsBefore))
+                addIfMatches(found, key.getProduct(), matches);
+            return found;
+        }
+        for (String product : candidates)
+            addIfMatches(found, product, matches);
+        return found;
+    }
+
+    /**
+     * Only the matching range of the currency price index is walked; the other filters, when not null,
+     * are checked on the offers found
+     */
+    @Override
+    public List<Offer> findOffersByPrice(int currency, long minPrice, long maxPrice, OfferStatus status, long endsBefore) {
+        Predicate<Offer> matches = o -> currency == o.getCurrencyCode()
+                && o.getMinorPrice() >= minPrice && o.getMinorPrice() <= maxPrice
+                && (Objects.isNull(status) || status.equals(o.getStatus()))
+                && o.getEndMillis() < endsBefore;
+
+        List<Offer> found = new ArrayList<>();
+        for (OfferIndexes.PriceKey key : indexes.pricedBetween(currency, minPrice, maxPrice))
+            addIfMatches(found, key.getProduct(), matches);
+        return found;
+    }
+
+    private void addIfMatches(List<Offer> found, String product, Predicate<Offer> matches) {
+        Offer offer = get(product);
+        if (!Objects.isNull(offer) && matches.test(offer))
+            found.add(offer);
+    }
+
+    @Override
+    public int countOffers(OfferStatus status) {
+        return indexes.withStatus(status).size();
+    }
+
+    @Override
+    public long modifications() {
+        return modifications.get();
+    }
+
+    @Override
+    public long lastVersion() {
+        return versions.get();
+    }
+
+    @Override
+    public long lastModifiedMillis() {
+        return lastModified.get();
+    }
+
+    @Override
+    public void restore(Collection<Offer> recovered, long lastVersion, long epoch) {
+        for (Offer offer : recovered) {
+            compute(offer.getProduct(), (k, old) -> {
+                accept(old, offer);
+                indexes.update(old, offer);
+                return offer;
+            });
+            lastModified.accumulateAndGet(offer.getModifiedMillis(), Math::max);
+        }
+        versions.accumulateAndGet(lastVersion, Math::max);
+        this.epoch = epoch;
+        modifications.incrementAndGet();
+    }
+
+    @Override
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Offers of the former epoch are removed one at a time, each removal told with the version after the one
+     * of the offer removed
+     */
+    @Override
+    public void replicateEpoch(long epoch) {
+        if (epoch == this.epoch) return;
+        for (String product : new ArrayList<>(indexes.products())) {
+            Change change = new Change();
+            computeIfPresent(product, (k, old) -> {
+                indexes.update(old, null);
+                change.set(product, old, null, old.getVersion() + 1);
+                return null;
+            });
+            publish(change);
+        }
+        removals.clear();
+        versions.set(0);
+        this.epoch = epoch;
+        for (OfferStoreListener listener : listeners)
+            listener.epochChanged(epoch);
+    }
+
+    /**
+     * Listeners of the other store are told outside of its locks, so changes of one product may come out of order.
+     * The version of the last removal of each product is kept (a tombstone, changed inside the compute for it),
+     * so that an older change coming after a removal doesn't bring the offer back, as OfferJournal does on recovery
+     */
+    @Override
+    public boolean replicate(String product, Offer offer, long version) {
+        Change change = new Change();
+        compute(product, (k, old) -> {
+            if (!Objects.isNull(old) && old.getVersion() >= version)
+                return old;
+            Long removed = removals.get(product);
+            if (!Objects.isNull(removed) && removed >= version)
+                return old;
+            if (Objects.isNull(offer)) {
+                removals.put(product, version);
+                if (Objects.isNull(old)) return null;
+                indexes.update(old, null);
+                change.set(product, old, null, version);
+                return null;
+            }
+            removals.remove(product);
+            accept(old, offer);
+            indexes.update(old, offer);
+            change.set(product, old, offer, version);
+            return offer;
+        });
+        versions.accumulateAndGet(version, Math::max);
+        publish(change);
+        return !Objects.isNull(change.product);
+    }
+
+    @Override
+    public void addListener(OfferStoreListener listener) {
+        listeners.add(listener);
+    }
+
+    private Offer store(Change change, Offer old, Offer offer) {
+        accept(old, offer);
+        Offer stored = offer.withVersion(versions.incrementAndGet(), System.currentTimeMillis());
+        indexes.update(old, stored);
+        change.set(stored.getProduct(), old, stored, stored.getVersion());
+        return stored;
+    }
+
+    private Offer drop(Change change, Offer old) {
+        indexes.update(old, null);
+        change.set(old.getProduct(), old, null, versions.incrementAndGet());
+        return null;
+    }
+
+    private void publish(Change change) {
+        if (Objects.isNull(change.product)) return;
+        modified(change);
+        for (OfferStoreListener listener : listeners)
+            listener.offerChanged(change.product, change.previous, change.offer, change.version);
+    }
+
+    private void publish(List<Change> changes) {
+        if (changes.isEmpty()) return;
+        List<OfferStoreChange> told = new ArrayList<>(changes.size());
+        for (Change change : changes) {
+            modified(change);
+            told.add(new OfferStoreChange(change.product, change.previous, change.offer, change.version));
+        }
+        for (OfferStoreListener listener : listeners)
+            listener.offersChanged(told);
+    }
+
+    private void modified(Change change) {
+        lastModified.accumulateAndGet(Objects.isNull(change.offer) ? System.currentTimeMillis() : change.offer.getModifiedMillis(), Math::max);
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * Change made inside a compute, to be published once compute is done
+     */
+    private static class Change {
+        private String product;
+        private Offer previous;
+        private Offer offer;
+        private long version;
+
+        void set(String product, Offer previous, Offer offer, long version) {
+            this.product = product;
+            this.previous = previous;
+            this.offer = offer;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.worldpay.offer.api.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.worldpay.offer.api.data.Offer;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Persistence is done in memory data structure and, because it needs it, will use thread safe data storage
+ * Offers are kept as objects in a concurrent map, the map compute gives the atomicity on the product key.
+ * This is the default store (offer.store=memory)
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "offer.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryPersistOffer extends AbstractPersistOffer {
+
+    private final ConcurrentHashMap<String, Offer> offers = new ConcurrentHashMap<>(50);
+
+    @Override
+    public Iterator<Offer> getOffers() {
+        return offers.values().iterator();
+    }
+
+    @Override
+    protected Offer get(String product) {
+        return offers.get(product);
+    }
+
+    @Override
+    protected Offer compute(String product, BiFunction<String, Offer, Offer> function) {
+        return offers.compute(product, function);
+    }
+}
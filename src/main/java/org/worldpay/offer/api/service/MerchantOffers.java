@@ -0,0 +1,90 @@
+package org.worldpay.offer.api.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Offers of merchants, keyed by (merchant, product): one store per merchant, created with its first offer.
+ * - reads, lists, pages and counts of a merchant only see that merchant's store, so they cost the merchant's offers,
+ *   not all offers
+ * - writes lock products in the merchant's store only, so merchants don't contend on each other's offers
+ * - status transitions of all merchants go through the shared OfferStatusScheduler, each applied to its own store
+ * - merchant ids are at most MAX_ID characters of offer.merchants.id-pattern (letters, digits, '.', '_' and '-'),
+ *   and at most offer.merchants.max merchants get a store: stores are kept (even once empty) for the life of the
+ *   application, so this bounds the memory they hold
+ * Merchant stores are in memory (InMemoryPersistOffer), apart from the main store: not journaled, not in the change feed.
+ */
+@Component
+public class MerchantOffers {
+
+    static final int MAX_ID = 64;
+
+    private final ConcurrentHashMap<String, OfferService> merchants = new ConcurrentHashMap<>();
+    private final AtomicInteger stores = new AtomicInteger();
+    private OfferStatusScheduler scheduler;
+    private Pattern idPattern = Pattern.compile("[A-Za-z0-9._-]+");
+    private int maxMerchants = 10000;
+
+    @Autowired
+    public void setScheduler(OfferStatusScheduler s) {
+        scheduler = s;
+    }
+
+    @Value("${offer.merchants.id-pattern:[A-Za-z0-9._-]+}")
+    public void setIdPattern(String pattern) {
+        idPattern = Pattern.compile(pattern);
+    }
+
+    @Value("${offer.merchants.max:10000}")
+    public void setMaxMerchants(int max) {
+        maxMerchants = max;
+    }
+
+    /**
+     * @param merchant merchant id
+     * @return true if merchant is a valid merchant id
+     */
+    public boolean isValid(String merchant) {
+        return !Objects.isNull(merchant) && merchant.length() <= MAX_ID && idPattern.matcher(merchant).matches();
+    }
+
+    /**
+     * @param merchant merchant id
+     * @return offers of the merchant, null if the merchant has never had an offer
+     */
+    public OfferService merchant(String merchant) {
+        return merchants.get(merchant);
+    }
+
+    /**
+     * @param merchant merchant id, valid (see isValid)
+     * @return offers of the merchant, an empty store on first use; null if the merchant has no store and
+     * offer.merchants.max merchants have one already
+     */
+    public OfferService merchantOrCreate(String merchant) {
+        return merchants.computeIfAbsent(merchant, id -> {
+            // runs once per new merchant, so the count is exact
+            if (stores.incrementAndGet() > maxMerchants) {
+                stores.decrementAndGet();
+                return null;
+            }
+            OfferService service = new OfferService();
+            service.setPersist(new InMemoryPersistOffer());
+            service.setScheduler(scheduler);
+            return service;
+        });
+    }
+
+    /**
+     * @return number of merchants with a store
+     */
+    public int size() {
+        return merchants.size();
+    }
+}
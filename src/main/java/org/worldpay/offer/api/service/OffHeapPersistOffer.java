@@ -0,0 +1,381 @@
+package org.worldpay.offer.api.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import javax.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Offers kept out of the java heap (offer.store=offheap), so a large store adds nothing for the garbage collector to walk.
+ * - products are spread by hash over SHARDS shards, each with its own records, product table and lock
+ * - every offer is a fixed size record in direct byte buffers (slabs, allocated as the shard grows)
+ * - products are found through an open addressing table (linear probing) of record numbers, also out of the heap
+ * - freed records are chained in a free list of the shard and reused
+ *
+ * Writes take the write lock of the shard of their product, which gives the atomicity on the product key;
+ * writes of products of other shards go on meanwhile. Reads don't lock: they read optimistically and only retry
+ * under the read lock of the shard if a write happened there meanwhile.
+ * A read builds a new Offer from the record, so offers read are short lived objects.
+ * Only the offers are out of the heap: the secondary indexes (OfferIndexes: product names, status, currency
+ * and price) stay on the heap, see AbstractPersistOffer.
+ *
+ * The store holds up to offer.store.offheap.capacity offers. Each shard has a table for twice its share of them,
+ * filled up to three quarters, so products hashing unevenly can fill a shard before the store is full.
+ * Records have room for what OfferDTO validation lets in: product up to 50 and description up to 255 characters.
+ * Anything longer is refused with an IllegalArgumentException.
+ */
+@Component
+@ConditionalOnProperty(name = "offer.store", havingValue = "offheap")
+public class OffHeapPersistOffer extends AbstractPersistOffer {
+
+    static final int MAX_PRODUCT = 50;
+    static final int MAX_DESCRIPTION = 255;
+    static final int SHARDS = 16;
+    private static final int SHARD_SHIFT = Integer.SIZE - Integer.numberOfTrailingZeros(SHARDS);
+    private static final int SLAB_RECORDS = 1 << 12;
+
+    // record layout
+    private static final int USED = 0;
+    private static final int NEXT_FREE = 1;
+    private static final int VERSION = 5;
+    private static final int START = 13;
+    private static final int END = 21;
+    private static final int PRICE = 29;
+    private static final int MODIFIED = 37;
+    private static final int CURRENCY = 45;
+    private static final int STATUS = 47;
+    private static final int PRODUCT_LENGTH = 48;
+    private static final int PRODUCT = PRODUCT_LENGTH + 2;
+    private static final int DESCRIPTION_LENGTH = PRODUCT + 2 * MAX_PRODUCT;
+    private static final int DESCRIPTION = DESCRIPTION_LENGTH + 2;
+    static final int RECORD_SIZE = DESCRIPTION + 2 * MAX_DESCRIPTION;
+
+    // description length of an offer without description
+    private static final short NO_DESCRIPTION = -1;
+
+    private static final OfferStatus[] STATUSES = OfferStatus.values();
+
+    private final AtomicInteger size = new AtomicInteger();
+    private int capacity = 1_000_000;
+    private Shard[] shards;
+
+    @Value("${offer.store.offheap.capacity:1000000}")
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Allocates the product tables. Slabs of records are allocated when needed
+     */
+    @PostConstruct
+    public void allocate() {
+        int share = (capacity + SHARDS - 1) / SHARDS;
+        int tableSize = Integer.highestOneBit(Math.max(share, 2) * 2 - 1) << 1;
+        shards = new Shard[SHARDS];
+        for (int i = 0; i < SHARDS; i++)
+            shards[i] = new Shard(tableSize);
+    }
+
+    @Override
+    public Iterator<Offer> getOffers() {
+        return new Iterator<Offer>() {
+            private int shard;
+            private int slot;
+            private Offer next;
+
+            @Override
+            public boolean hasNext() {
+                while (Objects.isNull(next) && shard < shards.length) {
+                    Shard current = shards[shard];
+                    if (slot >= current.highWater) {
+                        shard++;
+                        slot = 0;
+                        continue;
+                    }
+                    int at = slot++;
+                    next = current.read(() -> current.isUsed(at) ? current.decode(at) : null);
+                }
+                return !Objects.isNull(next);
+            }
+
+            @Override
+            public Offer next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Offer offer = next;
+                next = null;
+                return offer;
+            }
+        };
+    }
+
+    @Override
+    protected Offer get(String product) {
+        Shard shard = shard(product);
+        return shard.read(() -> {
+            int entry = shard.buckets.get(shard.find(product));
+            return entry == 0 ? null : shard.decode(entry - 1);
+        });
+    }
+
+    @Override
+    protected Offer compute(String product, BiFunction<String, Offer, Offer> function) {
+        Shard shard = shard(product);
+        long stamp = shard.lock.writeLock();
+        try {
+            int bucket = shard.find(product);
+            int entry = shard.buckets.get(bucket);
+            Offer old = entry == 0 ? null : shard.decode(entry - 1);
+            Offer updated = function.apply(product, old);
+            if (updated == old)
+                return old;
+            if (Objects.isNull(updated)) {
+                shard.removeBucket(bucket);
+                shard.release(entry - 1);
+                size.decrementAndGet();
+                return null;
+            }
+            int slot = entry == 0 ? shard.take() : entry - 1;
+            shard.encode(slot, updated);
+            if (entry == 0)
+                shard.buckets.put(bucket, slot + 1);
+            return updated;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Called under the lock of the shard of the product. A new product takes its place in the store here,
+     * as the compute stores it once accepted
+     */
+    @Override
+    protected void accept(Offer old, Offer offer) {
+        if (offer.getProduct().length() > MAX_PRODUCT)
+            throw new IllegalArgumentException("Product longer than " + MAX_PRODUCT + " characters");
+        if (!Objects.isNull(offer.getDescription()) && offer.getDescription().length() > MAX_DESCRIPTION)
+            throw new IllegalArgumentException("Description longer than " + MAX_DESCRIPTION + " characters");
+        if (!Objects.isNull(old))
+            return;
+        if (shard(offer.getProduct()).isFull())
+            throw new IllegalStateException("Offer store is full (shard of " + offer.getProduct() + ")");
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            throw new IllegalStateException("Offer store is full (" + capacity + " offers)");
+        }
+    }
+
+    private Shard shard(String product) {
+        // high bits of the hash mixed by a multiplication (close hashes, as of similar names, go to other shards),
+        // the table of the shard probes from the low ones
+        return shards[(spread(product.hashCode()) * 0x9E3779B9) >>> SHARD_SHIFT];
+    }
+
+    /**
+     * Records and product table of the products of one shard, changed under its lock
+     */
+    private static final class Shard {
+        private final StampedLock lock = new StampedLock();
+        private final IntBuffer buckets;
+        private final int mask;
+        private final ByteBuffer[] slabs;
+        private volatile int highWater;
+        private int freeHead = -1;
+        private int used;
+
+        Shard(int tableSize) {
+            buckets = ByteBuffer.allocateDirect(tableSize * Integer.BYTES).asIntBuffer();
+            mask = tableSize - 1;
+            slabs = new ByteBuffer[(limit() + SLAB_RECORDS - 1) / SLAB_RECORDS];
+        }
+
+        private int limit() {
+            return (mask + 1) - (mask + 1) / 4;
+        }
+
+        boolean isFull() {
+            return used >= limit();
+        }
+
+        /**
+         * Reads without locking, then checks no write happened meanwhile. If one did, the read may have seen a record
+         * being changed (and may even have failed on it), so it is done again under the read lock
+         */
+        Offer read(Supplier<Offer> reader) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    Offer offer = reader.get();
+                    if (lock.validate(stamp))
+                        return offer;
+                } catch (RuntimeException e) {
+                    if (lock.validate(stamp))
+                        throw e;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return reader.get();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Probes the table from the product hash
+         *
+         * @return bucket holding the product, or else the empty bucket where it would go
+         */
+        int find(String product) {
+            int bucket = spread(product.hashCode()) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                int entry = buckets.get(bucket);
+                if (entry == 0 || productEquals(entry - 1, product))
+                    return bucket;
+                bucket = (bucket + 1) & mask;
+            }
+            throw new IllegalStateException("Offer table has no empty bucket");
+        }
+
+        /**
+         * Empties a bucket, moving back the entries of the probe run that follows it, so probes never need tombstones
+         */
+        void removeBucket(int bucket) {
+            int hole = bucket;
+            int next = bucket;
+            while (true) {
+                next = (next + 1) & mask;
+                int entry = buckets.get(next);
+                if (entry == 0)
+                    break;
+                int home = spread(productHash(entry - 1)) & mask;
+                boolean movable = hole <= next ? home <= hole || home > next : home <= hole && home > next;
+                if (movable) {
+                    buckets.put(hole, entry);
+                    hole = next;
+                }
+            }
+            buckets.put(hole, 0);
+        }
+
+        int take() {
+            used++;
+            if (freeHead >= 0) {
+                int slot = freeHead;
+                freeHead = slab(slot).getInt(offset(slot) + NEXT_FREE);
+                return slot;
+            }
+            int slot = highWater;
+            if (Objects.isNull(slabs[slot / SLAB_RECORDS]))
+                slabs[slot / SLAB_RECORDS] = ByteBuffer.allocateDirect(SLAB_RECORDS * RECORD_SIZE);
+            highWater++;
+            return slot;
+        }
+
+        void release(int slot) {
+            used--;
+            ByteBuffer slab = slab(slot);
+            int at = offset(slot);
+            slab.put(at + USED, (byte) 0);
+            slab.putInt(at + NEXT_FREE, freeHead);
+            freeHead = slot;
+        }
+
+        void encode(int slot, Offer offer) {
+            ByteBuffer slab = slab(slot);
+            int at = offset(slot);
+            slab.putLong(at + VERSION, offer.getVersion());
+            slab.putLong(at + MODIFIED, offer.getModifiedMillis());
+            slab.putLong(at + START, offer.getStartMillis());
+            slab.putLong(at + END, offer.getEndMillis());
+            slab.putLong(at + PRICE, offer.getMinorPrice());
+            slab.putShort(at + CURRENCY, (short) offer.getCurrencyCode());
+            slab.put(at + STATUS, (byte) offer.getStatus().ordinal());
+            putString(slab, at + PRODUCT_LENGTH, offer.getProduct());
+            if (Objects.isNull(offer.getDescription())) slab.putShort(at + DESCRIPTION_LENGTH, NO_DESCRIPTION);
+            else putString(slab, at + DESCRIPTION_LENGTH, offer.getDescription());
+            slab.put(at + USED, (byte) 1);
+        }
+
+        Offer decode(int slot) {
+            ByteBuffer slab = slab(slot);
+            int at = offset(slot);
+            return Offer.builder()
+                    .product(getString(slab, at + PRODUCT_LENGTH))
+                    .startMillis(slab.getLong(at + START))
+                    .endMillis(slab.getLong(at + END))
+                    .minorPrice(slab.getLong(at + PRICE))
+                    .currencyCode(slab.getShort(at + CURRENCY))
+                    .status(STATUSES[slab.get(at + STATUS)])
+                    .description(slab.getShort(at + DESCRIPTION_LENGTH) == NO_DESCRIPTION ? null : getString(slab, at + DESCRIPTION_LENGTH))
+                    .version(slab.getLong(at + VERSION))
+                    .modifiedMillis(slab.getLong(at + MODIFIED))
+                    .build();
+        }
+
+        boolean isUsed(int slot) {
+            return slab(slot).get(offset(slot) + USED) == 1;
+        }
+
+        private boolean productEquals(int slot, String product) {
+            ByteBuffer slab = slab(slot);
+            int at = offset(slot) + PRODUCT_LENGTH;
+            int length = slab.getShort(at);
+            if (length != product.length())
+                return false;
+            for (int i = 0; i < length; i++)
+                if (slab.getChar(at + 2 + 2 * i) != product.charAt(i))
+                    return false;
+            return true;
+        }
+
+        /**
+         * Same as String.hashCode of the stored product, without building the string
+         */
+        private int productHash(int slot) {
+            ByteBuffer slab = slab(slot);
+            int at = offset(slot) + PRODUCT_LENGTH;
+            int length = slab.getShort(at);
+            int hash = 0;
+            for (int i = 0; i < length; i++)
+                hash = 31 * hash + slab.getChar(at + 2 + 2 * i);
+            return hash;
+        }
+
+        private static void putString(ByteBuffer slab, int at, String value) {
+            slab.putShort(at, (short) value.length());
+            for (int i = 0; i < value.length(); i++)
+                slab.putChar(at + 2 + 2 * i, value.charAt(i));
+        }
+
+        private static String getString(ByteBuffer slab, int at) {
+            char[] chars = new char[slab.getShort(at)];
+            for (int i = 0; i < chars.length; i++)
+                chars[i] = slab.getChar(at + 2 + 2 * i);
+            return new String(chars);
+        }
+
+        private ByteBuffer slab(int slot) {
+            return slabs[slot / SLAB_RECORDS];
+        }
+
+        private static int offset(int slot) {
+            return (slot % SLAB_RECORDS) * RECORD_SIZE;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
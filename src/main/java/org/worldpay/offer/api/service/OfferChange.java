@@ -0,0 +1,71 @@
+package org.worldpay.offer.api.service;
+
+import org.worldpay.offer.api.data.Offer;
+
+/**
+ * One change of the offer store, as told to subscribers of the OfferChangeFeed
+ */
+public final class OfferChange {
+
+    public enum Type {
+        CREATED, UPDATED, STATUS, DELETED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final String product;
+    private final Offer offer;
+    private final long version;
+
+    OfferChange(long sequence, Type type, String product, Offer offer, long version) {
+        this.sequence = sequence;
+        this.type = type;
+        this.product = product;
+        this.offer = offer;
+        this.version = version;
+    }
+
+    /**
+     * @param previous offer replaced or removed, null if none
+     * @param offer    offer stored, null if removed
+     * @return kind of change: deleted, created, a new status (expiry, or an update canceling the offer), or else updated
+     */
+    static Type typeOf(Offer previous, Offer offer) {
+        if (offer == null)
+            return Type.DELETED;
+        if (previous == null)
+            return Type.CREATED;
+        if (previous.getStatus() != offer.getStatus())
+            return Type.STATUS;
+        return Type.UPDATED;
+    }
+
+    /**
+     * @return position of the change in the feed, starting at 1
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getProduct() {
+        return product;
+    }
+
+    /**
+     * @return offer stored, null if deleted
+     */
+    public Offer getOffer() {
+        return offer;
+    }
+
+    /**
+     * @return store version of the change
+     */
+    public long getVersion() {
+        return version;
+    }
+}
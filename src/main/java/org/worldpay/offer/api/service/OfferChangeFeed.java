@@ -0,0 +1,225 @@
+package org.worldpay.offer.api.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.worldpay.offer.api.data.Offer;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Feed of the changes of the offer store (creations, updates, status transitions and deletions), pushed to
+ * subscribers as they are made, so that caches don't have to poll the offer list.
+ * - the feed is told about every change by the store, on the writing thread, right after the change is applied
+ *   (see OfferStoreListener), so it sees the same writes as the journal
+ * - each change gets the next sequence number of the feed, in the order changes are told; the last
+ *   offer.changes.history changes are kept, so a subscriber can resume after the last sequence it got
+ * - each subscriber has its own queue of at most offer.changes.buffer changes (plus the changes it resumes with):
+ *   a subscriber that lets its queue fill up is dropped (overflowed), instead of holding memory or slowing writers,
+ *   and is expected to resume from the last sequence it got
+ * - the lock of the feed is held only to number a change, keep it and queue it for subscribers, so that
+ *   the sequences of each queue are in order and a subscriber resuming misses none; subscribers are told
+ *   outside of it
+ * Sequence numbers start over with the application, so event ids (see eventId) hold a random epoch of this run as
+ * well: a subscriber resuming from an id of another run, or from a sequence the feed doesn't have anymore
+ * (too old), is told so (reset) and should read the offer list again.
+ */
+@Component
+public class OfferChangeFeed implements OfferStoreListener {
+
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+    private final ArrayDeque<OfferChange> history = new ArrayDeque<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private PersistOffer persist;
+    private int historySize = 10000;
+    private int bufferSize = 1000;
+    private long sequence;
+
+    @Autowired
+    public void setPersist(PersistOffer p) {
+        persist = p;
+    }
+
+    @Value("${offer.changes.history:10000}")
+    public void setHistorySize(int size) {
+        historySize = size;
+    }
+
+    @Value("${offer.changes.buffer:1000}")
+    public void setBufferSize(int size) {
+        bufferSize = size;
+    }
+
+    @PostConstruct
+    public void start() {
+        persist.addListener(this);
+    }
+
+    /**
+     * @param sequence sequence of a change (or of the last change before a reset)
+     * @return id of the change in this run, to resume from (see resume)
+     */
+    public String eventId(long sequence) {
+        return epoch + "-" + sequence;
+    }
+
+    /**
+     * Subscribes to the changes made from now on, after the ones kept since the change of lastEventId, if any.
+     * An id which isn't one of this run resets the subscriber
+     *
+     * @param lastEventId id of the last change the subscriber got (see eventId), null for changes from now on only
+     * @param ready       as for subscribe
+     * @return subscription, to be canceled by the subscriber when done
+     */
+    public Subscription resume(String lastEventId, Runnable ready) {
+        if (Objects.isNull(lastEventId))
+            return subscribe(-1, false, ready);
+        String prefix = epoch + "-";
+        long after = -1;
+        if (lastEventId.startsWith(prefix)) {
+            try {
+                after = Long.parseLong(lastEventId.substring(prefix.length()));
+            } catch (NumberFormatException e) {
+                after = -1;
+            }
+        }
+        return subscribe(after, after < 0, ready);
+    }
+
+    /**
+     * Subscribes to the changes made from now on, after the ones kept since after, if any
+     *
+     * @param after sequence of the last change the subscriber got in this run, negative for changes from now on only
+     * @param ready called, on a writing thread, when changes are queued for the subscriber or when it overflows;
+     *              must return quickly (hand the changes over to another thread)
+     * @return subscription, to be canceled by the subscriber when done
+     */
+    public Subscription subscribe(long after, Runnable ready) {
+        return subscribe(after, false, ready);
+    }
+
+    private Subscription subscribe(long after, boolean reset, Runnable ready) {
+        synchronized (this) {
+            List<OfferChange> missed = new ArrayList<>();
+            if (after >= 0) {
+                long oldest = history.isEmpty() ? sequence + 1 : history.peekFirst().getSequence();
+                reset = after > sequence || after < oldest - 1;
+                if (!reset)
+                    for (OfferChange change : history)
+                        if (change.getSequence() > after)
+                            missed.add(change);
+            }
+            Subscription subscription = new Subscription(bufferSize + missed.size(), ready, reset, sequence);
+            subscription.queue.addAll(missed);
+            subscriptions.add(subscription);
+            return subscription;
+        }
+    }
+
+    /**
+     * Subscribers queued the change are told once the lock is released, from the list as it was then: one which
+     * overflowed is told too, to find it out
+     */
+    @Override
+    public void offerChanged(String product, Offer previous, Offer offer, long version) {
+        OfferChange.Type type = OfferChange.typeOf(previous, offer);
+        Object[] signaled;
+        synchronized (this) {
+            OfferChange change = new OfferChange(++sequence, type, product, offer, version);
+            history.addLast(change);
+            if (history.size() > historySize)
+                history.removeFirst();
+            if (subscriptions.isEmpty())
+                return;
+            signaled = subscriptions.toArray();
+            for (Object subscribed : signaled) {
+                Subscription subscription = (Subscription) subscribed;
+                if (!subscription.queue.offer(change)) {
+                    subscription.overflowed = true;
+                    subscriptions.remove(subscription);
+                }
+            }
+        }
+        for (Object subscribed : signaled)
+            ((Subscription) subscribed).ready.run();
+    }
+
+    private void cancel(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * Changes queued for one subscriber
+     */
+    public final class Subscription {
+        private final BlockingQueue<OfferChange> queue;
+        private final Runnable ready;
+        private final boolean reset;
+        private final long startSequence;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean overflowed;
+
+        private Subscription(int capacity, Runnable ready, boolean reset, long startSequence) {
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+            this.ready = ready;
+            this.reset = reset;
+            this.startSequence = startSequence;
+        }
+
+        /**
+         * Hands the queued changes over to the subscriber, in order, from one thread at a time: when another thread
+         * is at it, returns at once and that thread hands over the new changes too.
+         * Stops when nothing is queued, when the subscriber takes no more for now, or once it overflowed
+         *
+         * @param demand   whether the subscriber takes a change now
+         * @param consumer takes a change
+         */
+        public void drain(BooleanSupplier demand, Consumer<OfferChange> consumer) {
+            while (!queue.isEmpty() && !overflowed && demand.getAsBoolean() && draining.compareAndSet(false, true)) {
+                try {
+                    OfferChange change;
+                    while (!overflowed && demand.getAsBoolean() && (change = queue.poll()) != null)
+                        consumer.accept(change);
+                } finally {
+                    draining.set(false);
+                }
+            }
+        }
+
+        /**
+         * @return true if the subscriber asked to resume from a change the feed doesn't have anymore, or of another run
+         */
+        public boolean isReset() {
+            return reset;
+        }
+
+        /**
+         * @return sequence of the last change made before subscribing; a reset subscriber resumes from there
+         */
+        public long getStartSequence() {
+            return startSequence;
+        }
+
+        /**
+         * @return true if the subscriber let its queue fill up and gets no more changes
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+
+        public void cancel() {
+            OfferChangeFeed.this.cancel(this);
+        }
+    }
+}
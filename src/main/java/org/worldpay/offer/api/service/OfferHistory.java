@@ -0,0 +1,303 @@
+package org.worldpay.offer.api.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * History of the offers of each product, to tell which offer is in force at any instant, past or future.
+ * - the history is told about every change by the store (see OfferStoreListener): each stored version of an offer is
+ *   in force from its start, or from the moment it was stored if later, up to its end. A later change ends it:
+ *   the version replacing it, or its cancellation or deletion. Canceled and expired versions are not in force
+ * - future offers can be queued behind the offer in store (queue), as long as they don't overlap anything in force
+ *   or queued; the OfferStatusScheduler moves them into the store at their start
+ * - the history of a product is an interval index: intervals in force don't overlap, they are kept ordered by start
+ *   in a tree, so the offer in force at an instant is the one starting last at or before it (a floor lookup),
+ *   logarithmic in the length of the history. A queued interval takes over from an interval it overlaps
+ * - at most offer.history.size intervals are kept per product, the oldest are dropped first
+ * - the history of a product is dropped once nothing of it is in force or queued any more (deleted, canceled or
+ *   expired), so deleted products don't hold memory: its past is then unknown, as if never changed since the start
+ * The history is kept in memory since the start of the application; offers restored from the journal are only known
+ * from their stored version, and queued offers are not journaled: a queued offer (202) is lost on restart.
+ */
+@Component
+public class OfferHistory implements OfferStoreListener {
+
+    private final ConcurrentHashMap<String, Timeline> timelines = new ConcurrentHashMap<>();
+    private PersistOffer persist;
+    private int size = 1000;
+
+    @Autowired
+    public void setPersist(PersistOffer p) {
+        persist = p;
+    }
+
+    @Value("${offer.history.size:1000}")
+    public void setSize(int s) {
+        size = s;
+    }
+
+    @PostConstruct
+    public void start() {
+        persist.addListener(this);
+    }
+
+    /**
+     * @param product product name
+     * @param at      moment of time, epoch milliseconds
+     * @return the offer in force at that moment (as last stored, or as queued), null if none
+     */
+    public Offer offerAt(String product, long at) {
+        Timeline timeline = timelines.get(product);
+        if (Objects.isNull(timeline)) {
+            // not changed since the start, only known from the store
+            Offer stored = persist.getOffer(product);
+            return !Objects.isNull(stored) && inForce(stored) && from(stored) <= at && at < stored.getEndMillis() ? stored : null;
+        }
+        return timeline.at(at);
+    }
+
+    /**
+     * Queues a future offer, to be in force after the ones of its product
+     *
+     * @param offer offer starting in the future, INACTIVE
+     * @return true if queued, false if it overlaps an offer in force or queued
+     */
+    public boolean queue(Offer offer) {
+        if (!offer.getStatus().equals(OfferStatus.INACTIVE) || offer.getStartMillis() <= System.currentTimeMillis())
+            return false;
+        Timeline timeline = locked(offer.getProduct());
+        try {
+            return timeline.queue(offer);
+        } finally {
+            timeline.writes.unlock();
+            dropIfIdle(offer.getProduct());
+        }
+    }
+
+    /**
+     * Runs work while no offer can be queued for the given products, so that a check of queued offers (overlapsQueued)
+     * and the store of an offer made in work can't be overtaken by the queue of an overlapping offer.
+     * Products are locked in order, so concurrent callers don't deadlock
+     *
+     * @param products products to lock
+     * @param work     checks and stores offers of the products
+     * @return result of work
+     */
+    public <T> T exclusive(Collection<String> products, Supplier<T> work) {
+        TreeSet<String> ordered = new TreeSet<>(products);
+        List<ReentrantLock> locked = new ArrayList<>();
+        try {
+            for (String product : ordered)
+                locked.add(locked(product).writes);
+            return work.get();
+        } finally {
+            for (ReentrantLock lock : locked)
+                lock.unlock();
+            for (String product : ordered)
+                dropIfIdle(product);
+        }
+    }
+
+    /**
+     * @return timeline of the product, with its writes lock held. A timeline is only dropped while nobody holds it
+     * (see dropIfIdle), so one dropped between the lookup and the lock is looked up again
+     */
+    private Timeline locked(String product) {
+        while (true) {
+            Timeline timeline = timelines.computeIfAbsent(product, p -> new Timeline(persist.getOffer(p)));
+            timeline.writes.lock();
+            if (timelines.get(product) == timeline)
+                return timeline;
+            timeline.writes.unlock();
+        }
+    }
+
+    private void dropIfIdle(String product) {
+        timelines.computeIfPresent(product, (p, timeline) -> timeline.idle() ? null : timeline);
+    }
+
+    /**
+     * @param offer offer to store
+     * @return true if the offer overlaps a queued offer of its product
+     */
+    public boolean overlapsQueued(Offer offer) {
+        Timeline timeline = timelines.get(offer.getProduct());
+        return !Objects.isNull(timeline) && timeline.overlapsQueued(offer);
+    }
+
+    /**
+     * Drops a queued offer, which could not be stored at its start
+     *
+     * @param offer queued offer
+     */
+    public void dequeue(Offer offer) {
+        Timeline timeline = timelines.get(offer.getProduct());
+        if (!Objects.isNull(timeline)) {
+            timeline.dequeue(offer);
+            dropIfIdle(offer.getProduct());
+        }
+    }
+
+    /**
+     * @return number of products with a history kept
+     */
+    public int products() {
+        return timelines.size();
+    }
+
+    @Override
+    public void offerChanged(String product, Offer previous, Offer offer, long version) {
+        long now = Objects.isNull(offer) ? System.currentTimeMillis() : offer.getModifiedMillis();
+        // recorded and dropped at once, so a change can't land in a timeline being dropped
+        timelines.compute(product, (p, timeline) -> {
+            Timeline recorded = Objects.isNull(timeline) ? new Timeline(previous) : timeline;
+            recorded.record(offer, version, now);
+            return recorded.idle() ? null : recorded;
+        });
+    }
+
+    private static boolean inForce(Offer offer) {
+        return !offer.getStatus().equals(OfferStatus.CANCELED) && !offer.getStatus().equals(OfferStatus.EXPIRED);
+    }
+
+    /**
+     * @return moment a stored version comes in force
+     */
+    private static long from(Offer offer) {
+        return Math.max(offer.getStartMillis(), offer.getModifiedMillis());
+    }
+
+    /**
+     * Intervals of one product, by start. Changes of a product are told in order of their versions, except when two
+     * writers race on it: a version older than the last one recorded is then left out.
+     * The intervals are guarded by the timeline itself; writes is held by whoever queues an offer or stores one
+     * after checking the queued ones (see exclusive), never while waiting for the intervals
+     */
+    private final class Timeline {
+        private final ReentrantLock writes = new ReentrantLock();
+        private final TreeMap<Long, Interval> intervals = new TreeMap<>();
+        private Long current;
+        private long lastVersion;
+
+        Timeline(Offer stored) {
+            if (!Objects.isNull(stored)) {
+                lastVersion = stored.getVersion();
+                add(stored, from(stored));
+            }
+        }
+
+        synchronized Offer at(long at) {
+            Map.Entry<Long, Interval> floor = intervals.floorEntry(at);
+            return !Objects.isNull(floor) && at < floor.getValue().until ? floor.getValue().offer : null;
+        }
+
+        synchronized void record(Offer offer, long version, long now) {
+            if (version <= lastVersion) return;
+            lastVersion = version;
+            // a queued offer moved into the store is in force from its start, as planned
+            boolean promoted = false;
+            if (!Objects.isNull(offer)) {
+                Interval queued = intervals.get(offer.getStartMillis());
+                promoted = !Objects.isNull(queued) && queued.queued && queued.offer.getEndMillis() == offer.getEndMillis();
+                if (promoted)
+                    intervals.remove(offer.getStartMillis());
+            }
+            // a change ends the version in force and replaces what was planned after it
+            Interval ended = Objects.isNull(current) ? null : intervals.get(current);
+            if (!Objects.isNull(ended) && !ended.queued)
+                ended.until = Math.min(ended.until, now);
+            for (Iterator<Interval> later = intervals.tailMap(now, false).values().iterator(); later.hasNext(); )
+                if (!later.next().queued)
+                    later.remove();
+            current = null;
+            if (!Objects.isNull(offer))
+                add(offer, promoted ? offer.getStartMillis() : from(offer));
+            trim();
+        }
+
+        /**
+         * @return true if nothing is in force from now on nor queued, and nobody holds writes: the timeline can go
+         */
+        synchronized boolean idle() {
+            if (writes.isLocked()) return false;
+            if (intervals.isEmpty()) return true;
+            // intervals don't overlap, the last one ends last
+            if (intervals.lastEntry().getValue().until > System.currentTimeMillis()) return false;
+            for (Interval interval : intervals.values())
+                if (interval.queued) return false;
+            return true;
+        }
+
+        synchronized boolean queue(Offer offer) {
+            if (overlaps(offer)) return false;
+            intervals.put(offer.getStartMillis(), new Interval(offer, offer.getEndMillis(), true));
+            trim();
+            return true;
+        }
+
+        synchronized boolean overlapsQueued(Offer offer) {
+            for (Map.Entry<Long, Interval> later : intervals.tailMap(offer.getStartMillis(), true).entrySet()) {
+                if (later.getKey() >= offer.getEndMillis()) break;
+                if (later.getValue().queued) return true;
+            }
+            Map.Entry<Long, Interval> lower = intervals.lowerEntry(offer.getStartMillis());
+            return !Objects.isNull(lower) && lower.getValue().queued && lower.getValue().until > offer.getStartMillis();
+        }
+
+        synchronized void dequeue(Offer offer) {
+            Interval queued = intervals.get(offer.getStartMillis());
+            if (!Objects.isNull(queued) && queued.offer == offer)
+                intervals.remove(offer.getStartMillis());
+        }
+
+        private boolean overlaps(Offer offer) {
+            Map.Entry<Long, Interval> floor = intervals.floorEntry(offer.getStartMillis());
+            if (!Objects.isNull(floor) && floor.getValue().until > offer.getStartMillis()) return true;
+            Long higher = intervals.higherKey(offer.getStartMillis());
+            return !Objects.isNull(higher) && higher < offer.getEndMillis();
+        }
+
+        private void add(Offer offer, long from) {
+            if (!inForce(offer) || from >= offer.getEndMillis()) return;
+            intervals.put(from, new Interval(offer, offer.getEndMillis(), false));
+            current = from;
+        }
+
+        private void trim() {
+            while (intervals.size() > size) {
+                Long oldest = intervals.firstKey();
+                intervals.remove(oldest);
+                if (oldest.equals(current))
+                    current = null;
+            }
+        }
+    }
+
+    private static final class Interval {
+        private final Offer offer;
+        private final boolean queued;
+        private long until;
+
+        Interval(Offer offer, long until, boolean queued) {
+            this.offer = offer;
+            this.until = until;
+            this.queued = queued;
+        }
+    }
+}
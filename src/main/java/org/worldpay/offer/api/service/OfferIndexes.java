@@ -0,0 +1,193 @@
+package org.worldpay.offer.api.service;
+
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Secondary indexes of the offer store, all of them holding product names:
+ * - products, ordered by name
+ * - products by status
+ * - products by currency
+ * - products ordered by end time
+ * - products ordered by price, per currency
+ * Per currency entries are arrays indexed by currency code (see CurrencyCodes), with the index of a currency created
+ * on its first offer: a store only pays for the currencies it has, which matters with a store per merchant (see MerchantOffers).
+ *
+ * Indexes are only changed by the store (AbstractPersistOffer), from inside the compute of the product,
+ * so changes of a product are never interleaved. Readers may still see an index a bit ahead or behind the map,
+ * so they should check the offer they get from the store.
+ */
+class OfferIndexes {
+
+    private final ConcurrentSkipListSet<String> products = new ConcurrentSkipListSet<>();
+    private final Map<OfferStatus, Set<String>> byStatus = new EnumMap<>(OfferStatus.class);
+    private final AtomicReferenceArray<Set<String>> byCurrency = new AtomicReferenceArray<>(CurrencyCodes.count());
+    private final ConcurrentSkipListSet<EndKey> byEnd = new ConcurrentSkipListSet<>();
+    private final AtomicReferenceArray<ConcurrentSkipListSet<PriceKey>> byPrice = new AtomicReferenceArray<>(CurrencyCodes.count());
+
+    OfferIndexes() {
+        for (OfferStatus status : OfferStatus.values())
+            byStatus.put(status, ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * Moves a product from the entries of its old offer to the ones of the new offer
+     *
+     * @param old     offer replaced, null if none
+     * @param current offer stored, null if removed
+     */
+    void update(Offer old, Offer current) {
+        if (!Objects.isNull(old)) {
+            if (Objects.isNull(current) || !old.getStatus().equals(current.getStatus()))
+                byStatus.get(old.getStatus()).remove(old.getProduct());
+            if (Objects.isNull(current) || old.getCurrencyCode() != current.getCurrencyCode())
+                currencyIndex(old.getCurrencyCode()).remove(old.getProduct());
+            if (Objects.isNull(current) || old.getEndMillis() != current.getEndMillis())
+                byEnd.remove(new EndKey(old.getEndMillis(), old.getProduct()));
+            if (Objects.isNull(current) || old.getCurrencyCode() != current.getCurrencyCode() || old.getMinorPrice() != current.getMinorPrice())
+                priceIndex(old.getCurrencyCode()).remove(new PriceKey(old.getMinorPrice(), old.getProduct()));
+        }
+        if (Objects.isNull(current)) {
+            products.remove(old.getProduct());
+            return;
+        }
+        products.add(current.getProduct());
+        byStatus.get(current.getStatus()).add(current.getProduct());
+        currencyIndex(current.getCurrencyCode()).add(current.getProduct());
+        byEnd.add(new EndKey(current.getEndMillis(), current.getProduct()));
+        priceIndex(current.getCurrencyCode()).add(new PriceKey(current.getMinorPrice(), current.getProduct()));
+    }
+
+    NavigableSet<String> products() {
+        return products;
+    }
+
+    Set<String> withStatus(OfferStatus status) {
+        return Collections.unmodifiableSet(byStatus.get(status));
+    }
+
+    Set<String> withCurrency(int currency) {
+        Set<String> index = byCurrency.get(currency);
+        return Objects.isNull(index) ? Collections.emptySet() : Collections.unmodifiableSet(index);
+    }
+
+    /**
+     * @param time moment of time, epoch milliseconds
+     * @return keys of offers ending strictly before time, in end time order
+     */
+    NavigableSet<EndKey> endingBefore(long time) {
+        return byEnd.headSet(new EndKey(time, ""), false);
+    }
+
+    /**
+     * @param currency currency code of offers
+     * @param min      lowest price in minor units (inclusive)
+     * @param max      highest price in minor units (inclusive)
+     * @return keys of offers in currency with price in range, in price order
+     */
+    NavigableSet<PriceKey> pricedBetween(int currency, long min, long max) {
+        ConcurrentSkipListSet<PriceKey> index = byPrice.get(currency);
+        if (min > max || Objects.isNull(index))
+            return Collections.emptyNavigableSet();
+        return index.subSet(new PriceKey(min, ""), true, new PriceKey(max, null), false);
+    }
+
+    private Set<String> currencyIndex(int currency) {
+        Set<String> index = byCurrency.get(currency);
+        if (Objects.isNull(index)) {
+            byCurrency.compareAndSet(currency, null, ConcurrentHashMap.newKeySet());
+            index = byCurrency.get(currency);
+        }
+        return index;
+    }
+
+    private ConcurrentSkipListSet<PriceKey> priceIndex(int currency) {
+        ConcurrentSkipListSet<PriceKey> index = byPrice.get(currency);
+        if (Objects.isNull(index)) {
+            byPrice.compareAndSet(currency, null, new ConcurrentSkipListSet<>());
+            index = byPrice.get(currency);
+        }
+        return index;
+    }
+
+    static final class EndKey implements Comparable<EndKey> {
+        private final long end;
+        private final String product;
+
+        EndKey(long end, String product) {
+            this.end = end;
+            this.product = product;
+        }
+
+        String getProduct() {
+            return product;
+        }
+
+        @Override
+        public int compareTo(EndKey o) {
+            int byTime = Long.compare(end, o.end);
+            return byTime != 0 ? byTime : product.compareTo(o.product);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EndKey)) return false;
+            return compareTo((EndKey) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(end, product);
+        }
+    }
+
+    /**
+     * Price then product. A null product is a bound placed after all products of same price
+     */
+    static final class PriceKey implements Comparable<PriceKey> {
+        private final long price;
+        private final String product;
+
+        PriceKey(long price, String product) {
+            this.price = price;
+            this.product = product;
+        }
+
+        String getProduct() {
+            return product;
+        }
+
+        @Override
+        public int compareTo(PriceKey o) {
+            int byPrice = Long.compare(price, o.price);
+            if (byPrice != 0) return byPrice;
+            if (Objects.isNull(product)) return Objects.isNull(o.product) ? 0 : 1;
+            if (Objects.isNull(o.product)) return -1;
+            return product.compareTo(o.product);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PriceKey)) return false;
+            return compareTo((PriceKey) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(price, product);
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package org.worldpay.offer.api.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.worldpay.offer.api.data.Offer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Optional durability of the offer store (offer.journal.enabled=true)
+ * - every store change is appended to a log, as a checksummed record (see OfferRecordCodec)
+ * - the log is written by a single thread, which takes all pending records, writes them and does one fsync
+ *   for all of them (group commit). The writing thread waits for its record to be on disk; the records of a batch
+ *   of the store (PersistOffer.applyBatch) are queued together and waited for once
+ * - periodically, the log is rolled to a new segment and the whole store is written as a snapshot;
+ *   segments older than the snapshot are then deleted
+ * - at startup, the last snapshot is loaded and the segments after it are replayed into the store
+ * - the snapshot keeps the epoch of the store (PersistOffer.epoch), so versions and the entity tags made of them
+ *   stay valid across restarts. A new journal writes a snapshot at once to keep the epoch of its store, and
+ *   a store taking another epoch (a replica of a primary which started over) is written again as a snapshot
+ *
+ * - the snapshot also keeps the last version given by the store: a removal leaves no offer in the snapshot,
+ *   so its version could otherwise be given again after a restart
+ *
+ * As changes may reach the log in another order than they were made, replay keeps for each product
+ * the change with the highest version.
+ *
+ * The log is not a write ahead log: a change is appended once the store applied it (see OfferStoreListener),
+ * so readers may see it before it is on disk. The writing thread is answered only once it is on disk; if the append
+ * fails it gets an error, but the change stays in memory (and may be read, replicated or fed) until a restart
+ * drops it.
+ */
+@Component
+@ConditionalOnProperty(name = "offer.journal.enabled", havingValue = "true")
+public class OfferJournal implements OfferStoreListener {
+
+    private static final String SEGMENT_PREFIX = "offers-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String SNAPSHOT = "offers.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x4F464655;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private final Logger logger = LoggerFactory.getLogger(OfferJournal.class);
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private PersistOffer persist;
+    private OfferStatusScheduler scheduler;
+    private Path directory = Paths.get("data");
+    private int groupCommitSize = 1024;
+    private long snapshotIntervalSeconds = 300;
+    private FileChannel channel;
+    private long segment;
+    private Thread writer;
+    private ScheduledExecutorService snapshots;
+    private volatile boolean running;
+    private volatile long commits;
+
+    @Autowired
+    public void setPersist(PersistOffer p) {
+        persist = p;
+    }
+
+    @Autowired
+    public void setScheduler(OfferStatusScheduler s) {
+        scheduler = s;
+    }
+
+    @Value("${offer.journal.directory:data}")
+    public void setDirectory(String d) {
+        directory = Paths.get(d);
+    }
+
+    @Value("${offer.journal.group-commit-size:1024}")
+    public void setGroupCommitSize(int size) {
+        groupCommitSize = size;
+    }
+
+    @Value("${offer.journal.snapshot-interval-seconds:300}")
+    public void setSnapshotIntervalSeconds(long seconds) {
+        snapshotIntervalSeconds = seconds;
+    }
+
+    /**
+     * Recovers the store from disk, then starts logging its changes
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        segment = recover() + 1;
+        channel = openSegment(segment);
+        running = true;
+        writer = new Thread(this::run, "offer-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        persist.addListener(this);
+        if (!Files.exists(directory.resolve(SNAPSHOT)))
+            snapshot();
+
+        if (snapshotIntervalSeconds > 0) {
+            snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "offer-journal-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshots.scheduleWithFixedDelay(() -> {
+                try {
+                    snapshot();
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Snapshot failed", e);
+                }
+            }, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+        logger.info("Offer journal started in " + directory.toAbsolutePath() + " at segment " + segment);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        if (!Objects.isNull(snapshots))
+            snapshots.shutdownNow();
+        running = false;
+        writer.join();
+        channel.close();
+    }
+
+    /**
+     * Appends the change to the log and waits until it is on disk
+     */
+    @Override
+    public void offerChanged(String product, Offer previous, Offer offer, long version) {
+        if (!running)
+            throw new IllegalStateException("Offer journal is stopped");
+        Pending pending = new Pending(new ByteBuffer[]{OfferRecordCodec.encode(product, offer, version)});
+        queue.add(pending);
+        await(pending.done);
+    }
+
+    /**
+     * Appends all the changes of a batch to the log as one entry, so they are written with one fsync,
+     * and waits until they are on disk
+     */
+    @Override
+    public void offersChanged(List<OfferStoreChange> changes) {
+        if (!running)
+            throw new IllegalStateException("Offer journal is stopped");
+        ByteBuffer[] records = new ByteBuffer[changes.size()];
+        for (int i = 0; i < records.length; i++) {
+            OfferStoreChange change = changes.get(i);
+            records[i] = OfferRecordCodec.encode(change.getProduct(), change.getOffer(), change.getVersion());
+        }
+        Pending pending = new Pending(records);
+        queue.add(pending);
+        await(pending.done);
+    }
+
+    /**
+     * The records of the former epoch can't be compared with the new ones, so the store is written as a snapshot
+     * of the new epoch, which deletes them
+     */
+    @Override
+    public void epochChanged(long epoch) {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Offer snapshot failed", e);
+        }
+    }
+
+    /**
+     * Rolls the log to a new segment, writes the whole store as a snapshot and deletes the segments
+     * the snapshot makes useless
+     */
+    public synchronized void snapshot() throws IOException {
+        Pending roll = new Pending(null);
+        queue.add(roll);
+        long firstSegment = await(roll.done);
+        long epoch = persist.epoch();
+        long lastVersion = persist.lastVersion();
+
+        Path tmp = directory.resolve(SNAPSHOT + ".tmp");
+        int count = 0;
+        try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(file), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(epoch);
+            out.writeLong(lastVersion);
+            out.writeLong(firstSegment);
+            Iterator<Offer> offers = persist.getOffers();
+            while (offers.hasNext()) {
+                Offer offer = offers.next();
+                out.write(OfferRecordCodec.encode(offer.getProduct(), offer, offer.getVersion()).array());
+                count++;
+            }
+            out.writeInt(-1);
+            out.flush();
+            file.force(true);
+        }
+        Files.move(tmp, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Long old : segments()) {
+            if (old < firstSegment)
+                Files.deleteIfExists(segmentPath(old));
+        }
+        logger.info("Snapshot of " + count + " offers written, log continues at segment " + firstSegment);
+    }
+
+    /**
+     * @return number of writes to disk (fsync) so far
+     */
+    long commits() {
+        return commits;
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(groupCommitSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (Objects.isNull(first)) continue;
+                batch.add(first);
+                queue.drainTo(batch, groupCommitSize - 1);
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the records of the batch with one fsync. A roll request in the batch splits it:
+     * records before it go to the current segment, records after it to the new one
+     */
+    private void commit(List<Pending> batch) {
+        int from = 0;
+        while (from < batch.size()) {
+            int to = from;
+            while (to < batch.size() && !Objects.isNull(batch.get(to).records)) to++;
+            List<Pending> records = batch.subList(from, to);
+            try {
+                write(records);
+                records.forEach(p -> p.done.complete(segment));
+            } catch (IOException e) {
+                logger.error("Journal write failed", e);
+                records.forEach(p -> p.done.completeExceptionally(e));
+            }
+            if (to < batch.size()) {
+                Pending roll = batch.get(to);
+                try {
+                    channel.close();
+                    segment++;
+                    channel = openSegment(segment);
+                    roll.done.complete(segment);
+                } catch (IOException e) {
+                    logger.error("Journal roll failed", e);
+                    roll.done.completeExceptionally(e);
+                }
+                to++;
+            }
+            from = to;
+        }
+    }
+
+    private void write(List<Pending> records) throws IOException {
+        if (records.isEmpty()) return;
+        ByteBuffer[] buffers = records.stream().flatMap(p -> Arrays.stream(p.records)).toArray(ByteBuffer[]::new);
+        long remaining = Arrays.stream(buffers).mapToLong(ByteBuffer::remaining).sum();
+        while (remaining > 0)
+            remaining -= channel.write(buffers);
+        channel.force(false);
+        commits++;
+    }
+
+    /**
+     * @return last segment number found on disk
+     */
+    private long recover() throws IOException {
+        Map<String, Offer> state = new HashMap<>();
+        Map<String, Long> versions = new HashMap<>();
+        long[] header = {persist.epoch(), 0, 0};
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot))
+            header = readSnapshot(snapshot, state, versions);
+        long epoch = header[0];
+        long firstSegment = header[2];
+
+        long last = Math.max(firstSegment - 1, 0);
+        List<Long> segments = segments();
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i) < firstSegment) continue;
+            replay(segmentPath(segments.get(i)), i == segments.size() - 1, state, versions);
+            last = segments.get(i);
+        }
+
+        long lastVersion = Math.max(header[1], versions.values().stream().mapToLong(Long::longValue).max().orElse(0));
+        persist.restore(state.values(), lastVersion, epoch);
+        state.values().forEach(scheduler::schedule);
+        logger.info("Recovered " + state.size() + " offers, last version " + lastVersion + " of epoch " + Long.toString(epoch, 36));
+        return last;
+    }
+
+    /**
+     * @return epoch of the store, last version given before the snapshot and first segment after it
+     */
+    private long[] readSnapshot(Path snapshot, Map<String, Offer> state, Map<String, Long> versions) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC)
+                throw new IllegalStateException("Not an offer snapshot: " + snapshot);
+            long epoch = in.readLong();
+            long lastVersion = in.readLong();
+            long firstSegment = in.readLong();
+            int length;
+            while ((length = in.readInt()) != -1) {
+                OfferRecordCodec.Record record = readRecord(in, length);
+                if (Objects.isNull(record))
+                    throw new IllegalStateException("Corrupted offer snapshot: " + snapshot);
+                apply(record, state, versions);
+            }
+            return new long[]{epoch, lastVersion, firstSegment};
+        } catch (EOFException e) {
+            throw new IllegalStateException("Truncated offer snapshot: " + snapshot, e);
+        }
+    }
+
+    /**
+     * Replays a segment. A torn or corrupted record ends the replay: in the last segment this is
+     * a write which didn't complete, so the segment is cut there. In an older segment the log can't be trusted.
+     */
+    private void replay(Path path, boolean last, Map<String, Offer> state, Map<String, Long> versions) throws IOException {
+        long valid = 0;
+        boolean torn = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                OfferRecordCodec.Record record;
+                try {
+                    record = length < 0 || length > MAX_RECORD_SIZE ? null : readRecord(in, length);
+                } catch (EOFException e) {
+                    record = null;
+                }
+                if (Objects.isNull(record)) {
+                    torn = true;
+                    break;
+                }
+                apply(record, state, versions);
+                valid += OfferRecordCodec.HEADER_SIZE + length;
+            }
+        }
+        if (!torn) return;
+        if (!last)
+            throw new IllegalStateException("Corrupted offer journal segment: " + path);
+        logger.warn("Cutting torn end of " + path + " at " + valid);
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            file.truncate(valid);
+        }
+    }
+
+    /**
+     * @return the record or null if its checksum doesn't match
+     */
+    private OfferRecordCodec.Record readRecord(DataInputStream in, int length) throws IOException {
+        int crc = in.readInt();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        if (OfferRecordCodec.checksum(payload, 0, length) != crc)
+            return null;
+        return OfferRecordCodec.decode(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    private void apply(OfferRecordCodec.Record record, Map<String, Offer> state, Map<String, Long> versions) {
+        Long seen = versions.get(record.getProduct());
+        if (!Objects.isNull(seen) && seen >= record.getVersion()) return;
+        versions.put(record.getProduct(), record.getVersion());
+        if (Objects.isNull(record.getOffer())) {
+            state.remove(record.getProduct());
+        } else {
+            state.put(record.getProduct(), record.getOffer());
+        }
+    }
+
+    private List<Long> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_SUFFIX))
+                    .map(n -> Long.parseLong(n.substring(SEGMENT_PREFIX.length(), n.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static <T> T await(CompletableFuture<T> done) {
+        try {
+            return done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for offer journal", e);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException("Offer journal write failed", e.getCause() instanceof IOException
+                    ? (IOException) e.getCause() : new IOException(e.getCause()));
+        }
+    }
+
+    /**
+     * Records waiting to be written (one, or all the changes of a batch), or a request to roll the log when records
+     * is null. done completes with the segment the records went to (or the new segment for a roll)
+     */
+    private static class Pending {
+        private final ByteBuffer[] records;
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        Pending(ByteBuffer[] records) {
+            this.records = records;
+        }
+    }
+}
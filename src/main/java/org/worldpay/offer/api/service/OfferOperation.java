@@ -0,0 +1,55 @@
+package org.worldpay.offer.api.service;
+
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.BatchOperationType;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * One, already validated, change to apply to the store as part of a batch
+ * - CREATE carries the new offer
+ * - UPDATE carries the change to apply on the stored offer
+ * - DELETE only needs the product
+ */
+public class OfferOperation {
+
+    private final BatchOperationType type;
+    private final String product;
+    private final Offer offer;
+    private final UnaryOperator<Offer> change;
+
+    private OfferOperation(BatchOperationType type, String product, Offer offer, UnaryOperator<Offer> change) {
+        this.type = type;
+        this.product = product;
+        this.offer = offer;
+        this.change = change;
+    }
+
+    public static OfferOperation create(Offer offer) {
+        return new OfferOperation(BatchOperationType.CREATE, offer.getProduct(), offer, null);
+    }
+
+    public static OfferOperation update(String product, UnaryOperator<Offer> change) {
+        return new OfferOperation(BatchOperationType.UPDATE, product, null, change);
+    }
+
+    public static OfferOperation delete(String product) {
+        return new OfferOperation(BatchOperationType.DELETE, product, null, null);
+    }
+
+    public BatchOperationType getType() {
+        return type;
+    }
+
+    public String getProduct() {
+        return product;
+    }
+
+    public Offer getOffer() {
+        return offer;
+    }
+
+    public UnaryOperator<Offer> getChange() {
+        return change;
+    }
+}
@@ -0,0 +1,15 @@
+package org.worldpay.offer.api.service;
+
+/**
+ * Result of trying to change an offer in store
+ */
+public enum OfferOutcome {
+    CREATED,
+    QUEUED,
+    UPDATED,
+    DELETED,
+    CONFLICT,
+    NOT_FOUND,
+    FORBIDDEN,
+    PRECONDITION_FAILED
+}
@@ -0,0 +1,131 @@
+package org.worldpay.offer.api.service;
+
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Currency;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Binary form of store changes, as written to the journal and snapshot files
+ * A record is framed as: int payload length, int CRC32 of payload, payload.
+ * The payload starts with the record type and the change version, then:
+ * - PUT: the offer fields, the currency by its ISO code (currency codes of the store only hold inside a JVM),
+ *   then the modification time
+ * - REMOVE: the product
+ */
+public final class OfferRecordCodec {
+
+    public static final byte PUT = 1;
+    public static final byte REMOVE = 2;
+    public static final int HEADER_SIZE = 8;
+
+    private OfferRecordCodec() {
+    }
+
+    /**
+     * @return a framed record, ready to be written
+     */
+    public static ByteBuffer encode(String product, Offer offer, long version) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(Objects.isNull(offer) ? REMOVE : PUT);
+            out.writeLong(version);
+            if (Objects.isNull(offer)) {
+                out.writeUTF(product);
+            } else {
+                writeOffer(offer, out);
+            }
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            record.putInt(0, record.capacity() - HEADER_SIZE);
+            record.putInt(4, checksum(record.array(), HEADER_SIZE, record.capacity() - HEADER_SIZE));
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeOffer(Offer offer, DataOutputStream out) throws IOException {
+        out.writeUTF(offer.getProduct());
+        out.writeLong(offer.getStartMillis());
+        out.writeLong(offer.getEndMillis());
+        out.writeUTF(offer.getStatus().name());
+        out.writeBoolean(!Objects.isNull(offer.getDescription()));
+        if (!Objects.isNull(offer.getDescription()))
+            out.writeUTF(offer.getDescription());
+        out.writeUTF(CurrencyCodes.currency(offer.getCurrencyCode()).getCurrencyCode());
+        out.writeLong(offer.getMinorPrice());
+        out.writeLong(offer.getModifiedMillis());
+    }
+
+    /**
+     * Reads a payload (record without its frame)
+     *
+     * @param in payload
+     * @return the decoded change
+     */
+    public static Record decode(DataInput in) throws IOException {
+        byte type = in.readByte();
+        long version = in.readLong();
+        if (type == REMOVE)
+            return new Record(in.readUTF(), null, version);
+        if (type != PUT)
+            throw new IOException("Unknown record type " + type);
+        Offer offer = Offer.builder()
+                .product(in.readUTF())
+                .startMillis(in.readLong())
+                .endMillis(in.readLong())
+                .status(OfferStatus.valueOf(in.readUTF()))
+                .description(in.readBoolean() ? in.readUTF() : null)
+                .currencyCode(CurrencyCodes.code(Currency.getInstance(in.readUTF())))
+                .minorPrice(in.readLong())
+                .modifiedMillis(in.readLong())
+                .version(version)
+                .build();
+        return new Record(offer.getProduct(), offer, version);
+    }
+
+    /**
+     * A decoded change: offer is null for a removal
+     */
+    public static final class Record {
+        private final String product;
+        private final Offer offer;
+        private final long version;
+
+        Record(String product, Offer offer, long version) {
+            this.product = product;
+            this.offer = offer;
+            this.version = version;
+        }
+
+        public String getProduct() {
+            return product;
+        }
+
+        public Offer getOffer() {
+            return offer;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package org.worldpay.offer.api.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.worldpay.offer.api.data.Offer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replica of replication (offer.replication.role=replica): follows the store of the primary at
+ * offer.replication.primary (host:port), and serves reads from its own store (writes are refused, see
+ * OfferReplicaWriteGuard)
+ * - changes are applied as made by the primary, with their versions (PersistOffer.replicate), so offer versions
+ *   and offer ETags read from a replica are the ones of the primary (list ETags are of each instance, see ETags)
+ * - after a snapshot, offers the primary no longer has are removed. A snapshot of a store of another epoch (a primary
+ *   started over, without journal) replaces the whole store, as versions of both can't be compared
+ * - the connection is opened again when lost, resuming after the last sequence applied
+ * Lag is told by the gauge offer.replication.lag.records (changes of the primary not applied yet) and the timer
+ * offer.replication.delay (from a change on the primary to its application here, including clock differences).
+ * Stores of merchants (see MerchantOffers) are not replicated.
+ */
+@Component
+@ConditionalOnProperty(name = "offer.replication.role", havingValue = "replica")
+public class OfferReplica {
+
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+    private static final long RETRY_MILLIS = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(OfferReplica.class);
+    private PersistOffer persist;
+    private String primary = "localhost:7070";
+    private Timer delay;
+    private Thread follower;
+    private volatile Socket socket;
+    private volatile boolean running;
+    private volatile boolean connected;
+    private volatile long epoch;
+    private volatile long applied;
+    private volatile long primarySequence;
+    private volatile int snapshots;
+
+    @Autowired
+    public void setPersist(PersistOffer p) {
+        persist = p;
+    }
+
+    @Value("${offer.replication.primary:localhost:7070}")
+    public void setPrimary(String p) {
+        primary = p;
+    }
+
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry registry) {
+        Gauge.builder("offer.replication.lag.records", this, OfferReplica::lag)
+                .description("Changes of the primary not applied yet by this replica")
+                .register(registry);
+        Gauge.builder("offer.replication.connected", this, r -> r.isConnected() ? 1 : 0)
+                .description("1 when this replica follows its primary")
+                .register(registry);
+        delay = Timer.builder("offer.replication.delay")
+                .description("Time from a change on the primary to its application on this replica")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        follower = new Thread(this::run, "offer-replica");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        disconnect();
+        follower.interrupt();
+        follower.join(RETRY_MILLIS);
+    }
+
+    /**
+     * Drops the connection to the primary, which is opened again
+     */
+    public void disconnect() {
+        Socket s = socket;
+        if (!Objects.isNull(s)) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return sequence of the last change of the primary applied here
+     */
+    public long getAppliedSequence() {
+        return applied;
+    }
+
+    /**
+     * @return number of snapshots received
+     */
+    public int getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * @return changes of the primary not applied yet, as of the last frame received
+     */
+    public long lag() {
+        return Math.max(0, primarySequence - applied);
+    }
+
+    private void run() {
+        int colon = primary.lastIndexOf(':');
+        InetSocketAddress address = new InetSocketAddress(primary.substring(0, colon), Integer.parseInt(primary.substring(colon + 1)));
+        while (running) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(address, READ_TIMEOUT_MILLIS);
+                s.setSoTimeout(READ_TIMEOUT_MILLIS);
+                s.setTcpNoDelay(true);
+                follow(s);
+            } catch (IOException e) {
+                if (running)
+                    logger.info("Replication from " + primary + " interrupted: " + e.getMessage());
+            } finally {
+                connected = false;
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(Socket s) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+        out.writeInt(OfferReplicationProtocol.MAGIC);
+        out.writeLong(epoch);
+        out.writeLong(applied);
+        out.flush();
+        if (in.readInt() != OfferReplicationProtocol.MAGIC)
+            throw new IOException("Not a replication primary");
+        long primaryEpoch = in.readLong();
+        long storeEpoch = in.readLong();
+        connected = true;
+        logger.info("Following " + primary + " after sequence " + applied);
+
+        // products seen in the snapshot being received, null when none
+        Set<String> seen = null;
+        while (running) {
+            OfferReplicationProtocol.Frame frame = OfferReplicationProtocol.readFrame(in);
+            primarySequence = Math.max(primarySequence, frame.sequence);
+            switch (frame.kind) {
+                case OfferReplicationProtocol.RECORD:
+                    OfferRecordCodec.Record record = decode(frame.record);
+                    persist.replicate(record.getProduct(), record.getOffer(), record.getVersion());
+                    if (Objects.isNull(seen)) {
+                        applied = frame.sequence;
+                        if (!Objects.isNull(delay))
+                            delay.record(Math.max(0, System.currentTimeMillis() - frame.millis), TimeUnit.MILLISECONDS);
+                    } else {
+                        seen.add(record.getProduct());
+                    }
+                    break;
+                case OfferReplicationProtocol.SNAPSHOT:
+                    if (storeEpoch != persist.epoch()) {
+                        logger.info("Store of " + primary + " started over, offers of the former one dropped");
+                        persist.replicateEpoch(storeEpoch);
+                    }
+                    seen = new HashSet<>();
+                    break;
+                case OfferReplicationProtocol.SNAPSHOT_END:
+                    int pruned = prune(seen);
+                    logger.info("Snapshot of " + seen.size() + " offers applied at sequence " + frame.sequence + ", " + pruned + " removed");
+                    seen = null;
+                    // the log of the primary continues from here
+                    epoch = primaryEpoch;
+                    applied = frame.sequence;
+                    primarySequence = frame.sequence;
+                    snapshots++;
+                    break;
+                default:
+                    // heartbeat, only tells the sequence of the primary
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Removes offers the snapshot of the primary doesn't have, as newer versions of them
+     *
+     * @return number of offers removed
+     */
+    private int prune(Set<String> seen) {
+        List<Offer> gone = new ArrayList<>();
+        for (Iterator<Offer> offers = persist.getOffers(); offers.hasNext(); ) {
+            Offer offer = offers.next();
+            if (!seen.contains(offer.getProduct()))
+                gone.add(offer);
+        }
+        for (Offer offer : gone)
+            persist.replicate(offer.getProduct(), null, offer.getVersion() + 1);
+        return gone.size();
+    }
+
+    private static OfferRecordCodec.Record decode(byte[] record) throws IOException {
+        ByteBuffer frame = ByteBuffer.wrap(record);
+        int length = frame.getInt(0);
+        if (length != record.length - OfferRecordCodec.HEADER_SIZE
+                || frame.getInt(4) != OfferRecordCodec.checksum(record, OfferRecordCodec.HEADER_SIZE, length))
+            throw new IOException("Corrupted replication record");
+        return OfferRecordCodec.decode(new DataInputStream(new ByteArrayInputStream(record, OfferRecordCodec.HEADER_SIZE, length)));
+    }
+}
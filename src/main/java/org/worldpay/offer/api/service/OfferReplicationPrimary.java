@@ -0,0 +1,284 @@
+package org.worldpay.offer.api.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.worldpay.offer.api.data.Offer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Primary of replication (offer.replication.role=primary): streams the changes of the store to replicas over TCP
+ * (see OfferReplica, and OfferReplicationProtocol for the wire format)
+ * - every store change is told on the writing thread (see OfferStoreListener): it is encoded once (OfferRecordCodec,
+ *   as in the journal), given the next sequence of the log and handed to the queue of each replica
+ * - the last offer.replication.log-size changes are kept, so a replica coming back resumes after the last sequence
+ *   it applied; a new replica, or one too far behind or following an earlier run (epoch), gets a snapshot of the
+ *   store first. Changes made while the snapshot is sent are queued and sent after it: a replica keeps the highest
+ *   version of each product, so changes seen twice are harmless
+ * - each replica has a sender thread and a queue of at most offer.replication.buffer changes; a replica letting its
+ *   queue fill up is disconnected, instead of slowing writers, and resumes when it reconnects
+ * - when there is nothing to send, a heartbeat tells replicas the last sequence, so they can tell their lag
+ * Replicas listen on offer.replication.port (7070).
+ */
+@Component
+@ConditionalOnProperty(name = "offer.replication.role", havingValue = "primary")
+public class OfferReplicationPrimary implements OfferStoreListener {
+
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(OfferReplicationPrimary.class);
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final ArrayDeque<OfferReplicationProtocol.Frame> log = new ArrayDeque<>();
+    private final List<Replica> replicas = new ArrayList<>();
+    private PersistOffer persist;
+    private int port = 7070;
+    private int logSize = 100000;
+    private int bufferSize = 100000;
+    private long sequence;
+    private ServerSocket server;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    @Autowired
+    public void setPersist(PersistOffer p) {
+        persist = p;
+    }
+
+    @Value("${offer.replication.port:7070}")
+    public void setPort(int p) {
+        port = p;
+    }
+
+    @Value("${offer.replication.log-size:100000}")
+    public void setLogSize(int size) {
+        logSize = size;
+    }
+
+    @Value("${offer.replication.buffer:100000}")
+    public void setBufferSize(int size) {
+        bufferSize = size;
+    }
+
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry registry) {
+        Gauge.builder("offer.replication.replicas", this, OfferReplicationPrimary::replicaCount)
+                .description("Replicas connected to this primary")
+                .register(registry);
+        Gauge.builder("offer.replication.sequence", this, OfferReplicationPrimary::sequence)
+                .description("Last sequence of the replication log")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(port));
+        running = true;
+        persist.addListener(this);
+        acceptor = new Thread(this::accept, "offer-replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("Offer replication primary listening on port " + getPort());
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        running = false;
+        server.close();
+        synchronized (this) {
+            for (Replica replica : replicas)
+                replica.close();
+        }
+    }
+
+    /**
+     * @return port replicas connect to (the one bound, when offer.replication.port is 0)
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return sequence of the last change in the log, 0 if none
+     */
+    public synchronized long sequence() {
+        return sequence;
+    }
+
+    /**
+     * @return number of replicas connected
+     */
+    public synchronized int replicaCount() {
+        return replicas.size();
+    }
+
+    @Override
+    public void offerChanged(String product, Offer previous, Offer offer, long version) {
+        byte[] record = OfferRecordCodec.encode(product, offer, version).array();
+        synchronized (this) {
+            OfferReplicationProtocol.Frame frame = new OfferReplicationProtocol.Frame(
+                    OfferReplicationProtocol.RECORD, ++sequence, System.currentTimeMillis(), record);
+            log.addLast(frame);
+            if (log.size() > logSize)
+                log.removeFirst();
+            for (Iterator<Replica> it = replicas.iterator(); it.hasNext(); ) {
+                Replica replica = it.next();
+                if (!replica.queue.offer(frame)) {
+                    it.remove();
+                    logger.warn("Replica " + replica.name + " is too far behind, disconnected");
+                    replica.close();
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                Replica replica = new Replica(socket);
+                Thread sender = new Thread(replica, "offer-replication-sender-" + replica.name);
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (running)
+                    logger.error("Failed to accept replica", e);
+            }
+        }
+    }
+
+    /**
+     * Finds where a replica starts from, and registers it for the changes after that, as one step
+     *
+     * @return changes the replica missed, or null if it needs a snapshot (taken at the sequence returned by sequence())
+     */
+    private synchronized List<OfferReplicationProtocol.Frame> join(Replica replica, long replicaEpoch, long after) {
+        replicas.add(replica);
+        long oldest = log.isEmpty() ? sequence + 1 : log.peekFirst().sequence;
+        if (replicaEpoch != epoch || after > sequence || after < oldest - 1)
+            return null;
+        List<OfferReplicationProtocol.Frame> missed = new ArrayList<>();
+        for (OfferReplicationProtocol.Frame frame : log)
+            if (frame.sequence > after)
+                missed.add(frame);
+        return missed;
+    }
+
+    private synchronized void leave(Replica replica) {
+        replicas.remove(replica);
+    }
+
+    private class Replica implements Runnable {
+        private final Socket socket;
+        private final String name;
+        private final BlockingQueue<OfferReplicationProtocol.Frame> queue = new ArrayBlockingQueue<>(bufferSize);
+        private volatile boolean closed;
+
+        Replica(Socket socket) {
+            this.socket = socket;
+            this.name = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        }
+
+        @Override
+        public void run() {
+            try (Socket s = socket;
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16))) {
+                s.setTcpNoDelay(true);
+                s.setSoTimeout((int) (10 * HEARTBEAT_MILLIS));
+                if (in.readInt() != OfferReplicationProtocol.MAGIC)
+                    throw new IOException("Not a replica");
+                long replicaEpoch = in.readLong();
+                long after = in.readLong();
+                out.writeInt(OfferReplicationProtocol.MAGIC);
+                out.writeLong(epoch);
+                out.writeLong(persist.epoch());
+
+                long snapshotAt;
+                List<OfferReplicationProtocol.Frame> missed;
+                synchronized (OfferReplicationPrimary.this) {
+                    missed = join(this, replicaEpoch, after);
+                    snapshotAt = sequence;
+                }
+                if (missed == null) {
+                    snapshot(out, snapshotAt);
+                    missed = Collections.emptyList();
+                } else {
+                    logger.info("Replica " + name + " resumes after " + after + ", " + missed.size() + " changes behind");
+                }
+                for (OfferReplicationProtocol.Frame frame : missed)
+                    write(out, frame);
+                out.flush();
+
+                while (running && !closed) {
+                    OfferReplicationProtocol.Frame frame = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (frame == null) {
+                        OfferReplicationProtocol.writeFrame(out, OfferReplicationProtocol.HEARTBEAT, sequence(), System.currentTimeMillis(), null);
+                    } else {
+                        for (; frame != null; frame = queue.poll())
+                            write(out, frame);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (!closed)
+                    logger.info("Replica " + name + " disconnected: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                leave(this);
+            }
+        }
+
+        private void snapshot(DataOutputStream out, long at) throws IOException {
+            long now = System.currentTimeMillis();
+            OfferReplicationProtocol.writeFrame(out, OfferReplicationProtocol.SNAPSHOT, at, now, null);
+            int count = 0;
+            for (Iterator<Offer> offers = persist.getOffers(); offers.hasNext(); count++) {
+                Offer offer = offers.next();
+                OfferReplicationProtocol.writeFrame(out, OfferReplicationProtocol.RECORD, at, now,
+                        OfferRecordCodec.encode(offer.getProduct(), offer, offer.getVersion()).array());
+            }
+            OfferReplicationProtocol.writeFrame(out, OfferReplicationProtocol.SNAPSHOT_END, at, System.currentTimeMillis(), null);
+            logger.info("Snapshot of " + count + " offers sent to replica " + name + " at sequence " + at);
+        }
+
+        private void write(DataOutputStream out, OfferReplicationProtocol.Frame frame) throws IOException {
+            OfferReplicationProtocol.writeFrame(out, frame.kind, frame.sequence, frame.millis, frame.record);
+        }
+
+        void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.worldpay.offer.api.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Wire format of replication, over one TCP connection per replica (see OfferReplicationPrimary and OfferReplica)
+ * - the replica opens with: int MAGIC, long epoch of the primary it followed (0 if none), long last sequence it applied
+ * - the primary answers: int MAGIC, long its epoch (of its log, new with every run), long the epoch of its store
+ *   (PersistOffer.epoch, the one of its versions), then frames until the connection is closed
+ * A frame is: byte kind, long sequence, long primary time (epoch milliseconds), then for records int length and
+ * the record as framed by OfferRecordCodec (with its checksum). Kinds:
+ * - RECORD: a store change, sequence is its position in the log of the primary
+ * - SNAPSHOT: the replica is too far behind (or new, or from another epoch), the whole store follows as records
+ *   with the sequence of the snapshot, up to SNAPSHOT_END; the log continues after that sequence
+ * - HEARTBEAT: nothing to send, sequence is the last one of the primary
+ */
+final class OfferReplicationProtocol {
+
+    static final int MAGIC = 0x4F465250;
+    static final byte RECORD = 1;
+    static final byte SNAPSHOT = 2;
+    static final byte SNAPSHOT_END = 3;
+    static final byte HEARTBEAT = 4;
+    static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private OfferReplicationProtocol() {
+    }
+
+    static void writeFrame(DataOutputStream out, byte kind, long sequence, long millis, byte[] record) throws IOException {
+        out.writeByte(kind);
+        out.writeLong(sequence);
+        out.writeLong(millis);
+        if (kind == RECORD) {
+            out.writeInt(record.length);
+            out.write(record);
+        }
+    }
+
+    static Frame readFrame(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        long sequence = in.readLong();
+        long millis = in.readLong();
+        byte[] record = null;
+        if (kind == RECORD) {
+            int length = in.readInt();
+            if (length < OfferRecordCodec.HEADER_SIZE || length > MAX_RECORD_SIZE)
+                throw new IOException("Bad replication record length " + length);
+            record = new byte[length];
+            in.readFully(record);
+        } else if (kind != SNAPSHOT && kind != SNAPSHOT_END && kind != HEARTBEAT) {
+            throw new IOException("Unknown replication frame " + kind);
+        }
+        return new Frame(kind, sequence, millis, record);
+    }
+
+    static final class Frame {
+        final byte kind;
+        final long sequence;
+        final long millis;
+        final byte[] record;
+
+        Frame(byte kind, long sequence, long millis, byte[] record) {
+            this.kind = kind;
+            this.sequence = sequence;
+            this.millis = millis;
+            this.record = record;
+        }
+    }
+}
@@ -3,11 +3,18 @@ package org.worldpay.offer.api.service;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.BatchOperationType;
 import org.worldpay.offer.api.utils.OfferStatus;
 
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.UnaryOperator;
 
 
 /**
@@ -17,44 +24,246 @@ import java.util.Objects;
 public class OfferService {
 
     private PersistOffer persist;
+    private OfferStatusScheduler scheduler;
+    private OfferHistory history;
 
     @Autowired
     public void setPersist(PersistOffer p) {
         persist = p;
     }
 
+    @Autowired
+    public void setScheduler(OfferStatusScheduler s) {
+        scheduler = s;
+    }
+
+    /**
+     * Without history (merchant stores, see MerchantOffers) offers are not queued and only the stored offer is known
+     */
+    @Autowired
+    public void setHistory(OfferHistory h) {
+        history = h;
+    }
+
+    /**
+     * Status is kept up to date by the OfferStatusScheduler, so this is a plain lookup
+     *
+     * @param product product name
+     * @return the offer or null if none
+     */
     public Offer getOffer(String product) {
-        Offer offer = persist.getOffer(product);
-        if (Objects.isNull(offer)) return null;
-        if (offer.getEnd().compareTo(LocalDateTime.now()) < 0 && offer.getStatus().equals(OfferStatus.ACTIVE))
-            offer.setStatus(OfferStatus.EXPIRED);
-        if (offer.getStart().compareTo(LocalDateTime.now()) < 0 && offer.getEnd().compareTo(LocalDateTime.now()) > 0 && offer.getStatus().equals(OfferStatus.INACTIVE))
-            offer.setStatus(OfferStatus.ACTIVE);
-        persist.addOrReplaceOffer(offer);
-        return offer;
+        return persist.getOffer(product);
+    }
+
+    /**
+     * @param product product name
+     * @param at      moment of time, epoch milliseconds
+     * @return the offer in force at that moment, past or future (see OfferHistory), null if none
+     */
+    public Offer getOfferAt(String product, long at) {
+        return Objects.isNull(history) ? null : history.offerAt(product, at);
+    }
+
+    /**
+     * @return iterator over all offers, reading the store as it goes (no copy)
+     */
+    public Iterator<Offer> getOffers() {
+        return persist.getOffers();
+    }
+
+    /**
+     * @return modification counter of the store, to be read before the offers it validates (see PersistOffer.modifications)
+     */
+    public long modifications() {
+        return persist.modifications();
+    }
+
+    /**
+     * @return epoch of the versions of the store (see PersistOffer.epoch)
+     */
+    public long epoch() {
+        return persist.epoch();
+    }
+
+    /**
+     * @return time of the last change of the store, epoch milliseconds
+     */
+    public long lastModifiedMillis() {
+        return persist.lastModifiedMillis();
     }
 
-    public List<Offer> getOfferList() {
-        return persist.getAllOffers();
+    /**
+     * @param status status of offers
+     * @return number of offers with that status, from the store indexes
+     */
+    public int countOffers(OfferStatus status) {
+        return persist.countOffers(status);
     }
 
-    public void createOffer(Offer offer) {
-        persist.addOrReplaceOffer(offer);
+    /**
+     * @param status     status filter, null for any
+     * @param currency   currency code filter, PersistOffer.ANY_CURRENCY for any
+     * @param endsBefore end time filter in epoch milliseconds, PersistOffer.ANY_END for any
+     * @return offers matching all filters
+     */
+    public List<Offer> findOffers(OfferStatus status, int currency, long endsBefore) {
+        return persist.findOffers(status, currency, endsBefore);
     }
 
-    public void replaceOffer(Offer offer) {
-        persist.addOrReplaceOffer(offer);
+    /**
+     * @param currency   currency code of offers
+     * @param minPrice   lowest price in minor units, Long.MIN_VALUE for any
+     * @param maxPrice   highest price in minor units, Long.MAX_VALUE for any
+     * @param status     status filter, null for any
+     * @param endsBefore end time filter in epoch milliseconds, PersistOffer.ANY_END for any
+     * @return offers matching all filters, cheapest first
+     */
+    public List<Offer> findOffersByPrice(int currency, long minPrice, long maxPrice, OfferStatus status, long endsBefore) {
+        return persist.findOffersByPrice(currency, minPrice, maxPrice, status, endsBefore);
     }
 
-    public void deleteOfferByName(String name) {
-        persist.removeByName(name);
+    /**
+     * @param prefix start of product name
+     * @param limit  maximum number of offers
+     * @return offers with product starting with prefix, ordered by product
+     */
+    public List<Offer> searchOffers(String prefix, int limit) {
+        return persist.findByProductPrefix(prefix, limit);
     }
 
-    public Boolean canCreateOffer(Offer offer) {
-        Offer oldOffer = persist.getOffer(offer.getProduct());
-        if (!Objects.isNull(oldOffer) && oldOffer.getStatus().equals(OfferStatus.ACTIVE))
-            return false;
-        return true;
+    /**
+     * @param after product the page starts after, null for first page
+     * @param limit page size
+     * @return a page of offers ordered by product
+     */
+    public List<Offer> getOfferPage(String after, int limit) {
+        return persist.getOffersAfter(after, limit);
+    }
+
+    /**
+     * Creates the offer, unless there is already an active offer on same product. A future offer which doesn't
+     * overlap the active one is queued instead, and stored at its start; queued offers are kept in memory only
+     *
+     * @param offer new offer
+     * @return CREATED, QUEUED or CONFLICT
+     */
+    public OfferOutcome createOffer(Offer offer) {
+        if (Objects.isNull(history))
+            return created(offer, persist.addIfNoActiveOffer(offer));
+        // no overlapping offer can be queued between the check and the store
+        return history.exclusive(Collections.singleton(offer.getProduct()), () -> history.overlapsQueued(offer)
+                ? OfferOutcome.CONFLICT : created(offer, persist.addIfNoActiveOffer(offer)));
+    }
+
+    /**
+     * Schedules a created offer, or queues it when the product has an active offer
+     */
+    private OfferOutcome created(Offer offer, OfferWrite write) {
+        if (write.getOutcome().equals(OfferOutcome.CREATED))
+            scheduler.schedule(persist, write.getOffer());
+        else if (!Objects.isNull(history) && history.queue(offer)) {
+            scheduler.promote(persist, offer, history::dequeue);
+            return OfferOutcome.QUEUED;
+        }
+        return write.getOutcome();
+    }
+
+    /**
+     * Changes an offer as a copy, which is swapped in store atomically
+     *
+     * @param product product of the offer
+     * @param change  computes the new offer from the stored one
+     * @return the new offer, null if there is no offer for product
+     */
+    public Offer updateOffer(String product, UnaryOperator<Offer> change) {
+        Offer updated = persist.updateOffer(product, change);
+        scheduler.schedule(persist, updated);
+        return updated;
+    }
+
+    /**
+     * Changes an offer only if it is still at the version the client read (If-Match), see PersistOffer.updateIfVersion
+     *
+     * @param product product of the offer
+     * @param version version the offer must have, PersistOffer.ANY_VERSION for any
+     * @param change  computes the new offer from the stored one
+     * @return UPDATED, NOT_FOUND or PRECONDITION_FAILED
+     */
+    public OfferOutcome updateOffer(String product, long version, UnaryOperator<Offer> change) {
+        OfferWrite write = persist.updateIfVersion(product, version, change);
+        if (write.getOutcome().equals(OfferOutcome.UPDATED))
+            scheduler.schedule(persist, write.getOffer());
+        return write.getOutcome();
+    }
+
+    /**
+     * Removes an offer unless it is active, status check and removal being one atomic step
+     *
+     * @param product product of the offer
+     * @param version version the offer must have (If-Match), PersistOffer.ANY_VERSION for any
+     * @return DELETED (also when there is no offer and no version is asked), FORBIDDEN or PRECONDITION_FAILED
+     */
+    public OfferOutcome deleteOffer(String product, long version) {
+        OfferOutcome outcome = version == PersistOffer.ANY_VERSION ? persist.removeIfNotActive(product) : persist.removeIfVersion(product, version);
+        if (outcome.equals(OfferOutcome.DELETED))
+            scheduler.cancel(persist, product);
+        return outcome;
+    }
+
+    /**
+     * Applies a batch of operations to the store, in order, as one store batch (see PersistOffer.applyBatch),
+     * so a journal commits it once. Each operation is atomic on its product, the batch as a whole is not:
+     * one failed operation doesn't stop or undo the others
+     *
+     * @param operations validated operations
+     * @return outcome for each operation, in same order
+     */
+    public List<OfferOutcome> applyBatch(List<OfferOperation> operations) {
+        if (Objects.isNull(history))
+            return apply(operations);
+        Set<String> created = new HashSet<>();
+        for (OfferOperation operation : operations)
+            if (operation.getType().equals(BatchOperationType.CREATE))
+                created.add(operation.getProduct());
+        // as for createOffer, no overlapping offer can be queued between the checks and the batch
+        return history.exclusive(created, () -> apply(operations));
+    }
+
+    private List<OfferOutcome> apply(List<OfferOperation> operations) {
+        // creates overlapping a queued offer are refused before the batch
+        OfferOutcome[] outcomes = new OfferOutcome[operations.size()];
+        List<OfferOperation> applied = new ArrayList<>(operations.size());
+        for (int i = 0; i < outcomes.length; i++) {
+            OfferOperation operation = operations.get(i);
+            if (operation.getType().equals(BatchOperationType.CREATE)
+                    && !Objects.isNull(history) && history.overlapsQueued(operation.getOffer()))
+                outcomes[i] = OfferOutcome.CONFLICT;
+            else
+                applied.add(operation);
+        }
+
+        List<OfferWrite> writes = persist.applyBatch(applied);
+        int next = 0;
+        for (int i = 0; i < outcomes.length; i++) {
+            if (!Objects.isNull(outcomes[i])) continue;
+            OfferOperation operation = operations.get(i);
+            OfferWrite write = writes.get(next++);
+            switch (operation.getType()) {
+                case CREATE:
+                    outcomes[i] = created(operation.getOffer(), write);
+                    break;
+                case UPDATE:
+                    scheduler.schedule(persist, write.getOffer());
+                    outcomes[i] = write.getOutcome();
+                    break;
+                case DELETE:
+                    if (write.getOutcome().equals(OfferOutcome.DELETED))
+                        scheduler.cancel(persist, operation.getProduct());
+                    outcomes[i] = write.getOutcome();
+                    break;
+            }
+        }
+        return Arrays.asList(outcomes);
     }
 
 }
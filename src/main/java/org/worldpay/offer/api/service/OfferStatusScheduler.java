@@ -0,0 +1,308 @@
+package org.worldpay.offer.api.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the stored offers ordered by their next status transition (start or end time)
+ * and flips the status when it is due, so that reads don't have to do it.
+ * The transitions are:
+ * - ACTIVE becomes EXPIRED once end time has passed
+ * - INACTIVE becomes ACTIVE once start time has passed (and end didn't)
+ *
+ * There is one entry per product of a store, holding the product and the version it was scheduled for: scheduling
+ * a product again replaces its entry, removing it (see cancel) drops the entry, so the queue follows the number of
+ * live offers and not of writes. A transition only applies if the offer is still the one in store (same version).
+ * Each entry keeps the store of its offer, so one scheduler serves the main store and the merchant stores (see MerchantOffers).
+ * Queued offers (see OfferHistory) are moved into the store at their start, once the offer they follow has expired.
+ *
+ * With a MeterRegistry, the lag between the end time of an offer and the moment it is marked EXPIRED is
+ * recorded as offer.expiry.lag
+ */
+@Component
+public class OfferStatusScheduler {
+
+    static final long NONE = -1;
+
+    private final Logger logger = LoggerFactory.getLogger(OfferStatusScheduler.class);
+    // ordered by due time, guarded by this
+    private final NavigableSet<Transition> transitions = new TreeSet<>();
+    // status transition of each product, guarded by this
+    private final Map<Key, Transition> byProduct = new HashMap<>();
+    private long sequence;
+    private PersistOffer persist;
+    private Thread worker;
+    private Timer expiryLag;
+
+    @Autowired
+    public void setPersist(PersistOffer p) {
+        persist = p;
+    }
+
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry registry) {
+        expiryLag = Timer.builder("offer.expiry.lag")
+                .description("Time from the end of an offer to the moment it is marked EXPIRED")
+                .register(registry);
+    }
+
+    /**
+     * Register an offer for its next status transition. Offers which will not change anymore are ignored
+     *
+     * @param offer stored offer, null is ignored
+     */
+    public void schedule(Offer offer) {
+        schedule(persist, offer);
+    }
+
+    /**
+     * Register an offer of a given store for its next status transition, in place of the one of its product if any
+     *
+     * @param store store of the offer
+     * @param offer stored offer, null is ignored
+     */
+    public void schedule(PersistOffer store, Offer offer) {
+        if (Objects.isNull(offer)) return;
+        long due = nextTransition(offer, System.currentTimeMillis());
+        Key key = new Key(store, offer.getProduct());
+        synchronized (this) {
+            if (due == NONE) {
+                remove(byProduct.get(key), offer.getVersion());
+                return;
+            }
+            Transition previous = byProduct.get(key);
+            // a late call for an older version doesn't replace the entry of a newer one
+            if (!Objects.isNull(previous) && previous.version > offer.getVersion()) return;
+            remove(previous, offer.getVersion());
+            Transition transition = new Transition(key, offer.getVersion(), null, due, null, ++sequence);
+            byProduct.put(key, transition);
+            add(transition);
+        }
+    }
+
+    /**
+     * Drops the status transition of a product once its offer is removed, unless it is already the one of
+     * an offer stored since
+     *
+     * @param store   store of the offer
+     * @param product product of the offer
+     */
+    public synchronized void cancel(PersistOffer store, String product) {
+        Transition transition = byProduct.get(new Key(store, product));
+        if (Objects.isNull(transition)) return;
+        Offer current = store.getOffer(product);
+        if (Objects.isNull(current) || current.getVersion() != transition.version)
+            remove(transition, transition.version);
+    }
+
+    /**
+     * Register a queued offer, to be stored at its start. The offer is dropped if the product still has an active
+     * offer then
+     *
+     * @param store   store to move the offer to
+     * @param offer   queued offer, INACTIVE
+     * @param dropped called with the offer when it is dropped
+     */
+    public synchronized void promote(PersistOffer store, Offer offer, Consumer<Offer> dropped) {
+        add(new Transition(new Key(store, offer.getProduct()), offer.getVersion(), offer, offer.getStartMillis(), dropped, ++sequence));
+    }
+
+    /**
+     * @return number of transitions waiting to become due
+     */
+    public synchronized int pending() {
+        return transitions.size();
+    }
+
+    private void add(Transition transition) {
+        transitions.add(transition);
+        if (transitions.first() == transition)
+            notifyAll();
+    }
+
+    private void remove(Transition transition, long version) {
+        if (Objects.isNull(transition) || transition.version > version) return;
+        byProduct.remove(transition.key);
+        transitions.remove(transition);
+    }
+
+    private synchronized Transition take() throws InterruptedException {
+        while (true) {
+            if (transitions.isEmpty()) {
+                wait();
+                continue;
+            }
+            Transition first = transitions.first();
+            long delay = first.dueMillis - System.currentTimeMillis();
+            if (delay > 0) {
+                wait(delay);
+                continue;
+            }
+            transitions.pollFirst();
+            if (Objects.isNull(first.queued))
+                byProduct.remove(first.key, first);
+            return first;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        worker = new Thread(this::run, "offer-status-scheduler");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!Objects.isNull(worker))
+            worker.interrupt();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Transition transition = take();
+                PersistOffer store = transition.key.store;
+                if (!Objects.isNull(transition.queued)) {
+                    promote(store, transition.queued, transition.dropped, System.currentTimeMillis());
+                    continue;
+                }
+                Offer current = store.getOffer(transition.key.product);
+                if (!Objects.isNull(current) && current.getVersion() == transition.version)
+                    apply(store, current);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.error("Failed to apply status transition", e);
+            }
+        }
+    }
+
+    void apply(Offer offer) {
+        apply(persist, offer);
+    }
+
+    void apply(PersistOffer store, Offer offer) {
+        long now = System.currentTimeMillis();
+        OfferStatus status = statusAt(offer, now);
+        if (status.equals(offer.getStatus())) {
+            // not due yet, the offer changed since it was scheduled
+            schedule(store, offer);
+            return;
+        }
+        Offer changed = store.transitionStatus(offer, status);
+        if (Objects.isNull(changed)) return;
+        if (status.equals(OfferStatus.EXPIRED) && !Objects.isNull(expiryLag))
+            expiryLag.record(now - offer.getEndMillis(), TimeUnit.MILLISECONDS);
+        logger.info("Offer " + offer.getProduct() + " is now " + status);
+        schedule(store, changed);
+    }
+
+    void promote(PersistOffer store, Offer queued, Consumer<Offer> dropped, long now) {
+        Offer current = store.getOffer(queued.getProduct());
+        // the offer in store ends when the queued one starts, its expiry may not have been applied yet
+        if (!Objects.isNull(current) && !statusAt(current, now).equals(current.getStatus()))
+            store.transitionStatus(current, statusAt(current, now));
+        OfferWrite write = store.addIfNoActiveOffer(queued.withStatus(statusAt(queued, now)));
+        if (write.getOutcome().equals(OfferOutcome.CONFLICT)) {
+            logger.warn("Queued offer " + queued.getProduct() + " dropped, the product still has an active offer");
+            dropped.accept(queued);
+            return;
+        }
+        logger.info("Queued offer " + queued.getProduct() + " is now stored");
+        schedule(store, write.getOffer());
+    }
+
+    /**
+     * Computes which status an offer should have at a given moment
+     *
+     * @param offer offer to check
+     * @param now   moment of time, epoch milliseconds
+     * @return the status the offer should have
+     */
+    static OfferStatus statusAt(Offer offer, long now) {
+        if (offer.getStatus().equals(OfferStatus.ACTIVE) && offer.getEndMillis() < now)
+            return OfferStatus.EXPIRED;
+        if (offer.getStatus().equals(OfferStatus.INACTIVE) && offer.getStartMillis() < now && offer.getEndMillis() > now)
+            return OfferStatus.ACTIVE;
+        return offer.getStatus();
+    }
+
+    /**
+     * @return when the offer will next change status (epoch milliseconds) or NONE if it will not
+     */
+    static long nextTransition(Offer offer, long now) {
+        if (offer.getStatus().equals(OfferStatus.ACTIVE))
+            return offer.getEndMillis();
+        if (offer.getStatus().equals(OfferStatus.INACTIVE) && offer.getEndMillis() > now)
+            return Math.max(offer.getStartMillis(), now);
+        return NONE;
+    }
+
+    /**
+     * Store and product of an entry
+     */
+    private static final class Key {
+        private final PersistOffer store;
+        private final String product;
+
+        Key(PersistOffer store, String product) {
+            this.store = store;
+            this.product = product;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return store == other.store && product.equals(other.product);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store) + product.hashCode();
+        }
+    }
+
+    private static final class Transition implements Comparable<Transition> {
+        private final Key key;
+        private final long version;
+        // queued offer to move into the store, null for a status transition
+        private final Offer queued;
+        private final long dueMillis;
+        private final Consumer<Offer> dropped;
+        private final long sequence;
+
+        Transition(Key key, long version, Offer queued, long due, Consumer<Offer> dropped, long sequence) {
+            this.key = key;
+            this.version = version;
+            this.queued = queued;
+            this.dropped = dropped;
+            this.sequence = sequence;
+            // strictly after the transition moment, as status checks compare with "<"
+            this.dueMillis = due + 1;
+        }
+
+        @Override
+        public int compareTo(Transition o) {
+            int due = Long.compare(dueMillis, o.dueMillis);
+            return due != 0 ? due : Long.compare(sequence, o.sequence);
+        }
+    }
+}
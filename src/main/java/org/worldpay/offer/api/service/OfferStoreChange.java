@@ -0,0 +1,43 @@
+package org.worldpay.offer.api.service;
+
+import org.worldpay.offer.api.data.Offer;
+
+/**
+ * One change of the offer store, as told to listeners for a batch (see OfferStoreListener.offersChanged)
+ */
+public final class OfferStoreChange {
+
+    private final String product;
+    private final Offer previous;
+    private final Offer offer;
+    private final long version;
+
+    OfferStoreChange(String product, Offer previous, Offer offer, long version) {
+        this.product = product;
+        this.previous = previous;
+        this.offer = offer;
+        this.version = version;
+    }
+
+    public String getProduct() {
+        return product;
+    }
+
+    /**
+     * @return the offer replaced or removed, null if there was none
+     */
+    public Offer getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @return the stored offer, null if it was removed
+     */
+    public Offer getOffer() {
+        return offer;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
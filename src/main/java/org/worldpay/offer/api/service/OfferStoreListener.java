@@ -0,0 +1,43 @@
+package org.worldpay.offer.api.service;
+
+import org.worldpay.offer.api.data.Offer;
+
+import java.util.List;
+
+/**
+ * Gets told about changes of the offer store
+ */
+public interface OfferStoreListener {
+
+    /**
+     * Called once a change is applied, outside of any store lock, on the thread which made the change.
+     * Concurrent changes may be published in another order than their versions (even for same product),
+     * so the version is what orders them
+     *
+     * @param product  product changed
+     * @param previous the offer replaced or removed, null if there was none
+     * @param offer    the stored offer, null if it was removed
+     * @param version  version of the change
+     */
+    void offerChanged(String product, Offer previous, Offer offer, long version);
+
+    /**
+     * Called once a batch of changes is applied (see PersistOffer.applyBatch), in the order they were made, so that
+     * a listener can handle them together. By default each change is told on its own
+     *
+     * @param changes changes of the batch
+     */
+    default void offersChanged(List<OfferStoreChange> changes) {
+        for (OfferStoreChange change : changes)
+            offerChanged(change.getProduct(), change.getPrevious(), change.getOffer(), change.getVersion());
+    }
+
+    /**
+     * Called once the store took the epoch of another store (see PersistOffer.replicateEpoch), after the offers
+     * of the former epoch were removed, so that a listener keeping versions can drop those of the former epoch
+     *
+     * @param epoch new epoch of the store
+     */
+    default void epochChanged(long epoch) {
+    }
+}
@@ -0,0 +1,29 @@
+package org.worldpay.offer.api.service;
+
+import org.worldpay.offer.api.data.Offer;
+
+/**
+ * Result of a conditional write to the store: its outcome and the offer it stored, as swapped in by the write itself
+ * (a later write may already have replaced it in store)
+ */
+public final class OfferWrite {
+
+    private final OfferOutcome outcome;
+    private final Offer offer;
+
+    public OfferWrite(OfferOutcome outcome, Offer offer) {
+        this.outcome = outcome;
+        this.offer = offer;
+    }
+
+    public OfferOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return offer stored by the write, null if it stored none
+     */
+    public Offer getOffer() {
+        return offer;
+    }
+}
@@ -1,29 +1,63 @@
 package org.worldpay.offer.api.service;
 
-import org.springframework.stereotype.Component;
 import org.worldpay.offer.api.data.Offer;
 import org.worldpay.offer.api.utils.OfferStatus;
 
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
-import java.util.Currency;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.UnaryOperator;
 
 /**
- * This class plays the role of low level access to persistence
- * Persistence is done in memory data structure and, because it needs it, will use thread safe data storage
+ * This plays the role of low level access to persistence
+ * Every write is atomic on the product key, is stamped with the next version of the store and is published
+ * to OfferStoreListener's once applied. A removal also takes a version, so versions order all changes of a product.
+ * Implementations:
+ * - InMemoryPersistOffer, offers kept as objects in a concurrent map (default)
+ * - OffHeapPersistOffer, offers kept as fixed size records out of the java heap (offer.store=offheap)
  *
  */
-@Component
-public class PersistOffer {
+public interface PersistOffer {
 
-    private final static ConcurrentHashMap offers = new ConcurrentHashMap<String, Object>(50);
+    /**
+     * Currency filter matching any currency
+     */
+    int ANY_CURRENCY = -1;
+
+    /**
+     * End time filter matching any end time
+     */
+    long ANY_END = Long.MAX_VALUE;
+
+    /**
+     * Version matching any version of an offer
+     */
+    long ANY_VERSION = -1;
 
-    public List<Offer> getAllOffers() {
-        return (List<Offer>) offers.values().stream().collect(Collectors.toList());
-    }
+    /**
+     * Iterates the store as it is. It doesn't copy and is weakly consistent: changes made while iterating may or may not show
+     *
+     * @return iterator over all offers
+     */
+    Iterator<Offer> getOffers();
+
+    /**
+     * Returns a page of offers, ordered by product name
+     *
+     * @param after product name the page starts after (exclusive), null to start from beginning
+     * @param limit maximum number of offers in page
+     * @return offers following the after product
+     */
+    List<Offer> getOffersAfter(String after, int limit);
+
+    /**
+     * Returns offers whose product name starts with a prefix, ordered by product name.
+     *
+     * @param prefix start of product name (case sensitive)
+     * @param limit  maximum number of offers returned
+     * @return matching offers
+     */
+    List<Offer> findByProductPrefix(String prefix, int limit);
 
     /**
      * This persist an offer
@@ -31,16 +65,175 @@ public class PersistOffer {
      * The offer replace the previous offer if one exists due the key
      *
      * @param offer Offer to persist. It will replace any existing dor same product
+     * @return the stored offer (with its version)
      */
-    public void addOrReplaceOffer(Offer offer) {
-        offers.put(offer.getProduct(), offer);
-    }
+    Offer addOrReplaceOffer(Offer offer);
 
-    public Offer getOffer(String product) {
-        return (Offer) offers.get(product);
-    }
+    /**
+     * This persist a new offer, unless there is an active offer for same product.
+     * Check and insert are done as one atomic operation on the product key, so concurrent creates can't overwrite each other
+     *
+     * @param offer Offer to persist. It will replace any existing, not active, offer for same product
+     * @return CREATED with the stored offer (with its version), or CONFLICT if an active offer is in place
+     */
+    OfferWrite addIfNoActiveOffer(Offer offer);
 
-    public void removeByName(String product) {
-        offers.remove(product);
-    }
+    /**
+     * Changes an existing offer as one atomic operation on the product key
+     *
+     * @param product product of the offer
+     * @param change  computes the new offer from the stored one
+     * @return the new stored offer, null if there was no offer for product
+     */
+    Offer updateOffer(String product, UnaryOperator<Offer> change);
+
+    /**
+     * Removes the offer of a product, unless it is active
+     *
+     * @param product product of the offer
+     * @return DELETED (also when there is no such offer) or FORBIDDEN if the offer is active
+     */
+    OfferOutcome removeIfNotActive(String product);
+
+    /**
+     * Applies a batch of operations, in order: CREATE as addIfNoActiveOffer, UPDATE as updateOffer and DELETE as
+     * removeIfNotActive. Each operation is atomic on its product, the batch as a whole is not. Listeners are told
+     * about all the changes at once, after the last one (see OfferStoreListener.offersChanged), so a journal writes
+     * the whole batch with one commit
+     *
+     * @param operations validated operations
+     * @return result of each operation, in same order: CREATED or CONFLICT, UPDATED or NOT_FOUND,
+     * DELETED or FORBIDDEN
+     */
+    List<OfferWrite> applyBatch(List<OfferOperation> operations);
+
+    /**
+     * Changes an existing offer, only if it is still at the version the change was computed from: version check and
+     * swap are one atomic operation on the product key (compare and swap), so a change made meanwhile is never lost
+     *
+     * @param product product of the offer
+     * @param version version the stored offer must have, ANY_VERSION for any
+     * @param change  computes the new offer from the stored one
+     * @return UPDATED with the stored offer, NOT_FOUND if there is no offer for product, PRECONDITION_FAILED if
+     * the offer has another version
+     */
+    OfferWrite updateIfVersion(String product, long version, UnaryOperator<Offer> change);
+
+    /**
+     * Removes the offer of a product, only if it is still at a version and not active, as one atomic operation
+     *
+     * @param product product of the offer
+     * @param version version the stored offer must have
+     * @return DELETED, FORBIDDEN if the offer is active, PRECONDITION_FAILED if the offer has another version or is gone
+     */
+    OfferOutcome removeIfVersion(String product, long version);
+
+    Offer getOffer(String product);
+
+    void removeByName(String product);
+
+    /**
+     * Changes the status of an offer, only if the offer is still the one stored for its product (same version)
+     *
+     * @param offer  offer as previously read from store
+     * @param status new status
+     * @return the new stored offer, null if the offer was changed or removed meanwhile
+     */
+    Offer transitionStatus(Offer offer, OfferStatus status);
+
+    /**
+     * Finds offers matching all given filters. Filters left out (null status, ANY_CURRENCY, ANY_END) are not applied.
+     *
+     * @param status     offer status
+     * @param currency   offer currency code
+     * @param endsBefore offers ending strictly before this moment, epoch milliseconds
+     * @return matching offers, none if no filter is given
+     */
+    List<Offer> findOffers(OfferStatus status, int currency, long endsBefore);
+
+    /**
+     * Finds offers in a currency within a price range, ordered by price.
+     *
+     * @param currency   offer currency code
+     * @param minPrice   lowest price in minor units (inclusive), Long.MIN_VALUE for no lower bound
+     * @param maxPrice   highest price in minor units (inclusive), Long.MAX_VALUE for no upper bound
+     * @param status     offer status, null for any
+     * @param endsBefore offers ending strictly before this moment, epoch milliseconds (ANY_END for any)
+     * @return matching offers, cheapest first
+     */
+    List<Offer> findOffersByPrice(int currency, long minPrice, long maxPrice, OfferStatus status, long endsBefore);
+
+    /**
+     * Counts offers with a status, from the status index (no scan of the store)
+     *
+     * @param status offer status
+     * @return number of offers with status
+     */
+    int countOffers(OfferStatus status);
+
+    /**
+     * Global modification counter of the store. It moves on once a change is applied (after the offer is visible),
+     * so read before reading offers it can be behind what is read, never ahead: if it didn't move,
+     * nothing read after it changed. This makes it a validator (ETag) of anything read from the store
+     *
+     * @return number of changes applied so far
+     */
+    long modifications();
+
+    /**
+     * @return highest version given so far, removals included, 0 if none
+     */
+    long lastVersion();
+
+    /**
+     * @return time of the last change applied, epoch milliseconds, 0 if none
+     */
+    long lastModifiedMillis();
+
+    /**
+     * Loads offers recovered from a durable copy (see OfferJournal), keeping their versions.
+     * Listeners are not told, as these are not new changes
+     *
+     * @param recovered   offers to load
+     * @param lastVersion highest version given before, the store continues after it
+     * @param epoch       epoch of the recovered versions, kept by the store (see epoch)
+     */
+    void restore(Collection<Offer> recovered, long lastVersion, long epoch);
+
+    /**
+     * Epoch of the versions of the store: versions only order changes within one epoch, a store starting over
+     * (a new store, not recovered from a durable copy) gives them again under a new epoch
+     *
+     * @return epoch of the store, never 0
+     */
+    long epoch();
+
+    /**
+     * Takes the epoch of another store, before its offers are replicated here (see OfferReplica). Versions of
+     * another epoch can't be compared, so when the epoch changes, every offer of the former one is removed
+     * (listeners are told), removals replicated before are forgotten and listeners are then told the new epoch
+     *
+     * @param epoch epoch of the other store
+     */
+    void replicateEpoch(long epoch);
+
+    /**
+     * Applies a change made by another store (see OfferReplica), keeping its version: the offer is stored as is,
+     * or the product removed when offer is null. A change not newer than the stored offer, or than the last removal
+     * of the product, is left out, so changes may come in any order.
+     * Listeners are told, as for a change made here
+     *
+     * @param product product of the change
+     * @param offer   offer stored by the other store, null for a removal
+     * @param version version of the change
+     * @return true if the change was applied
+     */
+    boolean replicate(String product, Offer offer, long version);
+
+    /**
+     * Listeners are told about every change, after it is applied and outside of any lock, on the writing thread
+     *
+     * @param listener listener to add
+     */
+    void addListener(OfferStoreListener listener);
 }
@@ -0,0 +1,7 @@
+package org.worldpay.offer.api.utils;
+
+public enum BatchOperationType {
+    CREATE,
+    UPDATE,
+    DELETE
+}
@@ -1,42 +1,55 @@
 package org.worldpay.offer.api.utils;
 
 import org.springframework.stereotype.Component;
+import org.worldpay.offer.api.data.CurrencyCodes;
 import org.worldpay.offer.api.data.Offer;
 import org.worldpay.offer.api.dto.OfferDTO;
 import org.worldpay.offer.api.dto.UpdateOfferDTO;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Currency;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
 /**
  * This class will map DTO to offers and back
+ * It is the only place where offer values change form: DTOs have LocalDateTime (local time zone), Currency
+ * and BigDecimal prices, offers have epoch milliseconds, currency codes and prices in minor units.
  */
 @Component
 public class DtoMapper {
 
+    public static final Currency DEFAULT_CURRENCY = Currency.getInstance("GBP");
+    private static final BigDecimal MIN_LONG = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal MAX_LONG = BigDecimal.valueOf(Long.MAX_VALUE);
+
     /**
      * Represents updates to an offer via a dto
      * That means: Any field present(aka not null aka send) in the dto will overwrite the offer one
      * (and that means not updated fields remain the same)
      * However if the dto doesn't refer to same product, will do nothing (And such thing should not happen)
+     * The offer itself is not changed, the update is a new offer
      *
      * @param dto dto from which we extract data
      * @param offer  Offer to update
-     * @return same Offer as a convenience
+     * @return the updated Offer (or same offer if nothing to update)
      */
     public Offer dtoUpdateOffer(UpdateOfferDTO dto, Offer offer) {
         if (Objects.isNull(offer) || !offer.getProduct().equals(dto.getProduct())) {
             return offer;
         }
         //we update the offer if it's case
-        offer.setDescription(Optional.ofNullable(dto.getDescription()).orElse(offer.getDescription()));
-        offer.setStart(Optional.ofNullable(dto.getStart()).orElse(LocalDateTime.now()));
-        offer.setEnd(Optional.ofNullable(dto.getStart()).orElse(offer.getEnd()));
-        offer.setStart(Optional.ofNullable(dto.getStart()).orElse(offer.getStart()));
-        offer.setStatus(Optional.ofNullable(dto.getStatus()).orElse(offer.getStatus()));
-        return offer;
+        return offer.toBuilder()
+                .description(Optional.ofNullable(dto.getDescription()).orElse(offer.getDescription()))
+                .startMillis(Optional.ofNullable(dto.getStart()).map(this::toMillis).orElse(offer.getStartMillis()))
+                .endMillis(Optional.ofNullable(dto.getEnd()).map(this::toMillis).orElse(offer.getEndMillis()))
+                .status(Optional.ofNullable(dto.getStatus()).orElse(offer.getStatus()))
+                .build();
     }
 
     /**
@@ -46,23 +59,22 @@ public class DtoMapper {
      *  - start datetime as now
      *  - status as ACTIVE
      *  - Currency as GDP
+     * The price is supposed to be validated, so that it fits the minor unit of the currency
      *
      * @param dto offer create dto
      * @return an offer object
      */
     public Offer dtoCreateOffer(OfferDTO dto){
-
-        Offer offer = new Offer(){{
-            setCurrency(Optional.ofNullable(dto.getCurrency()).orElse(Currency.getInstance("GBP")));
-            setStart(Optional.ofNullable(dto.getStart()).orElse(LocalDateTime.now()));
-            setEnd(dto.getEnd());
-            setDescription(Optional.ofNullable(dto.getDescription()).orElse(dto.getProduct()));
-            setProduct(dto.getProduct());
-            setStatus(Optional.ofNullable(dto.getStatus()).orElse(OfferStatus.ACTIVE));
-            setPrice(dto.getPrice());
-        }};
-
-        return offer;
+        int currency = toCurrencyCode(Optional.ofNullable(dto.getCurrency()).orElse(DEFAULT_CURRENCY));
+        return Offer.builder()
+                .currencyCode(currency)
+                .startMillis(Optional.ofNullable(dto.getStart()).map(this::toMillis).orElse(System.currentTimeMillis()))
+                .endMillis(toMillis(dto.getEnd()))
+                .description(Optional.ofNullable(dto.getDescription()).orElse(dto.getProduct()))
+                .product(dto.getProduct())
+                .status(Optional.ofNullable(dto.getStatus()).orElse(OfferStatus.ACTIVE))
+                .minorPrice(toMinorUnits(dto.getPrice(), currency))
+                .build();
     }
 
     /**
@@ -76,13 +88,74 @@ public class DtoMapper {
         OfferDTO dto = new OfferDTO(){{
             setProduct(offer.getProduct());
             setDescription(offer.getDescription());
-            setStart(offer.getStart());
-            setEnd(offer.getEnd());
+            setStart(toDateTime(offer.getStartMillis()));
+            setEnd(toDateTime(offer.getEndMillis()));
             setStatus(offer.getStatus());
-            setCurrency(offer.getCurrency());
-            setPrice(offer.getPrice());
+            setCurrency(CurrencyCodes.currency(offer.getCurrencyCode()));
+            setPrice(toPrice(offer.getMinorPrice(), offer.getCurrencyCode()));
 
         }};
         return dto;
     }
+
+    /**
+     * @param offers page of offers, ordered by product
+     * @param limit  requested page size
+     * @return cursor for the next page, null if this page is the last one
+     */
+    public String nextCursor(List<Offer> offers, int limit) {
+        return !offers.isEmpty() && offers.size() >= limit ? offers.get(offers.size() - 1).getProduct() : null;
+    }
+
+    /**
+     * @param time local date time (in the JVM time zone)
+     * @return same moment as epoch milliseconds
+     */
+    public long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * @param millis epoch milliseconds
+     * @return same moment as local date time (in the JVM time zone)
+     */
+    public LocalDateTime toDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    public int toCurrencyCode(Currency currency) {
+        return CurrencyCodes.code(currency);
+    }
+
+    /**
+     * @param price    price with no more decimals than the currency minor unit
+     * @param currency currency code
+     * @return price in minor units
+     * @throws ArithmeticException if the price doesn't fit the minor unit or a long
+     */
+    public long toMinorUnits(BigDecimal price, int currency) {
+        return price.movePointRight(CurrencyCodes.fractionDigits(currency)).longValueExact();
+    }
+
+    /**
+     * Converts a price bound of a query, which may have any number of decimals
+     *
+     * @param price    price bound
+     * @param currency currency code
+     * @param rounding CEILING for a lower bound, FLOOR for an upper bound
+     * @return bound in minor units, clamped to the range of long
+     */
+    public long toMinorUnits(BigDecimal price, int currency, RoundingMode rounding) {
+        BigDecimal minor = price.movePointRight(CurrencyCodes.fractionDigits(currency)).setScale(0, rounding);
+        return minor.max(MIN_LONG).min(MAX_LONG).longValueExact();
+    }
+
+    /**
+     * @param minorPrice price in minor units
+     * @param currency   currency code
+     * @return price with the decimals of the currency minor unit
+     */
+    public BigDecimal toPrice(long minorPrice, int currency) {
+        return BigDecimal.valueOf(minorPrice, CurrencyCodes.fractionDigits(currency));
+    }
 }
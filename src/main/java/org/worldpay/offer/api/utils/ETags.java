@@ -0,0 +1,70 @@
+package org.worldpay.offer.api.utils;
+
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.PersistOffer;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Entity tags of offer responses
+ * - an offer is tagged with the epoch of its store and its version (see PersistOffer.epoch): the journal keeps
+ *   the epoch and replicas take the one of their primary, so the tag of an offer is the same on every node serving
+ *   it and across restarts, while a store starting over, which gives versions again, tags its offers differently
+ * - a list is tagged with the modification counter of the store and a random id of this instance: the counter
+ *   starts over with the application and differs between instances, so a list tag from another run or instance
+ *   never matches
+ */
+public final class ETags {
+
+    private static final String INSTANCE = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+
+    /**
+     * Version of no offer, for changes which must not be made
+     */
+    public static final long UNKNOWN_VERSION = Long.MIN_VALUE;
+
+    private ETags() {
+    }
+
+    /**
+     * @param epoch   epoch of the store of the offer
+     * @param version offer version
+     * @return quoted entity tag of the offer
+     */
+    public static String offer(long epoch, long version) {
+        return "\"" + Long.toString(epoch, 36) + "." + Long.toString(version, 36) + "\"";
+    }
+
+    /**
+     * @param modifications store modification counter
+     * @return quoted entity tag of a list of offers
+     */
+    public static String list(long modifications) {
+        return "\"" + INSTANCE + "-" + Long.toString(modifications, 36) + "\"";
+    }
+
+    /**
+     * Tells the version a change is to be made on, from the If-Match header. The change must then be made only
+     * if the offer still has that version (see PersistOffer.updateIfVersion), as it may have changed since read
+     *
+     * @param ifMatch If-Match header: * or entity tags, comma separated; null if none
+     * @param epoch   epoch of the store of the offer
+     * @param current offer stored, null if none
+     * @return PersistOffer.ANY_VERSION without If-Match; the version of current when If-Match is * or one of its tags
+     * is the one of current (compared strongly: weak tags never match); else UNKNOWN_VERSION, which no offer has
+     */
+    public static long version(String ifMatch, long epoch, Offer current) {
+        if (Objects.isNull(ifMatch))
+            return PersistOffer.ANY_VERSION;
+        if (Objects.isNull(current))
+            return UNKNOWN_VERSION;
+        String tag = offer(epoch, current.getVersion());
+        for (String listed : ifMatch.split(",")) {
+            String trimmed = listed.trim();
+            if (trimmed.equals("*") || trimmed.equals(tag))
+                return current.getVersion();
+        }
+        return UNKNOWN_VERSION;
+    }
+}
@@ -0,0 +1,165 @@
+package org.worldpay.offer.api.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.beanvalidation.SpringValidatorAdapter;
+import org.worldpay.offer.api.dto.BatchOperationDTO;
+import org.worldpay.offer.api.dto.BatchResultDTO;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.dto.UpdateOfferDTO;
+import org.worldpay.offer.api.service.OfferOperation;
+import org.worldpay.offer.api.service.OfferOutcome;
+import org.worldpay.offer.api.service.OfferService;
+
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Applies a batch of offer operations, for the servlet and the reactive endpoints alike.
+ * All operations are validated and mapped in one pass, then the valid ones are applied to the store in one go.
+ * Each operation gets its own result, with the HTTP status it would have got as a single request.
+ */
+@Component
+public class OfferBatchProcessor {
+
+    public static final int MAX_BATCH_SIZE = 10000;
+
+    private OfferService service;
+    private DtoMapper mapper;
+    private OfferTimesAndStatusValidator offerTSV;
+    private SpringValidatorAdapter validator;
+
+    @Autowired
+    public void setService(OfferService s) {
+        service = s;
+    }
+
+    @Autowired
+    public void setMapper(DtoMapper m) {
+        mapper = m;
+    }
+
+    @Autowired
+    public void setOfferTSV(OfferTimesAndStatusValidator oTSV) {
+        offerTSV = oTSV;
+    }
+
+    @Autowired
+    public void setValidator(Validator v) {
+        validator = new SpringValidatorAdapter(v);
+    }
+
+    /**
+     * @param batch operations, at most MAX_BATCH_SIZE
+     * @return result of each operation, in same order
+     */
+    public List<BatchResultDTO> apply(List<BatchOperationDTO> batch) {
+        List<BatchResultDTO> results = new ArrayList<>(batch.size());
+        List<OfferOperation> operations = new ArrayList<>(batch.size());
+        List<BatchResultDTO> applied = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            BatchResultDTO result = new BatchResultDTO();
+            result.setIndex(i);
+            results.add(result);
+            OfferOperation operation = toOperation(batch.get(i), result);
+            if (!Objects.isNull(operation)) {
+                operations.add(operation);
+                applied.add(result);
+            }
+        }
+
+        List<OfferOutcome> outcomes = service.applyBatch(operations);
+        for (int i = 0; i < outcomes.size(); i++) {
+            setOutcome(applied.get(i), outcomes.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Validates and maps one batch item
+     *
+     * @param item   batch item
+     * @param result result of the item, filled with the error if item is not valid
+     * @return the operation to apply or null if item is not valid
+     */
+    private OfferOperation toOperation(BatchOperationDTO item, BatchResultDTO result) {
+        result.setOperation(item.getOperation());
+        if (Objects.isNull(item.getOperation())) {
+            reject(result, "Missing operation");
+            return null;
+        }
+        switch (item.getOperation()) {
+            case CREATE:
+                OfferDTO offerDto = item.getOffer();
+                if (Objects.isNull(offerDto)) {
+                    reject(result, "Missing offer to create");
+                    return null;
+                }
+                result.setProduct(offerDto.getProduct());
+                if (!isValid(offerDto, "offer", result)) return null;
+                return OfferOperation.create(mapper.dtoCreateOffer(offerDto));
+            case UPDATE:
+                UpdateOfferDTO updateDto = item.getUpdate();
+                if (Objects.isNull(updateDto)) {
+                    reject(result, "Missing offer update");
+                    return null;
+                }
+                result.setProduct(updateDto.getProduct());
+                if (!isValid(updateDto, "update", result)) return null;
+                return OfferOperation.update(updateDto.getProduct(), old -> mapper.dtoUpdateOffer(updateDto, old));
+            default:
+                result.setProduct(item.getProduct());
+                if (Objects.isNull(item.getProduct()) || item.getProduct().length() > 50) {
+                    reject(result, "Missing or too long product");
+                    return null;
+                }
+                return OfferOperation.delete(item.getProduct());
+        }
+    }
+
+    private boolean isValid(Object dto, String name, BatchResultDTO result) {
+        Errors errors = new BeanPropertyBindingResult(dto, name);
+        validator.validate(dto, errors);
+        offerTSV.validate(dto, errors);
+        if (!errors.hasErrors()) return true;
+        reject(result, "Validation errors");
+        result.setDetails(ValidationErrors.details(errors));
+        return false;
+    }
+
+    private void reject(BatchResultDTO result, String error) {
+        result.setStatus(HttpStatus.BAD_REQUEST.value());
+        result.setError(error);
+    }
+
+    private void setOutcome(BatchResultDTO result, OfferOutcome outcome) {
+        switch (outcome) {
+            case CONFLICT:
+                result.setStatus(HttpStatus.CONFLICT.value());
+                result.setError("There is an already active offer on product");
+                break;
+            case NOT_FOUND:
+                result.setStatus(HttpStatus.NOT_FOUND.value());
+                result.setError("Product not found");
+                break;
+            case FORBIDDEN:
+                result.setStatus(HttpStatus.FORBIDDEN.value());
+                result.setError("Cannot delete an active offer");
+                break;
+            case PRECONDITION_FAILED:
+                result.setStatus(HttpStatus.PRECONDITION_FAILED.value());
+                result.setError("Offer changed since the version in If-Match");
+                break;
+            case QUEUED:
+                result.setStatus(HttpStatus.ACCEPTED.value());
+                break;
+            default:
+                result.setStatus(HttpStatus.OK.value());
+        }
+    }
+}
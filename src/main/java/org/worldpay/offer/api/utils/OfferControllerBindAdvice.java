@@ -1,27 +1,40 @@
 package org.worldpay.offer.api.utils;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.InitBinder;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.worldpay.offer.api.controller.MerchantOfferController;
 import org.worldpay.offer.api.controller.OfferController;
+import org.worldpay.offer.api.metrics.OfferMetrics;
 
 /**
  * this class "advices" Spring data binder that we have additional things (in this case validators)
  * to add into the soup
+ * All validators of a request body (bean validation and ours) are run as one, timed by OfferMetrics
  *
  */
-@RestControllerAdvice(assignableTypes = {OfferController.class})
+@RestControllerAdvice(assignableTypes = {OfferController.class, MerchantOfferController.class})
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class OfferControllerBindAdvice {
     private OfferTimesAndStatusValidator offerTSV;
+    private OfferMetrics metrics;
     @Autowired
     public void setOfferTSV(OfferTimesAndStatusValidator oTSV){
         offerTSV = oTSV;
     }
 
+    @Autowired
+    public void setMetrics(OfferMetrics m){
+        metrics = m;
+    }
+
     @InitBinder
     public void dataBinding(WebDataBinder binder) {
         binder.addValidators(offerTSV);
+        if (binder.getTarget() != null)
+            binder.replaceValidators(metrics.timed(binder.getValidators()));
     }
 
 }
@@ -0,0 +1,143 @@
+package org.worldpay.offer.api.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.OfferStoreListener;
+import org.worldpay.offer.api.service.PersistOffer;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.format.DateTimeFormatter;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JSON of offers, serialized once per offer version and kept as bytes, so that reads write bytes
+ * instead of mapping to an OfferDTO and serializing it through Jackson reflection.
+ * - an entry is only used for the very version of the offer read from store, so a stale entry is never served
+ * - the store tells about changes (OfferStoreListener): a changed offer is serialized again on the writing thread,
+ *   so reads find it ready, and a removed one is dropped, so there are never more entries than offers in store
+ * - offers not stamped by the store (version 0) are serialized but not kept
+ * The JSON is the one Jackson writes for offer2Dto (see DtoMapper), written field by field with a JsonGenerator.
+ * With offer.json-cache.enabled=false offers are serialized on every read, still without OfferDTO.
+ */
+@Component
+public class OfferJsonCache implements OfferStoreListener {
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private JsonFactory jsonFactory;
+    private DtoMapper mapper;
+    private PersistOffer persist;
+    private boolean enabled = true;
+
+    @Autowired
+    public void setObjectMapper(ObjectMapper om) {
+        jsonFactory = om.getFactory();
+    }
+
+    @Autowired
+    public void setMapper(DtoMapper m) {
+        mapper = m;
+    }
+
+    @Autowired
+    public void setPersist(PersistOffer p) {
+        persist = p;
+    }
+
+    @Value("${offer.json-cache.enabled:true}")
+    public void setEnabled(boolean e) {
+        enabled = e;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled)
+            persist.addListener(this);
+    }
+
+    /**
+     * @param offer offer as read from store
+     * @return JSON of the offer, UTF-8 encoded. The array is shared: it must not be changed
+     */
+    public byte[] json(Offer offer) {
+        if (!enabled || offer.getVersion() == 0)
+            return serialize(offer);
+        Entry entry = entries.get(offer.getProduct());
+        if (!Objects.isNull(entry) && entry.version == offer.getVersion())
+            return entry.json;
+        byte[] json = serialize(offer);
+        keep(offer.getProduct(), new Entry(offer.getVersion(), json));
+        return json;
+    }
+
+    /**
+     * @return number of offers kept
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void offerChanged(String product, Offer previous, Offer offer, long version) {
+        if (Objects.isNull(offer))
+            entries.computeIfPresent(product, (k, kept) -> kept.version < version ? null : kept);
+        else
+            keep(product, new Entry(version, serialize(offer)));
+    }
+
+    /**
+     * Keeps an entry unless a newer one is there. Changes can be told out of order, and a read may keep an entry
+     * just as its offer is removed, so once kept the product is checked again: either the removal is seen here,
+     * or its notice comes after and drops the entry
+     */
+    private void keep(String product, Entry entry) {
+        entries.merge(product, entry, (kept, added) -> kept.version > added.version ? kept : added);
+        if (Objects.isNull(persist.getOffer(product)))
+            entries.remove(product, entry);
+    }
+
+    /**
+     * @param offer any offer
+     * @return JSON of the offer, not kept. For offers of other stores (see MerchantOffers), whose versions
+     * would be taken for the ones of the offers kept here
+     */
+    public byte[] serialize(Offer offer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = jsonFactory.createGenerator(bytes)) {
+            generator.writeStartObject();
+            generator.writeStringField("product", offer.getProduct());
+            generator.writeStringField("start", DATE_TIME.format(mapper.toDateTime(offer.getStartMillis())));
+            generator.writeStringField("end", DATE_TIME.format(mapper.toDateTime(offer.getEndMillis())));
+            generator.writeStringField("status", offer.getStatus().name());
+            generator.writeStringField("description", offer.getDescription());
+            generator.writeStringField("currency", CurrencyCodes.currency(offer.getCurrencyCode()).getCurrencyCode());
+            generator.writeFieldName("price");
+            generator.writeNumber(mapper.toPrice(offer.getMinorPrice(), offer.getCurrencyCode()));
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static final class Entry {
+        private final long version;
+        private final byte[] json;
+
+        Entry(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
+}
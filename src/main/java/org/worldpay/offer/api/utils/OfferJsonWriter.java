@@ -0,0 +1,167 @@
+package org.worldpay.offer.api.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.OfferChange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Writes JSON straight to an output stream, without building the whole response in memory first
+ * The offer list is written one offer at a time, as the store is iterated
+ * Offers are written as the bytes kept by OfferJsonCache, joined into arrays here
+ * Offers of merchant stores (the merchant* methods) are serialized on every write, the cache only knows the main store
+ */
+@Component
+public class OfferJsonWriter {
+
+    private static final byte[] PAGE_START = "{\"offers\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PAGE_NEXT = ",\"next\":".getBytes(StandardCharsets.UTF_8);
+
+    private ObjectMapper objectMapper;
+    private OfferJsonCache cache;
+
+    @Autowired
+    public void setObjectMapper(ObjectMapper om) {
+        objectMapper = om;
+    }
+
+    @Autowired
+    public void setCache(OfferJsonCache c) {
+        cache = c;
+    }
+
+    /**
+     * @param offer offer as read from store
+     * @return JSON of the offer, to be written as is
+     */
+    public byte[] json(Offer offer) {
+        return cache.json(offer);
+    }
+
+    /**
+     * Writes offers as a JSON array. The array start is flushed right away, so the client gets the first bytes
+     * before the store is iterated
+     *
+     * @param offers offers to write
+     * @param out    stream to write to, left open
+     */
+    public void writeOffers(Iterator<Offer> offers, OutputStream out) throws IOException {
+        writeOffers(offers, cache::json, out);
+    }
+
+    /**
+     * @param offer offer of a merchant store
+     * @return JSON of the offer
+     */
+    public byte[] merchantJson(Offer offer) {
+        return cache.serialize(offer);
+    }
+
+    /**
+     * Writes offers of a merchant store as a JSON array, as writeOffers does
+     *
+     * @param offers offers to write
+     * @param out    stream to write to, left open
+     */
+    public void writeMerchantOffers(Iterator<Offer> offers, OutputStream out) throws IOException {
+        writeOffers(offers, cache::serialize, out);
+    }
+
+    /**
+     * Writes a page of offers of a merchant store, as writePage does
+     *
+     * @param offers offers of the page
+     * @param next   cursor of the next page, null if none
+     * @param out    stream to write to, left open
+     */
+    public void writeMerchantPage(List<Offer> offers, String next, OutputStream out) throws IOException {
+        writePage(offers, next, cache::serialize, out);
+    }
+
+    private void writeOffers(Iterator<Offer> offers, Function<Offer, byte[]> json, OutputStream out) throws IOException {
+        out.write('[');
+        out.flush();
+        writeElements(offers, json, out);
+        out.write(']');
+    }
+
+    /**
+     * Writes a page of offers as {"offers": [...], "next": cursor}, next being null on the last page
+     *
+     * @param offers offers of the page
+     * @param next   cursor of the next page, null if none
+     * @param out    stream to write to, left open
+     */
+    public void writePage(List<Offer> offers, String next, OutputStream out) throws IOException {
+        writePage(offers, next, cache::json, out);
+    }
+
+    private void writePage(List<Offer> offers, String next, Function<Offer, byte[]> json, OutputStream out) throws IOException {
+        out.write(PAGE_START);
+        out.write('[');
+        writeElements(offers.iterator(), json, out);
+        out.write(']');
+        out.write(PAGE_NEXT);
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.writeString(next);
+        }
+        out.write('}');
+    }
+
+    private void writeElements(Iterator<Offer> offers, Function<Offer, byte[]> json, OutputStream out) throws IOException {
+        for (boolean first = true; offers.hasNext(); first = false) {
+            if (!first)
+                out.write(',');
+            out.write(json.apply(offers.next()));
+        }
+    }
+
+    /**
+     * @param change change of the offer store
+     * @return JSON of the change: product, version and the offer stored (null once deleted), as served by GET
+     */
+    public String change(OfferChange change) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(320);
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("product", change.getProduct());
+            generator.writeNumberField("version", change.getVersion());
+            generator.writeFieldName("offer");
+            if (change.getOffer() == null)
+                generator.writeNull();
+            else
+                generator.writeRawValue(new String(cache.json(change.getOffer()), StandardCharsets.UTF_8));
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes any value as JSON
+     *
+     * @param value value to write
+     * @param out   stream to write to, left open
+     */
+    public void write(Object value, OutputStream out) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            objectMapper.writeValue(generator, value);
+        }
+    }
+
+    private JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return objectMapper.getFactory().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+}
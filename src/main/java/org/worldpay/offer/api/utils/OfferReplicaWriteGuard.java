@@ -0,0 +1,98 @@
+package org.worldpay.offer.api.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+import reactor.core.publisher.Mono;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+
+/**
+ * Replicas (offer.replication.role=replica) only serve reads of /offer: other methods are answered 405, with
+ * Allow: GET, HEAD, since writes are made on the primary and replicated from it (see OfferReplica)
+ */
+@Configuration
+@ConditionalOnProperty(name = "offer.replication.role", havingValue = "replica")
+public class OfferReplicaWriteGuard {
+
+    static final String REASON = "Read only replica, offers are changed on the primary";
+
+    private OfferJsonWriter jsonWriter;
+
+    @Autowired
+    public void setJsonWriter(OfferJsonWriter w) {
+        jsonWriter = w;
+    }
+
+    private static boolean read(String method) {
+        return HttpMethod.GET.matches(method) || HttpMethod.HEAD.matches(method) || HttpMethod.OPTIONS.matches(method);
+    }
+
+    private byte[] errorBody() {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            jsonWriter.write(new HashMap<String, Object>() {{
+                put("timestamp", OffsetDateTime.now());
+                put("error", REASON);
+            }}, out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public WebMvcConfigurer replicaWriteInterceptor() {
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(new HandlerInterceptorAdapter() {
+                    @Override
+                    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+                        if (read(request.getMethod())) return true;
+                        response.setStatus(HttpStatus.METHOD_NOT_ALLOWED.value());
+                        response.setHeader(HttpHeaders.ALLOW, "GET, HEAD");
+                        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+                        response.getOutputStream().write(errorBody());
+                        return false;
+                    }
+                }).addPathPatterns("/offer", "/offer/**");
+            }
+        };
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public WebFilter replicaWriteFilter() {
+        return (exchange, chain) -> {
+            String path = exchange.getRequest().getPath().pathWithinApplication().value();
+            if (read(exchange.getRequest().getMethodValue()) || !(path.equals("/offer") || path.startsWith("/offer/")))
+                return chain.filter(exchange);
+            ServerHttpResponse response = exchange.getResponse();
+            response.setStatusCode(HttpStatus.METHOD_NOT_ALLOWED);
+            response.getHeaders().set(HttpHeaders.ALLOW, "GET, HEAD");
+            response.getHeaders().setContentType(MediaType.APPLICATION_JSON_UTF8);
+            DataBuffer body = response.bufferFactory().wrap(errorBody());
+            return response.writeWith(Mono.just(body));
+        };
+    }
+}
@@ -3,10 +3,13 @@ package org.worldpay.offer.api.utils;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.Errors;
 import org.springframework.validation.Validator;
+import org.worldpay.offer.api.data.CurrencyCodes;
 import org.worldpay.offer.api.dto.OfferDTO;
 import org.worldpay.offer.api.dto.UpdateOfferDTO;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Currency;
 import java.util.Objects;
 
 /**
@@ -16,11 +19,14 @@ import java.util.Objects;
  * - an offer can't end in past time
  * - an offer can't have start > end
  * - when updating an offer, the only status available to (eventually change) is CANCELED
+ * - a price can't have more decimals than the minor unit of its currency (offers keep prices in minor units)
  */
 
 @Component
 public class OfferTimesAndStatusValidator implements Validator {
 
+    private static final BigDecimal MAX_MINOR_PRICE = BigDecimal.valueOf(Long.MAX_VALUE);
+
     @Override
     public boolean supports(Class<?> aClass) {
         return OfferDTO.class.isAssignableFrom(aClass) || UpdateOfferDTO.class.isAssignableFrom(aClass);
@@ -34,11 +40,13 @@ public class OfferTimesAndStatusValidator implements Validator {
         LocalDateTime end = null;
         OfferStatus status = null;
         boolean isUpdate = false;
+        LocalDateTime now = LocalDateTime.now();
 
         if (o instanceof OfferDTO) {
             start = ((OfferDTO) o).getStart();
             end = ((OfferDTO) o).getEnd();
             status = ((OfferDTO) o).getStatus();
+            validatePrice((OfferDTO) o, errors);
         }
 
         if (o instanceof UpdateOfferDTO) {
@@ -48,7 +56,7 @@ public class OfferTimesAndStatusValidator implements Validator {
             isUpdate = true;
         }
 
-        if (!Objects.isNull(end) && end.compareTo(LocalDateTime.now()) < 0) {
+        if (!Objects.isNull(end) && end.compareTo(now) < 0) {
             errors.rejectValue("end", "", "End time cannot be in the past");
         }
 
@@ -58,7 +66,7 @@ public class OfferTimesAndStatusValidator implements Validator {
 
         if (!Objects.isNull(status) && status.equals(OfferStatus.ACTIVE) &&
                 !Objects.isNull(end) && !Objects.isNull(start) &&
-                (start.compareTo(LocalDateTime.now()) > 0 || end.compareTo(LocalDateTime.now()) < 0)
+                (start.compareTo(now) > 0 || end.compareTo(now) < 0)
         ) {
             errors.rejectValue("status", "", "status conflicts for start/end time");
         }
@@ -68,4 +76,16 @@ public class OfferTimesAndStatusValidator implements Validator {
         }
 
     }
+
+    private void validatePrice(OfferDTO dto, Errors errors) {
+        if (Objects.isNull(dto.getPrice())) return;
+        Currency currency = Objects.isNull(dto.getCurrency()) ? DtoMapper.DEFAULT_CURRENCY : dto.getCurrency();
+        int digits = CurrencyCodes.fractionDigits(CurrencyCodes.code(currency));
+        BigDecimal minor = dto.getPrice().movePointRight(digits);
+        if (minor.stripTrailingZeros().scale() > 0) {
+            errors.rejectValue("price", "", "Price can't have more than " + digits + " decimals in " + currency);
+        } else if (minor.compareTo(MAX_MINOR_PRICE) > 0) {
+            errors.rejectValue("price", "", "Price is too large");
+        }
+    }
 }
@@ -0,0 +1,36 @@
+package org.worldpay.offer.api.utils;
+
+import org.springframework.validation.Errors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Turns validation errors into the details list returned to clients
+ */
+public final class ValidationErrors {
+
+    private ValidationErrors() {
+    }
+
+    public static List<Map<String, Object>> details(Errors errors) {
+        List<Map<String, Object>> details = new ArrayList<>();
+        details.addAll(
+                errors.getFieldErrors().stream().map(e -> new HashMap<String, Object>() {{
+                    put("reason", e.getDefaultMessage());
+                    put("field", e.getField());
+                    put("rejected", e.getRejectedValue());
+                }}).collect(Collectors.toList())
+        );
+
+        details.addAll(
+                errors.getGlobalErrors().stream().map(e -> new HashMap<String, Object>() {{
+                    put("reason", e.getDefaultMessage());
+                }}).collect(Collectors.toList())
+        );
+        return details;
+    }
+}
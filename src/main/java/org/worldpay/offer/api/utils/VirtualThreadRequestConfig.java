@@ -0,0 +1,51 @@
+package org.worldpay.offer.api.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Servlet requests on virtual threads (offer.threads=virtual, JDK 21 or later), instead of the bounded Tomcat pool:
+ * - Tomcat runs every request on a new virtual thread, so the controllers keep their blocking style
+ *   and a slow store call only holds a virtual thread
+ * - streamed responses (StreamingResponseBody) are written on virtual threads too
+ * Startup fails on an older JDK rather than silently running on the pool.
+ * Store writes wait for the journal outside of any map lock, so waiting requests don't pin their carrier thread.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "offer.threads", havingValue = "virtual")
+public class VirtualThreadRequestConfig implements WebMvcConfigurer {
+
+    private final Logger logger = LoggerFactory.getLogger(VirtualThreadRequestConfig.class);
+    private final ExecutorService executor = VirtualThreads.newPerTaskExecutor("offer-request-");
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadTomcatCustomizer() {
+        return factory -> factory.addConnectorCustomizers(connector -> {
+            logger.info("Serving requests on virtual threads");
+            connector.getProtocolHandler().setExecutor(executor);
+        });
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new ConcurrentTaskExecutor(executor));
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdown();
+    }
+}
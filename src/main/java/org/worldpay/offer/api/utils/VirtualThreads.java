@@ -0,0 +1,75 @@
+package org.worldpay.offer.api.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads (JDK 21 and later), reached through reflection so that the code still builds for Java 8.
+ * A virtual thread blocked on I/O, a sleep or a lock from java.util.concurrent leaves its carrier thread to others,
+ * so requests waiting on a slow store don't hold a platform thread each.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if this JDK can start virtual threads
+     */
+    public static boolean available() {
+        try {
+            factory("offer-probe-");
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param prefix name of the threads, followed by a counter
+     * @return executor starting a new virtual thread for each task
+     * @throws IllegalStateException if this JDK has no virtual threads
+     */
+    public static ExecutorService newPerTaskExecutor(String prefix) {
+        ThreadFactory factory = factory(prefix);
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw unavailable(e);
+        }
+    }
+
+    /**
+     * @param thread any thread
+     * @return true if thread is a virtual thread
+     */
+    public static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static ThreadFactory factory(String prefix) {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Method name = builder.getMethod("name", String.class, long.class);
+            Method factory = builder.getMethod("factory");
+            Object ofVirtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) factory.invoke(name.invoke(ofVirtual, prefix, 0L));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw unavailable(e);
+        }
+    }
+
+    private static IllegalStateException unavailable(Exception e) {
+        Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+        return new IllegalStateException("Virtual threads need JDK 21 or later, running on "
+                + System.getProperty("java.version"), cause);
+    }
+}
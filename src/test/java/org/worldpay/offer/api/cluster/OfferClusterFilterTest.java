@@ -0,0 +1,330 @@
+package org.worldpay.offer.api.cluster;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.worldpay.offer.api.utils.OfferJsonWriter;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OfferClusterFilterTest {
+
+    private static final String SELF = "http://localhost:8080";
+    private static final String OTHER = "http://localhost:8081";
+
+    private OfferCluster cluster;
+    private ObjectMapper mapper;
+    private OfferClusterFilter filter;
+
+    @Before
+    public void setUp() {
+        cluster = Mockito.mock(OfferCluster.class);
+        Mockito.when(cluster.self()).thenReturn(SELF);
+        Mockito.when(cluster.nodes()).thenReturn(Arrays.asList(SELF, OTHER));
+        // products starting with "a" are kept here, the others on the other node
+        Mockito.when(cluster.owner(Mockito.anyString())).thenAnswer(i -> ((String) i.getArgument(0)).startsWith("a") ? SELF : OTHER);
+        Mockito.when(cluster.isLocal(Mockito.anyString())).thenAnswer(i -> ((String) i.getArgument(0)).startsWith("a"));
+        mapper = new ObjectMapper().findAndRegisterModules();
+        OfferJsonWriter jsonWriter = new OfferJsonWriter();
+        jsonWriter.setObjectMapper(mapper);
+        filter = new OfferClusterFilter();
+        filter.setCluster(cluster);
+        filter.setObjectMapper(mapper);
+        filter.setJsonWriter(jsonWriter);
+    }
+
+    private static ResponseEntity<byte[]> answer(HttpStatus status, String tag, String body) {
+        HttpHeaders headers = new HttpHeaders();
+        if (tag != null)
+            headers.setETag(tag);
+        return new ResponseEntity<>(body.getBytes(StandardCharsets.UTF_8), headers, status);
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request, MockFilterChain chain) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    private JsonNode json(MockHttpServletResponse response) throws IOException {
+        return mapper.readTree(response.getContentAsByteArray());
+    }
+
+    @Test
+    public void servesLocalProductHereAndForwardsOthers() throws Exception {
+        MockFilterChain local = new MockFilterChain();
+        filter(new MockHttpServletRequest("GET", "/offer/apple"), local);
+        assertNotNull(local.getRequest());
+
+        Mockito.when(cluster.send(Mockito.eq(OTHER), Mockito.eq(HttpMethod.GET), Mockito.eq("/offer/banana"), Mockito.any(), Mockito.isNull()))
+                .thenReturn(answer(HttpStatus.OK, "\"5\"", "{\"product\":\"banana\"}"));
+        MockFilterChain remote = new MockFilterChain();
+        MockHttpServletResponse response = filter(new MockHttpServletRequest("GET", "/offer/banana"), remote);
+        assertNull(remote.getRequest());
+        assertEquals(200, response.getStatus());
+        assertEquals("\"5\"", response.getHeader(HttpHeaders.ETAG));
+        assertEquals("banana", json(response).path("product").asText());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void splitsBatchByOwnerAndRestoresIndexes() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/offer/batch");
+        request.setContent(("[{\"op\":\"DELETE\",\"product\":\"banana\"},"
+                + "{\"op\":\"DELETE\",\"product\":\"apple\"},"
+                + "{\"op\":\"DELETE\",\"product\":\"cherry\"}]").getBytes(StandardCharsets.UTF_8));
+        // each node answers with the indexes of its own part
+        Mockito.when(cluster.sendAll(Mockito.anyMap(), Mockito.eq(HttpMethod.POST), Mockito.eq("/offer/batch"), Mockito.any()))
+                .thenReturn(Arrays.asList(
+                        answer(HttpStatus.OK, null, "[{\"index\":0,\"product\":\"banana\"},{\"index\":1,\"product\":\"cherry\"}]"),
+                        answer(HttpStatus.OK, null, "[{\"index\":0,\"product\":\"apple\"}]")));
+
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletResponse response = filter(request, chain);
+
+        ArgumentCaptor<Map<String, byte[]>> bodies = ArgumentCaptor.forClass(Map.class);
+        Mockito.verify(cluster).sendAll(bodies.capture(), Mockito.eq(HttpMethod.POST), Mockito.eq("/offer/batch"), Mockito.any());
+        assertEquals(Arrays.asList(OTHER, SELF), Arrays.asList(bodies.getValue().keySet().toArray()));
+        JsonNode other = mapper.readTree(bodies.getValue().get(OTHER));
+        assertEquals(2, other.size());
+        assertEquals("banana", other.get(0).path("product").asText());
+        assertEquals("cherry", other.get(1).path("product").asText());
+        assertEquals("apple", mapper.readTree(bodies.getValue().get(SELF)).get(0).path("product").asText());
+
+        assertNull(chain.getRequest());
+        assertEquals(200, response.getStatus());
+        JsonNode results = json(response);
+        assertEquals(3, results.size());
+        for (int i = 0; i < 3; i++)
+            assertEquals(i, results.get(i).path("index").asInt());
+        assertEquals("banana", results.get(0).path("product").asText());
+        assertEquals("apple", results.get(1).path("product").asText());
+        assertEquals("cherry", results.get(2).path("product").asText());
+    }
+
+    @Test
+    public void servesBatchOfOwnProductsHere() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/offer/batch");
+        request.setContent("[{\"op\":\"DELETE\",\"product\":\"apple\"}]".getBytes(StandardCharsets.UTF_8));
+        MockFilterChain chain = new MockFilterChain();
+        filter(request, chain);
+        assertNotNull(chain.getRequest());
+        Mockito.verify(cluster, Mockito.never()).sendAll(Mockito.anyMap(), Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void mergesKeysetPages() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/offer");
+        request.setQueryString("limit=2");
+        request.setParameter("limit", "2");
+        Mockito.when(cluster.sendAll(Mockito.anyMap(), Mockito.eq(HttpMethod.GET), Mockito.eq("/offer?limit=2"), Mockito.any()))
+                .thenReturn(Arrays.asList(
+                        answer(HttpStatus.OK, "\"n1-1\"", "{\"offers\":[{\"product\":\"a1\"},{\"product\":\"c1\"}],\"next\":\"c1\"}"),
+                        answer(HttpStatus.OK, "\"n2-1\"", "{\"offers\":[{\"product\":\"b1\"}],\"next\":null}")));
+
+        MockHttpServletResponse response = filter(request, new MockFilterChain());
+
+        assertEquals(200, response.getStatus());
+        JsonNode page = json(response);
+        assertEquals(2, page.path("offers").size());
+        assertEquals("a1", page.path("offers").get(0).path("product").asText());
+        assertEquals("b1", page.path("offers").get(1).path("product").asText());
+        assertEquals("b1", page.path("next").asText());
+    }
+
+    @Test
+    public void endsKeysetPagesWhenNodesAreDone() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/offer");
+        request.setQueryString("limit=3&after=a1");
+        request.setParameter("limit", "3");
+        request.setParameter("after", "a1");
+        Mockito.when(cluster.sendAll(Mockito.anyMap(), Mockito.eq(HttpMethod.GET), Mockito.anyString(), Mockito.any()))
+                .thenReturn(Arrays.asList(
+                        answer(HttpStatus.OK, "\"n1-1\"", "{\"offers\":[{\"product\":\"c1\"}],\"next\":null}"),
+                        answer(HttpStatus.OK, "\"n2-1\"", "{\"offers\":[{\"product\":\"b1\"}],\"next\":null}")));
+
+        JsonNode page = json(filter(request, new MockFilterChain()));
+
+        assertEquals(2, page.path("offers").size());
+        assertEquals("b1", page.path("offers").get(0).path("product").asText());
+        assertTrue(page.path("next").isNull());
+    }
+
+    @Test
+    public void gathersSearchAndRoutesProductNamedSearch() throws Exception {
+        MockHttpServletRequest search = new MockHttpServletRequest("GET", "/offers/search");
+        search.setQueryString("prefix=b&limit=2");
+        search.setParameter("prefix", "b");
+        search.setParameter("limit", "2");
+        Mockito.when(cluster.sendAll(Mockito.anyMap(), Mockito.eq(HttpMethod.GET), Mockito.eq("/offers/search?prefix=b&limit=2"), Mockito.any()))
+                .thenReturn(Arrays.asList(
+                        answer(HttpStatus.OK, "\"n1-1\"", "[{\"product\":\"b2\"}]"),
+                        answer(HttpStatus.OK, "\"n2-1\"", "[{\"product\":\"b1\"},{\"product\":\"b3\"}]")));
+        JsonNode found = json(filter(search, new MockFilterChain()));
+        assertEquals(2, found.size());
+        assertEquals("b1", found.get(0).path("product").asText());
+        assertEquals("b2", found.get(1).path("product").asText());
+
+        Mockito.when(cluster.send(Mockito.eq(OTHER), Mockito.eq(HttpMethod.GET), Mockito.eq("/offer/search"), Mockito.any(), Mockito.isNull()))
+                .thenReturn(answer(HttpStatus.OK, "\"2\"", "{\"product\":\"search\"}"));
+        MockHttpServletResponse product = filter(new MockHttpServletRequest("GET", "/offer/search"), new MockFilterChain());
+        assertEquals("search", json(product).path("product").asText());
+    }
+
+    @Test
+    public void tagsListWithTagsOfAllNodes() throws Exception {
+        Mockito.when(cluster.sendAll(Mockito.anyMap(), Mockito.eq(HttpMethod.GET), Mockito.eq("/offer"), Mockito.any()))
+                .thenReturn(Arrays.asList(answer(HttpStatus.OK, "\"n1-1\"", "[{\"product\":\"a1\"}]"), answer(HttpStatus.OK, "\"n2-1\"", "[]")));
+        MockHttpServletResponse first = filter(new MockHttpServletRequest("GET", "/offer"), new MockFilterChain());
+        String tag = first.getHeader(HttpHeaders.ETAG);
+        assertEquals(200, first.getStatus());
+        assertTrue(tag, tag.startsWith("\"cluster-"));
+        assertEquals(1, json(first).size());
+
+        MockHttpServletRequest conditional = new MockHttpServletRequest("GET", "/offer");
+        conditional.addHeader(HttpHeaders.IF_NONE_MATCH, tag);
+        MockHttpServletResponse notModified = filter(conditional, new MockFilterChain());
+        assertEquals(304, notModified.getStatus());
+        assertEquals(0, notModified.getContentAsByteArray().length);
+
+        // a change on one node changes the tag of the list
+        Mockito.when(cluster.sendAll(Mockito.anyMap(), Mockito.eq(HttpMethod.GET), Mockito.eq("/offer"), Mockito.any()))
+                .thenReturn(Arrays.asList(answer(HttpStatus.OK, "\"n1-1\"", "[{\"product\":\"a1\"}]"), answer(HttpStatus.OK, "\"n2-2\"", "[{\"product\":\"b1\"}]")));
+        MockHttpServletRequest changed = new MockHttpServletRequest("GET", "/offer");
+        changed.addHeader(HttpHeaders.IF_NONE_MATCH, tag);
+        MockHttpServletResponse modified = filter(changed, new MockFilterChain());
+        assertEquals(200, modified.getStatus());
+        assertNotEquals(tag, modified.getHeader(HttpHeaders.ETAG));
+        assertEquals(2, json(modified).size());
+    }
+
+    @Test
+    public void failsWithUnavailableNode() throws Exception {
+        OfferCluster.NodeUnavailableException unavailable = new OfferCluster.NodeUnavailableException(OTHER, new ConnectException("Connection refused"));
+        Mockito.when(cluster.sendAll(Mockito.anyMap(), Mockito.any(), Mockito.anyString(), Mockito.any())).thenThrow(unavailable);
+        Mockito.when(cluster.send(Mockito.anyString(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.any())).thenThrow(unavailable);
+
+        for (String path : Arrays.asList("/offer", "/offer/banana")) {
+            MockHttpServletResponse response = filter(new MockHttpServletRequest("GET", path), new MockFilterChain());
+            assertEquals(path, 503, response.getStatus());
+            assertTrue(json(response).path("error").asText().contains(OTHER));
+        }
+    }
+
+    @Test
+    public void servesForwardedRequestsHere() throws Exception {
+        Mockito.when(cluster.isForwarded("true", "127.0.0.1")).thenReturn(true);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/offer/banana");
+        request.addHeader(OfferCluster.FORWARDED, "true");
+        MockFilterChain chain = new MockFilterChain();
+        filter(request, chain);
+        assertNotNull(chain.getRequest());
+        assertFalse(Mockito.mockingDetails(cluster).getInvocations().stream()
+                .anyMatch(i -> i.getMethod().getName().startsWith("send")));
+    }
+
+    @Test
+    public void routesForwardedRequestsOfClients() throws Exception {
+        Mockito.when(cluster.send(Mockito.eq(OTHER), Mockito.eq(HttpMethod.GET), Mockito.eq("/offer/banana"), Mockito.any(), Mockito.isNull()))
+                .thenReturn(answer(HttpStatus.OK, "\"5\"", "{\"product\":\"banana\"}"));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/offer/banana");
+        request.setRemoteAddr("203.0.113.7");
+        request.addHeader(OfferCluster.FORWARDED, "true");
+        MockFilterChain chain = new MockFilterChain();
+        filter(request, chain);
+        assertNull(chain.getRequest());
+        Mockito.verify(cluster).isForwarded("true", "203.0.113.7");
+    }
+
+    @Test
+    public void trustsForwardedHeaderOfNodesOnly() {
+        OfferCluster nodes = new OfferCluster();
+        nodes.setNodes("http://127.0.0.1:8080,http://127.0.0.2:8081");
+        nodes.setSelf("http://127.0.0.1:8080");
+        nodes.start();
+        assertTrue(nodes.isForwarded("http://127.0.0.2:8081", "127.0.0.2"));
+        assertFalse(nodes.isForwarded(null, "127.0.0.2"));
+        assertFalse(nodes.isForwarded("http://127.0.0.2:8081", "203.0.113.7"));
+
+        OfferCluster shared = new OfferCluster();
+        shared.setNodes("http://127.0.0.1:8080,http://127.0.0.2:8081");
+        shared.setSelf("http://127.0.0.1:8080");
+        shared.setSecret("s3cret");
+        shared.start();
+        assertTrue(shared.isForwarded("s3cret", "203.0.113.7"));
+        assertFalse(shared.isForwarded("http://127.0.0.2:8081", "127.0.0.2"));
+    }
+
+    @Test
+    public void mergesPriceQueriesByPriceThenProduct() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/offer");
+        request.setQueryString("sort=price");
+        request.setParameter("sort", "price");
+        Mockito.when(cluster.sendAll(Mockito.anyMap(), Mockito.eq(HttpMethod.GET), Mockito.eq("/offer?sort=price"), Mockito.any()))
+                .thenReturn(Arrays.asList(
+                        answer(HttpStatus.OK, "\"n1-1\"", "[{\"product\":\"c1\",\"price\":1.5},{\"product\":\"d1\",\"price\":2}]"),
+                        answer(HttpStatus.OK, "\"n2-1\"", "[{\"product\":\"a1\",\"price\":2},{\"product\":\"b1\",\"price\":2.00}]")));
+
+        JsonNode offers = json(filter(request, new MockFilterChain()));
+
+        assertEquals(4, offers.size());
+        String[] order = {"c1", "a1", "b1", "d1"};
+        for (int i = 0; i < order.length; i++)
+            assertEquals(order[i], offers.get(i).path("product").asText());
+    }
+
+    @Test
+    public void readsRoutedBodyWithListener() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/offer");
+        request.setContent("{\"product\":\"apple\"}".getBytes(StandardCharsets.UTF_8));
+        MockFilterChain chain = new MockFilterChain();
+        filter(request, chain);
+
+        ServletInputStream in = chain.getRequest().getInputStream();
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        boolean[] done = new boolean[1];
+        in.setReadListener(new ReadListener() {
+            @Override
+            public void onDataAvailable() throws IOException {
+                for (int b = in.read(); b != -1; b = in.read())
+                    read.write(b);
+            }
+
+            @Override
+            public void onAllDataRead() {
+                done[0] = true;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                throw new AssertionError(t);
+            }
+        });
+        assertTrue(done[0]);
+        assertEquals("{\"product\":\"apple\"}", new String(read.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,59 @@
+package org.worldpay.offer.api.cluster;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OfferRingTest {
+
+    private static final int PRODUCTS = 100_000;
+
+    private static List<String> nodes(int count) {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            nodes.add("http://localhost:" + (8080 + i));
+        return nodes;
+    }
+
+    @Test
+    public void spreadsProductsEvenly() {
+        OfferRing ring = new OfferRing(nodes(4), 128);
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < PRODUCTS; i++)
+            owned.merge(ring.owner("product-" + i), 1, Integer::sum);
+        assertEquals(4, owned.size());
+        for (int count : owned.values())
+            assertTrue("Unbalanced ring: " + owned, Math.abs(count - PRODUCTS / 4) < PRODUCTS / 4 / 5);
+    }
+
+    @Test
+    public void movesOnlyProductsOfAddedNode() {
+        OfferRing three = new OfferRing(nodes(3), 128);
+        OfferRing four = new OfferRing(nodes(4), 128);
+        String added = nodes(4).get(3);
+        int moved = 0;
+        for (int i = 0; i < PRODUCTS; i++) {
+            String product = "product-" + i;
+            if (!three.owner(product).equals(four.owner(product))) {
+                assertEquals("Product moved between old nodes", added, four.owner(product));
+                moved++;
+            }
+        }
+        assertTrue("Moved " + moved, Math.abs(moved - PRODUCTS / 4) < PRODUCTS / 4 / 5);
+    }
+
+    @Test
+    public void sameRingInAnyNodeOrder() {
+        OfferRing ring = new OfferRing(Arrays.asList("http://a:1", "http://b:1", "http://c:1"), 16);
+        OfferRing reversed = new OfferRing(Arrays.asList("http://c:1", "http://b:1", "http://a:1"), 16);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(ring.owner("product-" + i), reversed.owner("product-" + i));
+    }
+}
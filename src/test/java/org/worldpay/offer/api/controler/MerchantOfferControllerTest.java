@@ -0,0 +1,139 @@
+package org.worldpay.offer.api.controler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.dto.UpdateOfferDTO;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Currency;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Offers of merchants, each merchant in its own store
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class MerchantOfferControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    private static OfferDTO offer(String product, OfferStatus status, String price) {
+        OfferDTO dto = new OfferDTO();
+        dto.setProduct(product);
+        dto.setDescription("This is a test");
+        dto.setStart(LocalDateTime.now().minusHours(1));
+        dto.setEnd(LocalDateTime.now().plusHours(15));
+        dto.setStatus(status);
+        dto.setCurrency(Currency.getInstance("RON"));
+        dto.setPrice(new BigDecimal(price));
+        return dto;
+    }
+
+    private ResultActions create(String merchant, OfferDTO dto) throws Exception {
+        return mockMvc.perform(post("/merchant/" + merchant + "/offer")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(mapper.writeValueAsString(dto))
+                .accept(MediaType.APPLICATION_JSON));
+    }
+
+    private ResultActions streamed(String url) throws Exception {
+        MvcResult result = mockMvc.perform(get(url))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result));
+    }
+
+    @Test
+    public void sameProductForEachMerchant() throws Exception {
+        create("m1", offer("merchant apple", OfferStatus.ACTIVE, "1.50")).andExpect(status().isOk());
+        create("m2", offer("merchant apple", OfferStatus.ACTIVE, "2.50")).andExpect(status().isOk());
+        create("m1", offer("merchant apple", OfferStatus.ACTIVE, "3.50")).andExpect(status().isConflict());
+        create("m1", offer("merchant pear", OfferStatus.CANCELED, "4.50")).andExpect(status().isOk());
+
+        mockMvc.perform(get("/merchant/m1/offer/merchant apple"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.price").value(1.5));
+        mockMvc.perform(get("/merchant/m2/offer/merchant apple"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.price").value(2.5));
+        mockMvc.perform(get("/merchant/m2/offer/merchant pear")).andExpect(status().isNotFound());
+        mockMvc.perform(get("/merchant/m3/offer/merchant apple")).andExpect(status().isNotFound());
+        mockMvc.perform(get("/offer/merchant apple")).andExpect(status().isNotFound());
+
+        streamed("/merchant/m1/offer")
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)));
+        streamed("/merchant/m1/offer?limit=1")
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.offers", hasSize(1)))
+                .andExpect(jsonPath("$.next").value("merchant apple"));
+        streamed("/merchant/m2/offer?status=CANCELED")
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(0)));
+        streamed("/merchant/m3/offer").andExpect(status().isOk()).andExpect(jsonPath("$", hasSize(0)));
+    }
+
+    @Test
+    public void countsUpdatesAndDeletesPerMerchant() throws Exception {
+        create("c1", offer("merchant plum", OfferStatus.ACTIVE, "1.00")).andExpect(status().isOk());
+        create("c1", offer("merchant fig", OfferStatus.CANCELED, "1.00")).andExpect(status().isOk());
+        create("c2", offer("merchant plum", OfferStatus.ACTIVE, "1.00")).andExpect(status().isOk());
+
+        UpdateOfferDTO cancel = new UpdateOfferDTO();
+        cancel.setProduct("merchant plum");
+        cancel.setStatus(OfferStatus.CANCELED);
+        mockMvc.perform(patch("/merchant/c2/offer")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(mapper.writeValueAsString(cancel))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(delete("/merchant/c1/offer/merchant plum")).andExpect(status().isForbidden());
+        mockMvc.perform(delete("/merchant/c2/offer/merchant plum")).andExpect(status().isOk());
+
+        streamed("/merchant/c1/offer/count")
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ACTIVE").value(1))
+                .andExpect(jsonPath("$.CANCELED").value(1))
+                .andExpect(jsonPath("$.total").value(2));
+        streamed("/merchant/c2/offer/count")
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(0));
+    }
+
+    @Test
+    public void refusesInvalidMerchantIds() throws Exception {
+        create("bad*id", offer("merchant kiwi", OfferStatus.ACTIVE, "1.00"))
+                .andExpect(status().isBadRequest());
+        create(String.join("", Collections.nCopies(65, "m")), offer("merchant kiwi", OfferStatus.ACTIVE, "1.00"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/merchant/bad*id/offer/merchant kiwi")).andExpect(status().isBadRequest());
+        mockMvc.perform(delete("/merchant/bad*id/offer/merchant kiwi")).andExpect(status().isBadRequest());
+        streamed("/merchant/bad*id/offer/count")
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Invalid merchant id"));
+    }
+}
@@ -0,0 +1,158 @@
+package org.worldpay.offer.api.controler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.dto.BatchOperationDTO;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.dto.UpdateOfferDTO;
+import org.worldpay.offer.api.service.OfferOperation;
+import org.worldpay.offer.api.service.OfferOutcome;
+import org.worldpay.offer.api.service.OfferWrite;
+import org.worldpay.offer.api.service.PersistOffer;
+import org.worldpay.offer.api.utils.BatchOperationType;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class OfferBatchControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    PersistOffer persistOffer;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    private String BATCH_URL = "/offer/batch";
+
+    private BatchOperationDTO create;
+    private BatchOperationDTO createConflict;
+    private BatchOperationDTO createEndsInThePast;
+    private BatchOperationDTO update;
+    private BatchOperationDTO updateNotThere;
+    private BatchOperationDTO deleteActive;
+
+    private OfferDTO offerDto(String product, LocalDateTime end) {
+        return new OfferDTO() {{
+            setProduct(product);
+            setCurrency(Currency.getInstance("GBP"));
+            setEnd(end);
+            setPrice(new BigDecimal("10.50"));
+        }};
+    }
+
+    @Before
+    public void setUp() {
+        create = new BatchOperationDTO() {{
+            setOperation(BatchOperationType.CREATE);
+            setOffer(offerDto("batch new", LocalDateTime.now().plusDays(1)));
+        }};
+        createConflict = new BatchOperationDTO() {{
+            setOperation(BatchOperationType.CREATE);
+            setOffer(offerDto("batch active", LocalDateTime.now().plusDays(1)));
+        }};
+        createEndsInThePast = new BatchOperationDTO() {{
+            setOperation(BatchOperationType.CREATE);
+            setOffer(offerDto("batch past", LocalDateTime.now().minusDays(1)));
+        }};
+        update = new BatchOperationDTO() {{
+            setOperation(BatchOperationType.UPDATE);
+            setUpdate(new UpdateOfferDTO() {{
+                setProduct("batch active");
+                setStatus(OfferStatus.CANCELED);
+            }});
+        }};
+        updateNotThere = new BatchOperationDTO() {{
+            setOperation(BatchOperationType.UPDATE);
+            setUpdate(new UpdateOfferDTO() {{
+                setProduct("batch not there");
+                setStatus(OfferStatus.CANCELED);
+            }});
+        }};
+        deleteActive = new BatchOperationDTO() {{
+            setOperation(BatchOperationType.DELETE);
+            setProduct("batch active");
+        }};
+
+        // only "batch active" is in store, and it is active
+        Mockito.when(persistOffer.applyBatch(Mockito.any())).thenAnswer(i -> {
+            List<OfferWrite> writes = new ArrayList<>();
+            for (OfferOperation operation : (List<OfferOperation>) i.getArgument(0)) {
+                boolean active = operation.getProduct().equals("batch active");
+                switch (operation.getType()) {
+                    case CREATE:
+                        writes.add(active ? new OfferWrite(OfferOutcome.CONFLICT, null) : new OfferWrite(OfferOutcome.CREATED, operation.getOffer()));
+                        break;
+                    case UPDATE:
+                        writes.add(active ? new OfferWrite(OfferOutcome.UPDATED, Offer.builder()
+                                .product("batch active")
+                                .startMillis(System.currentTimeMillis())
+                                .endMillis(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1))
+                                .status(OfferStatus.CANCELED)
+                                .build()) : new OfferWrite(OfferOutcome.NOT_FOUND, null));
+                        break;
+                    default:
+                        writes.add(new OfferWrite(active ? OfferOutcome.FORBIDDEN : OfferOutcome.DELETED, null));
+                }
+            }
+            return writes;
+        });
+    }
+
+    @Test
+    public void batchOfMixedOperations() throws Exception {
+        String jsonContent = mapper.writeValueAsString(Arrays.asList(create, createConflict, createEndsInThePast, update, updateNotThere, deleteActive));
+        this.mockMvc.perform(post(BATCH_URL)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(jsonContent)
+                .accept(MediaType.APPLICATION_JSON))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(200))
+                .andExpect(jsonPath("$[1].status").value(409))
+                .andExpect(jsonPath("$[2].status").value(400))
+                .andExpect(jsonPath("$[2].details[0].field").value("end"))
+                .andExpect(jsonPath("$[3].status").value(200))
+                .andExpect(jsonPath("$[4].status").value(404))
+                .andExpect(jsonPath("$[5].status").value(403))
+                .andExpect(jsonPath("$[5].product").value("batch active"));
+    }
+
+    @Test
+    public void batchItemWithoutOperation() throws Exception {
+        this.mockMvc.perform(post(BATCH_URL)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"product\":\"batch active\"}]")
+                .accept(MediaType.APPLICATION_JSON))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(400));
+    }
+}
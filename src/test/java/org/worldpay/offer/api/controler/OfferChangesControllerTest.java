@@ -0,0 +1,120 @@
+package org.worldpay.offer.api.controler;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Currency;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The change feed read the way a client would, over a real connection
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class OfferChangesControllerTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    private HttpURLConnection follow(String lastEventId) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/offers/changes").openConnection();
+        connection.setRequestProperty("Accept", "text/event-stream");
+        if (lastEventId != null)
+            connection.setRequestProperty("Last-Event-ID", lastEventId);
+        connection.setReadTimeout(10000);
+        assertEquals(200, connection.getResponseCode());
+        return connection;
+    }
+
+    private static Map<String, String> nextEvent(BufferedReader events) throws IOException {
+        Map<String, String> event = new LinkedHashMap<>();
+        for (String line = events.readLine(); line != null; line = events.readLine()) {
+            if (line.isEmpty()) {
+                if (!event.isEmpty()) return event;
+                continue;
+            }
+            int colon = line.indexOf(':');
+            event.put(line.substring(0, colon), line.substring(colon + 1));
+        }
+        return event;
+    }
+
+    private void create(String product) {
+        OfferDTO dto = new OfferDTO();
+        dto.setProduct(product);
+        dto.setDescription("This is a test");
+        dto.setStart(LocalDateTime.now().minusHours(1));
+        dto.setEnd(LocalDateTime.now().plusHours(15));
+        dto.setStatus(OfferStatus.CANCELED);
+        dto.setCurrency(Currency.getInstance("RON"));
+        dto.setPrice(new BigDecimal("22.89"));
+        assertEquals(HttpStatus.OK, rest.postForEntity("/offer", dto, String.class).getStatusCode());
+    }
+
+    @Test
+    public void pushesChangesAndResumes() throws IOException {
+        HttpURLConnection live = follow(null);
+        String id;
+        try (BufferedReader events = new BufferedReader(new InputStreamReader(live.getInputStream(), StandardCharsets.UTF_8))) {
+            create("changes apple");
+            Map<String, String> created = nextEvent(events);
+            assertEquals("created", created.get("event"));
+            assertThat(created.get("data"), containsString("\"product\":\"changes apple\""));
+            assertThat(created.get("data"), containsString("\"status\":\"CANCELED\""));
+            id = created.get("id");
+
+            rest.delete("/offer/changes apple");
+            assertEquals("deleted", nextEvent(events).get("event"));
+        } finally {
+            live.disconnect();
+        }
+
+        HttpURLConnection resumed = follow(id);
+        try (BufferedReader events = new BufferedReader(new InputStreamReader(resumed.getInputStream(), StandardCharsets.UTF_8))) {
+            Map<String, String> deleted = nextEvent(events);
+            assertEquals("deleted", deleted.get("event"));
+            assertEquals(sequence(id) + 1, sequence(deleted.get("id")));
+            assertThat(deleted.get("data"), containsString("\"offer\":null"));
+        } finally {
+            resumed.disconnect();
+        }
+
+        for (String other : new String[]{"999999", "0" + id}) {
+            // not an id, or an id of another run
+            HttpURLConnection reset = follow(other);
+            try (BufferedReader events = new BufferedReader(new InputStreamReader(reset.getInputStream(), StandardCharsets.UTF_8))) {
+                assertEquals("reset", nextEvent(events).get("event"));
+            } finally {
+                reset.disconnect();
+            }
+        }
+    }
+
+    private static long sequence(String eventId) {
+        return Long.parseLong(eventId.substring(eventId.indexOf('-') + 1));
+    }
+}
@@ -15,23 +15,35 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.worldpay.offer.api.data.CurrencyCodes;
 import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.dto.OfferDTO;
 import org.worldpay.offer.api.dto.UpdateOfferDTO;
+import org.worldpay.offer.api.service.OfferOutcome;
 import org.worldpay.offer.api.service.OfferService;
+import org.worldpay.offer.api.service.OfferWrite;
 import org.worldpay.offer.api.service.PersistOffer;
 import org.worldpay.offer.api.utils.DtoMapper;
+import org.worldpay.offer.api.utils.ETags;
 import org.worldpay.offer.api.utils.OfferStatus;
 
 import java.math.BigDecimal;
-import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.Currency;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
@@ -70,36 +82,36 @@ public class OfferControllerTest {
     public void setUp() {
         MockitoAnnotations.initMocks(this);
 
-        offer = new Offer() {{
-            setProduct("test apple");
-            setDescription("This is a test");
-            setCurrency(Currency.getInstance("RON"));
-            setStart(LocalDateTime.now());
-            setEnd(LocalDateTime.now().plusHours(15));
-            setStatus(OfferStatus.ACTIVE);
-            setPrice(new BigDecimal("22.89"));
-        }};
-
-
-        offerEndsInThePast = new Offer() {{
-            setProduct("test apple");
-            setDescription("This is a test");
-            setCurrency(Currency.getInstance("RON"));
-            setStart(LocalDateTime.now().minusHours(2));
-            setEnd(LocalDateTime.now().minusHours(1));
-            setStatus(OfferStatus.ACTIVE);
-            setPrice(new BigDecimal("22.89"));
-        }};
-
-        offerEndsBeforeStart = new Offer() {{
-            setProduct("test apple");
-            setDescription("This is a test");
-            setCurrency(Currency.getInstance("RON"));
-            setStart(LocalDateTime.now().plusHours(12));
-            setEnd(LocalDateTime.now().plusHours(10));
-            setStatus(OfferStatus.ACTIVE);
-            setPrice(new BigDecimal("22.89"));
-        }};
+        offer = Offer.builder()
+                .product("test apple")
+                .description("This is a test")
+                .currencyCode(CurrencyCodes.code(Currency.getInstance("RON")))
+                .startMillis(System.currentTimeMillis())
+                .endMillis(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(15))
+                .status(OfferStatus.ACTIVE)
+                .minorPrice(2289)
+                .build();
+
+
+        offerEndsInThePast = Offer.builder()
+                .product("test apple")
+                .description("This is a test")
+                .currencyCode(CurrencyCodes.code(Currency.getInstance("RON")))
+                .startMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2))
+                .endMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1))
+                .status(OfferStatus.ACTIVE)
+                .minorPrice(2289)
+                .build();
+
+        offerEndsBeforeStart = Offer.builder()
+                .product("test apple")
+                .description("This is a test")
+                .currencyCode(CurrencyCodes.code(Currency.getInstance("RON")))
+                .startMillis(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(12))
+                .endMillis(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(10))
+                .status(OfferStatus.ACTIVE)
+                .minorPrice(2289)
+                .build();
 
         wrongUpdate = new UpdateOfferDTO() {{
             setProduct("test apple");
@@ -121,6 +133,7 @@ public class OfferControllerTest {
 
     @Test
     public void createValidOffer() throws Exception {
+        Mockito.when(persistOffer.addIfNoActiveOffer(Mockito.any(Offer.class))).thenReturn(new OfferWrite(OfferOutcome.CREATED, offer));
         String jsonContent = mapper.writeValueAsString(dtoMapper.offer2Dto(offer));
         this.mockMvc.perform(post(BASE_URL)
                 .contentType(MediaType.APPLICATION_JSON)
@@ -132,7 +145,7 @@ public class OfferControllerTest {
 
     @Test
     public void createDuplicateValidOffer() throws Exception {
-        Mockito.when(persistOffer.getOffer(offer.getProduct())).thenReturn(offer);
+        Mockito.when(persistOffer.addIfNoActiveOffer(Mockito.any(Offer.class))).thenReturn(new OfferWrite(OfferOutcome.CONFLICT, null));
         String jsonContent = mapper.writeValueAsString(dtoMapper.offer2Dto(offer));
         this.mockMvc.perform(post(BASE_URL)
                 .contentType(MediaType.APPLICATION_JSON)
@@ -153,6 +166,18 @@ public class OfferControllerTest {
                 .andExpect(status().is4xxClientError());
     }
 
+    @Test
+    public void createOfferPriceFinerThanCurrency() throws Exception {
+        OfferDTO dto = dtoMapper.offer2Dto(offer);
+        dto.setPrice(new BigDecimal("22.891"));
+        this.mockMvc.perform(post(BASE_URL)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(mapper.writeValueAsString(dto))
+                .accept(MediaType.APPLICATION_JSON))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void createOfferEndsBeforeStart() throws Exception {
         String jsonContent = mapper.writeValueAsString(dtoMapper.offer2Dto(offerEndsBeforeStart));
@@ -168,13 +193,138 @@ public class OfferControllerTest {
     public void getAllOffers() throws Exception {
         String jsonContent = mapper.writeValueAsString(offers.values().stream().map(v -> dtoMapper.offer2Dto((Offer) v)).collect(Collectors.toList()));
 
-        Mockito.when(persistOffer.getAllOffers()).thenReturn((List<Offer>) offers.values().stream().collect(Collectors.toList()));
+        Mockito.when(persistOffer.getOffers()).thenReturn(((List<Offer>) offers.values().stream().collect(Collectors.toList())).iterator());
 
-        this.mockMvc.perform(get(BASE_URL))
+        MvcResult result = this.mockMvc.perform(get(BASE_URL))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isOk())
                 .andExpect(content().json(jsonContent));
     }
 
+    @Test
+    public void getAllOffersNotModified() throws Exception {
+        Mockito.when(persistOffer.modifications()).thenReturn(7L);
+        Mockito.when(persistOffer.getOffers()).thenReturn(Collections.emptyIterator());
+
+        MvcResult result = this.mockMvc.perform(get(BASE_URL))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String etag = result.getResponse().getHeader("ETag");
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk());
+
+        this.mockMvc.perform(get(BASE_URL).header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        Mockito.verify(persistOffer, Mockito.times(1)).getOffers();
+
+        Mockito.when(persistOffer.modifications()).thenReturn(8L);
+        Mockito.when(persistOffer.getOffers()).thenReturn(Collections.emptyIterator());
+        result = this.mockMvc.perform(get(BASE_URL).header("If-None-Match", etag))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void getOfferPage() throws Exception {
+        Mockito.when(persistOffer.getOffersAfter(null, 1)).thenReturn(Collections.singletonList(offer));
+
+        MvcResult result = this.mockMvc.perform(get(BASE_URL).param("limit", "1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.next").value(offer.getProduct()))
+                .andExpect(jsonPath("$.offers[0].product").value(offer.getProduct()));
+    }
+
+    @Test
+    public void getLastOfferPage() throws Exception {
+        Mockito.when(persistOffer.getOffersAfter("test", 10)).thenReturn(Collections.singletonList(offer));
+
+        MvcResult result = this.mockMvc.perform(get(BASE_URL).param("limit", "10").param("after", "test"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.next").doesNotExist())
+                .andExpect(jsonPath("$.offers[0].product").value(offer.getProduct()));
+    }
+
+    @Test
+    public void getOfferPageTooLarge() throws Exception {
+        MvcResult result = this.mockMvc.perform(get(BASE_URL).param("limit", "100000"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void findOffers() throws Exception {
+        Mockito.when(persistOffer.findOffers(Mockito.eq(OfferStatus.ACTIVE), Mockito.eq(CurrencyCodes.code(Currency.getInstance("RON"))), Mockito.anyLong()))
+                .thenReturn(Collections.singletonList(offer));
+
+        MvcResult result = this.mockMvc.perform(get(BASE_URL)
+                .param("status", "ACTIVE")
+                .param("currency", "RON")
+                .param("endsBefore", "2099-01-01 10:00:00"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].product").value(offer.getProduct()));
+    }
+
+    @Test
+    public void findOffersByPrice() throws Exception {
+        Mockito.when(persistOffer.findOffersByPrice(CurrencyCodes.code(Currency.getInstance("RON")), 1000, 5000, null, PersistOffer.ANY_END))
+                .thenReturn(Collections.singletonList(offer));
+
+        MvcResult result = this.mockMvc.perform(get(BASE_URL)
+                .param("currency", "RON")
+                .param("minPrice", "10")
+                .param("maxPrice", "50")
+                .param("sort", "price"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].product").value(offer.getProduct()));
+    }
+
+    @Test
+    public void findOffersByPriceWithoutCurrency() throws Exception {
+        MvcResult result = this.mockMvc.perform(get(BASE_URL).param("minPrice", "10"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void searchOffers() throws Exception {
+        Mockito.when(persistOffer.findByProductPrefix("test", 5)).thenReturn(Collections.singletonList(offer));
+
+        MvcResult result = this.mockMvc.perform(get("/offers/search").param("prefix", "test").param("limit", "5"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].product").value(offer.getProduct()));
+    }
+
     @Test
     public void getOffer() throws Exception {
         Mockito.when(persistOffer.getOffer(offer.getProduct())).thenReturn(offer);
@@ -185,6 +335,53 @@ public class OfferControllerTest {
                 .andExpect(content().json(mapper.writeValueAsString(dtoMapper.offer2Dto(offer))));
     }
 
+    @Test
+    public void getOfferNamedLikeEndpoints() throws Exception {
+        for (String product : new String[]{"search", "changes"}) {
+            Offer named = Offer.builder()
+                    .product(product)
+                    .description("This is a test")
+                    .currencyCode(CurrencyCodes.code(Currency.getInstance("RON")))
+                    .startMillis(System.currentTimeMillis())
+                    .endMillis(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(15))
+                    .status(OfferStatus.ACTIVE)
+                    .minorPrice(2289)
+                    .build();
+            Mockito.when(persistOffer.getOffer(product)).thenReturn(named);
+
+            this.mockMvc.perform(get(BASE_URL + "/" + product))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.product").value(product));
+        }
+    }
+
+    @Test
+    public void getOfferNotModified() throws Exception {
+        Offer stored = offer.withVersion(3, System.currentTimeMillis() - 60_000);
+        Mockito.when(persistOffer.getOffer(offer.getProduct())).thenReturn(stored);
+
+        String etag = this.mockMvc.perform(get(BASE_URL + "/" + offer.getProduct()))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("Last-Modified"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        this.mockMvc.perform(get(BASE_URL + "/" + offer.getProduct()).header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        this.mockMvc.perform(get(BASE_URL + "/" + offer.getProduct()).header("If-Modified-Since", System.currentTimeMillis()))
+                .andExpect(status().isNotModified());
+
+        Mockito.when(persistOffer.getOffer(offer.getProduct())).thenReturn(stored.withVersion(4, System.currentTimeMillis()));
+        this.mockMvc.perform(get(BASE_URL + "/" + offer.getProduct()).header("If-None-Match", etag))
+                .andExpect(status().isOk());
+
+        // the store started over and gave version 3 again
+        Mockito.when(persistOffer.getOffer(offer.getProduct())).thenReturn(stored);
+        Mockito.when(persistOffer.epoch()).thenReturn(42L);
+        this.mockMvc.perform(get(BASE_URL + "/" + offer.getProduct()).header("If-None-Match", etag))
+                .andExpect(status().isOk());
+    }
+
     @Test
     public void getOfferWhenWrongPath() throws Exception {
         this.mockMvc.perform(get(BASE_URL + "/not gonna find"))
@@ -192,6 +389,19 @@ public class OfferControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    public void rejectionsAndStoreSizeAreScraped() throws Exception {
+        this.mockMvc.perform(get(BASE_URL + "/not gonna find"))
+                .andExpect(status().isNotFound());
+
+        this.mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("offer_rejected_total{method=\"GET\",status=\"404\",}")))
+                .andExpect(content().string(containsString("offer_store_size{status=\"ACTIVE\",}")))
+                .andExpect(content().string(containsString("offer_request_stage_seconds_count{stage=\"storage\",}")))
+                .andExpect(content().string(containsString("http_server_requests_seconds_bucket{")));
+    }
+
     @Test
     public void updateOfferFail() throws Exception {
         Mockito.when(persistOffer.getOffer(offer.getProduct())).thenReturn(offer);
@@ -207,6 +417,10 @@ public class OfferControllerTest {
     @Test
     public void updateOfferSuccess() throws Exception {
         Mockito.when(persistOffer.getOffer(offer.getProduct())).thenReturn(offer);
+        Mockito.when(persistOffer.updateIfVersion(Mockito.eq(offer.getProduct()), Mockito.eq(PersistOffer.ANY_VERSION), Mockito.any()))
+                .thenAnswer(i -> {
+                    return new OfferWrite(OfferOutcome.UPDATED, ((UnaryOperator<Offer>) i.getArgument(2)).apply(offer));
+                });
         String jsonContent = mapper.writeValueAsString(goodUpdate);
         this.mockMvc.perform(patch(BASE_URL)
                 .contentType(MediaType.APPLICATION_JSON)
@@ -216,6 +430,35 @@ public class OfferControllerTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    public void updateOfferIfMatch() throws Exception {
+        Mockito.when(persistOffer.epoch()).thenReturn(42L);
+        Mockito.when(persistOffer.getOffer(offer.getProduct())).thenReturn(offer.withVersion(7, System.currentTimeMillis()));
+        Mockito.when(persistOffer.updateIfVersion(Mockito.eq(offer.getProduct()), Mockito.eq(7L), Mockito.any()))
+                .thenReturn(new OfferWrite(OfferOutcome.UPDATED, offer));
+        Mockito.when(persistOffer.updateIfVersion(Mockito.eq(offer.getProduct()), Mockito.eq(ETags.UNKNOWN_VERSION), Mockito.any()))
+                .thenReturn(new OfferWrite(OfferOutcome.PRECONDITION_FAILED, null));
+        String jsonContent = mapper.writeValueAsString(goodUpdate);
+        this.mockMvc.perform(patch(BASE_URL)
+                .header("If-Match", ETags.offer(42, 6), ETags.offer(42, 7))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(jsonContent))
+                .andExpect(status().isOk());
+        this.mockMvc.perform(patch(BASE_URL)
+                .header("If-Match", ETags.offer(42, 6))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(jsonContent))
+                .andDo(print())
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("$.error").exists());
+        // version 7 of a store which started over
+        this.mockMvc.perform(patch(BASE_URL)
+                .header("If-Match", ETags.offer(41, 7))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(jsonContent))
+                .andExpect(status().isPreconditionFailed());
+    }
+
     public void updateInexistingOffer() throws Exception {
         Mockito.when(persistOffer.getOffer(offer.getProduct())).thenReturn(offer);
         String jsonContent = mapper.writeValueAsString(notExistUpdate);
@@ -229,7 +472,7 @@ public class OfferControllerTest {
 
     @Test
     public void deleteOfferInForbiddenStatus() throws Exception {
-        Mockito.when(persistOffer.getOffer(offer.getProduct())).thenReturn(offer);
+        Mockito.when(persistOffer.removeIfNotActive(offer.getProduct())).thenReturn(OfferOutcome.FORBIDDEN);
         this.mockMvc.perform(delete(BASE_URL + "/" + offer.getProduct()))
                 .andDo(print())
                 .andExpect(status().isForbidden());
@@ -237,9 +480,31 @@ public class OfferControllerTest {
 
     @Test
     public void deleteOfferSuccess() throws Exception {
+        Mockito.when(persistOffer.removeIfNotActive("not there")).thenReturn(OfferOutcome.DELETED);
         this.mockMvc.perform(delete(BASE_URL + "/not there" ))
                 .andDo(print())
                 .andExpect(status().isOk());
    }
 
+    @Test
+    public void deleteOfferIfMatch() throws Exception {
+        Mockito.when(persistOffer.getOffer("test canceled")).thenReturn(offer.withVersion(3, System.currentTimeMillis()));
+        Mockito.when(persistOffer.removeIfVersion(Mockito.eq("test canceled"), Mockito.anyLong())).thenReturn(OfferOutcome.PRECONDITION_FAILED);
+        this.mockMvc.perform(delete(BASE_URL + "/test canceled").header("If-Match", ETags.offer(0, 3)))
+                .andDo(print())
+                .andExpect(status().isPreconditionFailed());
+        this.mockMvc.perform(delete(BASE_URL + "/test canceled").header("If-Match", "\"other-1\""))
+                .andExpect(status().isPreconditionFailed());
+        Mockito.verify(persistOffer).removeIfVersion("test canceled", 3L);
+        Mockito.verify(persistOffer).removeIfVersion("test canceled", ETags.UNKNOWN_VERSION);
+    }
+
+    @Test
+    public void deleteMissingOfferIfMatchAny() throws Exception {
+        Mockito.when(persistOffer.removeIfVersion(Mockito.eq("not there"), Mockito.anyLong())).thenReturn(OfferOutcome.PRECONDITION_FAILED);
+        this.mockMvc.perform(delete(BASE_URL + "/not there").header("If-Match", "*"))
+                .andExpect(status().isPreconditionFailed());
+        Mockito.verify(persistOffer).removeIfVersion("not there", ETags.UNKNOWN_VERSION);
+    }
+
 }
@@ -0,0 +1,157 @@
+package org.worldpay.offer.api.reactive;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.worldpay.offer.api.dto.OfferDTO;
+import org.worldpay.offer.api.dto.UpdateOfferDTO;
+import org.worldpay.offer.api.service.OfferChangeFeed;
+import org.worldpay.offer.api.utils.OfferStatus;
+import reactor.core.publisher.Flux;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Currency;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The offer API in reactive mode, on Netty, through the same contract as the servlet mode
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.main.web-application-type=reactive")
+@AutoConfigureWebTestClient
+public class OfferHandlerTest {
+
+    private static final String BASE_URL = "/offer";
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private OfferChangeFeed changeFeed;
+
+    private static OfferDTO offer(String product, OfferStatus status) {
+        OfferDTO dto = new OfferDTO();
+        dto.setProduct(product);
+        dto.setDescription("This is a test");
+        dto.setStart(LocalDateTime.now().minusHours(1).withNano(0));
+        dto.setEnd(LocalDateTime.now().plusHours(15).withNano(0));
+        dto.setStatus(status);
+        dto.setCurrency(Currency.getInstance("RON"));
+        dto.setPrice(new BigDecimal("22.89"));
+        return dto;
+    }
+
+    private WebTestClient.ResponseSpec create(OfferDTO dto) {
+        return client.post().uri(BASE_URL).contentType(MediaType.APPLICATION_JSON).syncBody(dto).exchange();
+    }
+
+    @Test
+    public void createAndGetOffer() {
+        create(offer("reactive apple", OfferStatus.ACTIVE)).expectStatus().isOk();
+        create(offer("reactive apple", OfferStatus.ACTIVE)).expectStatus().isEqualTo(409);
+
+        client.get().uri(BASE_URL + "/reactive apple").exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueMatches("ETag", "\".+\"")
+                .expectBody()
+                .jsonPath("$.product").isEqualTo("reactive apple")
+                .jsonPath("$.price").isEqualTo(22.89)
+                .jsonPath("$.currency").isEqualTo("RON");
+
+        client.get().uri(BASE_URL + "?status=ACTIVE&currency=RON").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[?(@.product == 'reactive apple')]").exists();
+    }
+
+    @Test
+    public void getOfferNotModified() {
+        create(offer("reactive pear", OfferStatus.CANCELED)).expectStatus().isOk();
+        String etag = client.get().uri(BASE_URL + "/reactive pear").exchange()
+                .expectStatus().isOk()
+                .returnResult(byte[].class)
+                .getResponseHeaders().getETag();
+
+        client.get().uri(BASE_URL + "/reactive pear").ifNoneMatch(etag).exchange()
+                .expectStatus().isNotModified();
+    }
+
+    @Test
+    public void rejectsInvalidOffers() {
+        OfferDTO endsBeforeStart = offer("reactive plum", OfferStatus.ACTIVE);
+        endsBeforeStart.setEnd(endsBeforeStart.getStart().minusHours(2));
+        create(endsBeforeStart).expectStatus().isBadRequest()
+                .expectBody().jsonPath("$.error").isEqualTo("Validation errors");
+
+        UpdateOfferDTO missing = new UpdateOfferDTO();
+        missing.setProduct("reactive missing");
+        client.patch().uri(BASE_URL).contentType(MediaType.APPLICATION_JSON).syncBody(missing).exchange()
+                .expectStatus().isNotFound();
+
+        client.get().uri(BASE_URL + "?limit=0").exchange().expectStatus().isBadRequest();
+        client.get().uri(BASE_URL + "?status=SOLD").exchange().expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void deleteOnlyInactiveOffers() {
+        create(offer("reactive active", OfferStatus.ACTIVE)).expectStatus().isOk();
+        create(offer("reactive canceled", OfferStatus.CANCELED)).expectStatus().isOk();
+
+        client.delete().uri(BASE_URL + "/reactive active").exchange().expectStatus().isForbidden();
+        client.delete().uri(BASE_URL + "/reactive canceled").exchange().expectStatus().isOk();
+        client.get().uri(BASE_URL + "/reactive canceled").exchange().expectStatus().isNotFound();
+    }
+
+    @Test
+    public void changesNeedCurrentVersionInIfMatch() {
+        create(offer("reactive versioned", OfferStatus.CANCELED)).expectStatus().isOk();
+        String read = client.get().uri(BASE_URL + "/reactive versioned").exchange()
+                .returnResult(String.class).getResponseHeaders().getETag();
+
+        UpdateOfferDTO update = new UpdateOfferDTO();
+        update.setProduct("reactive versioned");
+        update.setStatus(OfferStatus.CANCELED);
+        update.setDescription("changed");
+        client.patch().uri(BASE_URL).header("If-Match", read).contentType(MediaType.APPLICATION_JSON).syncBody(update)
+                .exchange().expectStatus().isOk();
+        client.patch().uri(BASE_URL).header("If-Match", read).contentType(MediaType.APPLICATION_JSON).syncBody(update)
+                .exchange().expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        client.delete().uri(BASE_URL + "/reactive versioned").header("If-Match", read).exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        String current = client.get().uri(BASE_URL + "/reactive versioned").exchange()
+                .returnResult(String.class).getResponseHeaders().getETag();
+        client.delete().uri(BASE_URL + "/reactive versioned").header("If-Match", current).exchange().expectStatus().isOk();
+    }
+
+    @Test
+    public void replaysChangesFromStart() {
+        create(offer("reactive fig", OfferStatus.CANCELED)).expectStatus().isOk();
+
+        Flux<ServerSentEvent<String>> events = client.get().uri("/offers/changes?after=" + changeFeed.eventId(0))
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<String>>() { })
+                .getResponseBody();
+
+        ServerSentEvent<String> first = events.blockFirst(Duration.ofSeconds(10));
+        assertEquals(changeFeed.eventId(1), first.id());
+        assertEquals("created", first.event());
+        assertThat(first.data(), containsString("\"product\""));
+    }
+}
@@ -0,0 +1,44 @@
+package org.worldpay.offer.api.service;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MerchantOffersTest {
+
+    @Test
+    public void validatesMerchantIds() {
+        MerchantOffers merchants = new MerchantOffers();
+        assertTrue(merchants.isValid("acme-shop_2.eu"));
+        assertTrue(merchants.isValid(String.join("", Collections.nCopies(MerchantOffers.MAX_ID, "m"))));
+        assertFalse(merchants.isValid(String.join("", Collections.nCopies(MerchantOffers.MAX_ID + 1, "m"))));
+        assertFalse(merchants.isValid(""));
+        assertFalse(merchants.isValid("acme shop"));
+        assertFalse(merchants.isValid(null));
+
+        merchants.setIdPattern("m[0-9]+");
+        assertTrue(merchants.isValid("m42"));
+        assertFalse(merchants.isValid("acme"));
+    }
+
+    @Test
+    public void createsStoresUpToMax() {
+        MerchantOffers merchants = new MerchantOffers();
+        merchants.setScheduler(new OfferStatusScheduler());
+        merchants.setMaxMerchants(2);
+        OfferService first = merchants.merchantOrCreate("m1");
+        assertNotNull(merchants.merchantOrCreate("m2"));
+        assertNull(merchants.merchantOrCreate("m3"));
+        assertNull(merchants.merchant("m3"));
+        // merchants with a store keep it
+        assertSame(first, merchants.merchantOrCreate("m1"));
+        assertEquals(2, merchants.size());
+    }
+}
@@ -0,0 +1,120 @@
+package org.worldpay.offer.api.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OfferChangeFeedTest {
+
+    private static final long HOUR = 3_600_000;
+    private PersistOffer persist;
+    private OfferChangeFeed feed;
+
+    @Before
+    public void setUp() {
+        persist = new InMemoryPersistOffer();
+        feed = new OfferChangeFeed();
+        feed.setPersist(persist);
+        feed.setHistorySize(3);
+        feed.setBufferSize(2);
+        feed.start();
+    }
+
+    private static Offer offer(String product, OfferStatus status) {
+        long now = System.currentTimeMillis();
+        return Offer.builder()
+                .product(product)
+                .description("feed " + product)
+                .currencyCode(CurrencyCodes.code(Currency.getInstance("GBP")))
+                .startMillis(now - HOUR)
+                .endMillis(now + HOUR)
+                .status(status)
+                .minorPrice(999)
+                .build();
+    }
+
+    private static List<OfferChange> drain(OfferChangeFeed.Subscription subscription) {
+        List<OfferChange> changes = new ArrayList<>();
+        subscription.drain(() -> true, changes::add);
+        return changes;
+    }
+
+    @Test
+    public void tellsEachKindOfChangeInOrder() {
+        AtomicInteger signals = new AtomicInteger();
+        OfferChangeFeed.Subscription subscription = feed.subscribe(-1, signals::incrementAndGet);
+
+        Offer created = persist.addOrReplaceOffer(offer("feed apple", OfferStatus.ACTIVE));
+        persist.updateOffer("feed apple", old -> old.toBuilder().description("changed").build());
+        List<OfferChange> changes = drain(subscription);
+        persist.transitionStatus(persist.getOffer("feed apple"), OfferStatus.EXPIRED);
+        persist.removeByName("feed apple");
+        changes.addAll(drain(subscription));
+
+        assertEquals(4, signals.get());
+        assertEquals(4, changes.size());
+        assertEquals(OfferChange.Type.CREATED, changes.get(0).getType());
+        assertEquals(created.getVersion(), changes.get(0).getVersion());
+        assertEquals(OfferChange.Type.UPDATED, changes.get(1).getType());
+        assertEquals("changed", changes.get(1).getOffer().getDescription());
+        assertEquals(OfferChange.Type.STATUS, changes.get(2).getType());
+        assertEquals(OfferStatus.EXPIRED, changes.get(2).getOffer().getStatus());
+        assertEquals(OfferChange.Type.DELETED, changes.get(3).getType());
+        assertNull(changes.get(3).getOffer());
+        for (int i = 0; i < changes.size(); i++)
+            assertEquals(i + 1, changes.get(i).getSequence());
+    }
+
+    @Test
+    public void resumesFromHistoryOrResets() {
+        for (int i = 1; i <= 4; i++)
+            persist.addOrReplaceOffer(offer("feed " + i, OfferStatus.CANCELED));
+
+        OfferChangeFeed.Subscription resumed = feed.subscribe(2, () -> { });
+        assertFalse(resumed.isReset());
+        List<OfferChange> missed = drain(resumed);
+        assertEquals(2, missed.size());
+        assertEquals(3, missed.get(0).getSequence());
+        assertEquals("feed 4", missed.get(1).getProduct());
+
+        // only the last 3 changes are kept
+        OfferChangeFeed.Subscription tooOld = feed.subscribe(0, () -> { });
+        assertTrue(tooOld.isReset());
+        assertEquals(4, tooOld.getStartSequence());
+        assertTrue(drain(tooOld).isEmpty());
+        assertTrue(feed.subscribe(10, () -> { }).isReset());
+
+        assertEquals(1, drain(feed.resume(feed.eventId(3), () -> { })).size());
+        // the same sequence in another run
+        OfferChangeFeed other = new OfferChangeFeed();
+        assertTrue(feed.resume(other.eventId(3), () -> { }).isReset());
+        assertTrue(feed.resume("3", () -> { }).isReset());
+        assertFalse(feed.resume(null, () -> { }).isReset());
+    }
+
+    @Test
+    public void dropsSlowSubscribers() {
+        OfferChangeFeed.Subscription slow = feed.subscribe(-1, () -> { });
+        OfferChangeFeed.Subscription canceled = feed.subscribe(-1, () -> { });
+        canceled.cancel();
+        for (int i = 1; i <= 3; i++)
+            persist.addOrReplaceOffer(offer("feed " + i, OfferStatus.CANCELED));
+
+        assertTrue(slow.isOverflowed());
+        assertTrue(drain(slow).isEmpty());
+        assertFalse(canceled.isOverflowed());
+        assertTrue(drain(canceled).isEmpty());
+    }
+}
@@ -0,0 +1,158 @@
+package org.worldpay.offer.api.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OfferHistoryTest {
+
+    private static final long HOUR = 3_600_000;
+    private PersistOffer persist;
+    private OfferStatusScheduler scheduler;
+    private OfferHistory history;
+    private OfferService service;
+    private long now;
+
+    @Before
+    public void setUp() {
+        persist = new InMemoryPersistOffer();
+        // not started: queued offers are moved into the store by the test
+        scheduler = new OfferStatusScheduler();
+        scheduler.setPersist(persist);
+        history = new OfferHistory();
+        history.setPersist(persist);
+        history.start();
+        service = new OfferService();
+        service.setPersist(persist);
+        service.setScheduler(scheduler);
+        service.setHistory(history);
+        now = System.currentTimeMillis();
+    }
+
+    private static Offer offer(String product, OfferStatus status, long start, long end) {
+        return Offer.builder()
+                .product(product)
+                .description("history " + product)
+                .currencyCode(CurrencyCodes.code(Currency.getInstance("GBP")))
+                .startMillis(start)
+                .endMillis(end)
+                .status(status)
+                .minorPrice(100)
+                .build();
+    }
+
+    @Test
+    public void tellsVersionInForce() {
+        service.createOffer(offer("history apple", OfferStatus.INACTIVE, now + HOUR, now + 3 * HOUR));
+        assertNull(service.getOfferAt("history apple", now + HOUR / 2));
+        assertEquals("history history apple", service.getOfferAt("history apple", now + 2 * HOUR).getDescription());
+        assertNull(service.getOfferAt("history apple", now + 3 * HOUR));
+
+        Offer updated = service.updateOffer("history apple", old -> old.toBuilder().description("changed").build());
+        assertEquals(updated.getVersion(), service.getOfferAt("history apple", now + 2 * HOUR).getVersion());
+
+        service.updateOffer("history apple", old -> old.withStatus(OfferStatus.CANCELED));
+        assertNull(service.getOfferAt("history apple", now + 2 * HOUR));
+        assertNull(service.getOfferAt("history missing", now));
+    }
+
+    @Test
+    public void queuesFutureOffers() {
+        Offer active = offer("history pear", OfferStatus.ACTIVE, now - HOUR, now + HOUR);
+        Offer next = offer("history pear", OfferStatus.INACTIVE, now + HOUR, now + 2 * HOUR);
+        assertEquals(OfferOutcome.CREATED, service.createOffer(active));
+        assertEquals(OfferOutcome.QUEUED, service.createOffer(next));
+        assertEquals(OfferOutcome.CONFLICT, service.createOffer(offer("history pear", OfferStatus.INACTIVE, now + 90 * 60_000, now + 3 * HOUR)));
+        assertEquals(OfferOutcome.CONFLICT, service.createOffer(offer("history pear", OfferStatus.INACTIVE, now + HOUR / 2, now + 3 * HOUR)));
+
+        assertEquals(OfferStatus.ACTIVE, service.getOfferAt("history pear", now + HOUR / 2).getStatus());
+        assertEquals(0, service.getOfferAt("history pear", now + 90 * 60_000).getVersion());
+        assertEquals(OfferStatus.INACTIVE, service.getOfferAt("history pear", now + 90 * 60_000).getStatus());
+        assertEquals(2, scheduler.pending());
+
+        // at its start, the queued offer replaces the expired one
+        List<Offer> dropped = new ArrayList<>();
+        scheduler.promote(persist, next, dropped::add, next.getStartMillis() + 1);
+        assertTrue(dropped.isEmpty());
+        Offer stored = persist.getOffer("history pear");
+        assertEquals(OfferStatus.ACTIVE, stored.getStatus());
+        assertEquals(next.getEndMillis(), stored.getEndMillis());
+        assertEquals(stored.getVersion(), service.getOfferAt("history pear", now + 90 * 60_000).getVersion());
+    }
+
+    @Test
+    public void dropsQueuedOfferWhenStillActive() {
+        service.createOffer(offer("history plum", OfferStatus.ACTIVE, now - HOUR, now + HOUR));
+        Offer next = offer("history plum", OfferStatus.INACTIVE, now + 2 * HOUR, now + 3 * HOUR);
+        assertEquals(OfferOutcome.QUEUED, service.createOffer(next));
+
+        // the active offer was extended over the queued one
+        service.updateOffer("history plum", old -> old.toBuilder().endMillis(now + 4 * HOUR).build());
+        List<Offer> dropped = new ArrayList<>();
+        scheduler.promote(persist, next, queued -> {
+            dropped.add(queued);
+            history.dequeue(queued);
+        }, now + HOUR / 2);
+        assertEquals(1, dropped.size());
+        assertEquals(OfferStatus.ACTIVE, persist.getOffer("history plum").getStatus());
+        assertEquals(now + 4 * HOUR, service.getOfferAt("history plum", now + 150 * 60_000).getEndMillis());
+    }
+
+    @Test
+    public void queueWaitsForCheckedStore() throws Exception {
+        Offer stored = offer("history fig", OfferStatus.INACTIVE, now + 2 * HOUR, now + 4 * HOUR);
+        Offer overlapping = offer("history fig", OfferStatus.INACTIVE, now + 3 * HOUR, now + 5 * HOUR);
+        AtomicBoolean queued = new AtomicBoolean(true);
+        Thread queueing = new Thread(() -> queued.set(history.queue(overlapping)));
+
+        history.exclusive(Collections.singleton("history fig"), () -> {
+            assertFalse(history.overlapsQueued(stored));
+            queueing.start();
+            try {
+                queueing.join(200);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            assertTrue("Offer queued between check and store", queueing.isAlive());
+            return persist.addIfNoActiveOffer(stored);
+        });
+        queueing.join(10_000);
+        assertFalse(queued.get());
+        assertEquals(stored.getEndMillis(), service.getOfferAt("history fig", now + 3 * HOUR).getEndMillis());
+    }
+
+    @Test
+    public void dropsHistoryOfDeletedProducts() {
+        Offer active = offer("history kiwi", OfferStatus.ACTIVE, now - HOUR, now + HOUR);
+        Offer next = offer("history kiwi", OfferStatus.INACTIVE, now + HOUR, now + 2 * HOUR);
+        service.createOffer(active);
+        assertEquals(OfferOutcome.QUEUED, service.createOffer(next));
+        assertEquals(1, history.products());
+
+        // canceled, the offer in store is not in force, but the queued one still is planned
+        service.updateOffer("history kiwi", old -> old.withStatus(OfferStatus.CANCELED));
+        assertEquals(1, history.products());
+        history.dequeue(next);
+        assertEquals(0, history.products());
+        assertNull(service.getOfferAt("history kiwi", now));
+
+        service.createOffer(offer("history kiwi", OfferStatus.INACTIVE, now + HOUR, now + 2 * HOUR));
+        assertEquals(1, history.products());
+        assertEquals(OfferOutcome.DELETED, service.deleteOffer("history kiwi", PersistOffer.ANY_VERSION));
+        assertEquals(0, history.products());
+        assertNull(service.getOfferAt("history kiwi", now + 90 * 60_000));
+    }
+}
@@ -0,0 +1,168 @@
+package org.worldpay.offer.api.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OfferJournalTest {
+
+    private static final int GBP = CurrencyCodes.code(Currency.getInstance("GBP"));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PersistOffer open(OfferJournal[] journal) throws IOException {
+        PersistOffer persist = new InMemoryPersistOffer();
+        journal[0] = new OfferJournal();
+        journal[0].setPersist(persist);
+        journal[0].setScheduler(new OfferStatusScheduler());
+        journal[0].setDirectory(folder.getRoot().getPath());
+        journal[0].setSnapshotIntervalSeconds(0);
+        journal[0].start();
+        return persist;
+    }
+
+    private Offer offer(String product, long minorPrice) {
+        return Offer.builder()
+                .product(product)
+                .description("journal test")
+                .currencyCode(GBP)
+                .startMillis(System.currentTimeMillis())
+                .endMillis(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1))
+                .status(OfferStatus.ACTIVE)
+                .minorPrice(minorPrice)
+                .build();
+    }
+
+    @Test
+    public void recoversFromSnapshotAndLog() throws Exception {
+        OfferJournal[] journal = new OfferJournal[1];
+        PersistOffer persist = open(journal);
+        persist.addOrReplaceOffer(offer("journal 1", 110));
+        persist.addOrReplaceOffer(offer("journal 2", 220));
+        persist.addOrReplaceOffer(offer("journal 3", 330));
+        persist.removeByName("journal 2");
+        journal[0].snapshot();
+        persist.updateOffer("journal 1", o -> o.withStatus(OfferStatus.CANCELED));
+        persist.removeByName("journal 3");
+        Offer last = persist.addOrReplaceOffer(offer("journal 4", 440));
+        journal[0].stop();
+
+        persist = open(journal);
+        assertEquals(OfferStatus.CANCELED, persist.getOffer("journal 1").getStatus());
+        assertNull(persist.getOffer("journal 2"));
+        assertNull(persist.getOffer("journal 3"));
+        assertEquals(440, persist.getOffer("journal 4").getMinorPrice());
+        assertEquals(last.getVersion(), persist.getOffer("journal 4").getVersion());
+        assertEquals(2, persist.findOffers(null, GBP, PersistOffer.ANY_END).size());
+        assertTrue(persist.addOrReplaceOffer(offer("journal 5", 550)).getVersion() > last.getVersion());
+        journal[0].stop();
+    }
+
+    @Test
+    public void commitsBatchAtOnce() throws Exception {
+        OfferJournal[] journal = new OfferJournal[1];
+        PersistOffer persist = open(journal);
+        persist.addOrReplaceOffer(offer("journal 0", 100));
+        List<OfferOperation> operations = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++)
+            operations.add(OfferOperation.create(offer("journal batch " + i, i)));
+        operations.add(OfferOperation.update("journal 0", o -> o.withStatus(OfferStatus.CANCELED)));
+        operations.add(OfferOperation.delete("journal 0"));
+        long before = journal[0].commits();
+        List<OfferWrite> writes = persist.applyBatch(operations);
+        assertEquals(1, journal[0].commits() - before);
+        assertEquals(OfferOutcome.DELETED, writes.get(1001).getOutcome());
+        journal[0].stop();
+
+        persist = open(journal);
+        assertEquals(1000, persist.findOffers(null, GBP, PersistOffer.ANY_END).size());
+        assertEquals(500, persist.getOffer("journal batch 500").getMinorPrice());
+        assertNull(persist.getOffer("journal 0"));
+        journal[0].stop();
+    }
+
+    @Test
+    public void cutsTornEndOfLog() throws Exception {
+        OfferJournal[] journal = new OfferJournal[1];
+        PersistOffer persist = open(journal);
+        persist.addOrReplaceOffer(offer("journal 1", 110));
+        persist.addOrReplaceOffer(offer("journal 2", 220));
+        journal[0].stop();
+
+        Path segment = segments().get(segments().size() - 1);
+        long size = Files.size(segment);
+        Files.write(segment, new byte[]{0, 0, 0, 90, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        persist = open(journal);
+        assertEquals(110, persist.getOffer("journal 1").getMinorPrice());
+        assertEquals(220, persist.getOffer("journal 2").getMinorPrice());
+        assertEquals(size, Files.size(segment));
+        journal[0].stop();
+    }
+
+    @Test
+    public void keepsVersionsOfRemovalsInSnapshot() throws Exception {
+        OfferJournal[] journal = new OfferJournal[1];
+        PersistOffer persist = open(journal);
+        persist.addOrReplaceOffer(offer("journal 1", 110));
+        persist.addOrReplaceOffer(offer("journal 2", 220));
+        long last = persist.addOrReplaceOffer(offer("journal 3", 330)).getVersion();
+        persist.removeByName("journal 2");
+        persist.removeByName("journal 3");
+        journal[0].snapshot();
+        journal[0].stop();
+
+        persist = open(journal);
+        assertEquals(last + 2, persist.lastVersion());
+        assertTrue(persist.addOrReplaceOffer(offer("journal 4", 440)).getVersion() > last + 2);
+        journal[0].stop();
+    }
+
+    @Test
+    public void keepsEpochOfStore() throws Exception {
+        OfferJournal[] journal = new OfferJournal[1];
+        PersistOffer persist = open(journal);
+        long epoch = persist.epoch();
+        persist.addOrReplaceOffer(offer("journal 1", 110));
+        journal[0].stop();
+
+        persist = open(journal);
+        assertEquals(epoch, persist.epoch());
+
+        // the store of a replica takes the epoch of its primary: the offers of the former epoch go
+        persist.replicateEpoch(epoch + 1);
+        persist.replicate("journal 2", offer("journal 2", 220).withVersion(1, System.currentTimeMillis()), 1);
+        journal[0].stop();
+
+        persist = open(journal);
+        assertEquals(epoch + 1, persist.epoch());
+        assertNull(persist.getOffer("journal 1"));
+        assertEquals(220, persist.getOffer("journal 2").getMinorPrice());
+        journal[0].stop();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files.filter(p -> p.toString().endsWith(".wal")).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.worldpay.offer.api.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Currency;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OfferReplicationTest {
+
+    private PersistOffer primaryStore;
+    private OfferReplicationPrimary primary;
+    private PersistOffer replicaStore;
+    private OfferReplica replica;
+
+    @Before
+    public void setUp() throws Exception {
+        primaryStore = new InMemoryPersistOffer();
+        primary = new OfferReplicationPrimary();
+        primary.setPersist(primaryStore);
+        primary.setPort(0);
+        primary.setLogSize(100);
+        primary.start();
+        replicaStore = new InMemoryPersistOffer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (replica != null)
+            replica.stop();
+        primary.stop();
+    }
+
+    private void startReplica() {
+        replica = new OfferReplica();
+        replica.setPersist(replicaStore);
+        replica.setPrimary("localhost:" + primary.getPort());
+        replica.start();
+    }
+
+    private static Offer offer(String product, long minorPrice) {
+        return Offer.builder()
+                .product(product)
+                .description("replication test")
+                .currencyCode(CurrencyCodes.code(Currency.getInstance("GBP")))
+                .startMillis(System.currentTimeMillis())
+                .endMillis(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1))
+                .status(OfferStatus.ACTIVE)
+                .minorPrice(minorPrice)
+                .build();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Replica didn't catch up", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitCaughtUp() throws InterruptedException {
+        await(() -> replica.isConnected() && replica.getAppliedSequence() == primary.sequence());
+    }
+
+    @Test
+    public void followsSnapshotThenChanges() throws Exception {
+        primaryStore.addOrReplaceOffer(offer("replication 1", 110));
+        primaryStore.addOrReplaceOffer(offer("replication 2", 220));
+        // left over from an earlier run, not on the primary anymore
+        replicaStore.addOrReplaceOffer(offer("replication stale", 990));
+
+        startReplica();
+        await(() -> replica.getSnapshots() == 1);
+        assertEquals(2, replicaStore.getOffersAfter(null, 10).size());
+        assertNull(replicaStore.getOffer("replication stale"));
+        assertEquals(primaryStore.getOffer("replication 1").getVersion(), replicaStore.getOffer("replication 1").getVersion());
+
+        primaryStore.updateOffer("replication 1", old -> old.toBuilder().minorPrice(111).build());
+        primaryStore.addOrReplaceOffer(offer("replication 3", 330));
+        primaryStore.removeByName("replication 2");
+        awaitCaughtUp();
+        Offer updated = replicaStore.getOffer("replication 1");
+        assertEquals(111, updated.getMinorPrice());
+        assertEquals(primaryStore.getOffer("replication 1").getVersion(), updated.getVersion());
+        assertEquals(330, replicaStore.getOffer("replication 3").getMinorPrice());
+        assertNull(replicaStore.getOffer("replication 2"));
+        assertEquals(0, replica.lag());
+    }
+
+    @Test
+    public void resumesFromLogAfterReconnect() throws Exception {
+        startReplica();
+        await(() -> replica.getSnapshots() == 1);
+        primaryStore.addOrReplaceOffer(offer("replication 4", 440));
+        awaitCaughtUp();
+
+        replica.disconnect();
+        primaryStore.addOrReplaceOffer(offer("replication 5", 550));
+        primaryStore.updateOffer("replication 4", old -> old.withStatus(OfferStatus.CANCELED));
+        awaitCaughtUp();
+        assertEquals(1, replica.getSnapshots());
+        assertEquals(550, replicaStore.getOffer("replication 5").getMinorPrice());
+        assertEquals(OfferStatus.CANCELED, replicaStore.getOffer("replication 4").getStatus());
+    }
+
+    @Test
+    public void replacesStoreOfRestartedPrimary() throws Exception {
+        for (int price = 100; price < 110; price++)
+            primaryStore.addOrReplaceOffer(offer("replication 8", price));
+        primaryStore.addOrReplaceOffer(offer("replication 9", 990));
+        startReplica();
+        await(() -> replica.getSnapshots() == 1);
+        assertEquals(109, replicaStore.getOffer("replication 8").getMinorPrice());
+
+        // started over without a journal: versions are given again from 1
+        int port = primary.getPort();
+        primary.stop();
+        primaryStore = new InMemoryPersistOffer();
+        primaryStore.addOrReplaceOffer(offer("replication 8", 999));
+        primary = new OfferReplicationPrimary();
+        primary.setPersist(primaryStore);
+        primary.setPort(port);
+        primary.setLogSize(100);
+        // connections to the former primary may still hold the port for a moment
+        for (long deadline = System.currentTimeMillis() + 10_000; ; Thread.sleep(50)) {
+            try {
+                primary.start();
+                break;
+            } catch (BindException e) {
+                assertTrue("Port of primary not released", System.currentTimeMillis() < deadline);
+            }
+        }
+
+        await(() -> replica.getSnapshots() == 2);
+        assertEquals(999, replicaStore.getOffer("replication 8").getMinorPrice());
+        assertNull(replicaStore.getOffer("replication 9"));
+        assertEquals(primaryStore.epoch(), replicaStore.epoch());
+
+        primaryStore.addOrReplaceOffer(offer("replication 9", 991));
+        awaitCaughtUp();
+        assertEquals(991, replicaStore.getOffer("replication 9").getMinorPrice());
+    }
+
+    @Test
+    public void removalIsNotUndoneByOlderChange() throws Exception {
+        // listeners of the primary run outside of its locks, so a removal may be logged before an older change
+        try (ServerSocket fake = new ServerSocket(0)) {
+            Thread sender = new Thread(() -> {
+                try (Socket socket = fake.accept()) {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    in.readInt();
+                    in.readLong();
+                    in.readLong();
+                    out.writeInt(OfferReplicationProtocol.MAGIC);
+                    out.writeLong(1);
+                    out.writeLong(replicaStore.epoch());
+                    Offer offer = offer("replication 6", 660);
+                    record(out, 1, "replication 6", offer.withVersion(4, System.currentTimeMillis()), 4);
+                    record(out, 2, "replication 6", null, 6);
+                    record(out, 3, "replication 6", offer.withVersion(5, System.currentTimeMillis()), 5);
+                    record(out, 4, "replication 7", offer("replication 7", 770).withVersion(7, System.currentTimeMillis()), 7);
+                    out.flush();
+                    // hold the connection until the replica stops
+                    in.read();
+                } catch (IOException e) {
+                    // replica gone
+                }
+            });
+            sender.start();
+            replica = new OfferReplica();
+            replica.setPersist(replicaStore);
+            replica.setPrimary("localhost:" + fake.getLocalPort());
+            replica.start();
+
+            await(() -> replica.getAppliedSequence() == 4);
+            assertNull(replicaStore.getOffer("replication 6"));
+            assertEquals(770, replicaStore.getOffer("replication 7").getMinorPrice());
+
+            assertTrue(replicaStore.replicate("replication 6", offer("replication 6", 661).withVersion(8, System.currentTimeMillis()), 8));
+            assertEquals(661, replicaStore.getOffer("replication 6").getMinorPrice());
+            replica.stop();
+            replica = null;
+            sender.join(10_000);
+        }
+    }
+
+    private static void record(DataOutputStream out, long sequence, String product, Offer offer, long version) throws IOException {
+        OfferReplicationProtocol.writeFrame(out, OfferReplicationProtocol.RECORD, sequence, System.currentTimeMillis(),
+                OfferRecordCodec.encode(product, offer, version).array());
+    }
+}
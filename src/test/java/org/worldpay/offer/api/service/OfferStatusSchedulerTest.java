@@ -0,0 +1,111 @@
+package org.worldpay.offer.api.service;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.util.Currency;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OfferStatusSchedulerTest {
+
+    private PersistOffer persist;
+    private OfferStatusScheduler scheduler;
+    private SimpleMeterRegistry registry;
+
+    @Before
+    public void setUp() {
+        persist = new InMemoryPersistOffer();
+        scheduler = new OfferStatusScheduler();
+        scheduler.setPersist(persist);
+        registry = new SimpleMeterRegistry();
+        scheduler.setMeterRegistry(registry);
+        scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+        persist.removeByName("scheduler expire");
+        persist.removeByName("scheduler activate");
+    }
+
+    private Offer offer(String product, OfferStatus status, long start, long end) {
+        return Offer.builder()
+                .product(product)
+                .description(product)
+                .currencyCode(CurrencyCodes.code(Currency.getInstance("GBP")))
+                .startMillis(start)
+                .endMillis(end)
+                .status(status)
+                .minorPrice(100)
+                .build();
+    }
+
+    @Test
+    public void activeOfferExpires() throws Exception {
+        Offer offer = persist.addOrReplaceOffer(offer("scheduler expire", OfferStatus.ACTIVE, System.currentTimeMillis(), System.currentTimeMillis() + 200));
+        scheduler.schedule(offer);
+
+        assertEquals(OfferStatus.ACTIVE, persist.getOffer("scheduler expire").getStatus());
+        Thread.sleep(600);
+        assertEquals(OfferStatus.EXPIRED, persist.getOffer("scheduler expire").getStatus());
+        Timer lag = registry.get("offer.expiry.lag").timer();
+        assertEquals(1, lag.count());
+        assertTrue(lag.max(TimeUnit.MILLISECONDS) < 600);
+    }
+
+    @Test
+    public void inactiveOfferActivatesThenExpires() throws Exception {
+        long now = System.currentTimeMillis();
+        Offer offer = persist.addOrReplaceOffer(offer("scheduler activate", OfferStatus.INACTIVE, now + 200, now + 700));
+        scheduler.schedule(offer);
+
+        Thread.sleep(450);
+        assertEquals(OfferStatus.ACTIVE, persist.getOffer("scheduler activate").getStatus());
+        Thread.sleep(600);
+        assertEquals(OfferStatus.EXPIRED, persist.getOffer("scheduler activate").getStatus());
+    }
+
+    @Test
+    public void replacedOfferIsNotTouched() throws Exception {
+        Offer offer = persist.addOrReplaceOffer(offer("scheduler expire", OfferStatus.ACTIVE, System.currentTimeMillis(), System.currentTimeMillis() + 100));
+        scheduler.schedule(offer);
+        Offer replacement = offer("scheduler expire", OfferStatus.CANCELED, System.currentTimeMillis(), System.currentTimeMillis() + 100);
+        persist.addOrReplaceOffer(replacement);
+
+        Thread.sleep(400);
+        assertEquals(OfferStatus.CANCELED, persist.getOffer("scheduler expire").getStatus());
+        assertEquals(OfferStatus.ACTIVE, offer.getStatus());
+    }
+
+    @Test
+    public void keepsOneEntryPerProduct() {
+        long now = System.currentTimeMillis();
+        Offer offer = persist.addOrReplaceOffer(offer("scheduler expire", OfferStatus.ACTIVE, now, now + 3_600_000));
+        scheduler.schedule(offer);
+        for (int i = 0; i < 100; i++) {
+            offer = persist.updateOffer("scheduler expire", o -> o.toBuilder().minorPrice(o.getMinorPrice() + 1).build());
+            scheduler.schedule(offer);
+        }
+        assertEquals(1, scheduler.pending());
+
+        // a late call for an older version doesn't replace the newer one
+        scheduler.schedule(offer.withVersion(offer.getVersion() - 1, now));
+        assertEquals(1, scheduler.pending());
+        scheduler.cancel(persist, "scheduler expire");
+        assertEquals(1, scheduler.pending());
+
+        persist.removeByName("scheduler expire");
+        scheduler.cancel(persist, "scheduler expire");
+        assertEquals(0, scheduler.pending());
+    }
+}
@@ -0,0 +1,326 @@
+package org.worldpay.offer.api.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.utils.OfferStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class PersistOfferTest {
+
+    private static final String PRODUCT = "persist contended";
+    private static final int GBP = CurrencyCodes.code(Currency.getInstance("GBP"));
+    private static final int EUR = CurrencyCodes.code(Currency.getInstance("EUR"));
+    private static final int USD = CurrencyCodes.code(Currency.getInstance("USD"));
+    private static final long HOUR = 3_600_000;
+    private final PersistOffer persist;
+
+    public PersistOfferTest(String name, Supplier<PersistOffer> store) {
+        persist = store.get();
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> stores() {
+        Supplier<PersistOffer> memory = InMemoryPersistOffer::new;
+        Supplier<PersistOffer> offHeap = () -> {
+            OffHeapPersistOffer store = new OffHeapPersistOffer();
+            store.setCapacity(1000);
+            store.allocate();
+            return store;
+        };
+        return Arrays.asList(new Object[]{"memory", memory}, new Object[]{"offheap", offHeap});
+    }
+
+    @After
+    public void tearDown() {
+        persist.removeByName(PRODUCT);
+        for (int i = 1; i <= 5; i++)
+            persist.removeByName("page " + i);
+    }
+
+    private Offer offer(String description, OfferStatus status) {
+        return offer(PRODUCT, description, status);
+    }
+
+    private Offer offer(String product, String description, OfferStatus status) {
+        return Offer.builder()
+                .product(product)
+                .description(description)
+                .currencyCode(GBP)
+                .startMillis(System.currentTimeMillis())
+                .endMillis(System.currentTimeMillis() + HOUR)
+                .status(status)
+                .minorPrice(100)
+                .build();
+    }
+
+    @Test
+    public void createReplacesOfferWhichIsNotActive() {
+        persist.addOrReplaceOffer(offer("old", OfferStatus.CANCELED));
+
+        OfferWrite created = persist.addIfNoActiveOffer(offer("new", OfferStatus.ACTIVE));
+        assertEquals(OfferOutcome.CREATED, created.getOutcome());
+        assertEquals(created.getOffer().getVersion(), persist.getOffer(PRODUCT).getVersion());
+        assertEquals("new", persist.getOffer(PRODUCT).getDescription());
+        OfferWrite conflict = persist.addIfNoActiveOffer(offer("newer", OfferStatus.ACTIVE));
+        assertEquals(OfferOutcome.CONFLICT, conflict.getOutcome());
+        assertNull(conflict.getOffer());
+        assertEquals("new", persist.getOffer(PRODUCT).getDescription());
+    }
+
+    @Test
+    public void writesSwapInNewVersions() {
+        Offer stored = persist.addOrReplaceOffer(offer("old", OfferStatus.ACTIVE));
+        Offer updated = persist.updateOffer(PRODUCT, o -> o.toBuilder().description("new").build());
+
+        assertEquals("old", stored.getDescription());
+        assertEquals("new", updated.getDescription());
+        assertTrue(updated.getVersion() > stored.getVersion());
+        assertEquals(updated.getVersion(), persist.getOffer(PRODUCT).getVersion());
+
+        assertNull(persist.transitionStatus(stored, OfferStatus.EXPIRED));
+        Offer expired = persist.transitionStatus(updated, OfferStatus.EXPIRED);
+        assertEquals(OfferStatus.EXPIRED, expired.getStatus());
+        assertTrue(expired.getVersion() > updated.getVersion());
+    }
+
+    @Test
+    public void changesMoveModificationCounter() {
+        long before = persist.modifications();
+        long start = System.currentTimeMillis();
+        Offer stored = persist.addOrReplaceOffer(offer("old", OfferStatus.CANCELED));
+        assertEquals(before + 1, persist.modifications());
+        assertTrue(stored.getModifiedMillis() >= start);
+        assertEquals(stored.getModifiedMillis(), persist.getOffer(PRODUCT).getModifiedMillis());
+        assertTrue(persist.lastModifiedMillis() >= stored.getModifiedMillis());
+
+        persist.updateOffer(PRODUCT, o -> o);
+        assertEquals(before + 1, persist.modifications());
+        persist.removeByName(PRODUCT);
+        assertEquals(before + 2, persist.modifications());
+        persist.removeByName(PRODUCT);
+        assertEquals(before + 2, persist.modifications());
+    }
+
+    @Test
+    public void removalsKeepOtherOffersReachable() {
+        for (int i = 0; i < 300; i++)
+            persist.addOrReplaceOffer(offer("churn " + i, "d" + i, OfferStatus.ACTIVE));
+        for (int i = 0; i < 300; i += 2)
+            persist.removeByName("churn " + i);
+
+        for (int i = 0; i < 300; i++) {
+            Offer offer = persist.getOffer("churn " + i);
+            if (i % 2 == 0) assertNull(offer);
+            else assertEquals("d" + i, offer.getDescription());
+        }
+        int count = 0;
+        for (Iterator<Offer> offers = persist.getOffers(); offers.hasNext(); offers.next())
+            count++;
+        assertEquals(150, count);
+        for (int i = 1; i < 300; i += 2)
+            persist.removeByName("churn " + i);
+    }
+
+    @Test
+    public void findByIndexes() {
+        persist.addOrReplaceOffer(offer("page 1", "eur soon", OfferStatus.ACTIVE).toBuilder()
+                .currencyCode(EUR).endMillis(System.currentTimeMillis() + HOUR / 2).build());
+        persist.addOrReplaceOffer(offer("page 2", "eur later", OfferStatus.ACTIVE).toBuilder()
+                .currencyCode(EUR).endMillis(System.currentTimeMillis() + 72 * HOUR).build());
+        persist.addOrReplaceOffer(offer("page 3", "eur canceled", OfferStatus.CANCELED).toBuilder()
+                .currencyCode(EUR).endMillis(System.currentTimeMillis() + HOUR / 2).build());
+        persist.addOrReplaceOffer(offer("page 4", "gbp soon", OfferStatus.ACTIVE).toBuilder()
+                .endMillis(System.currentTimeMillis() + HOUR / 2).build());
+        long inAnHour = System.currentTimeMillis() + HOUR;
+
+        List<Offer> found = persist.findOffers(OfferStatus.ACTIVE, EUR, inAnHour);
+        assertEquals(1, found.size());
+        assertEquals("page 1", found.get(0).getProduct());
+
+        assertEquals(2, persist.findOffers(null, EUR, inAnHour).size());
+        assertEquals(3, persist.findOffers(null, PersistOffer.ANY_CURRENCY, inAnHour).size());
+        assertEquals(3, persist.findOffers(null, EUR, PersistOffer.ANY_END).size());
+
+        persist.updateOffer("page 1", o -> o.withStatus(OfferStatus.CANCELED));
+        persist.removeByName("page 4");
+        assertEquals(0, persist.findOffers(OfferStatus.ACTIVE, EUR, inAnHour).size());
+        assertEquals(2, persist.findOffers(OfferStatus.CANCELED, EUR, PersistOffer.ANY_END).size());
+        assertEquals(0, persist.findOffers(OfferStatus.ACTIVE, PersistOffer.ANY_CURRENCY, inAnHour).size());
+    }
+
+    @Test
+    public void countsByStatus() {
+        persist.addOrReplaceOffer(offer("page 1", "active", OfferStatus.ACTIVE));
+        persist.addOrReplaceOffer(offer("page 2", "active", OfferStatus.ACTIVE));
+        persist.addOrReplaceOffer(offer("page 3", "canceled", OfferStatus.CANCELED));
+        assertEquals(2, persist.countOffers(OfferStatus.ACTIVE));
+        assertEquals(1, persist.countOffers(OfferStatus.CANCELED));
+
+        persist.updateOffer("page 1", o -> o.withStatus(OfferStatus.CANCELED));
+        persist.removeByName("page 2");
+        assertEquals(0, persist.countOffers(OfferStatus.ACTIVE));
+        assertEquals(2, persist.countOffers(OfferStatus.CANCELED));
+        assertEquals(0, persist.countOffers(OfferStatus.EXPIRED));
+    }
+
+    @Test
+    public void findByPriceRange() {
+        long[] prices = {6000, 1000, 2550, 5000, 999};
+        for (int i = 0; i < prices.length; i++)
+            persist.addOrReplaceOffer(offer("page " + (i + 1), "priced", OfferStatus.ACTIVE).toBuilder()
+                    .minorPrice(prices[i]).build());
+        persist.addOrReplaceOffer(offer("priced in eur", OfferStatus.ACTIVE).toBuilder()
+                .currencyCode(EUR).minorPrice(2000).build());
+
+        List<Offer> found = persist.findOffersByPrice(GBP, 1000, 5000, null, PersistOffer.ANY_END);
+        assertEquals(3, found.size());
+        assertEquals("page 2", found.get(0).getProduct());
+        assertEquals("page 3", found.get(1).getProduct());
+        assertEquals("page 4", found.get(2).getProduct());
+
+        persist.updateOffer("page 3", o -> o.toBuilder().minorPrice(7000).build());
+        found = persist.findOffersByPrice(GBP, 5000, Long.MAX_VALUE, null, PersistOffer.ANY_END);
+        assertEquals(3, found.size());
+        assertEquals("page 4", found.get(0).getProduct());
+        assertEquals("page 1", found.get(1).getProduct());
+        assertEquals("page 3", found.get(2).getProduct());
+
+        assertEquals(0, persist.findOffersByPrice(USD, Long.MIN_VALUE, Long.MAX_VALUE, null, PersistOffer.ANY_END).size());
+    }
+
+    @Test
+    public void searchByPrefix() {
+        for (int i = 5; i >= 1; i--)
+            persist.addOrReplaceOffer(offer("page " + i, "page", OfferStatus.ACTIVE));
+        persist.addOrReplaceOffer(offer("pag", "prefix", OfferStatus.ACTIVE));
+        persist.addOrReplaceOffer(offer("pagf", "prefix", OfferStatus.ACTIVE));
+
+        List<Offer> found = persist.findByProductPrefix("page", 3);
+        assertEquals(3, found.size());
+        assertEquals("page 1", found.get(0).getProduct());
+        assertEquals("page 3", found.get(2).getProduct());
+        assertEquals(5, persist.findByProductPrefix("page", 10).size());
+        assertEquals(7, persist.findByProductPrefix("pag", 10).size());
+        assertEquals(0, persist.findByProductPrefix("Page", 10).size());
+    }
+
+    @Test
+    public void pagesAreOrderedByProduct() {
+        for (int i = 5; i >= 1; i--)
+            persist.addOrReplaceOffer(offer("page " + i, "page", OfferStatus.ACTIVE));
+        persist.removeByName("page 3");
+
+        List<Offer> first = persist.getOffersAfter("page ", 2);
+        assertEquals(2, first.size());
+        assertEquals("page 1", first.get(0).getProduct());
+        assertEquals("page 2", first.get(1).getProduct());
+
+        List<Offer> second = persist.getOffersAfter("page 2", 2);
+        assertEquals(2, second.size());
+        assertEquals("page 4", second.get(0).getProduct());
+        assertEquals("page 5", second.get(1).getProduct());
+    }
+
+    @Test
+    public void onlyOneConcurrentCreateWins() throws Exception {
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<OfferOutcome>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Offer offer = offer("thread " + i, OfferStatus.ACTIVE);
+            results.add(executor.submit(() -> {
+                go.await();
+                return persist.addIfNoActiveOffer(offer).getOutcome();
+            }));
+        }
+        go.countDown();
+
+        String winner = null;
+        int created = 0;
+        for (int i = 0; i < threads; i++) {
+            if (results.get(i).get().equals(OfferOutcome.CREATED)) {
+                created++;
+                winner = "thread " + i;
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(1, created);
+        assertEquals(winner, persist.getOffer(PRODUCT).getDescription());
+    }
+
+    @Test
+    public void versionedWritesNeedCurrentVersion() {
+        Offer stored = persist.addOrReplaceOffer(offer("old", OfferStatus.ACTIVE));
+
+        assertEquals(OfferOutcome.PRECONDITION_FAILED,
+                persist.updateIfVersion(PRODUCT, stored.getVersion() - 1, o -> o.toBuilder().description("stale").build()).getOutcome());
+        assertEquals("old", persist.getOffer(PRODUCT).getDescription());
+        OfferWrite update = persist.updateIfVersion(PRODUCT, stored.getVersion(), o -> o.withStatus(OfferStatus.CANCELED));
+        assertEquals(OfferOutcome.UPDATED, update.getOutcome());
+        Offer canceled = persist.getOffer(PRODUCT);
+        assertEquals(canceled.getVersion(), update.getOffer().getVersion());
+        assertTrue(canceled.getVersion() > stored.getVersion());
+
+        assertEquals(OfferOutcome.PRECONDITION_FAILED, persist.removeIfVersion(PRODUCT, stored.getVersion()));
+        assertEquals(OfferOutcome.DELETED, persist.removeIfVersion(PRODUCT, canceled.getVersion()));
+        assertNull(persist.getOffer(PRODUCT));
+        assertEquals(OfferOutcome.PRECONDITION_FAILED, persist.removeIfVersion(PRODUCT, canceled.getVersion()));
+        assertEquals(OfferOutcome.NOT_FOUND, persist.updateIfVersion(PRODUCT, PersistOffer.ANY_VERSION, o -> o).getOutcome());
+    }
+
+    @Test
+    public void concurrentVersionedUpdatesLoseNoChange() throws Exception {
+        int threads = 8;
+        int increments = 500;
+        persist.addOrReplaceOffer(offer("counter", OfferStatus.ACTIVE).toBuilder().minorPrice(0).build());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                go.await();
+                int retries = 0;
+                for (int n = 0; n < increments; n++) {
+                    // read, change, write back only if nobody wrote in between
+                    while (true) {
+                        Offer read = persist.getOffer(PRODUCT);
+                        long price = read.getMinorPrice() + 1;
+                        if (persist.updateIfVersion(PRODUCT, read.getVersion(),
+                                o -> o.toBuilder().minorPrice(price).build()).getOutcome() == OfferOutcome.UPDATED)
+                            break;
+                        retries++;
+                    }
+                }
+                return retries;
+            }));
+        }
+        go.countDown();
+        for (Future<Integer> result : results)
+            result.get();
+        executor.shutdown();
+
+        assertEquals(threads * increments, persist.getOffer(PRODUCT).getMinorPrice());
+    }
+}
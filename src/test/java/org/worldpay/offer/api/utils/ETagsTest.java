@@ -0,0 +1,41 @@
+package org.worldpay.offer.api.utils;
+
+import org.junit.Test;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.PersistOffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ETagsTest {
+
+    private final Offer offer = Offer.builder().product("etag").build().withVersion(1234, 0);
+
+    @Test
+    public void offerTagsAreTheEpochAndVersion() {
+        // what another node serving the same offer (primary or replica) sends
+        assertEquals("\"" + Long.toString(99, 36) + "." + Long.toString(1234, 36) + "\"", ETags.offer(99, 1234));
+        // a store starting over gives the version again, under another epoch
+        assertNotEquals(ETags.offer(99, 1234), ETags.offer(100, 1234));
+    }
+
+    @Test
+    public void anyListedTagOrStarMatchesTheCurrentVersion() {
+        assertEquals(PersistOffer.ANY_VERSION, ETags.version(null, 99, offer));
+        assertEquals(1234, ETags.version(ETags.offer(99, 1234), 99, offer));
+        assertEquals(1234, ETags.version(ETags.offer(99, 1233) + ", " + ETags.offer(99, 1234), 99, offer));
+        assertEquals(1234, ETags.version("W/\"x\", " + ETags.offer(99, 1234), 99, offer));
+        assertEquals(1234, ETags.version(" * ", 99, offer));
+    }
+
+    @Test
+    public void otherTagsMatchNoVersion() {
+        assertEquals(ETags.UNKNOWN_VERSION, ETags.version(ETags.offer(100, 1234), 99, offer));
+        assertEquals(ETags.UNKNOWN_VERSION, ETags.version(ETags.offer(99, 1233), 99, offer));
+        assertEquals(ETags.UNKNOWN_VERSION, ETags.version(ETags.list(1234), 99, offer));
+        assertEquals(ETags.UNKNOWN_VERSION, ETags.version("W/" + ETags.offer(99, 1234), 99, offer));
+        assertEquals(ETags.UNKNOWN_VERSION, ETags.version("\"\"", 99, offer));
+        // no offer matches, not even *
+        assertEquals(ETags.UNKNOWN_VERSION, ETags.version("*", 99, null));
+    }
+}
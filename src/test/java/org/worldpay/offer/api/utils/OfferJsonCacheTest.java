@@ -0,0 +1,80 @@
+package org.worldpay.offer.api.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.worldpay.offer.api.data.CurrencyCodes;
+import org.worldpay.offer.api.data.Offer;
+import org.worldpay.offer.api.service.InMemoryPersistOffer;
+import org.worldpay.offer.api.service.PersistOffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Currency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class OfferJsonCacheTest {
+
+    private ObjectMapper objectMapper;
+    private DtoMapper mapper;
+    private PersistOffer persist;
+    private OfferJsonCache cache;
+
+    @Before
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        mapper = new DtoMapper();
+        persist = new InMemoryPersistOffer();
+        cache = new OfferJsonCache();
+        cache.setObjectMapper(objectMapper);
+        cache.setMapper(mapper);
+        cache.setPersist(persist);
+        cache.start();
+    }
+
+    private Offer offer(String product, String description, String currency, long minorPrice) {
+        return Offer.builder()
+                .product(product)
+                .description(description)
+                .currencyCode(CurrencyCodes.code(Currency.getInstance(currency)))
+                .startMillis(1_500_000_000_000L)
+                .endMillis(1_600_000_000_123L)
+                .status(OfferStatus.ACTIVE)
+                .minorPrice(minorPrice)
+                .build();
+    }
+
+    private void assertSameJsonAsDto(Offer offer) throws Exception {
+        assertEquals(objectMapper.writeValueAsString(mapper.offer2Dto(offer)),
+                new String(cache.json(offer), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void writesSameJsonAsOfferDto() throws Exception {
+        assertSameJsonAsDto(offer("json \"quoted\" é", "line\nbreak", "GBP", 1999));
+        assertSameJsonAsDto(offer("json no description", null, "GBP", 5));
+        assertSameJsonAsDto(offer("json yen", "yen", "JPY", 1200));
+        assertSameJsonAsDto(offer("json dinar", "dinar", "BHD", 1));
+    }
+
+    @Test
+    public void keepsJsonOfStoredVersion() {
+        Offer stored = persist.addOrReplaceOffer(offer("json kept", "first", "GBP", 100));
+        byte[] json = cache.json(stored);
+        assertSame(json, cache.json(persist.getOffer("json kept")));
+
+        Offer updated = persist.updateOffer("json kept", o -> o.toBuilder().description("second").build());
+        byte[] changed = cache.json(updated);
+        assertNotSame(json, changed);
+        assertSame(changed, cache.json(persist.getOffer("json kept")));
+        assertEquals(1, cache.size());
+
+        persist.removeByName("json kept");
+        assertEquals(0, cache.size());
+        cache.json(stored);
+        assertEquals(0, cache.size());
+    }
+}
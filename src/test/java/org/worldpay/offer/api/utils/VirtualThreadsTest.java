@@ -0,0 +1,35 @@
+package org.worldpay.offer.api.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void runsTasksOnVirtualThreadsOrTellsWhy() throws Exception {
+        assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+        if (!VirtualThreads.available()) {
+            try {
+                VirtualThreads.newPerTaskExecutor("test-");
+                fail("Virtual threads are not available on " + System.getProperty("java.version"));
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains("JDK 21"));
+            }
+            return;
+        }
+
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor("test-");
+        try {
+            assertTrue(executor.submit(() -> VirtualThreads.isVirtual(Thread.currentThread())).get(10, TimeUnit.SECONDS));
+            assertTrue(executor.submit(() -> Thread.currentThread().getName()).get(10, TimeUnit.SECONDS).startsWith("test-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}